@@ -21,6 +21,7 @@ import simpledb.Predicate.Op;
 public class BTreeFile implements DbFile {
 
 	private final File f;
+	private final PageIO io;
 	private final TupleDesc td;
 	private final int tableid ;
 	private int keyField;
@@ -35,6 +36,7 @@ public class BTreeFile implements DbFile {
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
 		this.f = f;
+		this.io = new PageIO(f);
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
@@ -78,14 +80,12 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
-		BufferedInputStream bis = null;
 
 		try {
-			bis = new BufferedInputStream(new FileInputStream(f));
 			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
 				byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
-				int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-				if (retval == -1) {
+				int retval = io.read(0, pageBuf);
+				if (retval == 0) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
 				if (retval < BTreeRootPtrPage.getPageSize()) {
@@ -97,14 +97,14 @@ public class BTreeFile implements DbFile {
 				return p;
 			}
 			else {
-				byte pageBuf[] = new byte[BufferPool.getPageSize()];
-				if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.getPageNumber()-1) * BufferPool.getPageSize()) !=
-						BTreeRootPtrPage.getPageSize() + (id.getPageNumber()-1) * BufferPool.getPageSize()) {
-					throw new IllegalArgumentException(
-							"Unable to seek to correct place in BTreeFile");
+				if(id.pgcateg() == BTreePageId.LEAF) {
+					java.nio.ByteBuffer mapped = io.mappedSlice(offsetOf(id), BufferPool.getPageSize());
+					if (mapped != null)
+						return new BTreeLeafPage(id, mapped, keyField);
 				}
-				int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-				if (retval == -1) {
+				byte pageBuf[] = new byte[BufferPool.getPageSize()];
+				int retval = io.read(offsetOf(id), pageBuf);
+				if (retval == 0) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
 				if (retval < BufferPool.getPageSize()) {
@@ -127,14 +127,27 @@ public class BTreeFile implements DbFile {
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
-		} finally {
-			// Close the file on success or error
-			try {
-				if (bis != null)
-					bis.close();
-			} catch (IOException ioe) {
-				// Ignore failures closing the file
-			}
+		}
+	}
+
+	/**
+	 * Build a page of this file from its serialized bytes.
+	 * 
+	 * @param pid - the id of the page
+	 * @param data - the bytes of the page, as returned by getPageData()
+	 * @return the decoded page
+	 */
+	public Page decodePage(PageId pid, byte[] data) throws IOException {
+		BTreePageId id = (BTreePageId) pid;
+		switch (id.pgcateg()) {
+		case BTreePageId.ROOT_PTR:
+			return new BTreeRootPtrPage(id, data);
+		case BTreePageId.INTERNAL:
+			return new BTreeInternalPage(id, data, keyField);
+		case BTreePageId.LEAF:
+			return new BTreeLeafPage(id, data, keyField);
+		default:
+			return new BTreeHeaderPage(id, data);
 		}
 	}
 
@@ -147,17 +160,36 @@ public class BTreeFile implements DbFile {
 	public void writePage(Page page) throws IOException {
 		BTreePageId id = (BTreePageId) page.getId();
 		
-		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
-		}
-		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().getPageNumber()-1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
-		}
+		io.write(offsetOf(id), page.getPageData());
+	}
+
+	/**
+	 * Write several pages to disk, each run of adjacent pages at once.
+	 * 
+	 * @param pages - the pages to write, sorted by page number
+	 */
+	public void writePages(List<Page> pages) throws IOException {
+		io.writePages(pages, this::offsetOf);
+	}
+
+	// see DbFile.java for javadocs
+	public void setMapped(boolean on) {
+		io.setMapped(on);
+	}
+
+	// see DbFile.java for javadocs
+	public boolean isMapped() {
+		return io.isMapped();
+	}
+
+	/**
+	 * @return the offset of a page in the file; the root pointer page comes
+	 * first, followed by the other pages numbered from 1
+	 */
+	private long offsetOf(PageId pid) {
+		if(((BTreePageId) pid).pgcateg() == BTreePageId.ROOT_PTR)
+			return 0;
+		return BTreeRootPtrPage.getPageSize() + (long) (pid.getPageNumber()-1) * BufferPool.getPageSize();
 	}
 	
 	/**
@@ -165,7 +197,7 @@ public class BTreeFile implements DbFile {
 	 */
 	public int numPages() {
 		// we only ever write full pages
-		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+		return (int) ((io.size() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
 	}
 
 	/**
@@ -1012,15 +1044,11 @@ public class BTreeFile implements DbFile {
 	 */
 	BTreeRootPtrPage getRootPtrPage(TransactionId tid, HashMap<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
 		synchronized(this) {
-			if(f.length() == 0) {
+			if(io.size() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
 				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				io.write(0, Arrays.asList(emptyRootPtrData, emptyLeafData));
 			}
 		}
 
@@ -1076,11 +1104,8 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {		
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				io.write(io.size(), emptyData);
 				emptyPageNo = numPages();
 			}
 		}
@@ -1111,10 +1136,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		io.write(offsetOf(newPageId), BTreePage.createEmptyPageData());
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1232,7 +1254,20 @@ public class BTreeFile implements DbFile {
 	 * @return an iterator for all the tuples in this file
 	 */
 	public DbFileIterator iterator(TransactionId tid) {
-		return new BTreeFileIterator(this, tid);
+		return new BTreeFileIterator(this, tid, null);
+	}
+
+	/**
+	 * Get an iterator for all tuples in this B+ tree file in sorted order
+	 * that reads the leaf pages through a ring of buffer frames; internal
+	 * pages are read through the shared pool.
+	 *
+	 * @param tid - the transaction id
+	 * @param ring - the ring to scan the leaves through, or null
+	 * @return an iterator for all the tuples in this file
+	 */
+	public DbFileIterator iterator(TransactionId tid, BufferRing ring) {
+		return new BTreeFileIterator(this, tid, ring);
 	}
 
 }
@@ -1242,20 +1277,28 @@ public class BTreeFile implements DbFile {
  */
 class BTreeFileIterator extends AbstractDbFileIterator {
 
+	/** leaves are read ahead along the right sibling pointers */
+	static final Prefetcher.Successor NEXT_LEAF =
+			(pid, page) -> ((BTreeLeafPage) page).getRightSiblingId();
+
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
+	Prefetcher.Stream leaves = null;
 
 	TransactionId tid;
 	BTreeFile f;
+	BufferRing ring;
 
 	/**
 	 * Constructor for this iterator
 	 * @param f - the BTreeFile containing the tuples
 	 * @param tid - the transaction id
+	 * @param ring - the ring to read leaves through, or null
 	 */
-	public BTreeFileIterator(BTreeFile f, TransactionId tid) {
+	public BTreeFileIterator(BTreeFile f, TransactionId tid, BufferRing ring) {
 		this.f = f;
 		this.tid = tid;
+		this.ring = ring;
 	}
 
 	/**
@@ -1267,6 +1310,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		BTreePageId root = rootPtr.getRootId();
 		curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
 		it = curp.iterator();
+		leaves = Database.getBufferPool().getPrefetcher().newStream(NEXT_LEAF, ring);
+		leaves.visited(curp.getId(), curp);
 	}
 
 	/**
@@ -1286,8 +1331,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 				curp = null;
 			}
 			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+				curp = (BTreeLeafPage) leaves.getPage(tid, nextp);
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -1314,6 +1358,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		super.close();
 		it = null;
 		curp = null;
+		leaves = null;
 	}
 }
 
@@ -1325,6 +1370,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 
 	Iterator<Tuple> it = null;
 	BTreeLeafPage curp = null;
+	Prefetcher.Stream leaves = null;
 
 	TransactionId tid;
 	BTreeFile f;
@@ -1358,6 +1404,24 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
 		}
 		it = curp.iterator();
+		leaves = Database.getBufferPool().getPrefetcher().newStream(this::nextLeaf);
+		leaves.visited(curp.getId(), curp);
+	}
+
+	/**
+	 * The leaf to read ahead after this one: its right sibling, unless the
+	 * predicate bounds the scan above and the scan ends on this leaf
+	 */
+	private PageId nextLeaf(PageId pid, Page page) {
+		BTreeLeafPage leaf = (BTreeLeafPage) page;
+		Op op = ipred.getOp();
+		if (op == Op.LESS_THAN || op == Op.LESS_THAN_OR_EQ || op == Op.EQUALS) {
+			Iterator<Tuple> last = leaf.reverseIterator();
+			Op bound = op == Op.EQUALS ? Op.LESS_THAN_OR_EQ : op;
+			if (last.hasNext() && !last.next().getField(f.keyField()).compare(bound, ipred.getField()))
+				return null;
+		}
+		return leaf.getRightSiblingId();
 	}
 
 	/**
@@ -1395,8 +1459,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 				return null;
 			}
 			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+				curp = (BTreeLeafPage) leaves.getPage(tid, nextp);
 				it = curp.iterator();
 			}
 		}
@@ -1418,5 +1481,6 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	public void close() {
 		super.close();
 		it = null;
+		leaves = null;
 	}
 }
@@ -25,6 +25,7 @@ public class BTreeHeaderPage implements Page {
 
 	byte[] oldData;
 	private final Byte oldDataLock=new Byte((byte)0);
+	private final PageLatch latch = new PageLatch();
 
 	/**
 	 * Create a BTreeHeaderPage from a set of bytes of data read from disk.
@@ -120,6 +121,10 @@ public class BTreeHeaderPage implements Page {
 		return pid;
 	}
 
+	public PageLatch getLatch() {
+		return latch;
+	}
+
 	/**
 	 * Generates a byte array representing the contents of this page.
 	 * Used to serialize this page to disk.
@@ -232,6 +232,15 @@ public class BTreeInternalPage extends BTreePage {
 	 * @return A byte array correspond to the bytes of this page.
 	 */
 	public byte[] getPageData() {
+		long latched = latch.acquireShared();
+		try {
+			return encode();
+		} finally {
+			latch.releaseShared(latched);
+		}
+	}
+
+	private byte[] encode() {
 		int len = BufferPool.getPageSize();
 		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
 		DataOutputStream dos = new DataOutputStream(baos);
@@ -377,7 +386,12 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param e The entry to delete
 	 */
 	public void deleteKeyAndRightChild(BTreeEntry e) throws DbException {
-		deleteEntry(e, true);
+		long latched = latch.acquireExclusive();
+		try {
+			deleteEntry(e, true);
+		} finally {
+			latch.releaseExclusive(latched);
+		}
 	}
 	
 	/**
@@ -390,7 +404,12 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param e The entry to delete
 	 */
 	public void deleteKeyAndLeftChild(BTreeEntry e) throws DbException {
-		deleteEntry(e, false);
+		long latched = latch.acquireExclusive();
+		try {
+			deleteEntry(e, false);
+		} finally {
+			latch.releaseExclusive(latched);
+		}
 	}
 	
 	/**
@@ -402,6 +421,15 @@ public class BTreeInternalPage extends BTreePage {
 	 *         order on the page
 	 */
 	public void updateEntry(BTreeEntry e) throws DbException {
+		long latched = latch.acquireExclusive();
+		try {
+			updateUnlatched(e);
+		} finally {
+			latch.releaseExclusive(latched);
+		}
+	}
+
+	private void updateUnlatched(BTreeEntry e) throws DbException {
 		RecordId rid = e.getRecordId();
 		if(rid == null)
 			throw new DbException("tried to update entry with null rid");
@@ -441,6 +469,15 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param e The entry to add.
 	 */
 	public void insertEntry(BTreeEntry e) throws DbException {
+		long latched = latch.acquireExclusive();
+		try {
+			insertSorted(e);
+		} finally {
+			latch.releaseExclusive(latched);
+		}
+	}
+
+	private void insertSorted(BTreeEntry e) throws DbException {
 		if (!e.getKey().getType().equals(td.getFieldType(keyField)))
 			throw new DbException("key field type mismatch, in insertEntry");
 
@@ -62,9 +62,23 @@ public class BTreeLeafPage extends BTreePage {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
+		this(id, new ByteArrayInputStream(data), key);
+	}
+
+	/**
+	 * Create a BTreeLeafPage from the page-size bytes remaining in data,
+	 * such as a slice of a memory-mapped file, without copying them first.
+	 *
+	 * @see PageIO#mappedSlice
+	 */
+	public BTreeLeafPage(BTreePageId id, java.nio.ByteBuffer data, int key) throws IOException {
+		this(id, PageIO.inputStream(data), key);
+	}
+
+	private BTreeLeafPage(BTreePageId id, InputStream in, int key) throws IOException {
 		super(id, key);
 		this.numSlots = getMaxTuples();
-		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		DataInputStream dis = new DataInputStream(in);
 
 		// Read the parent and sibling pointers
 		try {
@@ -199,6 +213,15 @@ public class BTreeLeafPage extends BTreePage {
 	 * @return A byte array corresponding to the bytes of this page.
 	 */
 	public byte[] getPageData() {
+		long latched = latch.acquireShared();
+		try {
+			return encode();
+		} finally {
+			latch.releaseShared(latched);
+		}
+	}
+
+	private byte[] encode() {
 		int len = BufferPool.getPageSize();
 		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
 		DataOutputStream dos = new DataOutputStream(baos);
@@ -292,9 +315,14 @@ public class BTreeLeafPage extends BTreePage {
 			throw new DbException("tried to delete tuple with null rid");
 		if((rid.getPageId().getPageNumber() != pid.getPageNumber()) || (rid.getPageId().getTableId() != pid.getTableId()))
 			throw new DbException("tried to delete tuple on invalid page or table");
-		if (!isSlotUsed(rid.getTupleNumber()))
-			throw new DbException("tried to delete null tuple.");
-		markSlotUsed(rid.getTupleNumber(), false);
+		long latched = latch.acquireExclusive();
+		try {
+			if (!isSlotUsed(rid.getTupleNumber()))
+				throw new DbException("tried to delete null tuple.");
+			markSlotUsed(rid.getTupleNumber(), false);
+		} finally {
+			latch.releaseExclusive(latched);
+		}
 		t.setRecordId(null);
 	}
 
@@ -309,6 +337,15 @@ public class BTreeLeafPage extends BTreePage {
 	public void insertTuple(Tuple t) throws DbException {
 		if (!t.getTupleDesc().equals(td))
 			throw new DbException("type mismatch, in addTuple");
+		long latched = latch.acquireExclusive();
+		try {
+			insertSorted(t);
+		} finally {
+			latch.releaseExclusive(latched);
+		}
+	}
+
+	private void insertSorted(Tuple t) throws DbException {
 
 		// find the first empty slot 
 		int emptySlot = -1;
@@ -23,6 +23,7 @@ public abstract class BTreePage implements Page {
 	protected int parent; // parent is always internal node or 0 for root node
 	protected byte[] oldData;
 	protected final Byte oldDataLock=new Byte((byte)0);
+	protected final PageLatch latch = new PageLatch();
 
 	/**
 	 * Create a BTreeInternalPage from a set of bytes of data read from disk.
@@ -128,6 +129,10 @@ public abstract class BTreePage implements Page {
 			return null;
 	}
 
+	public PageLatch getLatch() {
+		return latch;
+	}
+
 	/**
 	 * Returns the number of empty slots on this page.
 	 */
@@ -23,6 +23,7 @@ public class BTreeRootPtrPage implements Page {
 	private int header;
 
 	private byte[] oldData;
+	private final PageLatch latch = new PageLatch();
 
 	/**
 	 * Constructor.
@@ -58,6 +59,10 @@ public class BTreeRootPtrPage implements Page {
 		return pid;
 	}
 
+	public PageLatch getLatch() {
+		return latch;
+	}
+
 	/**
 	 * There is only one instance of a BTreeRootPtrPage per table. This static 
 	 * method is separate from getId() in order to maintain the Page interface
@@ -450,6 +450,7 @@ public class BTreeUtility {
 		FileOutputStream fos = new FileOutputStream(f);
 		fos.write(new byte[0]);
 		fos.close();
+		PageIO.reset(f);
 
 		BTreeFile bf = openBTreeFile(cols, f, keyField);
 
@@ -465,6 +466,7 @@ public class BTreeUtility {
 	public static BTreeFile createEmptyBTreeFile(String path, int cols, int keyField, int pages)
 			throws IOException {
 		File f = new File(path);
+		PageIO.reset(f);
 		BufferedOutputStream bw = new BufferedOutputStream(
 				new FileOutputStream(f, true));
 		byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
@@ -4,6 +4,9 @@ import java.io.*;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -13,6 +16,38 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The pool is split into partitions by page id hash.  Each partition has its
+ * own frame table, replacement policy and lock, so sessions touching
+ * different partitions do not serialize on a single monitor.
+ * <p>
+ * In off-heap mode (see {@link #offHeap}) the bytes of cached pages live in
+ * a {@link FrameArena} of direct memory.  A page is decoded into a Page
+ * object when it is requested and kept on the heap only while it is locked,
+ * dirty or pinned; when the last transaction using it completes, its bytes
+ * are written back to its frame and the object is dropped.
+ * <p>
+ * Pages can be pinned with {@link #pinPage}; pinned pages are never evicted.
+ * <p>
+ * By default the pool is NO-STEAL/FORCE: dirty pages stay in the pool
+ * until their transaction commits, and commit writes them all.  In
+ * STEAL/NO-FORCE mode (system property simpledb.BufferPool.steal, or
+ * {@link #stealNoForce}) commit only logs the transaction's pages, and the
+ * pages are written later by a background cleaner, in page number order,
+ * or when they are evicted.  A dirty page of a running transaction may be
+ * evicted too, once an update record with its current contents is durable
+ * in the log; if the transaction aborts, the log's before images undo it.
+ * <p>
+ * Read-only transactions can run on a snapshot (see {@link #beginSnapshot}):
+ * they take no locks and see the committed state as of their start, with
+ * older page versions kept in a {@link VersionStore}.  While snapshots are
+ * running, a transaction write locking a cached page gets a copy of it, so
+ * that snapshot readers of the old page object never see it change.
+ * <p>
+ * In row locking mode (system property simpledb.BufferPool.rowLocking, or
+ * {@link #rowLocking}) inserts and deletes on heap files lock rows instead
+ * of pages, so transactions can change different rows of a page at once;
+ * see {@link RowLocking}.  It needs the default NO-STEAL/FORCE mode.
  *
  * @Threadsafe, all fields are final
  */
@@ -27,19 +62,360 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
-    private ConcurrentHashMap<PageId, Page> bp;
-    private int maxPagesSize;
-    private LocksCatalog lc;
+    /** Name of the system property giving the off-heap pool size in bytes. */
+    public static final String POOL_BYTES_PROPERTY = "simpledb.BufferPool.bytes";
+
+    /** Name of the system property giving the number of partitions. */
+    public static final String PARTITIONS_PROPERTY = "simpledb.BufferPool.partitions";
+
+    /** Name of the system property selecting STEAL/NO-FORCE mode. */
+    public static final String STEAL_PROPERTY = "simpledb.BufferPool.steal";
+
+    /** Name of the system property giving the page cleaner's interval in milliseconds. */
+    public static final String CLEANER_INTERVAL_PROPERTY = "simpledb.BufferPool.cleanerInterval";
+
+    /** Name of the system property selecting row locking mode. */
+    public static final String ROW_LOCKING_PROPERTY = "simpledb.BufferPool.rowLocking";
+
+    /** Smallest partition the default partition count will create, in pages. */
+    private static final int MIN_PARTITION_PAGES = 128;
+
+    /** How often a page load tries to make room by stealing a dirty page. */
+    private static final int MAX_STEAL_ATTEMPTS = 3;
+
+    /** How long the cleaner lingers without dirty pages before exiting. */
+    private static final long CLEANER_IDLE_MILLIS = 1000;
+
+    /** How many bulk-loaded pages are logged and written at once. */
+    private static final int BULK_LOAD_PAGES = 256;
+
+    private final Partition[] partitions;
+    private final int maxPagesSize;
+    private final LockManager lm;
+    private final Prefetcher prefetcher;
+    private final VersionStore versions = new VersionStore();
+    /** row locking mode, or null */
+    private final RowLocking rows;
+
+    // STEAL/NO-FORCE mode
+    private final boolean steal;
+    private final long cleanerIntervalMs = Long.getLong(CLEANER_INTERVAL_PROPERTY, 100);
+    private final AtomicBoolean cleanerRunning = new AtomicBoolean();
+    /** running transactions some of whose changes were written to disk */
+    private final Set<TransactionId> stolen = ConcurrentHashMap.newKeySet();
+    /** the pages running transactions have bulk loaded, which they lock by table only */
+    private final Map<TransactionId, Set<PageId>> loaded = new ConcurrentHashMap<>();
+    private final AtomicLong pagesStolen = new AtomicLong();
+    private final AtomicLong pagesCleaned = new AtomicLong();
+    private final AtomicLong ringPagesRecycled = new AtomicLong();
+
+    // statistics, see Metrics
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder aborts = new LongAdder();
+    private final LatencyHistogram flushLatency = new LatencyHistogram();
+
+    /**
+     * One independently locked slice of the pool: its own frame table,
+     * capacity and replacement state.  Lookups of decoded pages do not
+     * lock; everything else synchronizes on the partition.
+     */
+    private class Partition {
+        /** decoded pages; in off-heap mode only the ones in use */
+        final ConcurrentHashMap<PageId, Page> frames = new ConcurrentHashMap<>();
+        final int maxPages;
+        final ReplacementPolicy policy;
+        /** off-heap mode only: page bytes, and the frame of each resident page */
+        final FrameArena arena;
+        final HashMap<PageId, Integer> frameOf = new HashMap<>();
+        final HashMap<PageId, Integer> pins = new HashMap<>();
+
+        Partition(int maxPages, ReplacementPolicy policy, boolean offHeap) {
+            this.maxPages = maxPages;
+            this.policy = policy;
+            arena = offHeap ? new FrameArena(maxPages, pageSize) : null;
+        }
+
+        boolean isResident(PageId pid) {
+            return arena == null ? frames.containsKey(pid) : frameOf.containsKey(pid);
+        }
+
+        int numResident() {
+            return arena == null ? frames.size() : frameOf.size();
+        }
+
+        /** Make pid resident with the given decoded page; caller holds the partition */
+        void add(Page p) throws DbException {
+            PageId pid = p.getId();
+            if (numResident() >= maxPages) evict();
+            frames.put(pid, p);
+            if (arena != null)
+                frameOf.put(pid, arena.allocate());
+            policy.pageAdded(pid);
+        }
+
+        /** Drop pid from the partition; caller holds the partition */
+        void remove(PageId pid) {
+            frames.remove(pid);
+            if (arena != null) {
+                Integer frame = frameOf.remove(pid);
+                if (frame != null)
+                    arena.free(frame);
+            }
+            policy.pageRemoved(pid);
+        }
+
+        /**
+         * Evict an unpinned page that is clean or, in STEAL mode, dirtied by
+         * a transaction that has finished; caller holds the partition
+         */
+        void evict() throws DbException {
+            // NO-STEAL: only clean pages are candidates; STEAL: so are dirty
+            // pages whose dirtier holds no locks, written back first
+            PageId target = policy.chooseVictim(pid -> {
+                if (pins.containsKey(pid))
+                    return false;
+                Page p = frames.get(pid);
+                // in off-heap mode a page that is not decoded is clean
+                if (p == null)
+                    return arena != null && frameOf.containsKey(pid);
+                TransactionId dirtier = p.isDirty();
+                return dirtier == null || (steal && lm.numLocksHeld(dirtier) == 0);
+            });
+
+            if (target == null) throw new DbException("All pages are dirty or pinned in buffer pool");
+
+            Page p = frames.get(target);
+            if (p != null && p.isDirty() != null && !writeIfUnlocked(target, p))
+                throw new DbException("Page " + target + " was locked while being evicted");
+            remove(target);
+            Metrics.increment(evictions);
+        }
+    }
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, using the
+     * replacement policy selected by the simpledb.BufferPool.policy property.
+     * The pool is split into simpledb.BufferPool.partitions partitions; by
+     * default one per processor, as long as each gets at least 128 pages.
      *
      * @param numPages maximum number of pages in this buffer pool.
+     * @see ReplacementPolicy#fromConfig
      */
     public BufferPool(int numPages) {
+        this(numPages, Integer.getInteger(PARTITIONS_PROPERTY, defaultPartitions(numPages)));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages split over
+     * numPartitions partitions, each with the configured replacement policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param numPartitions the number of independently locked partitions
+     */
+    public BufferPool(int numPages, int numPartitions) {
+        this(numPages, numPartitions, false, Boolean.getBoolean(STEAL_PROPERTY),
+                Boolean.getBoolean(ROW_LOCKING_PROPERTY));
+    }
+
+    private BufferPool(int numPages, int numPartitions, boolean offHeap, boolean steal,
+            boolean rowLocking) {
+        if (numPartitions < 1 || numPartitions > numPages)
+            throw new IllegalArgumentException("Bad partition count " + numPartitions
+                    + " for " + numPages + " pages");
+        maxPagesSize = numPages;
+        this.steal = steal;
+        lm = new LockManager();
+        rows = rowLocking && !steal ? new RowLocking(this, lm) : null;
+        partitions = new Partition[numPartitions];
+        for (int i = 0; i < numPartitions; i++) {
+            int pages = numPages / numPartitions + (i < numPages % numPartitions ? 1 : 0);
+            partitions[i] = new Partition(pages, ReplacementPolicy.fromConfig(pages), offHeap);
+        }
+        prefetcher = Prefetcher.fromConfig(this);
+    }
+
+    /**
+     * Creates a BufferPool that keeps page bytes off-heap in a pre-allocated
+     * arena of poolBytes bytes (rounded down to whole pages), partitioned as
+     * configured by simpledb.BufferPool.partitions.
+     *
+     * @param poolBytes the size of the page arena in bytes
+     */
+    public static BufferPool offHeap(long poolBytes) {
+        long pages = poolBytes / pageSize;
+        if (pages < 1 || pages > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Bad off-heap pool size " + poolBytes);
+        int numPages = (int) pages;
+        return new BufferPool(numPages,
+                Integer.getInteger(PARTITIONS_PROPERTY, defaultPartitions(numPages)), true,
+                Boolean.getBoolean(STEAL_PROPERTY), Boolean.getBoolean(ROW_LOCKING_PROPERTY));
+    }
+
+    /**
+     * Creates a STEAL/NO-FORCE BufferPool that caches up to numPages
+     * pages, partitioned as configured by simpledb.BufferPool.partitions.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     */
+    public static BufferPool stealNoForce(int numPages) {
+        return new BufferPool(numPages,
+                Integer.getInteger(PARTITIONS_PROPERTY, defaultPartitions(numPages)), false, true,
+                false);
+    }
+
+    /**
+     * Creates a NO-STEAL/FORCE BufferPool in row locking mode that caches up
+     * to numPages pages, partitioned as configured by
+     * simpledb.BufferPool.partitions.  Rows are locked in heap files of
+     * fixed-width pages only; B+ tree files keep page locking (see
+     * {@link RowLocking}).
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     */
+    public static BufferPool rowLocking(int numPages) {
+        return new BufferPool(numPages,
+                Integer.getInteger(PARTITIONS_PROPERTY, defaultPartitions(numPages)), false, false,
+                true);
+    }
+
+    /**
+     * Creates an unpartitioned BufferPool that caches up to numPages pages
+     * and evicts according to the given replacement policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the policy choosing which page to evict
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
         maxPagesSize = numPages;
-        bp = new ConcurrentHashMap<>();
-        lc = new LocksCatalog();
+        steal = Boolean.getBoolean(STEAL_PROPERTY);
+        lm = new LockManager();
+        rows = Boolean.getBoolean(ROW_LOCKING_PROPERTY) && !steal ? new RowLocking(this, lm) : null;
+        partitions = new Partition[] {new Partition(numPages, policy, false)};
+        prefetcher = Prefetcher.fromConfig(this);
+    }
+
+    private static int defaultPartitions(int numPages) {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(cpus, numPages / MIN_PARTITION_PAGES));
+    }
+
+    /** @return the lock manager used by this buffer pool */
+    public LockManager getLockManager() {
+        return lm;
+    }
+
+    /** @return the prefetcher reading pages ahead of sequential scans */
+    public Prefetcher getPrefetcher() {
+        return prefetcher;
+    }
+
+    /** @return the store of page versions kept for snapshot transactions */
+    public VersionStore getVersionStore() {
+        return versions;
+    }
+
+    /** @return the number of partitions the pool is split into */
+    public int getNumPartitions() {
+        return partitions.length;
+    }
+
+    /** @return true if the pool is STEAL/NO-FORCE rather than NO-STEAL/FORCE */
+    public boolean isSteal() {
+        return steal;
+    }
+
+    /** @return true if inserts and deletes on heap files lock rows rather than pages */
+    public boolean isRowLocking() {
+        return rows != null;
+    }
+
+    /** @return the number of dirty pages of running transactions written out to make room */
+    public long getPagesStolen() {
+        return pagesStolen.get();
+    }
+
+    /** @return the number of committed dirty pages written by the cleaner or by eviction */
+    public long getPagesCleaned() {
+        return pagesCleaned.get();
+    }
+
+    /** @return the number of pages scans dropped from their rings to load others */
+    public long getRingPagesRecycled() {
+        return ringPagesRecycled.get();
+    }
+
+    /** @return the number of getPage calls that found the page in the pool */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /** @return the number of getPage calls that read the page from disk */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /** @return the number of pages the replacement policy evicted */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /** @return the number of transactions committed */
+    public long getCommits() {
+        return commits.sum();
+    }
+
+    /** @return the number of transactions aborted */
+    public long getAborts() {
+        return aborts.sum();
+    }
+
+    /** @return the distribution of the times writing a dirty page to disk took */
+    public LatencyHistogram getFlushLatency() {
+        return flushLatency;
+    }
+
+    /** @return the number of pages in the pool */
+    public int getNumResidentPages() {
+        int n = 0;
+        for (Partition part : partitions) {
+            synchronized (part) {
+                n += part.numResident();
+            }
+        }
+        return n;
+    }
+
+    /** @return the number of dirty pages in the pool */
+    public int getNumDirtyPages() {
+        int n = 0;
+        for (Partition part : partitions) {
+            for (Page p : part.frames.values()) {
+                if (p.isDirty() != null)
+                    n++;
+            }
+        }
+        return n;
+    }
+
+    /** @return true if page bytes are kept off-heap */
+    public boolean isOffHeap() {
+        return partitions[0].arena != null;
+    }
+
+    /** @return the maximum number of pages in this buffer pool */
+    public int getMaxPages() {
+        return maxPagesSize;
+    }
+
+    private Partition partitionFor(PageId pid) {
+        if (partitions.length == 1)
+            return partitions[0];
+        // page id hash codes keep the page type in the low bits; mix first
+        int h = pid.hashCode() * 0x9E3779B9;
+        return partitions[(h >>> 16) % partitions.length];
     }
 
     public static int getPageSize() {
@@ -107,30 +483,393 @@ public class BufferPool {
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
-        long timeStamp = System.currentTimeMillis();
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page like {@link #getPage(TransactionId, PageId, Permissions)};
+     * if it has to be read from disk, recycle the frames of ring instead of
+     * taking one from the rest of the pool.
+     *
+     * @param ring the scan's ring, or null to use the shared pool
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+        throws TransactionAbortedException, DbException {
+        Long snapshot = versions.getSnapshot(tid);
+        if (snapshot != null) {
+            if (perm == Permissions.READ_WRITE)
+                throw new DbException("read-only transaction " + tid + " cannot write " + pid);
+            return getSnapshotPage(pid, snapshot, ring);
+        }
+        boolean newWriter = perm == Permissions.READ_WRITE
+                && lm.getLockMode(tid, pid) != Permissions.READ_WRITE;
+        lm.acquire(tid, pid, perm);
+        if (newWriter && versions.hasSnapshots())
+            copyOnWrite(pid);
+        return fetch(tid, pid, ring);
+    }
+
+    /**
+     * Row locking mode: the page a transaction changes rows of, after
+     * taking the page's intention lock.  The first writer of a page gets a
+     * copy of it if snapshots are running, as in {@link #getPage}.
+     */
+    Page getRowPage(TransactionId tid, PageId pid) throws DbException {
+        if (!rows.hasChanges(pid) && versions.hasSnapshots())
+            copyOnWrite(pid);
+        return fetch(tid, pid, null);
+    }
+
+    /** @return the cached page, reading it from disk if needed; the caller has locked it */
+    private Page fetch(TransactionId tid, PageId pid, BufferRing ring) throws DbException {
+        Partition part = partitionFor(pid);
+        Page tempPage = part.frames.get(pid);
+        if (tempPage != null) {
+            part.policy.pageAccessed(pid);
+            Metrics.increment(hits);
+            return tempPage;
+        }
+        if (ring != null)
+            ring.setOwner(tid);
+        Page pageRead = null;
+        boolean added = false;
+        for (int attempt = 0; ; attempt++) {
+            synchronized (part) {
+                tempPage = part.frames.get(pid);
+                if (tempPage != null) {
+                    // loaded by another thread while we waited for the partition
+                    part.policy.pageAccessed(pid);
+                    Metrics.increment(hits);
+                    return tempPage;
+                }
+                DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                Integer frame = part.arena == null ? null : part.frameOf.get(pid);
+                if (frame != null) {
+                    // resident off-heap, decode it
+                    try {
+                        tempPage = file.decodePage(pid, part.arena.read(frame));
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                    part.frames.put(pid, tempPage);
+                    part.policy.pageAccessed(pid);
+                    Metrics.increment(hits);
+                    return tempPage;
+                }
+                // our lock keeps the page from changing on disk while we steal
+                if (pageRead == null) {
+                    pageRead = file.readPage(pid);
+                    Metrics.increment(misses);
+                }
+                try {
+                    part.add(pageRead);
+                    added = true;
+                } catch (DbException e) {
+                    if (!steal || attempt == MAX_STEAL_ATTEMPTS)
+                        throw e;
+                }
+            }
+            if (added) {
+                if (ring != null)
+                    recycle(ring, ring.loaded(pid));
+                return pageRead;
+            }
+            stealPage(part);
+        }
+    }
+
+    /**
+     * Start a snapshot for a read-only transaction: until
+     * {@link #transactionComplete} it reads pages without locking them, as
+     * they were when the last transaction before this call committed, and
+     * may not write.
+     */
+    public void beginSnapshot(TransactionId tid) {
+        versions.beginSnapshot(tid);
+    }
+
+    /** @return true if tid is a read-only snapshot transaction */
+    public boolean isSnapshot(TransactionId tid) {
+        return versions.getSnapshot(tid) != null;
+    }
 
-        while (!lc.lock(pid, tid, perm)){
-            if (System.currentTimeMillis() - timeStamp > new Random().nextInt(500) + 2000)
-                throw new TransactionAbortedException();
+    /**
+     * Snapshot read: the version of the page committed as of snapshot.  The
+     * pool's page is that version unless a later commit changed it, which
+     * the version store then knows, or a running transaction is changing
+     * it, in which case its before image is.
+     */
+    private Page getSnapshotPage(PageId pid, long snapshot, BufferRing ring) throws DbException {
+        Page v = versions.visible(pid, snapshot);
+        if (v != null)
+            return v;
+        while (true) {
+            Page p = loadUnlocked(pid, ring, false);
+            TransactionId dirtier = p.isDirty();
+            if (lm.hasWriter(pid) || (dirtier != null && lm.numLocksHeld(dirtier) > 0)) {
+                final Page page = p;
+                p = versions.currentImage(pid, page::getBeforeImage);
+            } else {
+                // an abort may have dropped or replaced the page we looked at
+                Page now = partitionFor(pid).frames.get(pid);
+                if (now != p && (now != null || !isOffHeap()))
+                    continue;
+            }
+            // a commit may have changed the page since we looked
+            if (versions.latestCommit(pid) > snapshot)
+                return versions.visible(pid, snapshot);
+            return p;
+        }
+    }
+
+    /**
+     * A transaction has just write locked pid while snapshots are running:
+     * give it a copy of the cached page, and keep the page, which snapshot
+     * readers may be using, as the current committed image.
+     */
+    private void copyOnWrite(PageId pid) throws DbException {
+        Partition part = partitionFor(pid);
+        synchronized (part) {
+            Page p = part.frames.get(pid);
+            if (p == null)
+                return;
+            versions.currentImage(pid, () -> p);
             try {
-                Thread.sleep(new Random().nextInt(50));
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+                Page copy = Database.getCatalog().getDatabaseFile(pid.getTableId())
+                        .decodePage(pid, p.getPageData());
+                if (p.isDirty() != null)
+                    copy.markDirty(true, p.isDirty());
+                part.frames.put(pid, copy);
+            } catch (IOException e) {
+                throw new DbException("could not copy page " + pid + ": " + e);
             }
         }
+    }
 
-        Page tempPage = bp.get(pid);
-        if(tempPage != null){
-            return tempPage;
-        }else{
-            if (bp.size() == maxPagesSize) evictPage();
+    /**
+     * Drop the page a ring has recycled from the pool, unless it has since
+     * been dirtied, pinned or locked by another transaction: then it now
+     * belongs to the pool and is left alone.  Runs without the partition
+     * lock of the page that was loaded.
+     *
+     * @param victim the page pushed out of the ring, or null
+     */
+    private void recycle(BufferRing ring, PageId victim) {
+        if (victim == null)
+            return;
+        Partition part = partitionFor(victim);
+        synchronized (part) {
+            if (!part.isResident(victim) || part.pins.containsKey(victim))
+                return;
+            Page p = part.frames.get(victim);
+            if (p != null && p.isDirty() != null)
+                return;
+            if (lm.isLockedByOther(ring.getOwner(), victim))
+                return;
+            part.remove(victim);
+            ringPagesRecycled.incrementAndGet();
+        }
+    }
+
+    /**
+     * STEAL: write out a dirty page of a running transaction so that it can
+     * be evicted.  Runs without the partition lock, since it logs: the
+     * page's current contents are logged as an update record, the log is
+     * forced, and those same contents are written to disk.  The page is
+     * then evicted unless its transaction changed it in the meantime.
+     */
+    private void stealPage(Partition part) throws DbException {
+        PageId target;
+        Page p;
+        synchronized (part) {
+            target = part.policy.chooseVictim(pid -> {
+                Page dp = part.frames.get(pid);
+                return dp != null && dp.isDirty() != null && !part.pins.containsKey(pid);
+            });
+            if (target == null)
+                return;
+            p = part.frames.get(target);
+        }
+        TransactionId tid = p.isDirty();
+        if (tid == null)
+            return;
+        try {
+            // snapshots reading the page from disk need the committed image
+            versions.currentImage(target, p::getBeforeImage);
+            byte[] data = p.getPageData();
+            DbFile file = Database.getCatalog().getDatabaseFile(target.getTableId());
+            Page snapshot = file.decodePage(target, data);
+            Database.getLogFile().logWrite(tid, p.getBeforeImage(), snapshot);
+            Database.getLogFile().force();
+            writePage(file, snapshot);
+            synchronized (part) {
+                if (part.frames.get(target) == p && tid.equals(p.isDirty())
+                        && !part.pins.containsKey(target)
+                        && Arrays.equals(data, p.getPageData())) {
+                    part.remove(target);
+                    stolen.add(tid);
+                    pagesStolen.incrementAndGet();
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("could not steal page " + target + ": " + e);
+        }
+    }
+
+    /**
+     * Write a dirty page of a finished transaction to disk and mark it
+     * clean, provided no transaction has it locked; lock requests for the
+     * page wait for the write.
+     *
+     * @return true if the page was unlocked and has been written
+     */
+    private boolean writeIfUnlocked(PageId pid, Page p) {
+        boolean[] failed = {false};
+        boolean unlocked = lm.runIfUnlocked(pid, () -> {
+            TransactionId dirtier = p.isDirty();
+            if (dirtier == null)
+                return;
+            try {
+                writePage(Database.getCatalog().getDatabaseFile(pid.getTableId()), p);
+                p.markDirty(false, dirtier);
+                pagesCleaned.incrementAndGet();
+            } catch (IOException | NoSuchElementException e) {
+                // NoSuchElementException: the table is gone from the catalog
+                failed[0] = true;
+            }
+        });
+        return unlocked && !failed[0];
+    }
+
+    /** @return the decoded page if it is in the pool, without locking or loading it, or null */
+    Page getResidentPage(PageId pid) {
+        return partitionFor(pid).frames.get(pid);
+    }
+
+    /** @return true if the page is in the pool, without locking or loading it */
+    public boolean isCached(PageId pid) {
+        Partition part = partitionFor(pid);
+        if (part.frames.containsKey(pid))
+            return true;
+        synchronized (part) {
+            return part.isResident(pid);
+        }
+    }
+
+    /**
+     * Read-ahead: make a page resident without locking it, evicting a clean
+     * page if the partition is full.  A page already in the pool is left
+     * as it is; in off-heap mode only the bytes of a loaded page are kept.
+     *
+     * @param ring the ring of the scan reading ahead, or null
+     * @return the page's current contents, or null if it could not be loaded
+     */
+    Page prefetchPage(PageId pid, BufferRing ring) {
+        try {
+            return loadUnlocked(pid, ring, true);
+        } catch (DbException | RuntimeException e) {
+            // read-ahead is only a hint: a full pool or a page that has
+            // gone away just ends it
+            return null;
+        }
+    }
+
+    /**
+     * Make a page resident without locking it, for read-ahead or a
+     * snapshot read.
+     *
+     * @return the page's current contents
+     */
+    private Page loadUnlocked(PageId pid, BufferRing ring, boolean prefetch) throws DbException {
+        Partition part = partitionFor(pid);
+        Page p = part.frames.get(pid);
+        if (p != null) {
+            if (!prefetch)
+                Metrics.increment(hits);
+            return p;
+        }
+        PageId victim = null;
+        synchronized (part) {
+            p = part.frames.get(pid);
+            if (p != null)
+                return p;
             DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            Page pageRead = file.readPage(pid);
-            bp.put(pid, pageRead);
-            return pageRead;
+            Integer frame = part.arena == null ? null : part.frameOf.get(pid);
+            try {
+                if (frame != null)
+                    return file.decodePage(pid, part.arena.read(frame));
+            } catch (IOException e) {
+                throw new DbException("could not decode page " + pid + ": " + e);
+            }
+            if (part.numResident() >= part.maxPages)
+                part.evict();
+            p = file.readPage(pid);
+            if (part.arena == null) {
+                part.frames.put(pid, p);
+            } else {
+                frame = part.arena.allocate();
+                part.arena.write(frame, p.getPageData());
+                part.frameOf.put(pid, frame);
+            }
+            part.policy.pageAdded(pid);
+            if (ring != null)
+                victim = ring.loaded(pid);
+            if (prefetch)
+                prefetcher.pageLoaded();
+            else
+                Metrics.increment(misses);
+        }
+        recycle(ring, victim);
+        return p;
+    }
+
+    /**
+     * Pin a page so that it is not evicted until it is unpinned.  Pins
+     * nest: a page pinned twice must be unpinned twice.  The page does not
+     * have to be in the pool yet.
+     *
+     * @param pid the ID of the page to pin
+     */
+    public void pinPage(PageId pid) {
+        Partition part = partitionFor(pid);
+        synchronized (part) {
+            part.pins.merge(pid, 1, Integer::sum);
         }
     }
 
+    /**
+     * Undo one {@link #pinPage} of a page.
+     *
+     * @param pid the ID of the page to unpin
+     * @throws IllegalStateException if the page is not pinned
+     */
+    public void unpinPage(PageId pid) {
+        Partition part = partitionFor(pid);
+        synchronized (part) {
+            Integer n = part.pins.get(pid);
+            if (n == null)
+                throw new IllegalStateException("page " + pid + " is not pinned");
+            if (n == 1)
+                part.pins.remove(pid);
+            else
+                part.pins.put(pid, n - 1);
+        }
+    }
+
+    /**
+     * Lock a whole table for a transaction that will read (or write) all of
+     * it, instead of locking its pages one by one.  Snapshot transactions
+     * take no locks.
+     *
+     * @param perm READ_ONLY for a shared (S) table lock, READ_WRITE for an
+     *   exclusive (X) one
+     */
+    public void lockTable(TransactionId tid, int tableId, Permissions perm)
+        throws TransactionAbortedException {
+        if (versions.getSnapshot(tid) == null)
+            lm.acquireTable(tid, tableId, perm == Permissions.READ_WRITE ? LockMode.X : LockMode.S);
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -141,7 +880,7 @@ public class BufferPool {
      * @param pid the ID of the page to unlock
      */
     public void releasePage(TransactionId tid, PageId pid) {
-        lc.unlock(pid, tid);
+        lm.release(tid, pid);
     }
 
     /**
@@ -155,7 +894,7 @@ public class BufferPool {
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
-        return lc.isLocked(p, tid);
+        return lm.holdsLock(tid, p);
     }
 
     /**
@@ -167,24 +906,104 @@ public class BufferPool {
      */
     public void transactionComplete(TransactionId tid, boolean commit)
         throws IOException {
-        ArrayList<PageId> locks = lc.getLocksbyTid(tid);
-        for (PageId pid : locks) {
-            Page pg = bp.get(pid);
-            if (pg != null) {
+        Metrics.increment(commit ? commits : aborts);
+        if (versions.getSnapshot(tid) != null) {
+            versions.endSnapshot(tid, lm::hasWriter);
+            return;
+        }
+        if (rows != null) {
+            if (commit)
+                rows.commit(tid);
+            else
+                rows.abort(tid);
+        }
+        if (commit && !steal)
+            flushPages(lm.getLockedPages(tid), null);
+        Map<PageId, Page> written = null;
+        if (commit) {
+            // give the transaction's pages their commit timestamp while the
+            // before images still show the previous committed versions
+            written = new HashMap<>();
+            for (PageId pid : lm.getLockedPages(tid)) {
+                if (lm.getLockMode(tid, pid) == Permissions.READ_WRITE)
+                    written.put(pid, partitionFor(pid).frames.get(pid));
+            }
+            for (PageId pid : loaded.getOrDefault(tid, Collections.emptySet()))
+                written.put(pid, null);
+            if (!written.isEmpty())
+                versions.commit(written);
+        }
+        if (stolen.remove(tid) && !commit) {
+            // put back the before images of the pages already on disk
+            Database.getLogFile().rollback(tid);
+        }
+        Set<PageId> load = loaded.remove(tid);
+        if (load != null && !commit)
+            versions.committed(load);
+        for (PageId pid : lm.getLockedPages(tid)) {
+            Page pg = partitionFor(pid).frames.get(pid);
+            // other transactions' row changes are pending on the page
+            if (pg != null && (rows == null || !rows.hasChanges(pid))) {
                 if (commit) {
-                    flushPage(pg.getId());
                     pg.setBeforeImage();
 
-                } else if (pg.isDirty() != null){
-                    discardPage(pid);
+                } else if (pg.isDirty() != null
+                        || lm.getLockMode(tid, pid) == Permissions.READ_WRITE) {
+                    // an aborted insert/delete may have changed the page in
+                    // place before it could be marked dirty
+                    if (steal)
+                        restoreBeforeImage(tid, pg);
+                    else
+                        discardPage(pid);
                 }
             }
         }
+        if (written != null && !written.isEmpty())
+            versions.committed(written.keySet());
+        if (commit && steal)
+            startCleaner();
 
-        for (PageId pid : locks){
-            lc.unlock(pid, tid);
+        Set<PageId> used = isOffHeap() ? lm.getLockedPages(tid) : null;
+        lm.releaseAll(tid);
+        if (used != null) {
+            for (PageId pid : used)
+                release(pid);
         }
+    }
 
+    /**
+     * NO-FORCE abort: the disk may be missing committed changes to the
+     * page, so replace it with its before image instead of dropping it.
+     * The restored page is left dirty for the cleaner.
+     */
+    private void restoreBeforeImage(TransactionId tid, Page pg) {
+        PageId pid = pg.getId();
+        Partition part = partitionFor(pid);
+        synchronized (part) {
+            if (part.frames.get(pid) != pg)
+                return;
+            Page before = pg.getBeforeImage();
+            before.markDirty(true, tid);
+            part.frames.put(pid, before);
+        }
+    }
+
+    /**
+     * Off-heap mode: if no transaction is using a page and it is clean and
+     * not pinned, store its bytes in its frame and drop the decoded page.
+     */
+    private void release(PageId pid) {
+        Partition part = partitionFor(pid);
+        synchronized (part) {
+            Page p = part.frames.get(pid);
+            Integer frame = part.frameOf.get(pid);
+            if (p == null || frame == null || p.isDirty() != null || part.pins.containsKey(pid))
+                return;
+            lm.runIfUnlocked(pid, () -> {
+                part.arena.write(frame, p.getPageData());
+                part.frames.remove(pid);
+            });
+        }
     }
 
     /**
@@ -205,11 +1024,86 @@ public class BufferPool {
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
         DbFile tarFile = Database.getCatalog().getDatabaseFile(tableId);
+        if (locksRows(tarFile)) {
+            rows.insertTuple(tid, (HeapFile) tarFile, t);
+            return;
+        }
         ArrayList<Page> insertPages = tarFile.insertTuple(tid, t);
         for (Page p : insertPages) {
             p.markDirty(true, tid);
-            bp.put(p.getId(), p);
+            cachePage(p);
+        }
+    }
+
+    /**
+     * Load the tuples of an open iterator into a heap table in bulk: they
+     * are packed into new pages appended to the table's file, instead of
+     * being inserted one at a time, and free space in existing pages is not
+     * used.  The transaction locks the whole table exclusively.  Each new
+     * page is logged as an update of an empty page, and every
+     * {@value #BULK_LOAD_PAGES} pages are written at once after forcing the
+     * log, so that an abort, or recovery after a crash, empties them again.
+     * Snapshot transactions see the new pages as empty until the load
+     * commits, and then as empty still if they started before.
+     *
+     * @return the number of tuples loaded
+     * @throws DbException if the table is not a heap file, or a tuple does
+     *   not match its schema
+     */
+    public int bulkLoad(TransactionId tid, int tableId, OpIterator tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(file instanceof HeapFile))
+            throw new DbException("bulk load needs a heap file, not " + file.getClass().getName());
+        if (versions.getSnapshot(tid) != null)
+            throw new DbException("read-only transaction " + tid.getId() + " cannot load tuples");
+        lockTable(tid, tableId, Permissions.READ_WRITE);
+        HeapFile hf = (HeapFile) file;
+        ArrayList<Page> batch = new ArrayList<>();
+        int pageNo = hf.numPages();
+        HeapPage page = null;
+        int slot = 0, count = 0;
+        while (tuples.hasNext()) {
+            Tuple t = tuples.next();
+            if (page == null || !page.fits(slot, t)) {
+                if (batch.size() == BULK_LOAD_PAGES) {
+                    writeLoaded(tid, hf, batch);
+                    batch.clear();
+                }
+                page = hf.newPage(new HeapPageId(tableId, pageNo++), HeapPage.createEmptyPageData());
+                batch.add(page);
+                slot = 0;
+            }
+            page.insertTuple(slot++, t);
+            count++;
         }
+        if (!batch.isEmpty())
+            writeLoaded(tid, hf, batch);
+        return count;
+    }
+
+    /** Log bulk-loaded pages as new, force the log and write them. */
+    private void writeLoaded(TransactionId tid, HeapFile hf, List<Page> pages) throws IOException {
+        LogFile log = Database.getLogFile();
+        for (Page p : pages)
+            log.logWrite(tid, hf.newPage((HeapPageId) p.getId(), HeapPage.createEmptyPageData()), p);
+        log.force();
+        // like a stolen page, an abort puts back the logged before image
+        stolen.add(tid);
+        // snapshots reading the pages from disk need the committed, empty image
+        Set<PageId> load = loaded.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet());
+        for (Page p : pages) {
+            load.add(p.getId());
+            versions.currentImage(p.getId(), p::getBeforeImage);
+        }
+        writePages(hf, pages);
+        for (Page p : pages)
+            discardPage(p.getId());
+    }
+
+    /** @return true if inserts and deletes on the file lock rows */
+    private boolean locksRows(DbFile file) {
+        return rows != null && file instanceof HeapFile && !((HeapFile) file).isSlotted();
     }
 
     /**
@@ -228,11 +1122,110 @@ public class BufferPool {
     public void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
         DbFile tarFile = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
+        if (locksRows(tarFile)) {
+            rows.deleteTuple(tid, t);
+            return;
+        }
         ArrayList<Page> deletePages = tarFile.deleteTuple(tid, t);
         for (Page p : deletePages){
             p.markDirty(true, tid);
-            bp.put(p.getId(), p);
+            cachePage(p);
+        }
+    }
+
+    /**
+     * Puts a page dirtied by insertTuple/deleteTuple into the pool, replacing
+     * any cached version, and tells the replacement policy about it.
+     */
+    private void cachePage(Page p) throws DbException {
+        Partition part = partitionFor(p.getId());
+        PageId pid = p.getId();
+        for (int attempt = 0; ; attempt++) {
+            synchronized (part) {
+                try {
+                    if (part.isResident(pid)) {
+                        part.frames.put(pid, p);
+                        part.policy.pageAccessed(pid);
+                    } else if (part.arena != null) {
+                        // needs a frame
+                        part.add(p);
+                    } else {
+                        part.frames.put(pid, p);
+                        part.policy.pageAdded(pid);
+                    }
+                    break;
+                } catch (DbException e) {
+                    if (!steal || attempt == MAX_STEAL_ATTEMPTS)
+                        throw e;
+                }
+            }
+            stealPage(part);
         }
+        if (steal)
+            startCleaner();
+    }
+
+    /**
+     * Start the page cleaner unless it is running.  It wakes up every
+     * simpledb.BufferPool.cleanerInterval milliseconds and writes the dirty
+     * pages of finished transactions, sorted by table and page number so
+     * that the writes are mostly sequential, and exits once it has found
+     * nothing to do for a while.
+     */
+    private void startCleaner() {
+        if (!cleanerRunning.compareAndSet(false, true))
+            return;
+        Thread t = new Thread(this::cleanLoop, "simpledb-page-cleaner");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void cleanLoop() {
+        long idle = 0;
+        try {
+            while (idle < CLEANER_IDLE_MILLIS) {
+                Thread.sleep(cleanerIntervalMs);
+                if (cleanPages() == 0)
+                    idle += cleanerIntervalMs;
+                else
+                    idle = 0;
+            }
+        } catch (InterruptedException e) {
+            // exit
+        } finally {
+            cleanerRunning.set(false);
+        }
+    }
+
+    /**
+     * Write the dirty pages whose transactions have finished, in page
+     * number order, and mark them clean.
+     *
+     * @return the number of pages written
+     */
+    int cleanPages() {
+        ArrayList<Page> dirty = new ArrayList<>();
+        for (Partition part : partitions) {
+            for (Page p : part.frames.values()) {
+                TransactionId dirtier = p.isDirty();
+                if (dirtier != null && lm.numLocksHeld(dirtier) == 0)
+                    dirty.add(p);
+            }
+        }
+        dirty.sort(Comparator.comparingInt((Page p) -> p.getId().getTableId())
+                .thenComparingInt(p -> p.getId().getPageNumber()));
+        int written = 0;
+        for (Page p : dirty) {
+            PageId pid = p.getId();
+            Partition part = partitionFor(pid);
+            synchronized (part) {
+                TransactionId dirtier = p.isDirty();
+                if (part.frames.get(pid) == p && dirtier != null && lm.numLocksHeld(dirtier) == 0
+                        && writeIfUnlocked(pid, p))
+                    written++;
+            }
+        }
+        return written;
     }
 
     /**
@@ -240,12 +1233,9 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
-        List<PageId> pids = new ArrayList<>(bp.keySet());
-        for (PageId pid : pids) {
-            flushPage(pid);
-        }
-
+    public void flushAllPages() throws IOException {
+        for (Partition part : partitions)
+            flushPages(new ArrayList<>(part.frames.keySet()), null);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -256,65 +1246,97 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
-        bp.remove(pid);
+    public void discardPage(PageId pid) {
+        // its row writers undo their own changes, and others' must stay
+        if (rows != null && rows.hasChanges(pid))
+            return;
+        Partition part = partitionFor(pid);
+        synchronized (part) {
+            if (part.isResident(pid))
+                part.remove(pid);
+        }
     }
 
     /**
-     * Flushes a certain page to disk
-     * @param pid an ID indicating the page to flush
+     * Flushes the dirty pages among pids to disk: logs an update record for
+     * each, forces the log once for all of them, then writes the pages.
+     * <p>
+     * Runs without the partition lock: the log is locked after the buffer
+     * pool (see LogFile), and a dirty page is never chosen for eviction, so
+     * it stays resident until it has been written and marked clean.
+     *
+     * @param pids the pages to flush
+     * @param tid only flush pages dirtied by this transaction, or null for any
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
-        Page targetPage = bp.get(pid);
-        if (targetPage != null){
-            TransactionId dirtyTid = targetPage.isDirty();
-            if(dirtyTid != null){
-                Database.getLogFile().logWrite(dirtyTid, targetPage.getBeforeImage(), targetPage);
-                Database.getLogFile().force();
-
-                Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(targetPage);
-                targetPage.markDirty(false, dirtyTid);
+    private void flushPages(Collection<PageId> pids, TransactionId tid) throws IOException {
+        ArrayList<Page> dirty = new ArrayList<>();
+        for (PageId pid : pids) {
+            Page p = partitionFor(pid).frames.get(pid);
+            // row locking writes the committed images of its pages itself
+            if (p == null || (rows != null && rows.hasChanges(pid)))
+                continue;
+            TransactionId dirtyTid = p.isDirty();
+            if (dirtyTid != null && (tid == null || dirtyTid.equals(tid))) {
+                Database.getLogFile().logWrite(dirtyTid, p.getBeforeImage(), p);
+                dirty.add(p);
             }
         }
-    }
+        if (dirty.isEmpty())
+            return;
+        Database.getLogFile().force();
 
-    /** Write all pages of the specified transaction to disk.
-     */
-    public synchronized void flushPages(TransactionId tid) throws IOException {
-        for (Page p : bp.values()) {
-            if (p.isDirty() == tid) flushPage(p.getId());
+        // each table's pages in page number order, so that adjacent ones go in one write
+        dirty.sort(Comparator.comparingInt((Page p) -> p.getId().getTableId())
+                .thenComparingInt(p -> p.getId().getPageNumber()));
+        for (int i = 0, j; i < dirty.size(); i = j) {
+            int tableId = dirty.get(i).getId().getTableId();
+            for (j = i + 1; j < dirty.size() && dirty.get(j).getId().getTableId() == tableId; j++)
+                ;
+            writePages(Database.getCatalog().getDatabaseFile(tableId), dirty.subList(i, j));
         }
+        for (Page p : dirty)
+            p.markDirty(false, p.isDirty());
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * NO-FORCE commit: log an update record for each page the transaction
+     * dirtied, without writing the pages or forcing the log.  The commit
+     * record forces the log.
      */
-    private synchronized void evictPage() throws DbException {
-        //NO-STEAL strategy
-        PageId target = null;
-
-        for (Map.Entry<PageId, Page> pair : bp.entrySet()){
-            if (pair.getValue().isDirty() == null){
-                target = pair.getKey();
-                break;
-            }
+    public void logPages(TransactionId tid) throws IOException {
+        for (PageId pid : lm.getLockedPages(tid)) {
+            Page p = partitionFor(pid).frames.get(pid);
+            if (p != null && tid.equals(p.isDirty()))
+                Database.getLogFile().logWrite(tid, p.getBeforeImage(), p);
         }
+    }
 
-        if (target == null) throw new DbException("All pages are dirty in buffer pool");
-
-        discardPage(target);
-
+    /** Write a page to its file, timing the write */
+    void writePage(DbFile file, Page p) throws IOException {
+        long start = Metrics.startTimer();
+        file.writePage(p);
+        Metrics.stopTimer(flushLatency, start);
+    }
 
+    /** Write pages of one file sorted by page number, timing each as its share of the writes */
+    private void writePages(DbFile file, List<Page> pages) throws IOException {
+        long start = Metrics.startTimer();
+        file.writePages(pages);
+        if (start != 0) {
+            long each = (System.nanoTime() - start) / pages.size();
+            for (int i = 0; i < pages.size(); i++)
+                flushLatency.record(each);
+        }
+    }
 
-        //STEAL strategy
-//        PageId oldest =  new ArrayList<>(bp.keySet()).get(0);
-//        try {
-//            flushPage(oldest);
-//        } catch (IOException e) {
-//            e.printStackTrace();
-//        }
-//        discardPage(oldest);
+    /** Write all pages of the specified transaction to disk.
+     *  In row locking mode this prepares the transaction's row changes for
+     *  its commit record (see {@link RowLocking#prepare}).
+     */
+    public void flushPages(TransactionId tid) throws IOException {
+        if (rows != null)
+            rows.prepare(tid);
+        flushPages(lm.getLockedPages(tid), tid);
     }
 
 }
@@ -0,0 +1,91 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+
+/**
+ * BufferRing is a small private set of buffer pool frames that a large
+ * sequential scan recycles, so that reading a table bigger than the pool
+ * does not push every other page out of it.
+ * <p>
+ * Pages a ring scan finds in the pool are used as usual.  Pages it has to
+ * load are remembered in the ring, oldest first; once the ring is full,
+ * each page loaded drops the oldest one from the pool, unless it has been
+ * dirtied, pinned or locked by another transaction in the meantime, in
+ * which case it is left to the pool's replacement policy.
+ * <p>
+ * The ring size is set with the system property simpledb.BufferRing.size
+ * (default 16 pages, 0 disables rings) and is capped at an eighth of the
+ * pool.  Scans use a ring when their table does not fit in the pool, since
+ * caching part of it would only help the next scan if it read the table
+ * backwards; see {@link #forScan}.
+ *
+ * @Threadsafe
+ */
+public class BufferRing {
+
+    /** Name of the system property giving the ring size in pages. */
+    public static final String SIZE_PROPERTY = "simpledb.BufferRing.size";
+
+    private static final int DEFAULT_SIZE = 16;
+    private static final int MIN_SIZE = 2;
+
+    private final int size;
+    private final ArrayDeque<PageId> pages = new ArrayDeque<>();
+    /** the transaction scanning through the ring, once known */
+    private volatile TransactionId owner = null;
+
+    /**
+     * @param size the number of pages the ring keeps in the pool
+     */
+    public BufferRing(int size) {
+        if (size < 1)
+            throw new IllegalArgumentException("Bad ring size " + size);
+        this.size = size;
+    }
+
+    /**
+     * Returns a ring of the configured size for a scan of file through
+     * Database.getBufferPool(), or null if the scan should read through the
+     * shared pool: the table fits in the pool, or the pool is too small to
+     * spare a ring.
+     */
+    public static BufferRing forScan(DbFile file) {
+        BufferPool bp = Database.getBufferPool();
+        int size = Math.min(Integer.getInteger(SIZE_PROPERTY, DEFAULT_SIZE), bp.getMaxPages() / 8);
+        if (size < MIN_SIZE || numPages(file) <= bp.getMaxPages())
+            return null;
+        return new BufferRing(size);
+    }
+
+    private static int numPages(DbFile file) {
+        if (file instanceof HeapFile)
+            return ((HeapFile) file).numPages();
+        if (file instanceof BTreeFile)
+            return ((BTreeFile) file).numPages();
+        return 0;
+    }
+
+    /** @return the number of pages the ring keeps in the pool */
+    public int size() {
+        return size;
+    }
+
+    TransactionId getOwner() {
+        return owner;
+    }
+
+    void setOwner(TransactionId tid) {
+        owner = tid;
+    }
+
+    /**
+     * Remember a page the ring loaded into the pool.
+     *
+     * @return the oldest page, which the pool should drop, if the ring was
+     *   full, or null
+     */
+    synchronized PageId loaded(PageId pid) {
+        pages.add(pid);
+        return pages.size() > size ? pages.poll() : null;
+    }
+}
@@ -0,0 +1,84 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * Loads the tuples read from the child operator into the tableId specified
+ * in the constructor in bulk, through {@link BufferPool#bulkLoad}, instead
+ * of inserting them one at a time like {@link Insert}.
+ */
+public class BulkInsert extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final TransactionId t;
+    private OpIterator child;
+    private final int tableId;
+    private final TupleDesc td;
+    private boolean done;
+
+    /**
+     * Constructor.
+     *
+     * @param t
+     *            The transaction running the load.
+     * @param child
+     *            The child operator from which to read tuples to be loaded.
+     * @param tableId
+     *            The heap table into which to load tuples.
+     */
+    public BulkInsert(TransactionId t, OpIterator child, int tableId) {
+        this.t = t;
+        this.child = child;
+        this.tableId = tableId;
+        this.td = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{"insertedNum"});
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        super.open();
+        child.open();
+    }
+
+    public void close() {
+        child.close();
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    /**
+     * Loads all tuples of the child.
+     *
+     * @return A 1-field tuple containing the number of loaded records, or
+     *         null if called more than once.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (done)
+            return null;
+        done = true;
+        int n;
+        try {
+            n = Database.getBufferPool().bulkLoad(t, tableId, child);
+        } catch (IOException e) {
+            throw new DbException("bulk load into " + tableId + " failed: " + e);
+        }
+        Tuple result = new Tuple(td);
+        result.setField(0, new IntField(n));
+        return result;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{ child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -6,6 +6,8 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -18,6 +20,8 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class Catalog {
 
+    private static final Pattern VARCHAR = Pattern.compile("varchar\\(([1-9]\\d*)\\)");
+
     private HashMap<String, Integer> nameIdMap;
     private HashMap<Integer, DbFile> idTableMap;
     private HashMap<Integer, String> idPkeyMap;
@@ -114,6 +118,16 @@ public class Catalog {
         else return idPkeyMap.get(tableid);
     }
 
+    /**
+     * Read the specified table through a memory mapping of its file, or
+     * stop doing so; for read-mostly tables.
+     * @throws UnsupportedOperationException if its file cannot be mapped
+     * @see DbFile#setMapped
+     */
+    public void setMapped(int tableid, boolean on) throws NoSuchElementException {
+        getDatabaseFile(tableid).setMapped(on);
+    }
+
     public Iterator<Integer> tableIdIterator() {
         return nameIdMap.values().iterator();
     }
@@ -135,6 +149,12 @@ public class Catalog {
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * A line may end with "mapped" to read that table through a memory mapping,
+     * "pax" to store it in {@link PaxHeapPage}s, and "compressed" to store its
+     * pages compressed; its data file must then be empty or written compressed.
+     * A column declared varchar(n), n at most {@link Type#STRING_LEN}, is a
+     * string column storing up to n characters; tables with such columns
+     * are stored in {@link SlottedHeapPage}s.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -147,19 +167,29 @@ public class Catalog {
                 //assume line is of the format name (field type, field type, ...)
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
-                String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+                String fields = line.substring(line.indexOf("(") + 1, line.lastIndexOf(")")).trim();
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
+                // varchar columns make the table use slotted pages
+                int[] stringLengths = new int[els.length];
+                boolean slotted = false;
                 String primaryKey = "";
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
-                    if (els2[1].trim().toLowerCase().equals("int"))
+                    String type = els2[1].trim().toLowerCase();
+                    Matcher varchar = VARCHAR.matcher(type);
+                    if (type.equals("int"))
                         types.add(Type.INT_TYPE);
-                    else if (els2[1].trim().toLowerCase().equals("string"))
+                    else if (type.equals("string")) {
+                        stringLengths[types.size()] = Type.STRING_LEN;
+                        types.add(Type.STRING_TYPE);
+                    } else if (varchar.matches() && Integer.parseInt(varchar.group(1)) <= Type.STRING_LEN) {
+                        stringLengths[types.size()] = Integer.parseInt(varchar.group(1));
                         types.add(Type.STRING_TYPE);
-                    else {
+                        slotted = true;
+                    } else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
@@ -175,7 +205,31 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                String options = line.substring(line.lastIndexOf(")") + 1).trim();
+                boolean mapped = false, pax = false, compressed = false;
+                for (String option : options.isEmpty() ? new String[0] : options.split("\\s+")) {
+                    if (option.equals("mapped"))
+                        mapped = true;
+                    else if (option.equals("pax") && !slotted)
+                        pax = true;
+                    else if (option.equals("pax")) {
+                        System.out.println("Table " + name + " with varchar columns cannot be pax");
+                        System.exit(0);
+                    } else if (option.equals("compressed") && !slotted)
+                        compressed = true;
+                    else if (option.equals("compressed")) {
+                        System.out.println("Table " + name + " with varchar columns cannot be compressed");
+                        System.exit(0);
+                    } else {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
+                    }
+                }
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                HeapFile tabHf = slotted ? new HeapFile(dataFile, t, stringLengths)
+                        : new HeapFile(dataFile, t, pax, compressed);
+                if (mapped)
+                    tabHf.setMapped(true);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
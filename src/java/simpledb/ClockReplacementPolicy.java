@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK (second chance) page replacement.
+ * <p>
+ * Resident pages sit in a circular array of frames, each with a reference
+ * bit that is set on every hit.  To find a victim the clock hand sweeps the
+ * frames: a page with its bit set gets a second chance (the bit is cleared),
+ * the first evictable page with a clear bit is chosen.  Frequently used
+ * pages such as B+ tree roots keep getting their bit set again and so stay
+ * resident.
+ *
+ * @Threadsafe
+ */
+public class ClockReplacementPolicy implements ReplacementPolicy {
+
+    private final ArrayList<PageId> frames;
+    private final ArrayList<Boolean> referenced;
+    private final HashMap<PageId, Integer> slotOf;
+    private final ArrayDeque<Integer> freeSlots;
+    private int hand = 0;
+
+    /**
+     * @param numPages expected number of resident pages; the clock grows if
+     *   the buffer pool temporarily holds more
+     */
+    public ClockReplacementPolicy(int numPages) {
+        frames = new ArrayList<>(numPages);
+        referenced = new ArrayList<>(numPages);
+        slotOf = new HashMap<>();
+        freeSlots = new ArrayDeque<>();
+    }
+
+    public synchronized void pageAdded(PageId pid) {
+        Integer slot = slotOf.get(pid);
+        if (slot != null) {
+            referenced.set(slot, true);
+            return;
+        }
+        if (freeSlots.isEmpty()) {
+            slot = frames.size();
+            frames.add(pid);
+            referenced.add(true);
+        } else {
+            slot = freeSlots.pop();
+            frames.set(slot, pid);
+            referenced.set(slot, true);
+        }
+        slotOf.put(pid, slot);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        Integer slot = slotOf.get(pid);
+        if (slot != null)
+            referenced.set(slot, true);
+        else
+            pageAdded(pid);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Integer slot = slotOf.remove(pid);
+        if (slot != null) {
+            frames.set(slot, null);
+            referenced.set(slot, false);
+            freeSlots.push(slot);
+        }
+    }
+
+    public synchronized PageId chooseVictim(Predicate<PageId> evictable) {
+        int n = frames.size();
+        // two full sweeps: the first may only clear reference bits
+        for (int step = 0; step < 2 * n; step++) {
+            if (hand >= n) hand = 0;
+            int slot = hand++;
+            PageId pid = frames.get(slot);
+            if (pid == null || !evictable.test(pid))
+                continue;
+            if (referenced.get(slot)) {
+                referenced.set(slot, false);
+                continue;
+            }
+            return pid;
+        }
+        return null;
+    }
+}
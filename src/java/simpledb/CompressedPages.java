@@ -0,0 +1,150 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * CompressedPages maps the page numbers of a compressed heap file to the
+ * extents of the file that hold the pages, compressed by a
+ * {@link PageCodec}.  The map is kept in a sidecar file next to the heap
+ * file (its name with ".map" appended), one entry per page in page order:
+ * the offset of the page's extent, the bytes set aside for it and the
+ * bytes it holds, as a big-endian long and two ints; a page with no
+ * bytes has not been written, and reads as zeroes.
+ * <p>
+ * Extents are set aside in multiples of {@value #ALIGN} bytes.  A page
+ * that still fits its extent when it is written again is written over it;
+ * otherwise it is appended to the file and its old extent is left unused.
+ * Either way the page is written before its entry, so that a crash after
+ * an append leaves the page as it was.
+ *
+ * @Threadsafe
+ */
+class CompressedPages {
+
+    private static final int ENTRY = 16;
+    private static final int ALIGN = 64;
+
+    private final PageIO data;
+    private final PageIO map;
+    /** shared to read an extent, exclusive to move or overwrite one */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private long[] offsets = new long[0];
+    private int[] capacities = new int[0];
+    private int[] lengths = new int[0];
+    private int numPages;
+    /** where the next appended extent goes */
+    private long end;
+
+    /**
+     * Load the map of a compressed heap file.
+     *
+     * @param data the I/O of the heap file
+     * @throws IOException if the heap file holds data but has no map
+     */
+    CompressedPages(File heapFile, PageIO data) throws IOException {
+        this.data = data;
+        File f = sidecar(heapFile);
+        if (!f.exists() && heapFile.length() > 0)
+            throw new IOException(heapFile + " is not a compressed heap file");
+        // an empty map marks the file as compressed before its first page is written
+        f.createNewFile();
+        this.map = new PageIO(f, 0);
+        byte[] entries = new byte[(int) f.length() / ENTRY * ENTRY];
+        if (entries.length > 0)
+            map.read(0, entries);
+        grow(entries.length / ENTRY);
+        for (int page = 0; page < entries.length / ENTRY; page++) {
+            int at = page * ENTRY;
+            offsets[page] = (long) Type.readInt(entries, at) << 32 | Type.readInt(entries, at + 4) & 0xFFFFFFFFL;
+            capacities[page] = Type.readInt(entries, at + 8);
+            lengths[page] = Type.readInt(entries, at + 12);
+            if (lengths[page] > 0) {
+                numPages = page + 1;
+                end = Math.max(end, offsets[page] + capacities[page]);
+            }
+        }
+    }
+
+    /** Forget the map of a heap file that has been overwritten. */
+    static void reset(File heapFile) {
+        sidecar(heapFile).delete();
+    }
+
+    private static File sidecar(File heapFile) {
+        return new File(heapFile.getPath() + ".map");
+    }
+
+    private void grow(int pages) {
+        if (pages <= offsets.length)
+            return;
+        int n = Math.max(pages, offsets.length * 2);
+        offsets = Arrays.copyOf(offsets, n);
+        capacities = Arrays.copyOf(capacities, n);
+        lengths = Arrays.copyOf(lengths, n);
+    }
+
+    /** @return the number of pages, one more than the last page written */
+    int numPages() {
+        lock.readLock().lock();
+        try {
+            return numPages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** @return the bytes of the file its extents take, used or not */
+    long storedBytes() {
+        lock.readLock().lock();
+        try {
+            return end;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** @return the compressed bytes of a page, or null if it has not been written */
+    byte[] read(int pageNo) throws IOException {
+        lock.readLock().lock();
+        try {
+            if (pageNo >= numPages || lengths[pageNo] == 0)
+                return null;
+            byte[] extent = new byte[lengths[pageNo]];
+            data.read(offsets[pageNo], extent);
+            return extent;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Write the compressed bytes of a page, over its extent if they fit there. */
+    void write(int pageNo, byte[] extent) throws IOException {
+        lock.writeLock().lock();
+        try {
+            grow(pageNo + 1);
+            long offset = offsets[pageNo];
+            int capacity = capacities[pageNo];
+            if (lengths[pageNo] == 0 || extent.length > capacity) {
+                offset = end;
+                capacity = (extent.length + ALIGN - 1) / ALIGN * ALIGN;
+            }
+            data.write(offset, extent);
+            byte[] entry = new byte[ENTRY];
+            Type.writeInt(entry, 0, (int) (offset >>> 32));
+            Type.writeInt(entry, 4, (int) offset);
+            Type.writeInt(entry, 8, capacity);
+            Type.writeInt(entry, 12, extent.length);
+            map.write((long) pageNo * ENTRY, entry);
+            offsets[pageNo] = offset;
+            capacities[pageNo] = capacity;
+            lengths[pageNo] = extent.length;
+            numPages = Math.max(numPages, pageNo + 1);
+            end = Math.max(end, offset + capacity);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
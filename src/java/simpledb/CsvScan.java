@@ -0,0 +1,106 @@
+package simpledb;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+/**
+ * CsvScan reads the tuples of a text file with one tuple per line and its
+ * fields separated by a delimiter, such as a file for the COPY statement.
+ * Fields are parsed as the types of the given TupleDesc; blank lines are
+ * skipped.
+ */
+public class CsvScan extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final File f;
+    private final TupleDesc td;
+    private final Pattern delimiter;
+    private transient BufferedReader in;
+    private int lineNo;
+
+    /**
+     * @param f the file to read
+     * @param td the schema of its tuples
+     * @param delimiter the character between the fields of a line
+     */
+    public CsvScan(File f, TupleDesc td, char delimiter) {
+        this.f = f;
+        this.td = td;
+        this.delimiter = Pattern.compile(Pattern.quote(String.valueOf(delimiter)));
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        try {
+            in = new BufferedReader(new FileReader(f));
+        } catch (IOException e) {
+            throw new DbException("cannot read " + f + ": " + e);
+        }
+        lineNo = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // nothing more to read either way
+            }
+            in = null;
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        String line;
+        try {
+            do {
+                line = in.readLine();
+                lineNo++;
+            } while (line != null && line.trim().isEmpty());
+        } catch (IOException e) {
+            throw new DbException("cannot read " + f + ": " + e);
+        }
+        if (line == null)
+            return null;
+        String[] fields = delimiter.split(line, -1);
+        if (fields.length != td.numFields())
+            throw new DbException(f + " line " + lineNo + ": expected " + td.numFields()
+                    + " fields, found " + fields.length);
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < fields.length; i++) {
+            String value = fields[i].trim();
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                try {
+                    t.setField(i, new IntField(Integer.parseInt(value)));
+                } catch (NumberFormatException e) {
+                    throw new DbException(f + " line " + lineNo + ": " + value + " is not an integer");
+                }
+            } else {
+                t.setField(i, new StringField(value, Type.STRING_LEN));
+            }
+        }
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[0];
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+    }
+}
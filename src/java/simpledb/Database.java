@@ -23,7 +23,9 @@ public class Database {
 
     private Database() {
         _catalog = new Catalog();
-        _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        String poolBytes = System.getProperty(BufferPool.POOL_BYTES_PROPERTY);
+        _bufferpool = poolBytes == null ? new BufferPool(BufferPool.DEFAULT_PAGES)
+                : BufferPool.offHeap(Long.parseLong(poolBytes));
         LogFile tmp = null;
         try {
             tmp = new LogFile(new File(LOGFILENAME));
@@ -32,6 +34,7 @@ public class Database {
             System.exit(1);
         }
         _logfile = tmp;
+        Metrics.start();
         // startControllerThread();
     }
 
@@ -55,11 +58,19 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(new BufferPool(pages));
+    }
+
+    /**
+     * Method used for testing -- replace the buffer pool with the given one,
+     * e.g. one made by {@link BufferPool#stealNoForce}, and return it
+     */
+    public static BufferPool resetBufferPool(BufferPool bp) {
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), bp);
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
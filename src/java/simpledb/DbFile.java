@@ -19,6 +19,33 @@ public interface DbFile {
      */
     public Page readPage(PageId id);
 
+    /**
+     * Build a page of this file from its serialized bytes, as produced by
+     * {@link Page#getPageData}.  Used by the buffer pool to decode pages it
+     * keeps off-heap.
+     *
+     * @throws UnsupportedOperationException if the file cannot decode pages
+     */
+    public default Page decodePage(PageId id, byte[] data) throws IOException {
+        throw new UnsupportedOperationException(getClass().getName() + " cannot decode pages");
+    }
+
+    /**
+     * Read the file through a memory mapping, or stop doing so.  Meant for
+     * read-mostly tables; writes still go through ordinary file I/O.
+     *
+     * @throws UnsupportedOperationException if the file cannot be mapped
+     * @see PageIO#setMapped
+     */
+    public default void setMapped(boolean on) {
+        throw new UnsupportedOperationException(getClass().getName() + " cannot be mapped");
+    }
+
+    /** @return true if the file is read through a memory mapping */
+    public default boolean isMapped() {
+        return false;
+    }
+
     /**
      * Push the specified page to disk.
      *
@@ -28,6 +55,17 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Push several pages of this file to disk, sorted by page number.
+     * Files that can write runs of adjacent pages at once override this.
+     *
+     * @throws IOException if a write fails
+     */
+    public default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages)
+            writePage(p);
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -68,6 +106,19 @@ public interface DbFile {
      */
     public DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over all the tuples stored in this DbFile that
+     * loads pages into the given ring of buffer frames rather than the
+     * shared pool; see {@link BufferRing}.  Files that cannot scan through
+     * a ring return {@link #iterator(TransactionId)}.
+     *
+     * @param ring the ring to scan through, or null for the shared pool
+     * @return an iterator over all the tuples stored in this DbFile.
+     */
+    public default DbFileIterator iterator(TransactionId tid, BufferRing ring) {
+        return iterator(tid);
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
@@ -0,0 +1,168 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * DeadlockDetector maintains the waits-for graph of the transactions blocked
+ * in the LockManager and breaks cycles as soon as they appear.
+ * <p>
+ * The LockManager reports, for every waiting lock request, the transactions
+ * it is waiting for (incompatible holders and the request queued ahead of
+ * it), and updates that set whenever the page's lock queue changes.  When a
+ * request is queued the detector searches for a cycle through its
+ * transaction; if one is found a victim is chosen from the cycle by
+ * the configured {@link VictimPolicy} and its waiting requests are woken as
+ * aborted, which makes them throw a {@link DeadlockException}.  Every other
+ * transaction keeps waiting.
+ * <p>
+ * The victim policy is chosen with the system property
+ * simpledb.LockManager.victim ("youngest", "fewest-locks" or "least-work").
+ *
+ * @Threadsafe
+ */
+public class DeadlockDetector {
+
+    /** Name of the system property used to pick the victim policy. */
+    public static final String VICTIM_PROPERTY = "simpledb.LockManager.victim";
+
+    /** How to pick the transaction to abort from a waits-for cycle. */
+    public enum VictimPolicy {
+        /** abort the most recently started transaction */
+        YOUNGEST,
+        /** abort the transaction holding the fewest locks */
+        FEWEST_LOCKS,
+        /** abort the transaction that has taken the fewest exclusive locks */
+        LEAST_WORK;
+
+        /**
+         * @param name "youngest", "fewest-locks" or "least-work"
+         * @throws IllegalArgumentException if the name is not recognized
+         */
+        public static VictimPolicy fromName(String name) {
+            return valueOf(name.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    private final LockManager lm;
+    private volatile VictimPolicy policy;
+    /** waiting transaction -> its waiting requests -> transactions each request waits for */
+    private final HashMap<TransactionId, HashMap<LockManager.LockRequest, Set<TransactionId>>> waitsFor;
+    private long deadlocks = 0;
+
+    public DeadlockDetector(LockManager lm, VictimPolicy policy) {
+        this.lm = lm;
+        this.policy = policy;
+        waitsFor = new HashMap<>();
+    }
+
+    public VictimPolicy getVictimPolicy() {
+        return policy;
+    }
+
+    public void setVictimPolicy(VictimPolicy policy) {
+        this.policy = policy;
+    }
+
+    /** @return the number of deadlocks detected (and victims aborted) so far */
+    public synchronized long getDeadlockCount() {
+        return deadlocks;
+    }
+
+    /** Record the transactions a waiting request is blocked by. */
+    synchronized void setBlockers(LockManager.LockRequest req, Set<TransactionId> blockers) {
+        if (req.aborted)
+            return;
+        waitsFor.computeIfAbsent(req.tid, k -> new HashMap<>()).put(req, blockers);
+    }
+
+    /**
+     * Break every cycle through a waiting request.  Called for each newly
+     * queued request, which may close several cycles at once, and for the
+     * waiters left behind when a request stops waiting without a grant.
+     * Grants and releases otherwise only shrink what a waiter can reach.
+     */
+    synchronized void checkForDeadlock(LockManager.LockRequest req) {
+        List<TransactionId> cycle;
+        while (!req.aborted && (cycle = findCycle(req.tid)) != null)
+            abort(chooseVictim(cycle));
+    }
+
+    /** Forget a request that was granted or gave up waiting. */
+    synchronized void remove(LockManager.LockRequest req) {
+        HashMap<LockManager.LockRequest, Set<TransactionId>> reqs = waitsFor.get(req.tid);
+        if (reqs == null)
+            return;
+        reqs.remove(req);
+        if (reqs.isEmpty())
+            waitsFor.remove(req.tid);
+    }
+
+    private Set<TransactionId> blockersOf(TransactionId tid) {
+        HashMap<LockManager.LockRequest, Set<TransactionId>> reqs = waitsFor.get(tid);
+        if (reqs == null)
+            return Collections.emptySet();
+        if (reqs.size() == 1)
+            return reqs.values().iterator().next();
+        Set<TransactionId> all = new HashSet<>();
+        for (Set<TransactionId> s : reqs.values())
+            all.addAll(s);
+        return all;
+    }
+
+    /** @return the transactions on a waits-for cycle through start, or null */
+    private List<TransactionId> findCycle(TransactionId start) {
+        ArrayList<TransactionId> path = new ArrayList<>();
+        path.add(start);
+        return dfs(start, path, new HashSet<>()) ? path : null;
+    }
+
+    private boolean dfs(TransactionId tid, ArrayList<TransactionId> path, Set<TransactionId> visited) {
+        for (TransactionId next : blockersOf(tid)) {
+            if (next.equals(path.get(0)))
+                return true;
+            if (!waitsFor.containsKey(next) || !visited.add(next))
+                continue;  // not waiting, or already explored
+            path.add(next);
+            if (dfs(next, path, visited))
+                return true;
+            path.remove(path.size() - 1);
+        }
+        return false;
+    }
+
+    private TransactionId chooseVictim(List<TransactionId> cycle) {
+        TransactionId victim = null;
+        long victimCost = 0;
+        for (TransactionId tid : cycle) {
+            long cost;
+            switch (policy) {
+            case FEWEST_LOCKS:
+                cost = lm.numLocksHeld(tid);
+                break;
+            case LEAST_WORK:
+                cost = lm.numExclusiveGrants(tid);
+                break;
+            default:
+                cost = 0;
+            }
+            // ties go to the youngest transaction
+            if (victim == null || cost < victimCost
+                    || (cost == victimCost && tid.getId() > victim.getId())) {
+                victim = tid;
+                victimCost = cost;
+            }
+        }
+        return victim;
+    }
+
+    private void abort(TransactionId victim) {
+        deadlocks++;
+        HashMap<LockManager.LockRequest, Set<TransactionId>> reqs = waitsFor.remove(victim);
+        for (LockManager.LockRequest req : reqs.keySet()) {
+            synchronized (req) {
+                req.aborted = true;
+                req.notify();
+            }
+        }
+    }
+}
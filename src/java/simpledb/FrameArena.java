@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * FrameArena is a fixed pool of page-sized frames in pre-allocated direct
+ * (off-heap) memory.  The BufferPool uses it in off-heap mode to keep the
+ * raw bytes of cached pages out of the Java heap.
+ * <p>
+ * The arena is split into chunks of at most 1GB, so it can be larger than a
+ * single ByteBuffer.  Reads and writes of different frames may run
+ * concurrently; allocating and freeing frames must be serialized by the
+ * caller.
+ */
+public class FrameArena {
+
+    private static final long MAX_CHUNK_BYTES = 1L << 30;
+
+    private final int frameSize;
+    private final int numFrames;
+    private final int framesPerChunk;
+    private final ByteBuffer[] chunks;
+    /** number of valid bytes in each frame */
+    private final int[] lengths;
+    private final int[] freeFrames;
+    private int numFree;
+
+    /**
+     * @param numFrames the number of frames to allocate
+     * @param frameSize the size of a frame in bytes, i.e. the page size
+     */
+    public FrameArena(int numFrames, int frameSize) {
+        this.frameSize = frameSize;
+        this.numFrames = numFrames;
+        framesPerChunk = (int) Math.max(1, MAX_CHUNK_BYTES / frameSize);
+        int numChunks = (numFrames + framesPerChunk - 1) / framesPerChunk;
+        chunks = new ByteBuffer[numChunks];
+        for (int i = 0; i < numChunks; i++) {
+            int frames = Math.min(framesPerChunk, numFrames - i * framesPerChunk);
+            chunks[i] = ByteBuffer.allocateDirect(frames * frameSize);
+        }
+        lengths = new int[numFrames];
+        freeFrames = new int[numFrames];
+        // hand out low frame numbers first
+        for (int i = 0; i < numFrames; i++)
+            freeFrames[i] = numFrames - 1 - i;
+        numFree = numFrames;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public int getNumFrames() {
+        return numFrames;
+    }
+
+    /** @return the number of frames not currently allocated */
+    public int getNumFree() {
+        return numFree;
+    }
+
+    /** @return the arena size in bytes */
+    public long getCapacityBytes() {
+        return (long) numFrames * frameSize;
+    }
+
+    /** @return a free frame number, or -1 if every frame is in use */
+    public int allocate() {
+        if (numFree == 0)
+            return -1;
+        return freeFrames[--numFree];
+    }
+
+    /** Return a frame to the free list. */
+    public void free(int frame) {
+        lengths[frame] = 0;
+        freeFrames[numFree++] = frame;
+    }
+
+    /**
+     * Copy data into a frame.
+     *
+     * @throws IllegalArgumentException if data does not fit in a frame
+     */
+    public void write(int frame, byte[] data) {
+        if (data.length > frameSize)
+            throw new IllegalArgumentException("page of " + data.length
+                    + " bytes does not fit in a " + frameSize + " byte frame");
+        ByteBuffer b = slot(frame);
+        b.put(data);
+        lengths[frame] = data.length;
+    }
+
+    /** @return a copy of the bytes last written to the frame */
+    public byte[] read(int frame) {
+        byte[] data = new byte[lengths[frame]];
+        slot(frame).get(data);
+        return data;
+    }
+
+    /** a private view of the buffer positioned at the start of the frame */
+    private ByteBuffer slot(int frame) {
+        ByteBuffer b = chunks[frame / framesPerChunk].duplicate();
+        b.position((frame % framesPerChunk) * frameSize);
+        return b;
+    }
+}
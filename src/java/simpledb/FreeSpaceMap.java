@@ -0,0 +1,69 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers which pages of a heap file are full, so that an
+ * insert can go straight to a page with a free slot instead of locking
+ * every page from the start of the file.  It is kept in a sidecar file
+ * next to the heap file (its name with ".fsm" appended), one bit per page
+ * in page order, set when the page is full.
+ * <p>
+ * The map is only a hint, and is not logged or forced: a page marked as
+ * having room that turns out to be full costs one probe, after which it
+ * is marked full.  Pages past the end of the sidecar, and all pages of a
+ * file without one, are taken to have room.  A page marked full that has
+ * room again, e.g. after a crash or an abort, is corrected when it is next
+ * read from or written to disk.
+ *
+ * @Threadsafe
+ */
+class FreeSpaceMap {
+
+    private final PageIO io;
+    private final BitSet full;
+
+    /** Load the map of a heap file from its sidecar, if there is one. */
+    FreeSpaceMap(File heapFile) throws IOException {
+        File f = sidecar(heapFile);
+        io = new PageIO(f, 0);
+        byte[] bits = new byte[f.exists() ? (int) f.length() : 0];
+        if (bits.length > 0)
+            io.read(0, bits);
+        full = BitSet.valueOf(bits);
+    }
+
+    /** Forget the map of a heap file that has been overwritten. */
+    static void reset(File heapFile) {
+        sidecar(heapFile).delete();
+    }
+
+    private static File sidecar(File heapFile) {
+        return new File(heapFile.getPath() + ".fsm");
+    }
+
+    /** @return the first page at or after from that may have room, or numPages if none does */
+    synchronized int nextWithRoom(int from, int numPages) {
+        return Math.min(full.nextClearBit(from), numPages);
+    }
+
+    /** Record whether a page has a free slot. */
+    synchronized void setRoom(int pageNo, boolean room) {
+        if (full.get(pageNo) != room)
+            return;
+        full.set(pageNo, !room);
+        byte b = 0;
+        int first = pageNo & ~7;
+        for (int i = 0; i < 8; i++) {
+            if (full.get(first + i))
+                b |= 1 << i;
+        }
+        try {
+            io.write(pageNo >> 3, new byte[] {b});
+        } catch (IOException e) {
+            // the map is only a hint; it stays correct in memory
+        }
+    }
+}
@@ -2,20 +2,71 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
  * in no particular order. Tuples are stored on pages, each of which is a fixed
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * constructor.  A file may instead use the {@link SlottedHeapPage} or the
+ * {@link PaxHeapPage} layout, chosen when it is constructed.  A file of
+ * HeapPages or PaxHeapPages may also be compressed: its pages are stored
+ * compressed by a {@link PageCodec}, where {@link CompressedPages} maps
+ * them, and are decompressed as they are read, so that the BufferPool
+ * holds them as they are.
+ * <p>
+ * Inserts find a page with a free slot through the file's
+ * {@link FreeSpaceMap}, loaded on the first insert or delete; with the
+ * system property simpledb.HeapFile.freeSpaceMap set to false they probe
+ * the pages in order instead.
+ * <p>
+ * The {@link ZoneMap} of the file, loaded on the first insert, write or
+ * scan with a predicate, keeps the range of each int field on each page,
+ * which {@link #iterator(TransactionId, BufferRing, int[], Predicate[])}
+ * uses to skip pages.
+ * <p>
+ * Each inserting transaction fills a page of its own, so that concurrent
+ * inserters do not queue for the lock of the first page with room: it
+ * keeps inserting into its page until the page is full, and other
+ * inserters pass over that page until the transaction completes.  When no
+ * unclaimed page has room the file is extended by a page for the
+ * transaction.  Setting simpledb.HeapFile.insertPages to false makes all
+ * inserters take the first page with room.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
+
+    /** Name of the system property that turns per-transaction insert pages off when false. */
+    public static final String INSERT_PAGES_PROPERTY = "simpledb.HeapFile.insertPages";
+
+    /** Name of the system property that turns the free-space map off when false. */
+    public static final String FREE_SPACE_MAP_PROPERTY = "simpledb.HeapFile.freeSpaceMap";
+
     private File f;
     private TupleDesc td;
+    /** the longest value of each string column, or null for fixed-width pages */
+    private final int[] stringLengths;
+    private final boolean pax;
+    private final boolean compressed;
+    private final PageIO io;
+    /** null until the first I/O of a compressed file */
+    private volatile CompressedPages extents;
+    /** null until the first page of a compressed file is read or written */
+    private volatile PageCodec codec;
+    private final boolean useFreeSpaceMap =
+            Boolean.parseBoolean(System.getProperty(FREE_SPACE_MAP_PROPERTY, "true"));
+    /** null until the first insert or delete */
+    private volatile FreeSpaceMap freeSpace;
+    /** null until the first insert, write or scan with a predicate */
+    private volatile ZoneMap zones;
+    private final boolean perTransactionPages =
+            Boolean.parseBoolean(System.getProperty(INSERT_PAGES_PROPERTY, "true"));
+    /** the page each inserting transaction fills, and the transaction filling each page */
+    private final ConcurrentHashMap<TransactionId, Integer> insertPages = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, TransactionId> inserters = new ConcurrentHashMap<>();
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -25,8 +76,52 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, null);
+    }
+
+    /**
+     * Constructs a heap file that stores its tuples in
+     * {@link SlottedHeapPage}s, taking only the space of their strings,
+     * rather than in fixed-width {@link HeapPage}s.
+     *
+     * @param stringLengths
+     *            the most characters stored of each string column, at most
+     *            {@link Type#STRING_LEN}; null for fixed-width pages.
+     */
+    public HeapFile(File f, TupleDesc td, int[] stringLengths) {
+        this(f, td, stringLengths, false);
+    }
+
+    /**
+     * Constructs a heap file that stores its tuples column by column in
+     * {@link PaxHeapPage}s if pax is true, or in fixed-width
+     * {@link HeapPage}s.
+     */
+    public HeapFile(File f, TupleDesc td, boolean pax) {
+        this(f, td, pax, false);
+    }
+
+    /**
+     * Constructs a heap file like {@link #HeapFile(File, TupleDesc, boolean)}
+     * that stores its pages compressed if compressed is true.  The file
+     * must be empty or have been written compressed.
+     */
+    public HeapFile(File f, TupleDesc td, boolean pax, boolean compressed) {
+        this(f, td, null, pax, compressed);
+    }
+
+    private HeapFile(File f, TupleDesc td, int[] stringLengths, boolean pax) {
+        this(f, td, stringLengths, pax, false);
+    }
+
+    private HeapFile(File f, TupleDesc td, int[] stringLengths, boolean pax, boolean compressed) {
         this.f = f;
         this.td = td;
+        this.stringLengths = stringLengths == null ? null : stringLengths.clone();
+        this.pax = pax;
+        this.compressed = compressed;
+        // compressed pages are appended in extents of their own size
+        this.io = compressed ? new PageIO(f, 0) : new PageIO(f);
     }
 
     /**
@@ -51,6 +146,54 @@ public class HeapFile implements DbFile {
         return f.getAbsoluteFile().hashCode();
     }
 
+    /** @return true if this file stores its tuples in {@link SlottedHeapPage}s */
+    public boolean isSlotted() {
+        return stringLengths != null;
+    }
+
+    /** @return the most characters stored of each string column, or null for fixed-width pages */
+    int[] getStringLengths() {
+        return stringLengths;
+    }
+
+    /** @return true if this file stores its tuples in {@link PaxHeapPage}s */
+    public boolean isPax() {
+        return pax;
+    }
+
+    /** @return true if this file stores its pages compressed */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /** @return the map of the pages of a compressed file, loading it if needed */
+    private CompressedPages extents() throws IOException {
+        CompressedPages cp = extents;
+        if (cp == null) {
+            synchronized (this) {
+                cp = extents;
+                if (cp == null)
+                    extents = cp = new CompressedPages(f, io);
+            }
+        }
+        return cp;
+    }
+
+    /** @return the codec of the pages of a compressed file */
+    private PageCodec codec() throws IOException {
+        PageCodec c = codec;
+        if (c == null)
+            codec = c = new PageCodec(newPage(new HeapPageId(getId(), 0), HeapPage.createEmptyPageData()));
+        return c;
+    }
+
+    /** @return a page of this file holding data, which the caller must not change afterwards */
+    HeapPage newPage(HeapPageId pid, byte[] data) throws IOException {
+        if (isSlotted())
+            return new SlottedHeapPage(pid, data);
+        return pax ? new PaxHeapPage(pid, data) : new HeapPage(pid, data);
+    }
+
     /**
      * Returns the TupleDesc of the table stored in this DbFile.
      * 
@@ -65,15 +208,21 @@ public class HeapFile implements DbFile {
         byte[] container = new byte[BufferPool.getPageSize()];
         Page targetPage = null;
         try{
-            InputStream is = new FileInputStream(f);
-            int offset = pid.getPageNumber() * BufferPool.getPageSize();
-            if(offset > 0)
-                is.skip(offset);
-
-            is.read(container);
-            targetPage = new HeapPage((HeapPageId)pid,container);
-            is.close();
-
+            if (compressed) {
+                byte[] extent = extents().read(pid.getPageNumber());
+                if (extent != null)
+                    codec().decode(extent, container);
+                targetPage = decodePage(pid, container);
+            } else {
+                // a mapped file is copied from the mapping, which changes
+                // when the page is written back
+                io.read(offsetOf(pid), container);
+                targetPage = decodePage(pid, container);
+            }
+            noteFreeSpace(targetPage);
+            ZoneMap zm = zones;
+            if (zm != null)
+                zm.measure((HeapPage) targetPage);
         }catch (IOException e){
             e.printStackTrace();
         }
@@ -81,20 +230,115 @@ public class HeapFile implements DbFile {
         return targetPage;
     }
 
+    // see DbFile.java for javadocs
+    public Page decodePage(PageId pid, byte[] data) throws IOException {
+        return newPage((HeapPageId) pid, data);
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        RandomAccessFile raf = new RandomAccessFile(f,"rw");
-        int offset = page.getId().getPageNumber() * BufferPool.getPageSize();
-        raf.seek(offset);
-        raf.write(page.getPageData());
-        raf.close();
+        ZoneMap zm = summaries();
+        if (zm != null)
+            zm.cover((HeapPage) page);
+        if (compressed)
+            extents().write(page.getId().getPageNumber(), codec().encode(page.getPageData()));
+        else
+            io.write(offsetOf(page.getId()), page.getPageData());
+        noteFreeSpace(page);
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        ZoneMap zm = summaries();
+        if (zm != null) {
+            for (Page p : pages)
+                zm.cover((HeapPage) p);
+        }
+        if (compressed) {
+            for (Page p : pages)
+                extents().write(p.getId().getPageNumber(), codec().encode(p.getPageData()));
+        } else {
+            io.writePages(pages, this::offsetOf);
+        }
+        for (Page p : pages)
+            noteFreeSpace(p);
+    }
+
+    /** @return the free-space map, loading it if needed; null if it is turned off */
+    FreeSpaceMap getFreeSpaceMap() throws IOException {
+        if (!useFreeSpaceMap)
+            return null;
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm == null) {
+            synchronized (this) {
+                fsm = freeSpace;
+                if (fsm == null)
+                    freeSpace = fsm = new FreeSpaceMap(f);
+            }
+        }
+        return fsm;
+    }
+
+    /** @return the first page at or after pageNo that may have a free slot, or numPages() */
+    int nextPageWithRoom(int pageNo) throws IOException {
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        return fsm == null ? Math.min(pageNo, numPages()) : fsm.nextWithRoom(pageNo, numPages());
+    }
+
+    /** Record in the free-space map, if it is loaded, whether a page has a free slot. */
+    void noteFreeSpace(Page p) {
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm != null && p != null)
+            fsm.setRoom(p.getId().getPageNumber(), ((HeapPage) p).getNumEmptySlots() > 0);
+    }
+
+    /**
+     * @return the zone map if it may summarize pages, that is if it is
+     *   loaded or has a sidecar, loading it then; null if it summarizes none
+     */
+    ZoneMap summaries() throws IOException {
+        return zones != null || ZoneMap.exists(f) ? getZoneMap() : null;
+    }
+
+    /** @return the zone map, loading it if needed */
+    ZoneMap getZoneMap() throws IOException {
+        ZoneMap zm = zones;
+        if (zm == null) {
+            synchronized (this) {
+                zm = zones;
+                if (zm == null)
+                    zones = zm = new ZoneMap(f, td);
+            }
+        }
+        return zm;
+    }
+
+    // see DbFile.java for javadocs
+    public void setMapped(boolean on) {
+        io.setMapped(on);
+    }
+
+    // see DbFile.java for javadocs
+    public boolean isMapped() {
+        return io.isMapped();
+    }
+
+    private long offsetOf(PageId pid) {
+        return (long) pid.getPageNumber() * BufferPool.getPageSize();
     }
 
     /**
      * Returns the number of pages in this HeapFile.
      */
     public int numPages() {
-        return (int)(f.length() / BufferPool.getPageSize());
+        if (compressed) {
+            try {
+                return extents().numPages();
+            } catch (IOException e) {
+                throw new RuntimeException("could not load the page map of " + f, e);
+            }
+        }
+        return (int)(io.size() / BufferPool.getPageSize());
     }
 
     // see DbFile.java for javadocs
@@ -104,30 +348,79 @@ public class HeapFile implements DbFile {
             return null;
         }
         ArrayList<Page> pages = new ArrayList<>();
-        int pageNo = 0;
-        int pageNum = numPages();
-        HeapPage thisPage;
-
-        for (; pageNo < pageNum; pageNo++){
+        Integer mine = perTransactionPages ? insertPages.get(tid) : null;
+        int pageNo = mine != null ? mine : nextPageWithRoom(0);
+        while (true) {
+            if (pageNo >= numPages())
+                pageNo = extend(tid);
+            else if ((mine == null || mine != pageNo) && !claim(tid, pageNo)) {
+                pageNo = nextPageWithRoom(pageNo + 1);
+                continue;
+            }
             HeapPageId pid = new HeapPageId(getId(), pageNo);
-            thisPage = (HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-            if(thisPage.getNumEmptySlots() != 0){
-                thisPage.insertTuple(t);
-//                thisPage.markDirty(true, tid);
-                pages.add(thisPage);
+            HeapPage thisPage = (HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            long latched = thisPage.getLatch().acquireExclusive();
+            try {
+                if(thisPage.getNumEmptySlots() != 0){
+                    thisPage.insertTuple(t);
+//                    thisPage.markDirty(true, tid);
+                    pages.add(thisPage);
+                }
+            } finally {
+                thisPage.getLatch().releaseExclusive(latched);
+            }
+            if (!pages.isEmpty()) {
+                // a map loaded since has not read the page from disk
+                ZoneMap zm = summaries();
+                if (zm != null)
+                    zm.widen(pageNo, t);
                 return pages;
-            }else {
-                Database.getBufferPool().releasePage(tid, pid);
             }
+            noteFreeSpace(thisPage);
+            if (perTransactionPages) {
+                insertPages.remove(tid, pageNo);
+                inserters.remove(pageNo, tid);
+            }
+            // keep the lock on a page the transaction has changed
+            if (thisPage.isDirty() == null)
+                Database.getBufferPool().releasePage(tid, pid);
+            mine = null;
+            pageNo = nextPageWithRoom(pageNo + 1);
         }
+    }
 
-        thisPage = new HeapPage(new HeapPageId(getId(), pageNo), new byte[BufferPool.getPageSize()]);
-        thisPage.insertTuple(t);
-//        thisPage.markDirty(true, tid);
-        writePage(thisPage);
-        pages.add(thisPage);
-        return pages;
+    /**
+     * Make a page the transaction's insert page, unless another inserting
+     * transaction that still locks it has it.
+     *
+     * @return true if the page is the transaction's
+     */
+    private boolean claim(TransactionId tid, int pageNo) {
+        if (!perTransactionPages)
+            return true;
+        TransactionId owner = inserters.get(pageNo);
+        if (owner != null && !owner.equals(tid)) {
+            if (Database.getBufferPool().holdsLock(owner, new HeapPageId(getId(), pageNo)))
+                return false;
+            // the owner has completed
+            if (!inserters.replace(pageNo, owner, tid))
+                return false;
+            insertPages.remove(owner, pageNo);
+        } else if (owner == null && inserters.putIfAbsent(pageNo, tid) != null) {
+            return false;
+        }
+        Integer previous = insertPages.put(tid, pageNo);
+        if (previous != null && previous != pageNo)
+            inserters.remove(previous, tid);
+        return true;
+    }
 
+    /** Append an empty page, claimed by the transaction. @return its number */
+    private synchronized int extend(TransactionId tid) throws IOException {
+        int pageNo = numPages();
+        writePage(newPage(new HeapPageId(getId(), pageNo), HeapPage.createEmptyPageData()));
+        claim(tid, pageNo);
+        return pageNo;
     }
 
     // see DbFile.java for javadocs
@@ -140,6 +433,12 @@ public class HeapFile implements DbFile {
 
         HeapPage tarPage = (HeapPage)Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
         tarPage.deleteTuple(t);
+        try {
+            getFreeSpaceMap();
+        } catch (IOException e) {
+            throw new DbException("could not load the free-space map of " + getId() + ": " + e);
+        }
+        noteFreeSpace(tarPage);
 //        tarPage.markDirty(true, tid);
         pages.add(tarPage);
         return pages;
@@ -147,24 +446,101 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid, BufferRing ring) {
+        return iterator(tid, ring, null);
+    }
+
+    /**
+     * Returns an iterator like {@link #iterator(TransactionId, BufferRing)}
+     * over tuples of only some fields of the tuples in this file, which
+     * decodes no other fields.
+     *
+     * @param columns the fields of each tuple to return, in order, or null
+     *   for all
+     */
+    public DbFileIterator iterator(TransactionId tid, BufferRing ring, int[] columns) {
+        return iterator(tid, ring, columns, null);
+    }
+
+    /**
+     * Returns an iterator like {@link #iterator(TransactionId, BufferRing, int[])}
+     * over only the tuples that satisfy all of some predicates, which does
+     * not read the pages whose zone map shows they hold none.
+     *
+     * @param predicates the predicates, on the fields of the returned
+     *   tuples, or null for none
+     */
+    public DbFileIterator iterator(TransactionId tid, BufferRing ring, int[] columns,
+            Predicate[] predicates) {
+        TupleDesc projected = columns == null ? null : project(columns);
+        Predicate[] preds = predicates == null ? new Predicate[0] : predicates.clone();
+        ZoneMap zm;
+        try {
+            zm = preds.length == 0 ? null : getZoneMap();
+        } catch (IOException e) {
+            // scan every page
+            zm = null;
+        }
+        ZoneMap zoneMap = zm;
+        // a snapshot may need an older version of a page than the one summarized
+        VersionStore versions = Database.getBufferPool().isSnapshot(tid)
+                ? Database.getBufferPool().getVersionStore() : null;
         return new AbstractDbFileIterator() {
             Iterator<Tuple> currentPageI;
             int i;
             boolean open = false;
+            Prefetcher.Stream pages;
 
             @Override
             protected Tuple readNext() throws DbException, TransactionAbortedException {
                 if(!open)
                     return null;
-                if (currentPageI.hasNext())
-                    return currentPageI.next();
-                else {
-                    if(i < numPages()){
-                        currentPageI = ((HeapPage)(Database.getBufferPool().getPage(tid, new HeapPageId(getId(), i++), Permissions.READ_ONLY))).iterator();
-                        return this.readNext();
-                    }else return null;
+                while (true) {
+                    while (currentPageI.hasNext()) {
+                        Tuple t = currentPageI.next();
+                        if (satisfies(t))
+                            return t;
+                    }
+                    i = nextPage(i);
+                    if (i >= numPages())
+                        return null;
+                    currentPageI = ((HeapPage) pages.getPage(tid, new HeapPageId(getId(), i++)))
+                            .iterator(columns, projected);
                 }
+            }
 
+            private boolean satisfies(Tuple t) {
+                for (Predicate p : preds) {
+                    if (!p.filter(t))
+                        return false;
+                }
+                return true;
+            }
+
+            /** @return the first page at or after pageNo the zone map does not rule out */
+            private int nextPage(int pageNo) {
+                if (zoneMap == null)
+                    return pageNo;
+                int n = numPages();
+                for (; pageNo < n; pageNo++) {
+                    if (versions != null && versions.isTracked(new HeapPageId(getId(), pageNo)))
+                        return pageNo;
+                    boolean excluded = false;
+                    for (Predicate p : preds) {
+                        int col = columns == null ? p.getField() : columns[p.getField()];
+                        if (zoneMap.excludes(pageNo, col, p)) {
+                            excluded = true;
+                            break;
+                        }
+                    }
+                    if (!excluded)
+                        return pageNo;
+                }
+                return n;
             }
 
             @Override
@@ -182,16 +558,37 @@ public class HeapFile implements DbFile {
             public void close() {
                 super.close();
                 currentPageI = null;
+                pages = null;
                 open = false;
             }
 
             @Override
             public void rewind() throws DbException, TransactionAbortedException {
-                currentPageI = ((HeapPage)(Database.getBufferPool().getPage(tid, new HeapPageId(getId(), 0), Permissions.READ_ONLY))).iterator();
-                i = 1;
+                pages = Database.getBufferPool().getPrefetcher().newStream((pid, page) -> {
+                    int next = nextPage(pid.getPageNumber() + 1);
+                    return next < numPages() ? new HeapPageId(getId(), next) : null;
+                }, ring);
+                i = nextPage(0);
+                if (i < numPages()) {
+                    currentPageI = ((HeapPage) pages.getPage(tid, new HeapPageId(getId(), i++)))
+                            .iterator(columns, projected);
+                } else {
+                    currentPageI = Collections.emptyIterator();
+                }
             }
         };
     }
 
+    /** @return the TupleDesc of some fields of this file's tuples */
+    private TupleDesc project(int[] columns) {
+        Type[] types = new Type[columns.length];
+        String[] names = new String[columns.length];
+        for (int j = 0; j < columns.length; j++) {
+            types[j] = td.getFieldType(columns[j]);
+            names[j] = td.getFieldName(columns[j]);
+        }
+        return new TupleDesc(types, names);
+    }
+
 }
 
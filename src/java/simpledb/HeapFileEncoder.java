@@ -106,6 +106,10 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    FreeSpaceMap.reset(outFile);
+    ZoneMap.reset(outFile);
+    CompressedPages.reset(outFile);
+    PageIO.reset(outFile);
 
     // our numbers probably won't be much larger than 1024 digits
     char buf[] = new char[1024];
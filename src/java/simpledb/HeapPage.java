@@ -15,12 +15,26 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
-    final Tuple tuples[];
     final int numSlots;
+    final int headerSize;
+    private final int tupleSize;
+    /** the offset of each field within a tuple */
+    final int[] fieldOffsets;
+
+    /**
+     * The bytes of this page, which are its only copy of the header and the
+     * tuples; fields are decoded from them when asked for.  While shared,
+     * the array may also be held by the creator of the page or by
+     * iterators, and is copied before it is first changed.
+     */
+    byte[] data;
+    /** the tuples decoded from data by iterators, kept for later scans */
+    private Tuple[] decoded;
+    private volatile boolean shared;
 
     byte[] oldData;
-    private final Byte oldDataLock=new Byte((byte)0);
+    private final Object oldDataLock = new Object();
+    private final PageLatch latch = new PageLatch();
     private boolean isDirty = false;
     private TransactionId tid;
 
@@ -36,6 +50,9 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * The page reads data in place rather than copying or parsing it, so
+     * the caller must not change data afterwards.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
@@ -44,26 +61,56 @@ public class HeapPage implements Page {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+        this.headerSize = getHeaderSize();
+        this.tupleSize = td.getSize();
+        this.fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
+        if (data.length < headerSize + numSlots * tupleSize)
+            throw new IOException("page " + id.getPageNumber() + " has only " + data.length + " bytes");
+        adopt(data);
+    }
+
+    /**
+     * Create a page of a subclass that lays out its slots differently; the
+     * subclass calls {@link #adopt} once it can read them.
+     */
+    HeapPage(HeapPageId id) {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.numSlots = 0;
+        this.headerSize = 0;
+        this.tupleSize = 0;
+        this.fieldOffsets = null;
+    }
+
+    /** Make data, which the caller no longer changes, the bytes of this page */
+    void adopt(byte[] data) {
+        this.data = data;
+        this.decoded = new Tuple[slotCount(data)];
+        this.shared = true;
 
         setBeforeImage();
     }
 
+    /**
+     * Create a HeapPage from a copy of the page-size bytes remaining in
+     * data, such as a slice of a memory-mapped file.  The page cannot
+     * adopt a mapped slice, because the mapping changes when the page is
+     * written back, under the before image and iterators sharing it.
+     *
+     * @see PageIO#mappedSlice
+     */
+    public HeapPage(HeapPageId id, java.nio.ByteBuffer data) throws IOException {
+        this(id, copy(data));
+    }
+
+    static byte[] copy(java.nio.ByteBuffer data) {
+        byte[] bytes = new byte[BufferPool.getPageSize()];
+        data.duplicate().get(bytes);
+        return bytes;
+    }
+
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
@@ -89,7 +136,7 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid,oldDataRef);
+            return withData(oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -98,10 +145,30 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /** @return a page of the same kind and id as this one holding data */
+    HeapPage withData(byte[] data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
+    /** Make the page bytes the before image, sharing them until they change */
     public void setBeforeImage() {
+        long latched = latch.acquireShared();
+        try {
+            shared = true;
+            synchronized(oldDataLock)
+            {
+            oldData = data;
+            }
+        } finally {
+            latch.releaseShared(latched);
+        }
+    }
+
+    /** Make data, the contents of a page with the same id, the before image */
+    void setBeforeImage(byte[] data) {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = data.clone();
         }
     }
 
@@ -112,37 +179,27 @@ public class HeapPage implements Page {
         return pid;
     }
 
-    /**
-     * Suck up tuples from the source file.
-     */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
+    /** @return the number of slots, used or not, in the page bytes */
+    int slotCount(byte[] bytes) {
+        return numSlots;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
+    /** @return the offset in the page bytes of a field of the tuple in a used slot */
+    int fieldOffset(byte[] bytes, int slot, int col) {
+        return headerSize + slot * tupleSize + fieldOffsets[col];
+    }
 
+    /** @return a field of the tuple in a used slot of the page bytes, decoded from them */
+    Field decodeField(byte[] bytes, int slot, int col) {
+        return td.getFieldType(col).parse(bytes, fieldOffset(bytes, slot, col));
+    }
+
+    /** @return the tuple in a used slot of the page bytes, decoded from them */
+    Tuple decode(byte[] bytes, int slotId) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        for (int j=0; j<td.numFields(); j++)
+            t.setField(j, decodeField(bytes, slotId, j));
         return t;
     }
 
@@ -158,64 +215,71 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
+        long latched = latch.acquireShared();
+        try {
+            return encode();
+        } finally {
+            latch.releaseShared(latched);
         }
+    }
 
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+    private byte[] encode() {
+        return Arrays.copyOf(data, BufferPool.getPageSize());
+    }
 
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+    /** Copy the page bytes before they are changed if others may see them */
+    void beforeChange() {
+        if (shared) {
+            data = data.clone();
+            decoded = decoded.clone();
+            shared = false;
+        }
+    }
 
-                }
-                continue;
-            }
+    /** Forget the decoded tuple of a slot that is about to change */
+    void forget(int slot) {
+        if (slot >= decoded.length)
+            decoded = Arrays.copyOf(decoded, slot + 1);
+        decoded[slot] = null;
+    }
 
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
+    /** @return true if t can be stored in a slot of this page */
+    boolean fits(int slot, Tuple t) {
+        return slot < numSlots && !isSlotUsed(slot);
+    }
 
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
+    /**
+     * Serialize t into an empty slot of the page and mark the slot used.
+     *
+     * @throws DbException if t does not fit
+     */
+    void writeSlot(int slot, Tuple t) throws DbException {
+        beforeChange();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(tupleSize);
+        DataOutputStream dos = new DataOutputStream(baos);
         try {
-            dos.write(zeroes, 0, zerolen);
+            for (int j=0; j<fieldOffsets.length; j++)
+                t.getField(j).serialize(dos);
         } catch (IOException e) {
+            // this really shouldn't happen
             e.printStackTrace();
         }
+        byte[] tuple = baos.toByteArray();
+        for (int j=0; j<fieldOffsets.length; j++)
+            System.arraycopy(tuple, fieldOffsets[j], data, fieldOffset(data, slot, j), td.getFieldType(j).getLen());
+        forget(slot);
+        markSlotUsed(slot, true);
+    }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+    /** Zero a slot of the page and mark it empty */
+    void emptySlot(int slot) {
+        beforeChange();
+        for (int j=0; j<fieldOffsets.length; j++) {
+            int offset = fieldOffset(data, slot, j);
+            Arrays.fill(data, offset, offset + td.getFieldType(j).getLen(), (byte) 0);
         }
-
-        return baos.toByteArray();
+        forget(slot);
+        markSlotUsed(slot, false);
     }
 
     /**
@@ -244,12 +308,13 @@ public class HeapPage implements Page {
         if(this.pid != t.getRecordId().getPageId()){
             throw new DbException("this tuple is not on this page");
         }
-        if(!isSlotUsed(i))
-            throw new DbException("tuple slot is already empty");
-
-        else {
-            markSlotUsed(i, false);
-            tuples[i] = null;
+        long latched = latch.acquireExclusive();
+        try {
+            if(!isSlotUsed(i))
+                throw new DbException("tuple slot is already empty");
+            emptySlot(i);
+        } finally {
+            latch.releaseExclusive(latched);
         }
     }
 
@@ -262,17 +327,83 @@ public class HeapPage implements Page {
      */
     public void insertTuple(Tuple t) throws DbException {
         if (!td.equals(t.getTupleDesc())) throw new DbException("tupleDesc is mismatch");
-        for (int i = numSlots - 1; i >= 0; i--){
-            if (!isSlotUsed(i)){
-                tuples[i] = t;
-                markSlotUsed(i, true);
-                t.setRecordId(new RecordId(this.pid, i));
-                return;
+        long latched = latch.acquireExclusive();
+        try {
+            for (int i = getNumSlots() - 1; i >= 0; i--){
+                if (fits(i, t)){
+                    writeSlot(i, t);
+                    t.setRecordId(new RecordId(this.pid, i));
+                    return;
+                }
             }
+        } finally {
+            latch.releaseExclusive(latched);
         }
         throw new DbException("the page is full");
     }
 
+    /**
+     * Adds the specified tuple to the page in the given slot, which must be
+     * empty.
+     */
+    void insertTuple(int slot, Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc())) throw new DbException("tupleDesc is mismatch");
+        long latched = latch.acquireExclusive();
+        try {
+            if (isSlotUsed(slot))
+                throw new DbException("tuple slot " + slot + " is in use");
+            writeSlot(slot, t);
+            t.setRecordId(new RecordId(this.pid, slot));
+        } finally {
+            latch.releaseExclusive(latched);
+        }
+    }
+
+    /** Empties a slot of this page. */
+    void clearSlot(int slot) {
+        long latched = latch.acquireExclusive();
+        try {
+            emptySlot(slot);
+        } finally {
+            latch.releaseExclusive(latched);
+        }
+    }
+
+    /** @return the tuple in a slot, or null if it is empty */
+    Tuple getTuple(int slot) {
+        byte[] bytes = data;
+        return isSlotUsed(bytes, slot) ? decode(bytes, slot) : null;
+    }
+
+    /**
+     * Decodes one field of the tuple in a slot, without materializing the
+     * rest of the tuple.
+     *
+     * @return the field, or null if the slot is empty
+     */
+    public Field getField(int slot, int col) {
+        byte[] bytes = data;
+        if (!isSlotUsed(bytes, slot))
+            return null;
+        return decodeField(bytes, slot, col);
+    }
+
+    /**
+     * Reads an INT_TYPE field of the tuple in a used slot without creating
+     * a Field for it.
+     */
+    public int getInt(int slot, int col) {
+        if (td.getFieldType(col) != Type.INT_TYPE)
+            throw new IllegalArgumentException("field " + col + " is not an int");
+        byte[] bytes = data;
+        return Type.readInt(bytes, fieldOffset(bytes, slot, col));
+    }
+
+    /** @return the number of tuple slots on this page */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -293,6 +424,10 @@ public class HeapPage implements Page {
         }
     }
 
+    public PageLatch getLatch() {
+        return latch;
+    }
+
     /**
      * Returns the number of empty slots on this page.
      */
@@ -300,10 +435,11 @@ public class HeapPage implements Page {
         int remNum = numSlots % 8;
         remNum = remNum == 0? 8 : remNum;
         int sum = 0;
-        for (int i=0; i<header.length-1; i++){
-            sum += countZero(header[i]);
+        byte[] bytes = data;
+        for (int i=0; i<headerSize-1; i++){
+            sum += countZero(bytes[i]);
         }
-        int lastByteSlots = remNum - (8 - countZero(header[header.length-1]));
+        int lastByteSlots = remNum - (8 - countZero(bytes[headerSize-1]));
         if (lastByteSlots < 0)
             System.err.println("This cannot happen");
         return sum + lastByteSlots;
@@ -323,7 +459,12 @@ public class HeapPage implements Page {
      * Returns true if associated slot on this page is filled.
      */
     public boolean isSlotUsed(int i) {
-        byte group = header[i / 8];
+        return isSlotUsed(data, i);
+    }
+
+    /** @return true if a slot of the page bytes is filled */
+    boolean isSlotUsed(byte[] bytes, int i) {
+        byte group = bytes[i / 8];
         int index = i % 8;
         byte mask = 1;
         mask <<= index;
@@ -334,41 +475,101 @@ public class HeapPage implements Page {
      * Abstraction to fill or clear a slot on this page.
      */
     private void markSlotUsed(int i, boolean value) {
-        byte group = header[i / 8];
+        byte group = data[i / 8];
         int index = i % 8;
         byte mask = 1;
         mask <<= index;
         if (value){
-            header[i / 8] = (byte)(group | mask);
+            data[i / 8] = (byte)(group | mask);
         }else {
-            header[i / 8] = (byte)(group & ~mask);
+            data[i / 8] = (byte)(group & ~mask);
+        }
+    }
+
+    /**
+     * Copies an INT_TYPE field of the tuples in all used slots into values,
+     * in slot order, without creating Fields or Tuples.
+     *
+     * @param values an array of at least {@link #getNumSlots} ints
+     * @return the number of values copied
+     */
+    public int readInts(int col, int[] values) {
+        if (td.getFieldType(col) != Type.INT_TYPE)
+            throw new IllegalArgumentException("field " + col + " is not an int");
+        int n = 0;
+        long latched = latch.acquireShared();
+        try {
+            byte[] bytes = data;
+            for (int slot = 0, slots = slotCount(bytes); slot < slots; slot++) {
+                if (isSlotUsed(bytes, slot))
+                    values[n++] = Type.readInt(bytes, fieldOffset(bytes, slot, col));
+            }
+        } finally {
+            latch.releaseShared(latched);
         }
+        return n;
     }
 
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
+     * <p>
+     * The iterator sees the page as it was when it was created, and decodes
+     * each tuple when it is first returned by an iterator of the page.
      */
     public Iterator<Tuple> iterator() {
-        List<Tuple> nonEmpty = new ArrayList<>();
-        for(Tuple t: tuples){
-            if(t != null)
-                nonEmpty.add(t);
+        return iterator(null, null);
+    }
+
+    /**
+     * @return an iterator like {@link #iterator()} over tuples of only some
+     *   fields of the tuples on this page, decoding no others
+     * @param columns the fields to return, or null for all
+     * @param projected the TupleDesc of the returned tuples
+     */
+    Iterator<Tuple> iterator(int[] columns, TupleDesc projected) {
+        byte[] bytes;
+        Tuple[] tuples;
+        long latched = latch.acquireShared();
+        try {
+            shared = true;
+            bytes = data;
+            tuples = decoded;
+        } finally {
+            latch.releaseShared(latched);
         }
 
         return new Iterator<Tuple>() {
-            private int nextSlot = 0;
+            private final int slots = slotCount(bytes);
+            private int nextSlot = advance(0);
+
+            private int advance(int slot) {
+                while (slot < slots && !isSlotUsed(bytes, slot))
+                    slot++;
+                return slot;
+            }
 
             public boolean hasNext() {
-                if (nextSlot >= nonEmpty.size()) return false;
-                return true;
+                return nextSlot < slots;
             }
 
             public Tuple next() {
                 if (!hasNext()) {
                     throw new NoSuchElementException();
                 }
-                return nonEmpty.get(nextSlot++);
+                Tuple t;
+                if (columns == null) {
+                    t = tuples[nextSlot];
+                    if (t == null)
+                        tuples[nextSlot] = t = decode(bytes, nextSlot);
+                } else {
+                    t = new Tuple(projected);
+                    t.setRecordId(new RecordId(pid, nextSlot));
+                    for (int j = 0; j < columns.length; j++)
+                        t.setField(j, decodeField(bytes, nextSlot, columns[j]));
+                }
+                nextSlot = advance(nextSlot + 1);
+                return t;
             }
 
             public void remove() {
@@ -378,4 +579,3 @@ public class HeapPage implements Page {
     }
 
 }
-
@@ -0,0 +1,105 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram counts durations in logarithmic buckets, in the style of
+ * HdrHistogram: each power of two is split into SUB_BUCKETS linear buckets,
+ * so a recorded value is off by at most 1/SUB_BUCKETS of itself.  Values
+ * from 1ns to about 18 minutes are tracked; larger ones land in the last
+ * bucket.
+ * <p>
+ * Recording is lock free and costs a few atomic adds; reads are not atomic
+ * with respect to concurrent recording, which is fine for monitoring.
+ * Nothing is recorded while {@link Metrics#isEnabled} is false.
+ *
+ * @Threadsafe
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** values below 2^MAX_BITS nanoseconds are bucketed precisely */
+    private static final int MAX_BITS = 40;
+    private static final int NUM_BUCKETS = (MAX_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+
+    /** Record a duration in nanoseconds. */
+    public void record(long nanos) {
+        if (!Metrics.isEnabled())
+            return;
+        counts.incrementAndGet(bucketOf(Math.max(0, nanos)));
+        count.increment();
+        total.add(nanos);
+    }
+
+    /** Record the time since start, a value of System.nanoTime(). */
+    public void recordSince(long start) {
+        record(System.nanoTime() - start);
+    }
+
+    static int bucketOf(long v) {
+        if (v < SUB_BUCKETS)
+            return (int) v;
+        int bits = 64 - Long.numberOfLeadingZeros(v);
+        if (bits > MAX_BITS)
+            return NUM_BUCKETS - 1;
+        int shift = bits - SUB_BUCKET_BITS - 1;
+        // the top SUB_BUCKET_BITS bits below the leading one pick the sub-bucket
+        return (shift + 1) * SUB_BUCKETS + (int) ((v >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /** @return the largest value that falls into bucket b */
+    static long highestValueIn(int b) {
+        if (b < SUB_BUCKETS)
+            return b;
+        int shift = b / SUB_BUCKETS - 1;
+        long low = ((long) (SUB_BUCKETS + b % SUB_BUCKETS)) << shift;
+        return low + (1L << shift) - 1;
+    }
+
+    /** @return the number of values recorded */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /** @return the mean of the values recorded, in nanoseconds, or 0 if none */
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) total.sum() / n;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return an upper bound (within the bucket precision) of the given
+     *   percentile of the values recorded, in nanoseconds, or 0 if none
+     */
+    public long getValueAtPercentile(double percentile) {
+        long n = 0;
+        for (int b = 0; b < NUM_BUCKETS; b++)
+            n += counts.get(b);
+        if (n == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int b = 0; b < NUM_BUCKETS; b++) {
+            seen += counts.get(b);
+            if (seen >= rank)
+                return highestValueIn(b);
+        }
+        return highestValueIn(NUM_BUCKETS - 1);
+    }
+
+    /** @return an upper bound of the largest value recorded, or 0 if none */
+    public long getMax() {
+        for (int b = NUM_BUCKETS - 1; b >= 0; b--) {
+            if (counts.get(b) > 0)
+                return highestValueIn(b);
+        }
+        return 0;
+    }
+}
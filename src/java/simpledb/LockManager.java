@@ -0,0 +1,745 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LockManager keeps the table and page locks of transactions, in the
+ * {@link LockMode}s of multi-granularity locking.
+ * <p>
+ * A page is locked shared or exclusive after its table is locked IS or IX.
+ * A transaction can also lock a whole table S, SIX or X with
+ * {@link #acquireTable}; its page requests covered by that lock are then
+ * granted without touching the page's lock queue, and only the pages it
+ * writes are remembered.  Once a transaction holds more page locks on one
+ * table than simpledb.LockManager.escalationThreshold (default 1000), the
+ * lock manager tries to escalate: to lock the table S (or X, if the
+ * transaction writes the table) and drop the page locks this covers.
+ * Escalation never waits; if the table lock is not free it is tried again
+ * when the number of page locks has doubled.
+ * <p>
+ * In the buffer pool's row locking mode, writers lock rows (RecordIds)
+ * shared or exclusive under IS or IX locks on their page and table, so
+ * transactions writing different rows of a page do not wait for each other.
+ * <p>
+ * Every locked page or table has a lock queue: the set of transactions
+ * currently holding the lock and a FIFO queue of waiting requests.  A request that
+ * cannot be granted is appended to the queue and its thread blocks on the
+ * request itself; whenever a lock is released the queue is scanned from the
+ * head and each newly granted waiter is woken directly.  Granting stops at
+ * the first waiter that is still incompatible, so a stream of readers can
+ * not starve a writer.
+ * <p>
+ * A conversion to a stronger mode (such as a shared to exclusive upgrade)
+ * is queued ahead of all other waiters and is granted as soon as it is
+ * compatible with the other holders.
+ * <p>
+ * Deadlocks are found by a {@link DeadlockDetector} that is kept up to date
+ * with what every waiting request is blocked by; only the chosen victim is
+ * aborted.  An optional wait timeout (system property
+ * simpledb.LockManager.timeout, in ms, 0 = wait forever) can be set as a
+ * safety net.
+ * <p>
+ * The pages and tables locked by each transaction are indexed, so releasing
+ * all locks of a transaction only touches its own.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /** Name of the system property giving the lock wait timeout in ms. */
+    public static final String TIMEOUT_PROPERTY = "simpledb.LockManager.timeout";
+
+    /** Name of the system property giving the page locks per table that trigger escalation. */
+    public static final String ESCALATION_PROPERTY = "simpledb.LockManager.escalationThreshold";
+
+    /** lock queues of pages (PageId keys), tables (Integer table ids) and rows (RecordIds) */
+    private final ConcurrentHashMap<Object, LockQueue> queues;
+    private final ConcurrentHashMap<TransactionId, HeldLocks> locksByTid;
+    private final DeadlockDetector detector;
+    private final long timeoutMs;
+    private final int escalationThreshold;
+
+    private final LongAdder lockRequests = new LongAdder();
+    private final LongAdder lockWaits = new LongAdder();
+    private final LongAdder lockWaitNanos = new LongAdder();
+    private final LongAdder deadlockAborts = new LongAdder();
+    private final LongAdder timeoutAborts = new LongAdder();
+    private final LongAdder escalations = new LongAdder();
+    private final LatencyHistogram lockWaitLatency = new LatencyHistogram();
+
+    /**
+     * Creates a lock manager configured by the simpledb.LockManager.timeout,
+     * simpledb.LockManager.victim and simpledb.LockManager.escalationThreshold
+     * properties.
+     */
+    public LockManager() {
+        this(Long.parseLong(System.getProperty(TIMEOUT_PROPERTY, "0")),
+                DeadlockDetector.VictimPolicy.fromName(
+                        System.getProperty(DeadlockDetector.VICTIM_PROPERTY, "youngest")));
+    }
+
+    /**
+     * @param timeoutMs how long a request may wait before its transaction is
+     *   aborted; 0 waits until granted or chosen as a deadlock victim
+     * @param victimPolicy how the deadlock detector picks its victim
+     */
+    public LockManager(long timeoutMs, DeadlockDetector.VictimPolicy victimPolicy) {
+        this(timeoutMs, victimPolicy, Integer.getInteger(ESCALATION_PROPERTY, 1000));
+    }
+
+    /**
+     * @param timeoutMs how long a request may wait before its transaction is
+     *   aborted; 0 waits until granted or chosen as a deadlock victim
+     * @param victimPolicy how the deadlock detector picks its victim
+     * @param escalationThreshold how many page locks on a table a
+     *   transaction may hold before they are escalated to a table lock
+     */
+    public LockManager(long timeoutMs, DeadlockDetector.VictimPolicy victimPolicy,
+            int escalationThreshold) {
+        queues = new ConcurrentHashMap<>();
+        locksByTid = new ConcurrentHashMap<>();
+        detector = new DeadlockDetector(this, victimPolicy);
+        this.timeoutMs = timeoutMs;
+        this.escalationThreshold = escalationThreshold;
+    }
+
+    public DeadlockDetector getDeadlockDetector() {
+        return detector;
+    }
+
+    /**
+     * Acquire a lock on a page, blocking until it is granted.  Takes the
+     * intention lock on the page's table first, unless the transaction's
+     * table lock already covers the request.
+     *
+     * @param tid the transaction requesting the lock
+     * @param pid the page to lock
+     * @param perm READ_ONLY for a shared lock, READ_WRITE for an exclusive one
+     * @throws DeadlockException if the transaction was chosen as a deadlock victim
+     * @throws TransactionAbortedException if the lock is not granted in time
+     */
+    public void acquire(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        lockRequests.increment();
+        int tableId = pid.getTableId();
+        HeldLocks held = locksByTid.get(tid);
+        TableLocks table = held == null ? null : held.tables.get(tableId);
+        LockMode tableMode = table == null ? null : table.mode;
+        if (tableMode != null && tableMode.implies(LockMode.of(perm))) {
+            // remember covered writes, they are the transaction's to flush
+            if (perm == Permissions.READ_WRITE)
+                held.pages.add(pid);
+            return;
+        }
+        LockMode intention = LockMode.intentionFor(perm);
+        if (tableMode == null || !tableMode.implies(intention))
+            lock(tid, tableId, intention);
+        lock(tid, pid, LockMode.of(perm));
+        maybeEscalate(tid, tableId);
+    }
+
+    /**
+     * Lock a whole table, blocking until the lock is granted.  With S, SIX
+     * or X, page locks the table lock covers are released, and later page
+     * requests it covers are granted without locking the page.
+     *
+     * @param mode the table lock mode, combined with any the transaction holds
+     * @throws DeadlockException if the transaction was chosen as a deadlock victim
+     * @throws TransactionAbortedException if the lock is not granted in time
+     */
+    public void acquireTable(TransactionId tid, int tableId, LockMode mode)
+            throws TransactionAbortedException {
+        lockRequests.increment();
+        lock(tid, tableId, mode);
+        releaseCovered(tid, tableId);
+    }
+
+    /**
+     * Take the intention locks on a page and its table that a transaction
+     * needs before locking rows of the page with perm, unless a table or
+     * page lock it holds covers those rows already.
+     *
+     * @throws DeadlockException if the transaction was chosen as a deadlock victim
+     * @throws TransactionAbortedException if a lock is not granted in time
+     */
+    public void acquireIntention(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        lockRequests.increment();
+        if (covers(tid, pid, perm))
+            return;
+        int tableId = pid.getTableId();
+        LockMode intention = LockMode.intentionFor(perm);
+        LockMode tableMode = getTableLockMode(tid, tableId);
+        if (tableMode == null || !tableMode.implies(intention))
+            lock(tid, tableId, intention);
+        lock(tid, pid, intention);
+        maybeEscalate(tid, tableId);
+    }
+
+    /**
+     * Lock a row, after the intention locks on its page and table, blocking
+     * until the locks are granted.
+     *
+     * @param perm READ_ONLY for a shared lock, READ_WRITE for an exclusive one
+     * @throws DeadlockException if the transaction was chosen as a deadlock victim
+     * @throws TransactionAbortedException if a lock is not granted in time
+     */
+    public void acquireRow(TransactionId tid, RecordId rid, Permissions perm)
+            throws TransactionAbortedException {
+        acquireIntention(tid, rid.getPageId(), perm);
+        if (!covers(tid, rid.getPageId(), perm))
+            lock(tid, rid, LockMode.of(perm));
+    }
+
+    /**
+     * Lock a row exclusively if that can be done without waiting; the
+     * transaction must hold the intention locks already.
+     *
+     * @return true if the transaction now holds the lock
+     */
+    public boolean tryAcquireRow(TransactionId tid, RecordId rid) {
+        lockRequests.increment();
+        return covers(tid, rid.getPageId(), Permissions.READ_WRITE)
+                || tryLock(tid, rid, LockMode.X);
+    }
+
+    /** @return true if the transaction holds a lock on the row */
+    public boolean holdsRowLock(TransactionId tid, RecordId rid) {
+        HeldLocks held = locksByTid.get(tid);
+        return held != null && (held.rows.contains(rid)
+                || covers(tid, rid.getPageId(), Permissions.READ_ONLY));
+    }
+
+    /** @return true if tid's lock on the page or its table allows perm on all of the page */
+    private boolean covers(TransactionId tid, PageId pid, Permissions perm) {
+        LockMode tableMode = getTableLockMode(tid, pid.getTableId());
+        if (tableMode != null && tableMode.implies(LockMode.of(perm)))
+            return true;
+        LockQueue q = queues.get(pid);
+        if (q == null)
+            return false;
+        synchronized (q) {
+            LockMode pageMode = q.holders.get(tid);
+            return pageMode != null && pageMode.implies(LockMode.of(perm));
+        }
+    }
+
+    /** @return the mode of the lock the transaction holds on the table, or null */
+    public LockMode getTableLockMode(TransactionId tid, int tableId) {
+        HeldLocks held = locksByTid.get(tid);
+        TableLocks table = held == null ? null : held.tables.get(tableId);
+        return table == null ? null : table.mode;
+    }
+
+    /** Lock a page or table in mode, combined with what tid holds */
+    private void lock(TransactionId tid, Object key, LockMode mode)
+            throws TransactionAbortedException {
+        LockRequest req;
+        LockQueue q;
+        while (true) {
+            q = queues.computeIfAbsent(key, k -> new LockQueue());
+            synchronized (q) {
+                if (q.retired)
+                    continue;  // removed from the table under us, use a fresh queue
+                LockMode held = q.holders.get(tid);
+                if (held != null && held.implies(mode))
+                    return;
+                if (held != null) {
+                    // conversion, e.g. S -> X or IS -> S
+                    LockMode want = held.combine(mode);
+                    if (q.compatible(tid, want)) {
+                        grant(q, key, tid, want);
+                        return;
+                    }
+                    req = new LockRequest(tid, want, true);
+                    q.waiters.addFirst(req);
+                } else if (q.waiters.isEmpty() && q.compatible(tid, mode)) {
+                    grant(q, key, tid, mode);
+                    return;
+                } else {
+                    req = new LockRequest(tid, mode, false);
+                    q.waiters.addLast(req);
+                }
+                updateBlockers(q);
+                detector.checkForDeadlock(req);
+                break;
+            }
+        }
+
+        lockWaits.increment();
+        long start = System.nanoTime();
+        boolean interrupted = false;
+        try {
+            synchronized (req) {
+                long deadline = System.currentTimeMillis() + timeoutMs;
+                while (!req.granted && !req.aborted) {
+                    long remaining = 0;
+                    if (timeoutMs > 0) {
+                        remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0)
+                            break;
+                    }
+                    try {
+                        req.wait(remaining);
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                        break;
+                    }
+                }
+            }
+        } finally {
+            long waited = System.nanoTime() - start;
+            lockWaitNanos.add(waited);
+            lockWaitLatency.record(waited);
+            synchronized (q) {
+                if (!req.granted) {
+                    q.waiters.remove(req);
+                    detector.remove(req);
+                    grantWaiters(q, key);
+                    // the waiters behind req now depend directly on what req
+                    // was waiting for, which can expose a cycle req hid
+                    for (LockRequest w : q.waiters)
+                        detector.checkForDeadlock(w);
+                }
+            }
+        }
+
+        if (req.granted)
+            return;
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        if (req.aborted) {
+            deadlockAborts.increment();
+            throw new DeadlockException();
+        }
+        timeoutAborts.increment();
+        throw new TransactionAbortedException();
+    }
+
+    /**
+     * Escalate tid's locks on a table if it holds too many page locks on
+     * it, provided the table lock can be had without waiting.
+     */
+    private void maybeEscalate(TransactionId tid, int tableId) {
+        HeldLocks held = locksByTid.get(tid);
+        TableLocks table = held == null ? null : held.tables.get(tableId);
+        if (table == null || table.pages.get() <= Math.max(escalationThreshold, table.retryAt))
+            return;
+        table.retryAt = table.pages.get() * 2;
+        LockMode want = table.mode.combine(table.mode == LockMode.IS ? LockMode.S : LockMode.X);
+        if (!tryLock(tid, tableId, want))
+            return;
+        escalations.increment();
+        releaseCovered(tid, tableId);
+    }
+
+    /**
+     * Lock a page, table or row in mode, combined with what tid holds, if
+     * that can be done without waiting.
+     *
+     * @return true if the lock was granted
+     */
+    private boolean tryLock(TransactionId tid, Object key, LockMode mode) {
+        while (true) {
+            LockQueue q = queues.computeIfAbsent(key, k -> new LockQueue());
+            synchronized (q) {
+                if (q.retired)
+                    continue;
+                LockMode held = q.holders.get(tid);
+                if (held != null && held.implies(mode))
+                    return true;
+                LockMode want = held == null ? mode : held.combine(mode);
+                // only conversions may overtake waiters
+                if ((held == null && !q.waiters.isEmpty()) || !q.compatible(tid, want)) {
+                    if (q.holders.isEmpty() && q.waiters.isEmpty()) {
+                        q.retired = true;
+                        queues.remove(key, q);
+                    }
+                    return false;
+                }
+                grant(q, key, tid, want);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Release the page locks of tid on a table that its table lock covers;
+     * pages it locked exclusively stay in its set of pages.
+     */
+    private void releaseCovered(TransactionId tid, int tableId) {
+        HeldLocks held = locksByTid.get(tid);
+        TableLocks table = held == null ? null : held.tables.get(tableId);
+        if (table == null || !table.mode.implies(LockMode.S))
+            return;
+        for (PageId pid : held.pages) {
+            if (pid.getTableId() != tableId)
+                continue;
+            LockQueue q = queues.get(pid);
+            LockMode pageMode;
+            if (q == null)
+                continue;
+            synchronized (q) {
+                pageMode = q.holders.get(tid);
+            }
+            if (pageMode == null || !table.mode.implies(pageMode))
+                continue;
+            if (pageMode == LockMode.S)
+                held.pages.remove(pid);
+            unlock(tid, pid);
+        }
+    }
+
+    /**
+     * Release the lock a transaction holds on a page, if any.
+     */
+    public void release(TransactionId tid, PageId pid) {
+        HeldLocks held = locksByTid.get(tid);
+        if (held != null)
+            held.pages.remove(pid);
+        unlock(tid, pid);
+    }
+
+    /**
+     * Release every lock held by a transaction.
+     */
+    public void releaseAll(TransactionId tid) {
+        HeldLocks held = locksByTid.remove(tid);
+        if (held == null)
+            return;
+        for (PageId pid : held.pages)
+            unlock(tid, pid);
+        for (RecordId rid : held.rows)
+            unlock(tid, rid);
+        for (Integer tableId : held.tables.keySet())
+            unlock(tid, tableId);
+    }
+
+    /** Return true if the transaction holds a lock on the page, or on its whole table */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        HeldLocks held = locksByTid.get(tid);
+        if (held == null)
+            return false;
+        if (held.pages.contains(pid))
+            return true;
+        TableLocks table = held.tables.get(pid.getTableId());
+        return table != null && table.mode.implies(LockMode.S);
+    }
+
+    /**
+     * Return the pages the transaction currently holds locks on, including
+     * the pages it wrote under a table lock
+     */
+    public Set<PageId> getLockedPages(TransactionId tid) {
+        HeldLocks held = locksByTid.get(tid);
+        if (held == null)
+            return new HashSet<>();
+        return new HashSet<>(held.pages);
+    }
+
+    /**
+     * @return the permission the transaction was granted on the page, or
+     *   null if none: READ_WRITE if it locked the page exclusively or wrote
+     *   it under an X table lock, READ_ONLY if it holds a shared lock on
+     *   the page or the table
+     */
+    public Permissions getLockMode(TransactionId tid, PageId pid) {
+        LockQueue q = queues.get(pid);
+        if (q != null) {
+            synchronized (q) {
+                LockMode mode = q.holders.get(tid);
+                if (mode == LockMode.X)
+                    return Permissions.READ_WRITE;
+                if (mode != null && mode.implies(LockMode.S))
+                    return Permissions.READ_ONLY;
+            }
+        }
+        HeldLocks held = locksByTid.get(tid);
+        TableLocks table = held == null ? null : held.tables.get(pid.getTableId());
+        if (table == null || !table.mode.implies(LockMode.S))
+            return null;
+        if (table.mode == LockMode.X && held.pages.contains(pid))
+            return Permissions.READ_WRITE;
+        return Permissions.READ_ONLY;
+    }
+
+    /**
+     * Run an action while no transaction holds or waits for a lock on the
+     * page, or holds a table lock covering it; lock requests for the page
+     * or its table block until the action is done.
+     *
+     * @return true if the page was unlocked and the action ran
+     */
+    public boolean runIfUnlocked(PageId pid, Runnable action) {
+        while (true) {
+            LockQueue q = queues.computeIfAbsent(pid, k -> new LockQueue());
+            synchronized (q) {
+                if (q.retired)
+                    continue;
+                if (!q.holders.isEmpty() || !q.waiters.isEmpty())
+                    return false;
+                int tableId = pid.getTableId();
+                LockQueue tq = queues.computeIfAbsent(tableId, k -> new LockQueue());
+                // page queue before table queue: nothing locks them the other way round
+                synchronized (tq) {
+                    if (tq.retired || tq.holdsCovering(null))
+                        return false;
+                    action.run();
+                    if (tq.holders.isEmpty() && tq.waiters.isEmpty()) {
+                        tq.retired = true;
+                        queues.remove(tableId, tq);
+                    }
+                }
+                q.retired = true;
+                queues.remove(pid, q);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return true if a transaction other than tid holds or waits for a
+     *   lock on the page
+     */
+    public boolean isLockedByOther(TransactionId tid, PageId pid) {
+        LockQueue tq = queues.get(pid.getTableId());
+        if (tq != null) {
+            synchronized (tq) {
+                if (tq.holdsCovering(tid))
+                    return true;
+            }
+        }
+        LockQueue q = queues.get(pid);
+        if (q == null)
+            return false;
+        synchronized (q) {
+            if (!q.waiters.isEmpty())
+                return true;
+            for (TransactionId holder : q.holders.keySet()) {
+                if (!holder.equals(tid))
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @return true if some transaction holds a write lock on the page or its
+     *   table, or writes rows of the page
+     */
+    public boolean hasWriter(PageId pid) {
+        LockQueue tq = queues.get(pid.getTableId());
+        if (tq != null) {
+            synchronized (tq) {
+                if (tq.holders.containsValue(LockMode.X))
+                    return true;
+            }
+        }
+        LockQueue q = queues.get(pid);
+        if (q == null)
+            return false;
+        synchronized (q) {
+            return q.holders.containsValue(LockMode.X) || q.holders.containsValue(LockMode.IX)
+                    || q.holders.containsValue(LockMode.SIX);
+        }
+    }
+
+    /** @return the number of page, table and row locks the transaction holds */
+    public int numLocksHeld(TransactionId tid) {
+        HeldLocks held = locksByTid.get(tid);
+        return held == null ? 0 : held.pages.size() + held.tables.size() + held.rows.size();
+    }
+
+    /** @return how many exclusive locks (including upgrades) the transaction was granted */
+    public int numExclusiveGrants(TransactionId tid) {
+        HeldLocks held = locksByTid.get(tid);
+        return held == null ? 0 : held.exclusiveGrants.get();
+    }
+
+    /** @return the number of acquire calls */
+    public long getLockRequests() {
+        return lockRequests.sum();
+    }
+
+    /** @return the number of acquire calls that had to wait */
+    public long getLockWaits() {
+        return lockWaits.sum();
+    }
+
+    /** @return the total time spent waiting for locks, in nanoseconds */
+    public long getLockWaitNanos() {
+        return lockWaitNanos.sum();
+    }
+
+    /** @return the distribution of the times acquire calls waited */
+    public LatencyHistogram getLockWaitLatency() {
+        return lockWaitLatency;
+    }
+
+    /** @return the number of requests aborted as deadlock victims */
+    public long getDeadlockAborts() {
+        return deadlockAborts.sum();
+    }
+
+    /** @return the number of requests aborted because they waited too long */
+    public long getTimeoutAborts() {
+        return timeoutAborts.sum();
+    }
+
+    /** @return the number of times page locks were escalated to a table lock */
+    public long getEscalations() {
+        return escalations.sum();
+    }
+
+    private void unlock(TransactionId tid, Object key) {
+        LockQueue q = queues.get(key);
+        if (q == null)
+            return;
+        synchronized (q) {
+            if (q.holders.remove(tid) == null)
+                return;
+            if (key instanceof RecordId) {
+                HeldLocks held = locksByTid.get(tid);
+                if (held != null)
+                    held.rows.remove(key);
+            } else if (key instanceof PageId) {
+                HeldLocks held = locksByTid.get(tid);
+                TableLocks table = held == null ? null : held.tables.get(((PageId) key).getTableId());
+                if (table != null)
+                    table.pages.decrementAndGet();
+            }
+            grantWaiters(q, key);
+            if (q.holders.isEmpty() && q.waiters.isEmpty()) {
+                q.retired = true;
+                queues.remove(key, q);
+            }
+        }
+    }
+
+    /** Grant waiters from the head of the queue while they are compatible; caller holds q */
+    private void grantWaiters(LockQueue q, Object key) {
+        while (!q.waiters.isEmpty()) {
+            LockRequest req = q.waiters.peekFirst();
+            if (req.aborted) {
+                // deadlock victim that has not woken up yet
+                q.waiters.pollFirst();
+                continue;
+            }
+            if (req.upgrade && !q.holders.containsKey(req.tid))
+                break;
+            if (!q.compatible(req.tid, req.mode))
+                break;
+            grant(q, key, req.tid, req.mode);
+            q.waiters.pollFirst();
+            detector.remove(req);
+            synchronized (req) {
+                req.granted = true;
+                req.notify();
+            }
+        }
+        updateBlockers(q);
+    }
+
+    /**
+     * Tell the deadlock detector what each waiter of q is blocked by; caller
+     * holds q.  Granting is FIFO, so a waiter depends on the waiter right
+     * ahead of it, plus the incompatible holders unless an X waiter ahead
+     * of it already waits for all of them.
+     */
+    private void updateBlockers(LockQueue q) {
+        LockRequest prev = null;
+        boolean holdersCovered = false;
+        for (LockRequest req : q.waiters) {
+            Set<TransactionId> blockers = new HashSet<>();
+            if (prev != null && !prev.tid.equals(req.tid))
+                blockers.add(prev.tid);
+            if (!holdersCovered) {
+                for (Map.Entry<TransactionId, LockMode> h : q.holders.entrySet()) {
+                    if (!h.getKey().equals(req.tid) && !h.getValue().compatibleWith(req.mode))
+                        blockers.add(h.getKey());
+                }
+            }
+            if (req.mode == LockMode.X)
+                holdersCovered = true;
+            prev = req;
+            detector.setBlockers(req, blockers);
+        }
+    }
+
+    private void grant(LockQueue q, Object key, TransactionId tid, LockMode mode) {
+        LockMode before = q.holders.put(tid, mode);
+        HeldLocks held = locksByTid.computeIfAbsent(tid, k -> new HeldLocks());
+        if (key instanceof PageId) {
+            held.pages.add((PageId) key);
+            TableLocks table = held.tables.get(((PageId) key).getTableId());
+            if (before == null && table != null)
+                table.pages.incrementAndGet();
+        } else if (key instanceof RecordId) {
+            held.rows.add((RecordId) key);
+        } else {
+            held.tables.computeIfAbsent((Integer) key, k -> new TableLocks()).mode = mode;
+        }
+        if (mode == LockMode.X)
+            held.exclusiveGrants.incrementAndGet();
+    }
+
+    private static class LockQueue {
+        final LinkedHashMap<TransactionId, LockMode> holders = new LinkedHashMap<>();
+        final ArrayDeque<LockRequest> waiters = new ArrayDeque<>();
+        boolean retired = false;
+
+        /** can tid get mode given the current holders (other than tid itself)? */
+        boolean compatible(TransactionId tid, LockMode mode) {
+            for (Map.Entry<TransactionId, LockMode> h : holders.entrySet()) {
+                if (h.getKey().equals(tid))
+                    continue;
+                if (!mode.compatibleWith(h.getValue()))
+                    return false;
+            }
+            return true;
+        }
+
+        /** does a table lock holder other than tid cover all pages of the table? */
+        boolean holdsCovering(TransactionId tid) {
+            for (Map.Entry<TransactionId, LockMode> h : holders.entrySet()) {
+                if (!h.getKey().equals(tid) && h.getValue().implies(LockMode.S))
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    /** A transaction's lock on one table */
+    private static class TableLocks {
+        volatile LockMode mode;
+        /** page locks held on the table */
+        final AtomicInteger pages = new AtomicInteger();
+        /** escalation failed at half this many page locks */
+        volatile int retryAt = 0;
+    }
+
+    private static class HeldLocks {
+        final Set<PageId> pages = ConcurrentHashMap.newKeySet();
+        final ConcurrentHashMap<Integer, TableLocks> tables = new ConcurrentHashMap<>();
+        final Set<RecordId> rows = ConcurrentHashMap.newKeySet();
+        final AtomicInteger exclusiveGrants = new AtomicInteger();
+    }
+
+    /** A waiting lock request; its thread waits on the request object itself. */
+    static class LockRequest {
+        final TransactionId tid;
+        final LockMode mode;
+        final boolean upgrade;
+        volatile boolean granted = false;
+        volatile boolean aborted = false;
+
+        LockRequest(TransactionId tid, LockMode mode, boolean upgrade) {
+            this.tid = tid;
+            this.mode = mode;
+            this.upgrade = upgrade;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package simpledb;
+
+/**
+ * The lock modes of multi-granularity locking.  Pages are locked S
+ * (shared) or X (exclusive).  A table is locked IS or IX by a transaction
+ * that locks some of its pages S or X, S or X by one that reads or writes
+ * all of it at once, and SIX by one that reads all of it and locks the
+ * pages it writes X.
+ */
+public enum LockMode {
+    IS, IX, S, SIX, X;
+
+    private static final boolean[][] COMPATIBLE = {
+        //          IS     IX     S      SIX    X
+        /* IS  */ {true,  true,  true,  true,  false},
+        /* IX  */ {true,  true,  false, false, false},
+        /* S   */ {true,  false, true,  false, false},
+        /* SIX */ {true,  false, false, false, false},
+        /* X   */ {false, false, false, false, false},
+    };
+
+    /** @return true if two transactions can hold this mode and other at once */
+    public boolean compatibleWith(LockMode other) {
+        return COMPATIBLE[ordinal()][other.ordinal()];
+    }
+
+    /** @return true if holding this mode allows everything other does */
+    public boolean implies(LockMode other) {
+        switch (this) {
+        case X:
+            return true;
+        case SIX:
+            return other != X;
+        case S:
+            return other == S || other == IS;
+        case IX:
+            return other == IX || other == IS;
+        default:
+            return other == IS;
+        }
+    }
+
+    /** @return the weakest mode that implies both this mode and other */
+    public LockMode combine(LockMode other) {
+        if (implies(other))
+            return this;
+        if (other.implies(this))
+            return other;
+        // S and IX are the only modes neither of which implies the other
+        return SIX;
+    }
+
+    /** @return the page lock mode for perm */
+    public static LockMode of(Permissions perm) {
+        return perm == Permissions.READ_WRITE ? X : S;
+    }
+
+    /** @return the table lock mode a transaction needs to lock a page with perm */
+    public static LockMode intentionFor(Permissions perm) {
+        return perm == Permissions.READ_WRITE ? IX : IS;
+    }
+}
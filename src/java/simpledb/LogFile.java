@@ -2,7 +2,9 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.lang.reflect.*;
 
 /**
@@ -32,6 +34,20 @@ must not be declared synchronized and must begin with a block like:
        }
     }
 </pre>
+
+<u> Group commit: </u>
+<p>
+
+Log records are appended to an in-memory tail and written to the file
+in batches.  {@link #force} and {@link #logCommit} do not fsync
+themselves: they wait until a flusher thread has made their records
+durable, and the flusher forces the log once for every committer that
+queued up during the previous fsync.  It can hold a batch back for up
+to simpledb.LogFile.groupCommitDelay microseconds (default 0) or until
+simpledb.LogFile.groupCommitBatch committers (default 32) are waiting.
+Setting simpledb.LogFile.groupCommit to false makes every force a
+synchronous fsync.  Records are kept in order by a log sequence number
+(LSN): the number of bytes appended to the log since it was opened.
 */
 
 /**
@@ -73,10 +89,37 @@ for each active transaction.
 
 public class LogFile {
 
+    /** Name of the system property enabling group commit. */
+    public static final String GROUP_COMMIT_PROPERTY = "simpledb.LogFile.groupCommit";
+    /** Name of the system property giving the longest a batch is held back, in microseconds. */
+    public static final String GROUP_COMMIT_DELAY_PROPERTY = "simpledb.LogFile.groupCommitDelay";
+    /** Name of the system property giving the number of waiting committers that ends a batch early. */
+    public static final String GROUP_COMMIT_BATCH_PROPERTY = "simpledb.LogFile.groupCommitBatch";
+
+    /** how long an idle flusher thread lingers before exiting */
+    private static final long FLUSHER_IDLE_MILLIS = 1000;
+
     final File logFile;
     private RandomAccessFile raf;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
+    // group commit; all protected by this
+    private final boolean groupCommit;
+    private final long groupCommitDelayNanos;
+    private final int groupCommitBatch;
+    private final ByteArrayOutputStream tailBytes = new ByteArrayOutputStream();
+    /** records appended but not yet written to the file */
+    private final DataOutputStream tail = new DataOutputStream(tailBytes);
+    private long tailStart = 0; // file offset the tail will be written at
+    private long drainedLsn = 0; // LSN of the end of the file
+    private long durableLsn = 0;
+    private long requestedLsn = 0;
+    private int waiters = 0;
+    private IOException flushError = null;
+    private Thread flusher = null;
+    private long forces = 0;
+    private final LatencyHistogram forceLatency = new LatencyHistogram();
+
     static final int ABORT_RECORD = 1;
     static final int COMMIT_RECORD = 2;
     static final int UPDATE_RECORD = 3;
@@ -105,9 +148,27 @@ public class LogFile {
         @param f The log file's name
     */
     public LogFile(File f) throws IOException {
+        this(f, Boolean.parseBoolean(System.getProperty(GROUP_COMMIT_PROPERTY, "true")),
+                Long.getLong(GROUP_COMMIT_DELAY_PROPERTY, 0),
+                Integer.getInteger(GROUP_COMMIT_BATCH_PROPERTY, 32));
+    }
+
+    /** Constructor.
+        Like {@link #LogFile(File)}, with explicit group commit settings.
+
+        @param f The log file's name
+        @param groupCommit false to fsync synchronously on every force
+        @param groupCommitDelayMicros the longest the flusher holds back a batch
+        @param groupCommitBatch the number of waiting committers that ends the delay
+    */
+    public LogFile(File f, boolean groupCommit, long groupCommitDelayMicros,
+                   int groupCommitBatch) throws IOException {
 	this.logFile = f;
         raf = new RandomAccessFile(f, "rw");
         recoveryUndecided = true;
+        this.groupCommit = groupCommit;
+        this.groupCommitDelayNanos = TimeUnit.MICROSECONDS.toNanos(groupCommitDelayMicros);
+        this.groupCommitBatch = groupCommitBatch;
 
         // install shutdown hook to force cleanup on close
         // Runtime.getRuntime().addShutdownHook(new Thread() {
@@ -132,6 +193,7 @@ public class LogFile {
             raf.writeLong(NO_CHECKPOINT_ID);
             raf.seek(raf.length());
             currentOffset = raf.getFilePointer();
+            tailStart = currentOffset;
         }
     }
 
@@ -139,6 +201,48 @@ public class LogFile {
         return totalRecords;
     }
 
+    /** @return the distribution of the times fsyncs of the log took */
+    public LatencyHistogram getForceLatency() {
+        return forceLatency;
+    }
+
+    /** @return the number of times the log has been forced to disk */
+    public synchronized long getForceCount() {
+        return forces;
+    }
+
+    /** @return the file offset just past the last appended record */
+    private long tailOffset() {
+        return tailStart + tailBytes.size();
+    }
+
+    /** @return the LSN just past the last appended record */
+    private long appendedLsn() {
+        return drainedLsn + tailBytes.size();
+    }
+
+    /** Write the tail to the file, without forcing it; caller holds this */
+    private void drain() throws IOException {
+        if (tailBytes.size() == 0)
+            return;
+        raf.seek(tailStart);
+        raf.write(tailBytes.toByteArray());
+        drainedLsn += tailBytes.size();
+        tailBytes.reset();
+        tailStart = raf.getFilePointer();
+    }
+
+    /** Drain and fsync the log in the calling thread; caller holds this */
+    private void syncForce() throws IOException {
+        drain();
+        long start = System.nanoTime();
+        raf.getChannel().force(true);
+        forceLatency.recordSince(start);
+        forces++;
+        durableLsn = drainedLsn;
+        notifyAll();
+    }
+
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
         @param tid The aborting transaction.
@@ -158,32 +262,37 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                force();
+                tail.writeInt(ABORT_RECORD);
+                tail.writeLong(tid.getId());
+                tail.writeLong(currentOffset);
+                currentOffset = tailOffset();
+                syncForce();
                 tidToFirstLogRecord.remove(tid.getId());
             }
         }
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and force the log to disk.  Returns once the commit record is
+        durable, which with group commit may take one batch.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
-
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    public void logCommit(TransactionId tid) throws IOException {
+        long lsn;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            tail.writeInt(COMMIT_RECORD);
+            tail.writeLong(tid.getId());
+            tail.writeLong(currentOffset);
+            currentOffset = tailOffset();
+            tidToFirstLogRecord.remove(tid.getId());
+            lsn = appendedLsn();
+        }
+        awaitDurable(lsn);
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -197,7 +306,7 @@ public class LogFile {
     public  synchronized void logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + tailOffset());
         preAppend();
         /* update record conists of
 
@@ -207,18 +316,18 @@ public class LogFile {
            after page data
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+        tail.writeInt(UPDATE_RECORD);
+        tail.writeLong(tid.getId());
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        writePageData(tail,before);
+        writePageData(tail,after);
+        tail.writeLong(currentOffset);
+        currentOffset = tailOffset();
 
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
+    void writePageData(DataOutput raf, Page p) throws IOException{
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
 
@@ -265,7 +374,7 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            Constructor<?> pageConst = pageClass.getConstructor(pid.getClass(), byte[].class);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -275,7 +384,7 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -290,6 +399,9 @@ public class LogFile {
         } catch (InvocationTargetException e) {
             e.printStackTrace();
             throw new IOException();
+        } catch (NoSuchMethodException e) {
+            e.printStackTrace();
+            throw new IOException();
         }
         return newPage;
 
@@ -307,11 +419,11 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
+        tail.writeInt(BEGIN_RECORD);
+        tail.writeLong(tid.getId());
+        tail.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        currentOffset = tailOffset();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
@@ -326,8 +438,9 @@ public class LogFile {
                 long startCpOffset, endCpOffset;
                 Set<Long> keys = tidToFirstLogRecord.keySet();
                 Iterator<Long> els = keys.iterator();
-                force();
+                syncForce();
                 Database.getBufferPool().flushAllPages();
+                drain();
                 startCpOffset = raf.getFilePointer();
                 raf.writeInt(CHECKPOINT_RECORD);
                 raf.writeLong(-1); //no tid , but leave space for convenience
@@ -350,6 +463,7 @@ public class LogFile {
                 raf.seek(endCpOffset);
                 raf.writeLong(currentOffset);
                 currentOffset = raf.getFilePointer();
+                tailStart = currentOffset;
                 //Debug.log("CP OFFSET = " + currentOffset);
             }
         }
@@ -361,6 +475,7 @@ public class LogFile {
         consumption */
     public synchronized void logTruncate() throws IOException {
         preAppend();
+        drain();
         raf.seek(0);
         long cpLoc = raf.readLong();
 
@@ -450,6 +565,9 @@ public class LogFile {
         newFile.delete();
 
         currentOffset = raf.getFilePointer();
+        tailStart = currentOffset;
+        // the rewritten log replaces everything forced so far
+        syncForce();
         //print();
     }
 
@@ -472,7 +590,14 @@ public class LogFile {
     }
 
     private void rbHelper (long transIdLong) throws NoSuchElementException, IOException{
-        long transacStart = tidToFirstLogRecord.get(transIdLong);
+        drain();
+        Long transacStart = tidToFirstLogRecord.get(transIdLong);
+        if (transacStart == null)
+            return; // nothing logged, or already rolled back
+        // a page may have been logged more than once (e.g. stolen, read
+        // back and stolen again); the earliest before image is the one
+        // from before the transaction
+        Map<PageId, Page> oldest = new HashMap<>();
         long lastOffsetIndex = raf.length() - LONG_SIZE;
         raf.seek(lastOffsetIndex);
         long offset = raf.readLong();
@@ -482,15 +607,17 @@ public class LogFile {
             if (recordType == UPDATE_RECORD){
                 if (raf.readLong() == transIdLong){
                     Page old = this.readPageData(raf);
-                    Database.getCatalog().getDatabaseFile(old.getId().getTableId()).writePage(old);
-                    Database.getBufferPool().discardPage(old.getId());
-                    break;
+                    oldest.put(old.getId(), old);
                 }
             }
             long beforelastOffsetIndex = offset - LONG_SIZE;
             raf.seek(beforelastOffsetIndex);
             offset = raf.readLong();
         }
+        for (Page old : oldest.values()) {
+            Database.getCatalog().getDatabaseFile(old.getId().getTableId()).writePage(old);
+            Database.getBufferPool().discardPage(old.getId());
+        }
         raf.seek(currentOffset);
     }
 
@@ -518,6 +645,7 @@ public class LogFile {
                 recoveryUndecided = false;
 
                 currentOffset = raf.length();
+                tailStart = currentOffset;
                 if (currentOffset - LONG_SIZE > 0) {
                     raf.seek(currentOffset - LONG_SIZE);
                     long index = raf.readLong();
@@ -624,8 +752,121 @@ public class LogFile {
         // some code goes here
     }
 
-    public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+    /** Force every record appended so far to disk.  With group commit
+        this waits for the flusher thread, unless called from within
+        another log operation. */
+    public void force() throws IOException {
+        long lsn;
+        synchronized (this) {
+            lsn = appendedLsn();
+        }
+        awaitDurable(lsn);
+    }
+
+    /** Wait until the log is durable up to lsn */
+    private void awaitDurable(long lsn) throws IOException {
+        // waiting would let other appends in halfway through an operation
+        boolean nested = Thread.holdsLock(this);
+        synchronized (this) {
+            if (lsn <= durableLsn)
+                return;
+            if (!groupCommit || nested) {
+                syncForce();
+                return;
+            }
+            awaitFlusher(lsn);
+        }
+    }
+
+    /** Have the flusher thread force the log up to lsn; caller holds this */
+    private void awaitFlusher(long lsn) throws IOException {
+        requestedLsn = Math.max(requestedLsn, lsn);
+        flushError = null;
+        if (flusher == null) {
+            flusher = new Thread(this::flushLoop, "simpledb-log-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+        waiters++;
+        notifyAll();
+        try {
+            while (durableLsn < lsn) {
+                if (flushError != null)
+                    throw new IOException("log force failed", flushError);
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for the log");
+        } finally {
+            waiters--;
+        }
+    }
+
+    /** Body of the flusher thread: force the log once per batch of waiters */
+    private void flushLoop() {
+        try {
+            while (true) {
+                FileChannel ch;
+                long lsn;
+                synchronized (this) {
+                    long idleSince = System.currentTimeMillis();
+                    while (requestedLsn <= durableLsn) {
+                        long idle = System.currentTimeMillis() - idleSince;
+                        if (idle >= FLUSHER_IDLE_MILLIS) {
+                            flusher = null;
+                            return;
+                        }
+                        wait(FLUSHER_IDLE_MILLIS - idle);
+                    }
+                    // give more committers a chance to join the batch
+                    long deadline = System.nanoTime() + groupCommitDelayNanos;
+                    long left;
+                    while (waiters < groupCommitBatch && (left = deadline - System.nanoTime()) > 0)
+                        TimeUnit.NANOSECONDS.timedWait(this, left);
+                    try {
+                        drain();
+                    } catch (IOException e) {
+                        failFlush(e);
+                        continue;
+                    }
+                    ch = raf.getChannel();
+                    lsn = drainedLsn;
+                }
+
+                // appends carry on into the tail while we fsync
+                IOException error = null;
+                long start = System.nanoTime();
+                try {
+                    ch.force(true);
+                    forceLatency.recordSince(start);
+                } catch (IOException e) {
+                    error = e;
+                }
+                synchronized (this) {
+                    if (error != null && ch == raf.getChannel()) {
+                        failFlush(error);
+                    } else {
+                        // a truncation that closed ch forced the new log itself
+                        forces++;
+                        durableLsn = Math.max(durableLsn, lsn);
+                        notifyAll();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            synchronized (this) {
+                flusher = null;
+                failFlush(new InterruptedIOException("log flusher interrupted"));
+            }
+        }
+    }
+
+    /** Wake the waiters of a failed flush with its error; caller holds this */
+    private void failFlush(IOException e) {
+        flushError = e;
+        requestedLsn = durableLsn;
+        notifyAll();
     }
 
 }
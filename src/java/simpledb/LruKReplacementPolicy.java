@@ -0,0 +1,105 @@
+package simpledb;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * LRU-K page replacement (O'Neil, O'Neil and Weikum).
+ * <p>
+ * For every page the policy remembers the times of its last K references.
+ * The victim is the page whose K-th most recent reference is oldest; pages
+ * referenced fewer than K times count as infinitely old and are evicted
+ * first, least recently used among them first.  A page touched once by a
+ * sequential scan therefore loses to a page that is used over and over,
+ * which makes the policy scan resistant.
+ * <p>
+ * Reference history of evicted pages is retained for a while so that a page
+ * that comes back soon after eviction is not treated as cold again.
+ *
+ * @Threadsafe
+ */
+public class LruKReplacementPolicy implements ReplacementPolicy {
+
+    private final int k;
+    private final int retainedLimit;
+    private long clock = 0;
+
+    /** reference history of resident pages, most recent reference first */
+    private final HashMap<PageId, long[]> resident;
+    /** reference history of recently evicted pages, oldest entry first */
+    private final LinkedHashMap<PageId, long[]> retained;
+
+    /**
+     * @param numPages capacity of the buffer pool; also bounds the number of
+     *   evicted pages whose history is retained
+     * @param k number of references remembered per page, at least 1
+     */
+    public LruKReplacementPolicy(int numPages, int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("LRU-K needs K >= 1, got " + k);
+        this.k = k;
+        this.retainedLimit = Math.max(numPages, 1);
+        resident = new HashMap<>();
+        retained = new LinkedHashMap<>();
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    public synchronized void pageAdded(PageId pid) {
+        long[] hist = resident.get(pid);
+        if (hist == null) {
+            hist = retained.remove(pid);
+            if (hist == null)
+                hist = new long[k];
+            resident.put(pid, hist);
+        }
+        reference(hist);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        long[] hist = resident.get(pid);
+        if (hist == null)
+            pageAdded(pid);
+        else
+            reference(hist);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        long[] hist = resident.remove(pid);
+        if (hist == null)
+            return;
+        retained.put(pid, hist);
+        if (retained.size() > retainedLimit) {
+            Iterator<PageId> it = retained.keySet().iterator();
+            it.next();
+            it.remove();
+        }
+    }
+
+    public synchronized PageId chooseVictim(Predicate<PageId> evictable) {
+        PageId victim = null;
+        long victimKth = Long.MAX_VALUE;
+        long victimLast = Long.MAX_VALUE;
+        for (Map.Entry<PageId, long[]> e : resident.entrySet()) {
+            long[] hist = e.getValue();
+            // 0 means fewer than K references, i.e. infinite backward distance
+            long kth = hist[k - 1];
+            long last = hist[0];
+            if (kth < victimKth || (kth == victimKth && last < victimLast)) {
+                if (!evictable.test(e.getKey()))
+                    continue;
+                victim = e.getKey();
+                victimKth = kth;
+                victimLast = last;
+            }
+        }
+        return victim;
+    }
+
+    private void reference(long[] hist) {
+        System.arraycopy(hist, 0, hist, 1, k - 1);
+        hist[0] = ++clock;
+    }
+}
@@ -0,0 +1,283 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics publishes the statistics of the buffer pool, the lock manager and
+ * the log as platform MXBeans (simpledb:type=BufferPool, LockManager and
+ * LogFile), and optionally writes them to a snapshot file.
+ * <p>
+ * The beans always report on the current Database instance, so they stay
+ * valid across {@link Database#resetBufferPool} and {@link Database#reset}.
+ * Counters are LongAdders and latencies {@link LatencyHistogram}s, which
+ * cost little to update from many threads; setting the system property
+ * simpledb.Metrics.enabled to false turns the instrumentation off.
+ * <p>
+ * If simpledb.Metrics.snapshotFile is set, a daemon thread rewrites that
+ * file every simpledb.Metrics.snapshotInterval seconds (default 10) with one
+ * "bean.attribute=value" line per statistic.
+ */
+public class Metrics {
+
+    /** Name of the system property turning the instrumentation on or off. */
+    public static final String ENABLED_PROPERTY = "simpledb.Metrics.enabled";
+    /** Name of the system property giving the snapshot file. */
+    public static final String SNAPSHOT_FILE_PROPERTY = "simpledb.Metrics.snapshotFile";
+    /** Name of the system property giving the snapshot interval in seconds. */
+    public static final String SNAPSHOT_INTERVAL_PROPERTY = "simpledb.Metrics.snapshotInterval";
+
+    private static volatile boolean enabled =
+            Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"));
+    private static final AtomicBoolean started = new AtomicBoolean();
+
+    private static final Map<String, Object> BEANS = new LinkedHashMap<>();
+    static {
+        BEANS.put("BufferPool", new BufferPoolStats());
+        BEANS.put("LockManager", new LockManagerStats());
+        BEANS.put("LogFile", new LogFileStats());
+    }
+
+    private Metrics() {
+    }
+
+    /** @return true if counters and histograms are being updated */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Turn the instrumentation on or off. */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /** Add one to a counter, if the instrumentation is on. */
+    static void increment(LongAdder counter) {
+        if (enabled)
+            counter.increment();
+    }
+
+    /** @return the nanosecond clock if the instrumentation is on, else 0 */
+    static long startTimer() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /** Record the time since a {@link #startTimer} value, unless it was 0. */
+    static void stopTimer(LatencyHistogram h, long start) {
+        if (start != 0)
+            h.recordSince(start);
+    }
+
+    /**
+     * Register the MXBeans and start the snapshot writer if one is
+     * configured.  Called when the first Database is created; later calls
+     * do nothing.
+     */
+    static void start() {
+        if (!started.compareAndSet(false, true))
+            return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (Map.Entry<String, Object> bean : BEANS.entrySet()) {
+            try {
+                ObjectName name = new ObjectName("simpledb:type=" + bean.getKey());
+                if (!server.isRegistered(name))
+                    server.registerMBean(bean.getValue(), name);
+            } catch (JMException e) {
+                System.err.println("could not register " + bean.getKey() + " MXBean: " + e);
+            }
+        }
+
+        String file = System.getProperty(SNAPSHOT_FILE_PROPERTY);
+        if (file != null) {
+            long intervalMs = Long.getLong(SNAPSHOT_INTERVAL_PROPERTY, 10) * 1000;
+            Thread t = new Thread(() -> {
+                try {
+                    while (true) {
+                        Thread.sleep(intervalMs);
+                        try {
+                            writeSnapshot(new File(file));
+                        } catch (IOException e) {
+                            System.err.println("could not write metrics snapshot: " + e);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // exit
+                }
+            }, "simpledb-metrics");
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * @return every attribute of every bean, as "bean.attribute" to value,
+     *   in a stable order
+     */
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> bean : BEANS.entrySet()) {
+            Class<?> iface = bean.getValue().getClass().getInterfaces()[0];
+            Method[] getters = iface.getMethods();
+            Arrays.sort(getters, Comparator.comparing(Method::getName));
+            for (Method m : getters) {
+                String attr = m.getName().startsWith("get") ? m.getName().substring(3) : m.getName();
+                try {
+                    values.put(bean.getKey() + "." + attr, m.invoke(bean.getValue()));
+                } catch (IllegalAccessException | InvocationTargetException e) {
+                    values.put(bean.getKey() + "." + attr, "error: " + e);
+                }
+            }
+        }
+        return values;
+    }
+
+    /** Write {@link #snapshot} to a file, replacing it in one step. */
+    public static void writeSnapshot(File f) throws IOException {
+        File tmp = new File(f.getPath() + ".tmp");
+        try (PrintWriter out = new PrintWriter(tmp, "UTF-8")) {
+            out.println("# simpledb metrics " + new java.util.Date());
+            for (Map.Entry<String, Object> e : snapshot().entrySet())
+                out.println(e.getKey() + "=" + e.getValue());
+        }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Buffer pool statistics; latencies in microseconds. */
+    public interface BufferPoolMXBean {
+        int getMaxPages();
+        int getResidentPages();
+        int getDirtyPages();
+        long getHits();
+        long getMisses();
+        double getHitRatio();
+        long getEvictions();
+        long getPagesFlushed();
+        double getFlushLatencyMeanMicros();
+        double getFlushLatencyP99Micros();
+        long getCommits();
+        long getAborts();
+        long getPagesStolen();
+        long getPagesCleaned();
+        long getRingPagesRecycled();
+        long getPagesPrefetched();
+        int getSnapshotVersions();
+        long getLatchWaits();
+        double getSharedLatchHoldMeanMicros();
+        double getSharedLatchHoldP99Micros();
+        double getExclusiveLatchHoldMeanMicros();
+        double getExclusiveLatchHoldP99Micros();
+    }
+
+    /** Lock manager statistics; latencies in microseconds. */
+    public interface LockManagerMXBean {
+        long getLockRequests();
+        long getLockWaits();
+        double getLockWaitMeanMicros();
+        double getLockWaitP99Micros();
+        double getLockWaitMaxMicros();
+        long getDeadlockAborts();
+        long getTimeoutAborts();
+        long getEscalations();
+    }
+
+    /** Log statistics; latencies in microseconds. */
+    public interface LogFileMXBean {
+        long getForces();
+        double getForceLatencyMeanMicros();
+        double getForceLatencyP99Micros();
+        double getForceLatencyMaxMicros();
+    }
+
+    private static double micros(double nanos) {
+        return nanos / 1000;
+    }
+
+    static class BufferPoolStats implements BufferPoolMXBean {
+        private static BufferPool bp() {
+            return Database.getBufferPool();
+        }
+
+        public int getMaxPages() { return bp().getMaxPages(); }
+        public int getResidentPages() { return bp().getNumResidentPages(); }
+        public int getDirtyPages() { return bp().getNumDirtyPages(); }
+        public long getHits() { return bp().getHits(); }
+        public long getMisses() { return bp().getMisses(); }
+        public double getHitRatio() {
+            long hits = getHits();
+            long all = hits + getMisses();
+            return all == 0 ? 0 : (double) hits / all;
+        }
+        public long getEvictions() { return bp().getEvictions(); }
+        public long getPagesFlushed() { return bp().getFlushLatency().getCount(); }
+        public double getFlushLatencyMeanMicros() { return micros(bp().getFlushLatency().getMean()); }
+        public double getFlushLatencyP99Micros() {
+            return micros(bp().getFlushLatency().getValueAtPercentile(99));
+        }
+        public long getCommits() { return bp().getCommits(); }
+        public long getAborts() { return bp().getAborts(); }
+        public long getPagesStolen() { return bp().getPagesStolen(); }
+        public long getPagesCleaned() { return bp().getPagesCleaned(); }
+        public long getRingPagesRecycled() { return bp().getRingPagesRecycled(); }
+        public long getPagesPrefetched() { return bp().getPrefetcher().getPagesPrefetched(); }
+        public int getSnapshotVersions() { return bp().getVersionStore().getNumVersions(); }
+        public long getLatchWaits() { return PageLatch.getWaits(); }
+        public double getSharedLatchHoldMeanMicros() {
+            return micros(PageLatch.getSharedHoldTime().getMean());
+        }
+        public double getSharedLatchHoldP99Micros() {
+            return micros(PageLatch.getSharedHoldTime().getValueAtPercentile(99));
+        }
+        public double getExclusiveLatchHoldMeanMicros() {
+            return micros(PageLatch.getExclusiveHoldTime().getMean());
+        }
+        public double getExclusiveLatchHoldP99Micros() {
+            return micros(PageLatch.getExclusiveHoldTime().getValueAtPercentile(99));
+        }
+    }
+
+    static class LockManagerStats implements LockManagerMXBean {
+        private static LockManager lm() {
+            return Database.getBufferPool().getLockManager();
+        }
+
+        public long getLockRequests() { return lm().getLockRequests(); }
+        public long getLockWaits() { return lm().getLockWaits(); }
+        public double getLockWaitMeanMicros() { return micros(lm().getLockWaitLatency().getMean()); }
+        public double getLockWaitP99Micros() {
+            return micros(lm().getLockWaitLatency().getValueAtPercentile(99));
+        }
+        public double getLockWaitMaxMicros() { return micros(lm().getLockWaitLatency().getMax()); }
+        public long getDeadlockAborts() { return lm().getDeadlockAborts(); }
+        public long getTimeoutAborts() { return lm().getTimeoutAborts(); }
+        public long getEscalations() { return lm().getEscalations(); }
+    }
+
+    static class LogFileStats implements LogFileMXBean {
+        private static LogFile log() {
+            return Database.getLogFile();
+        }
+
+        public long getForces() { return log().getForceCount(); }
+        public double getForceLatencyMeanMicros() { return micros(log().getForceLatency().getMean()); }
+        public double getForceLatencyP99Micros() {
+            return micros(log().getForceLatency().getValueAtPercentile(99));
+        }
+        public double getForceLatencyMaxMicros() { return micros(log().getForceLatency().getMax()); }
+    }
+}
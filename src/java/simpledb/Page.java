@@ -56,4 +56,10 @@ public interface Page {
      * copy current content to the before image.
      */
     public void setBeforeImage();
+
+    /**
+     * @return the short-term latch guarding this page's contents while they
+     *   are read or changed
+     */
+    public PageLatch getLatch();
 }
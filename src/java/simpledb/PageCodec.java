@@ -0,0 +1,315 @@
+package simpledb;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * PageCodec compresses the bytes of the pages of a heap file.  The first
+ * byte of a compressed page names its codec:
+ * <ul>
+ * <li>COLUMNS, for pages of a fixed-width layout: the slot header, then
+ * each field of the used slots in turn, int fields by frame of reference
+ * (their least value, then each value less that, bit-packed) and string
+ * fields by dictionary (the distinct strings, then the number of each,
+ * bit-packed);
+ * <li>LZ, an LZ77 coding of the page bytes, with matches of 4 bytes or
+ * more found through a hash table of the last position of each 4 bytes;
+ * <li>RAW, the page bytes as they are.
+ * </ul>
+ * A page is compressed with whichever is shortest.  COLUMNS is only used
+ * when it gives back the exact page bytes, so any page decompresses to the
+ * bytes it was compressed from.
+ *
+ * @Threadsafe
+ */
+class PageCodec {
+
+    static final byte RAW = 0, COLUMNS = 1, LZ = 2;
+
+    private static final int MIN_MATCH = 4;
+    private static final int HASH_BITS = 12;
+
+    /** an empty page of the file, whose layout COLUMNS follows, or null */
+    private final HeapPage layout;
+    private final TupleDesc td;
+
+    /**
+     * @param layout an empty page of the file, or null if its layout is not
+     *   fixed-width, so that only LZ and RAW are used
+     */
+    PageCodec(HeapPage layout) {
+        this.layout = layout;
+        this.td = layout == null ? null : layout.td;
+    }
+
+    /** @return the compressed bytes of a page */
+    byte[] encode(byte[] page) {
+        byte[] best = lz(page);
+        if (layout != null) {
+            byte[] columns = columns(page);
+            if (columns != null && columns.length < best.length)
+                best = columns;
+        }
+        if (best.length > page.length) {
+            best = new byte[page.length + 1];
+            best[0] = RAW;
+            System.arraycopy(page, 0, best, 1, page.length);
+        }
+        return best;
+    }
+
+    /** Decompress a page into page, which must be zeroed if extent is COLUMNS. */
+    void decode(byte[] extent, byte[] page) {
+        switch (extent[0]) {
+        case RAW:
+            System.arraycopy(extent, 1, page, 0, page.length);
+            break;
+        case COLUMNS:
+            decodeColumns(extent, page);
+            break;
+        case LZ:
+            unlz(extent, page);
+            break;
+        default:
+            throw new IllegalArgumentException("unknown page codec " + extent[0]);
+        }
+    }
+
+    /** @return the page compressed by COLUMNS, or null if that would not give back its bytes */
+    private byte[] columns(byte[] page) {
+        int slots = layout.slotCount(page);
+        int[] used = new int[slots];
+        int n = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            if (layout.isSlotUsed(page, slot))
+                used[n++] = slot;
+        }
+        Bits out = new Bits(page.length / 4);
+        out.putByte(COLUMNS);
+        for (int i = 0; i < layout.headerSize; i++)
+            out.putByte(page[i]);
+        int[] values = new int[n];
+        for (int col = 0; col < td.numFields(); col++) {
+            if (td.getFieldType(col) == Type.INT_TYPE) {
+                int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+                for (int i = 0; i < n; i++) {
+                    values[i] = Type.readInt(page, layout.fieldOffset(page, used[i], col));
+                    min = Math.min(min, values[i]);
+                    max = Math.max(max, values[i]);
+                }
+                int width = n == 0 ? 0 : 64 - Long.numberOfLeadingZeros((long) max - min);
+                out.put(min, 32);
+                out.putByte(width);
+                for (int i = 0; i < n; i++)
+                    out.put((long) values[i] - min, width);
+            } else {
+                HashMap<String, Integer> codes = new HashMap<>();
+                String[] strings = new String[n];
+                for (int i = 0; i < n; i++) {
+                    int offset = layout.fieldOffset(page, used[i], col);
+                    int len = Type.readInt(page, offset);
+                    if (len < 0 || len > Type.STRING_LEN)
+                        return null;
+                    String s = new String(page, offset + 4, len, StandardCharsets.ISO_8859_1);
+                    Integer code = codes.putIfAbsent(s, codes.size());
+                    values[i] = code == null ? codes.size() - 1 : code;
+                    if (code == null)
+                        strings[codes.size() - 1] = s;
+                }
+                int width = 32 - Integer.numberOfLeadingZeros(Math.max(codes.size() - 1, 0));
+                out.put(codes.size(), 16);
+                for (int i = 0; i < codes.size(); i++) {
+                    out.putByte(strings[i].length());
+                    for (int k = 0; k < strings[i].length(); k++)
+                        out.putByte(strings[i].charAt(k));
+                }
+                out.putByte(width);
+                for (int i = 0; i < n; i++)
+                    out.put(values[i], width);
+            }
+        }
+        byte[] encoded = out.toArray();
+        byte[] check = new byte[page.length];
+        decodeColumns(encoded, check);
+        return Arrays.equals(check, page) ? encoded : null;
+    }
+
+    private void decodeColumns(byte[] extent, byte[] page) {
+        Bits in = new Bits(extent);
+        in.getByte();
+        for (int i = 0; i < layout.headerSize; i++)
+            page[i] = (byte) in.getByte();
+        int slots = layout.slotCount(page);
+        int[] used = new int[slots];
+        int n = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            if (layout.isSlotUsed(page, slot))
+                used[n++] = slot;
+        }
+        for (int col = 0; col < td.numFields(); col++) {
+            if (td.getFieldType(col) == Type.INT_TYPE) {
+                int min = (int) in.get(32);
+                int width = in.getByte();
+                for (int i = 0; i < n; i++)
+                    Type.writeInt(page, layout.fieldOffset(page, used[i], col), (int) (min + in.get(width)));
+            } else {
+                byte[][] strings = new byte[(int) in.get(16)][];
+                for (int k = 0; k < strings.length; k++) {
+                    strings[k] = new byte[in.getByte()];
+                    for (int c = 0; c < strings[k].length; c++)
+                        strings[k][c] = (byte) in.getByte();
+                }
+                int width = in.getByte();
+                for (int i = 0; i < n; i++) {
+                    byte[] s = strings[(int) in.get(width)];
+                    int offset = layout.fieldOffset(page, used[i], col);
+                    Type.writeInt(page, offset, s.length);
+                    System.arraycopy(s, 0, page, offset + 4, s.length);
+                }
+            }
+        }
+    }
+
+    /** @return the page compressed by LZ */
+    static byte[] lz(byte[] page) {
+        byte[] out = new byte[page.length + page.length / 255 + 16];
+        out[0] = LZ;
+        int op = 1;
+        int[] last = new int[1 << HASH_BITS];
+        int anchor = 0;
+        int ip = 0;
+        while (ip + MIN_MATCH <= page.length) {
+            int word = Type.readInt(page, ip);
+            int h = (word * 0x9E3779B1) >>> (32 - HASH_BITS);
+            int ref = last[h] - 1;
+            last[h] = ip + 1;
+            if (ref < 0 || ip - ref > 0xFFFF || Type.readInt(page, ref) != word) {
+                ip++;
+                continue;
+            }
+            int len = MIN_MATCH;
+            while (ip + len < page.length && page[ref + len] == page[ip + len])
+                len++;
+            op = sequence(out, op, page, anchor, ip - anchor, ip - ref, len);
+            ip += len;
+            anchor = ip;
+        }
+        op = sequence(out, op, page, anchor, page.length - anchor, 0, 0);
+        return Arrays.copyOf(out, op);
+    }
+
+    /** Write the literals before a match, and the match unless its length is 0. @return the new end of out */
+    private static int sequence(byte[] out, int op, byte[] src, int from, int literals, int offset, int len) {
+        int matchCode = len == 0 ? 0 : len - MIN_MATCH;
+        out[op++] = (byte) (Math.min(literals, 15) << 4 | Math.min(matchCode, 15));
+        op = putLength(out, op, literals);
+        System.arraycopy(src, from, out, op, literals);
+        op += literals;
+        if (len == 0)
+            return op;
+        out[op++] = (byte) offset;
+        out[op++] = (byte) (offset >>> 8);
+        return putLength(out, op, matchCode);
+    }
+
+    /** Write the part of a length of 15 or more past the 15 in its token, 255 at a time. */
+    private static int putLength(byte[] out, int op, int length) {
+        if (length < 15)
+            return op;
+        for (length -= 15; length >= 255; length -= 255)
+            out[op++] = (byte) 255;
+        out[op++] = (byte) length;
+        return op;
+    }
+
+    private static void unlz(byte[] extent, byte[] page) {
+        int ip = 1, op = 0;
+        while (true) {
+            int token = extent[ip++] & 0xFF;
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int b;
+                do {
+                    b = extent[ip++] & 0xFF;
+                    literals += b;
+                } while (b == 255);
+            }
+            System.arraycopy(extent, ip, page, op, literals);
+            ip += literals;
+            op += literals;
+            if (op == page.length)
+                return;
+            int offset = (extent[ip] & 0xFF) | (extent[ip + 1] & 0xFF) << 8;
+            ip += 2;
+            int len = token & 15;
+            if (len == 15) {
+                int b;
+                do {
+                    b = extent[ip++] & 0xFF;
+                    len += b;
+                } while (b == 255);
+            }
+            len += MIN_MATCH;
+            // byte by byte, as a match may overlap the bytes it copies
+            for (int i = 0; i < len; i++, op++)
+                page[op] = page[op - offset];
+        }
+    }
+
+    /** Bit-packed values, most significant bit first, after byte-aligned ones */
+    private static class Bits {
+        private byte[] bytes;
+        private long bitPos;
+
+        Bits(int capacity) {
+            bytes = new byte[Math.max(capacity, 16)];
+        }
+
+        Bits(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        void putByte(int b) {
+            put(b & 0xFF, 8);
+        }
+
+        int getByte() {
+            return (int) get(8);
+        }
+
+        /** Append the low width bits of v. */
+        void put(long v, int width) {
+            if ((bitPos + width + 7) / 8 > bytes.length)
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, (int) ((bitPos + width + 7) / 8)));
+            for (int i = width - 1; i >= 0; ) {
+                int byteIndex = (int) (bitPos >>> 3);
+                int free = 8 - (int) (bitPos & 7);
+                int take = Math.min(free, i + 1);
+                int chunk = (int) (v >>> (i + 1 - take)) & ((1 << take) - 1);
+                bytes[byteIndex] |= chunk << (free - take);
+                bitPos += take;
+                i -= take;
+            }
+        }
+
+        /** @return the next width bits, as an unsigned value */
+        long get(int width) {
+            long v = 0;
+            for (int left = width; left > 0; ) {
+                int byteIndex = (int) (bitPos >>> 3);
+                int avail = 8 - (int) (bitPos & 7);
+                int take = Math.min(avail, left);
+                int chunk = (bytes[byteIndex] >>> (avail - take)) & ((1 << take) - 1);
+                v = v << take | chunk;
+                bitPos += take;
+                left -= take;
+            }
+            return v;
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(bytes, (int) ((bitPos + 7) / 8));
+        }
+    }
+}
@@ -0,0 +1,498 @@
+package simpledb;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.ToLongFunction;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * PageIO does the disk I/O of one database file through a single
+ * long-lived FileChannel, with positional reads and writes, so that
+ * threads reading different pages of the file do not open it, seek or
+ * serialize on a file pointer.  Runs of adjacent pages are written with
+ * one gathering write.
+ * <p>
+ * Channels are opened on first use and kept open, up to
+ * simpledb.PageIO.maxOpenFiles of them (default 256); past that the least
+ * recently used idle channel is closed, and reopened when it is needed
+ * again.  With simpledb.PageIO.direct set, reads and writes go through a
+ * per-thread direct buffer instead of the JDK's temporary one.
+ * <p>
+ * A file can also be read through a read-only memory mapping (see
+ * {@link #setMapped}), for read-mostly tables: reads then copy from the
+ * mapping without a system call, and pages that are decoded once, rather
+ * than kept as bytes, can be decoded straight from it with
+ * {@link #mappedSlice}.  Writes still go through the channel, and
+ * the mapping, which is shared with the OS page cache, sees them.  The
+ * file is mapped in 1 GB segments that overlap by 64 KB, so that a page
+ * never straddles two of them; it is remapped when it has grown past the
+ * mapping.  A mapped file must not be truncated.
+ * <p>
+ * Files grow in zero-filled extents of simpledb.PageIO.extentSize bytes
+ * (default 1 MB; 0 turns preallocation off), so that appending pages one
+ * at a time does not extend the file, and update its length, on every
+ * append.  Once a file has been preallocated, {@link #size} is the end of
+ * the data written to it rather than its length, and reads stop there.
+ * That end is kept in a sidecar file next to the file (its name with
+ * ".len" appended), written before the data that moves it, so that the
+ * file ends there again when it is opened anew.  The sidecar holds the
+ * end and the length of the file, as big-endian longs; a file whose
+ * length has changed since, by writes other than through PageIO, is all
+ * data.  Like the data, the sidecar is not forced to disk, so after a
+ * crash of the machine it may end the file before data that reached
+ * the disk; it survives a crash of the process.
+ *
+ * @Threadsafe
+ */
+public class PageIO {
+
+    /** Name of the system property giving the most channels kept open. */
+    public static final String MAX_OPEN_PROPERTY = "simpledb.PageIO.maxOpenFiles";
+
+    /** Name of the system property selecting per-thread direct buffers. */
+    public static final String DIRECT_PROPERTY = "simpledb.PageIO.direct";
+
+    /** Name of the system property giving the size of the extents files grow by. */
+    public static final String EXTENT_SIZE_PROPERTY = "simpledb.PageIO.extentSize";
+
+    private static final int MAX_OPEN = Integer.getInteger(MAX_OPEN_PROPERTY, 256);
+    private static final boolean DIRECT = Boolean.getBoolean(DIRECT_PROPERTY);
+    private static final long EXTENT_SIZE = Long.getLong(EXTENT_SIZE_PROPERTY, 1 << 20);
+    private static final ByteBuffer ZEROS = ByteBuffer.allocate(1 << 16).asReadOnlyBuffer();
+
+    private static final int SEGMENT_BITS = 30;
+    /** how far each segment extends into the next; the largest mapped read */
+    private static final int SEGMENT_OVERLAP = 1 << 16;
+
+    /** files with an open channel, least recently used first */
+    private static final LinkedHashMap<PageIO, Boolean> open = new LinkedHashMap<>(16, 0.75f, true);
+    private static final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<>();
+
+    private final File f;
+    /** shared while the channel is in use, exclusive to open or close it */
+    private final ReentrantReadWriteLock state = new ReentrantReadWriteLock();
+    private FileChannel channel;
+
+    /** The segments mapping the first length bytes of the file */
+    private static class Mapping {
+        final MappedByteBuffer[] segments;
+        final long length;
+
+        Mapping(MappedByteBuffer[] segments, long length) {
+            this.segments = segments;
+            this.length = length;
+        }
+    }
+
+    private volatile boolean mapped;
+    /** null until the first mapped read */
+    private volatile Mapping mapping;
+
+    private final long extentSize;
+    private final Object growth = new Object();
+    /** the length of the file, guarded by growth; -1 until the first write past the data */
+    private volatile long allocated = -1;
+    /** the end of the data, guarded by growth; -1 until the file is preallocated */
+    private volatile long logical = -1;
+    /** set once the recorded end of the data has been looked up */
+    private volatile boolean recorded;
+    /** the sidecar the end of the data is recorded in, opened on first use; guarded by growth */
+    private PageIO endRecord;
+
+    public PageIO(File f) {
+        this(f, EXTENT_SIZE);
+    }
+
+    /** @param extentSize the size of the extents the file grows by, or 0 to grow it as written */
+    public PageIO(File f, long extentSize) {
+        this.f = f;
+        this.extentSize = extentSize;
+    }
+
+    /** Forget the end of the data of a file that has been overwritten. */
+    public static void reset(File f) {
+        sidecar(f).delete();
+    }
+
+    private static File sidecar(File f) {
+        return new File(f.getPath() + ".len");
+    }
+
+    /** @return the end of the data, or -1 if it is the end of the file */
+    private long logical() {
+        if (!recorded) {
+            synchronized (growth) {
+                if (!recorded && extentSize > 0 && sidecar(f).length() == 16) {
+                    try (DataInputStream in = new DataInputStream(new FileInputStream(sidecar(f)))) {
+                        long end = in.readLong();
+                        if (in.readLong() == f.length())
+                            logical = end;
+                    } catch (IOException e) {
+                        // without the record, the whole file is data
+                    }
+                }
+                recorded = true;
+            }
+        }
+        return logical;
+    }
+
+    /** @return the end of the data in the file, which may be followed by preallocated space */
+    public long size() {
+        long n = logical();
+        return n >= 0 ? n : f.length();
+    }
+
+    /** Read the file through a memory mapping, or stop doing so. */
+    public void setMapped(boolean on) {
+        mapped = on;
+        if (!on)
+            mapping = null;
+    }
+
+    /** @return true if reads go through a memory mapping */
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    /**
+     * @return a read-only view of the len bytes at offset in the file's
+     *   mapping, or null if the file is not mapped or ends before them
+     */
+    public ByteBuffer mappedSlice(long offset, int len) throws IOException {
+        long end = logical();
+        if (!mapped || len > SEGMENT_OVERLAP || (end >= 0 && offset + len > end))
+            return null;
+        Mapping m = mapping;
+        if (m == null || offset + len > m.length) {
+            m = remap();
+            if (offset + len > m.length)
+                return null;
+        }
+        int seg = (int) (offset >>> SEGMENT_BITS);
+        ByteBuffer b = m.segments[seg].duplicate();
+        int pos = (int) (offset - ((long) seg << SEGMENT_BITS));
+        b.limit(pos + len);
+        b.position(pos);
+        return b.slice();
+    }
+
+    /** Map the whole file as it is now, unless a bigger mapping exists already */
+    private synchronized Mapping remap() throws IOException {
+        FileChannel ch = acquire();
+        try {
+            long size = ch.size();
+            Mapping m = mapping;
+            if (m != null && m.length >= size)
+                return m;
+            int n = (int) ((size + (1L << SEGMENT_BITS) - 1) >>> SEGMENT_BITS);
+            MappedByteBuffer[] segs = new MappedByteBuffer[n];
+            for (int i = 0; i < n; i++) {
+                long start = (long) i << SEGMENT_BITS;
+                long len = Math.min(size - start, (1L << SEGMENT_BITS) + SEGMENT_OVERLAP);
+                segs[i] = ch.map(FileChannel.MapMode.READ_ONLY, start, len);
+            }
+            m = new Mapping(segs, size);
+            if (mapped)
+                mapping = m;
+            return m;
+        } finally {
+            state.readLock().unlock();
+        }
+    }
+
+    /** @return a stream reading the remaining bytes of buf, for decoding a page */
+    public static InputStream inputStream(ByteBuffer buf) {
+        return new InputStream() {
+            public int read() {
+                return buf.hasRemaining() ? buf.get() & 0xff : -1;
+            }
+
+            public int read(byte[] b, int off, int len) {
+                if (!buf.hasRemaining())
+                    return -1;
+                int n = Math.min(len, buf.remaining());
+                buf.get(b, off, n);
+                return n;
+            }
+        };
+    }
+
+    /**
+     * Read from offset until dst is full or the file ends.
+     *
+     * @return the number of bytes read
+     */
+    public int read(long offset, byte[] dst) throws IOException {
+        ByteBuffer slice = mappedSlice(offset, dst.length);
+        if (slice != null) {
+            slice.get(dst);
+            return dst.length;
+        }
+        int len = dst.length;
+        long end = logical();
+        if (end >= 0)
+            len = (int) Math.max(0, Math.min(len, end - offset));
+        while (true) {
+            FileChannel ch = acquire();
+            try {
+                ByteBuffer buf = DIRECT ? directBuffer(len) : ByteBuffer.wrap(dst, 0, len);
+                int n = 0;
+                while (buf.hasRemaining()) {
+                    int r = ch.read(buf, offset + n);
+                    if (r < 0)
+                        break;
+                    n += r;
+                }
+                if (DIRECT) {
+                    buf.flip();
+                    buf.get(dst, 0, n);
+                }
+                return n;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (AsynchronousCloseException e) {
+                // another thread was interrupted during I/O, which closes the channel
+            } finally {
+                state.readLock().unlock();
+            }
+        }
+    }
+
+    /** Write src at offset, extending the file if needed. */
+    public void write(long offset, byte[] src) throws IOException {
+        grow(offset + src.length);
+        while (true) {
+            FileChannel ch = acquire();
+            try {
+                ByteBuffer buf = ByteBuffer.wrap(src);
+                if (DIRECT) {
+                    buf = directBuffer(src.length).put(src);
+                    buf.flip();
+                }
+                int n = 0;
+                while (buf.hasRemaining())
+                    n += ch.write(buf, offset + n);
+                return;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (AsynchronousCloseException e) {
+                // another thread was interrupted during I/O; write it all again
+            } finally {
+                state.readLock().unlock();
+            }
+        }
+    }
+
+    /** Write the pages of a run of adjacent pages, the first at offset, at once. */
+    public void write(long offset, List<byte[]> run) throws IOException {
+        if (run.size() == 1) {
+            write(offset, run.get(0));
+            return;
+        }
+        ByteBuffer[] bufs = new ByteBuffer[run.size()];
+        long end = offset;
+        for (int i = 0; i < bufs.length; i++) {
+            bufs[i] = ByteBuffer.wrap(run.get(i));
+            end += bufs[i].remaining();
+        }
+        grow(end);
+        while (true) {
+            FileChannel ch = acquire();
+            try {
+                // gathering writes use the channel's position
+                synchronized (this) {
+                    ch.position(offset);
+                    while (bufs[bufs.length - 1].hasRemaining())
+                        ch.write(bufs);
+                }
+                return;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (AsynchronousCloseException e) {
+                for (ByteBuffer buf : bufs)
+                    buf.rewind();
+            } finally {
+                state.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Write pages sorted by page number, each run of pages that are
+     * adjacent in the file with one gathering write.
+     *
+     * @param offsetOf the offset of a page in the file
+     */
+    public void writePages(List<Page> pages, ToLongFunction<PageId> offsetOf) throws IOException {
+        int i = 0;
+        while (i < pages.size()) {
+            long start = offsetOf.applyAsLong(pages.get(i).getId());
+            long end = start;
+            ArrayList<byte[]> run = new ArrayList<>();
+            for (; i < pages.size() && offsetOf.applyAsLong(pages.get(i).getId()) == end; i++) {
+                byte[] data = pages.get(i).getPageData();
+                run.add(data);
+                end += data.length;
+            }
+            write(start, run);
+        }
+    }
+
+    /**
+     * Make the file at least end bytes long before data is written up to
+     * end, preallocating a zero-filled extent if it is too short.
+     */
+    private void grow(long end) throws IOException {
+        if (extentSize <= 0)
+            return;
+        long n = logical();
+        if (n >= end || (n < 0 && allocated >= end))
+            return;
+        synchronized (growth) {
+            if (allocated < 0)
+                allocated = channelSize();
+            if (end > allocated) {
+                long newEnd = (end + extentSize - 1) / extentSize * extentSize;
+                zeroFill(allocated, newEnd);
+                if (logical < 0)
+                    logical = allocated;
+                allocated = newEnd;
+            }
+            if (logical >= 0 && end > logical) {
+                if (endRecord == null)
+                    endRecord = new PageIO(sidecar(f), 0);
+                endRecord.write(0, ByteBuffer.allocate(16).putLong(end).putLong(allocated).array());
+                logical = end;
+            }
+        }
+    }
+
+    private long channelSize() throws IOException {
+        FileChannel ch = acquire();
+        try {
+            return ch.size();
+        } finally {
+            state.readLock().unlock();
+        }
+    }
+
+    private void zeroFill(long from, long to) throws IOException {
+        long pos = from;
+        while (true) {
+            FileChannel ch = acquire();
+            try {
+                while (pos < to) {
+                    ByteBuffer zeros = ZEROS.duplicate();
+                    zeros.limit((int) Math.min(zeros.capacity(), to - pos));
+                    pos += ch.write(zeros, pos);
+                }
+                return;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (AsynchronousCloseException e) {
+                // another thread was interrupted during I/O; carry on where it stopped
+            } finally {
+                state.readLock().unlock();
+            }
+        }
+    }
+
+    /** Close the channel; it is reopened if the file is used again. */
+    public void close() throws IOException {
+        state.writeLock().lock();
+        try {
+            closeChannel();
+        } finally {
+            state.writeLock().unlock();
+        }
+    }
+
+    /** @return the open channel, holding the shared state lock */
+    private FileChannel acquire() throws IOException {
+        while (true) {
+            state.readLock().lock();
+            FileChannel ch = channel;
+            if (ch != null && ch.isOpen()) {
+                synchronized (open) {
+                    open.get(this);
+                }
+                return ch;
+            }
+            state.readLock().unlock();
+            openChannel();
+        }
+    }
+
+    private void openChannel() throws IOException {
+        state.writeLock().lock();
+        try {
+            if (channel != null && channel.isOpen())
+                return;
+            channel = FileChannel.open(f.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } finally {
+            state.writeLock().unlock();
+        }
+        ArrayList<PageIO> victims = new ArrayList<>();
+        synchronized (open) {
+            open.put(this, Boolean.TRUE);
+            Iterator<PageIO> it = open.keySet().iterator();
+            while (open.size() - victims.size() > MAX_OPEN && it.hasNext()) {
+                PageIO io = it.next();
+                if (io != this)
+                    victims.add(io);
+            }
+        }
+        for (PageIO io : victims)
+            io.closeIfIdle();
+    }
+
+    /** Close the channel unless a thread is using it. */
+    private void closeIfIdle() {
+        if (!state.writeLock().tryLock())
+            return;
+        try {
+            closeChannel();
+        } catch (IOException e) {
+            // the channel is gone either way
+        } finally {
+            state.writeLock().unlock();
+        }
+    }
+
+    /** caller holds the state lock exclusively */
+    private void closeChannel() throws IOException {
+        synchronized (open) {
+            open.remove(this);
+        }
+        FileChannel ch = channel;
+        channel = null;
+        if (ch != null)
+            ch.close();
+    }
+
+    /** @return the thread's direct buffer, cleared to len bytes */
+    private static ByteBuffer directBuffer(int len) {
+        ByteBuffer buf = buffers.get();
+        if (buf == null || buf.capacity() < len) {
+            buf = ByteBuffer.allocateDirect(len);
+            buffers.set(buf);
+        }
+        buf.clear().limit(len);
+        return buf;
+    }
+}
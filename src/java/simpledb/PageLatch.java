@@ -0,0 +1,88 @@
+package simpledb;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * PageLatch is the short-term reader-writer latch of one page object.
+ * Unlike a transaction's lock on the page, which it holds until it
+ * completes, a latch is held only while the page's contents are read or
+ * changed, so a reader always sees a consistent page.  Page classes latch
+ * their own mutators (exclusive) and {@link Page#getPageData} (shared);
+ * callers latch a page around a check and the change depending on it.
+ * <p>
+ * Latches are reentrant, and a thread holding a page exclusively may also
+ * take it shared, but not the other way round.  Never wait for a lock,
+ * and never latch another page exclusively, while holding a latch.
+ * <p>
+ * Hold times and waits are recorded for all latches together; see
+ * {@link Metrics}.
+ *
+ * @Threadsafe
+ */
+public class PageLatch {
+
+    private static final LongAdder waits = new LongAdder();
+    private static final LatencyHistogram sharedHold = new LatencyHistogram();
+    private static final LatencyHistogram exclusiveHold = new LatencyHistogram();
+
+    private final ReentrantReadWriteLock rw = new ReentrantReadWriteLock();
+
+    /**
+     * Latch the page shared, waiting for an exclusive holder.
+     *
+     * @return the start of the hold, to pass to {@link #releaseShared}
+     */
+    public long acquireShared() {
+        if (!rw.readLock().tryLock()) {
+            Metrics.increment(waits);
+            rw.readLock().lock();
+        }
+        return Metrics.startTimer();
+    }
+
+    /** Release a shared latch taken by {@link #acquireShared}. */
+    public void releaseShared(long start) {
+        rw.readLock().unlock();
+        Metrics.stopTimer(sharedHold, start);
+    }
+
+    /**
+     * Latch the page exclusively, waiting for all other holders.
+     *
+     * @return the start of the hold, to pass to {@link #releaseExclusive}
+     */
+    public long acquireExclusive() {
+        if (!rw.writeLock().tryLock()) {
+            Metrics.increment(waits);
+            rw.writeLock().lock();
+        }
+        return Metrics.startTimer();
+    }
+
+    /** Release an exclusive latch taken by {@link #acquireExclusive}. */
+    public void releaseExclusive(long start) {
+        rw.writeLock().unlock();
+        Metrics.stopTimer(exclusiveHold, start);
+    }
+
+    /** @return true if the current thread holds the latch exclusively */
+    public boolean isHeldExclusively() {
+        return rw.isWriteLockedByCurrentThread();
+    }
+
+    /** @return how many latch requests had to wait for another holder */
+    public static long getWaits() {
+        return waits.sum();
+    }
+
+    /** @return the hold times of shared latches */
+    public static LatencyHistogram getSharedHoldTime() {
+        return sharedHold;
+    }
+
+    /** @return the hold times of exclusive latches */
+    public static LatencyHistogram getExclusiveHoldTime() {
+        return exclusiveHold;
+    }
+}
@@ -492,7 +492,48 @@ public class Parser {
         return curtrans;
     }
 
+    /** COPY table FROM 'file' [DELIMITER 'c'], a bulk load, which Zql does not parse */
+    private static final java.util.regex.Pattern COPY_STATEMENT = java.util.regex.Pattern.compile(
+            "\\s*copy\\s+(\\w+)\\s+from\\s+'([^']*)'(?:\\s+delimiter\\s+'(.)')?\\s*;?\\s*",
+            java.util.regex.Pattern.CASE_INSENSITIVE);
+
+    /** Builds the query of a statement, or returns null if it has none */
+    private interface StatementHandler {
+        Query handle(TransactionId tid) throws Exception;
+    }
+
+    public Query handleCopyStatement(String table, String path, char delimiter,
+            TransactionId tId) throws simpledb.ParsingException {
+        int tableId;
+        try {
+            tableId = Database.getCatalog().getTableId(table);
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown table : " + table);
+        }
+        File f = new File(path);
+        if (!f.canRead())
+            throw new simpledb.ParsingException("Cannot read file : " + path);
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+        Query copyQ = new Query(tId);
+        copyQ.setPhysicalPlan(new BulkInsert(tId, new CsvScan(f, td, delimiter), tableId));
+        return copyQ;
+    }
+
     public void processNextStatement(String s) {
+        java.util.regex.Matcher copy = COPY_STATEMENT.matcher(s);
+        if (copy.matches()) {
+            char delimiter = copy.group(3) == null ? ',' : copy.group(3).charAt(0);
+            try {
+                runStatement(tid -> handleCopyStatement(copy.group(1), copy.group(2),
+                        delimiter, tid));
+            } catch (DbException e) {
+                e.printStackTrace();
+            } catch (simpledb.ParsingException e) {
+                System.out
+                        .println("Invalid SQL expression: \n \t" + e.getMessage());
+            }
+            return;
+        }
         try {
             processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")));
         } catch (UnsupportedEncodingException e) {
@@ -506,60 +547,22 @@ public class Parser {
             ZqlParser p = new ZqlParser(is);
             ZStatement s = p.readStatement();
 
-            Query query = null;
             if (s instanceof ZTransactStmt)
                 handleTransactStatement((ZTransactStmt) s);
             else {
-                if (!this.inUserTrans) {
-                    curtrans = new Transaction();
-                    curtrans.start();
-                    System.out.println("Started a new transaction tid = "
-                            + curtrans.getId().getId());
-                }
-                try {
+                runStatement(tid -> {
                     if (s instanceof ZInsert)
-                        query = handleInsertStatement((ZInsert) s,
-                                curtrans.getId());
+                        return handleInsertStatement((ZInsert) s, tid);
                     else if (s instanceof ZDelete)
-                        query = handleDeleteStatement((ZDelete) s,
-                                curtrans.getId());
+                        return handleDeleteStatement((ZDelete) s, tid);
                     else if (s instanceof ZQuery)
-                        query = handleQueryStatement((ZQuery) s,
-                                curtrans.getId());
-                    else {
-                        System.out
-                                .println("Can't parse "
-                                        + s
-                                        + "\n -- parser only handles SQL transactions, insert, delete, and select statements");
-                    }
-                    if (query != null)
-                        query.execute();
-
-                    if (!inUserTrans && curtrans != null) {
-                        curtrans.commit();
-                        System.out.println("Transaction "
-                                + curtrans.getId().getId() + " committed.");
-                    }
-                } catch (Throwable a) {
-                    // Whenever error happens, abort the current transaction
-                    if (curtrans != null) {
-                        curtrans.abort();
-                        System.out.println("Transaction "
-                                + curtrans.getId().getId()
-                                + " aborted because of unhandled error");
-                    }
-                    this.inUserTrans = false;
-
-                    if (a instanceof simpledb.ParsingException
-                            || a instanceof Zql.ParseException)
-                        throw new ParsingException((Exception) a);
-                    if (a instanceof Zql.TokenMgrError)
-                        throw (Zql.TokenMgrError) a;
-                    throw new DbException(a.getMessage());
-                } finally {
-                    if (!inUserTrans)
-                        curtrans = null;
-                }
+                        return handleQueryStatement((ZQuery) s, tid);
+                    System.out
+                            .println("Can't parse "
+                                    + s
+                                    + "\n -- parser only handles SQL transactions, insert, delete, copy, and select statements");
+                    return null;
+                });
             }
 
         } catch (TransactionAbortedException e) {
@@ -578,10 +581,59 @@ public class Parser {
         }
     }
 
+    /**
+     * Run the query of a statement in the current user transaction, or in a
+     * transaction of its own that commits afterwards.  Whenever an error
+     * happens, the transaction is aborted.
+     */
+    private void runStatement(StatementHandler handler)
+            throws DbException, simpledb.ParsingException {
+        if (!this.inUserTrans) {
+            curtrans = new Transaction();
+            curtrans.start();
+            System.out.println("Started a new transaction tid = "
+                    + curtrans.getId().getId());
+        }
+        try {
+            Query query = handler.handle(curtrans.getId());
+            if (query != null)
+                query.execute();
+
+            if (!inUserTrans && curtrans != null) {
+                curtrans.commit();
+                System.out.println("Transaction "
+                        + curtrans.getId().getId() + " committed.");
+            }
+        } catch (Throwable a) {
+            // Whenever error happens, abort the current transaction
+            if (curtrans != null) {
+                try {
+                    curtrans.abort();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                System.out.println("Transaction "
+                        + curtrans.getId().getId()
+                        + " aborted because of unhandled error");
+            }
+            this.inUserTrans = false;
+
+            if (a instanceof simpledb.ParsingException
+                    || a instanceof Zql.ParseException)
+                throw new ParsingException((Exception) a);
+            if (a instanceof Zql.TokenMgrError)
+                throw (Zql.TokenMgrError) a;
+            throw new DbException(a.getMessage());
+        } finally {
+            if (!inUserTrans)
+                curtrans = null;
+        }
+    }
+
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "copy" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -674,7 +726,6 @@ public class Parser {
                     buffer.append(line.substring(0, split + 1));
                     String cmd = buffer.toString().trim();
                     cmd = cmd.substring(0, cmd.length() - 1).trim() + ";";
-                    byte[] statementBytes = cmd.getBytes("UTF-8");
                     if (cmd.equalsIgnoreCase("quit;")
                             || cmd.equalsIgnoreCase("exit;")) {
                         shutdown();
@@ -683,8 +734,7 @@ public class Parser {
                     }
 
                     long startTime = System.currentTimeMillis();
-                    processNextStatement(new ByteArrayInputStream(
-                            statementBytes));
+                    processNextStatement(cmd);
                     long time = System.currentTimeMillis() - startTime;
                     System.out.printf("----------------\n%.2f seconds\n\n",
                             ((double) time / 1000.0));
@@ -0,0 +1,48 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * PaxHeapPage is a HeapPage that stores its tuples column by column (the
+ * PAX layout): after the header, the page holds one minipage per field
+ * with that field of every slot, so reading one column of the page reads
+ * consecutive bytes.  It has the slots and header of a HeapPage of the
+ * same table, and is the page of HeapFiles created with the pax layout.
+ *
+ * @see HeapFile#HeapFile(java.io.File, TupleDesc, boolean)
+ */
+public class PaxHeapPage extends HeapPage {
+
+    /** where the minipage of each field starts */
+    private final int[] columnStarts;
+    private final int[] lengths;
+
+    /**
+     * Create a PaxHeapPage from a set of bytes of data read from disk,
+     * which the caller must not change afterwards.
+     */
+    public PaxHeapPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, data);
+        this.columnStarts = new int[td.numFields()];
+        this.lengths = new int[td.numFields()];
+        for (int j = 0; j < columnStarts.length; j++) {
+            columnStarts[j] = headerSize + numSlots * fieldOffsets[j];
+            lengths[j] = td.getFieldType(j).getLen();
+        }
+    }
+
+    /** Create a PaxHeapPage from a copy of the page-size bytes remaining in data. */
+    public PaxHeapPage(HeapPageId id, java.nio.ByteBuffer data) throws IOException {
+        this(id, copy(data));
+    }
+
+    @Override
+    HeapPage withData(byte[] data) throws IOException {
+        return new PaxHeapPage(pid, data);
+    }
+
+    @Override
+    int fieldOffset(byte[] bytes, int slot, int col) {
+        return columnStarts[col] + slot * lengths[col];
+    }
+}
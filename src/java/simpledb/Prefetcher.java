@@ -0,0 +1,248 @@
+package simpledb;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prefetcher loads pages into the BufferPool ahead of sequential scans, on a
+ * small pool of background I/O threads.
+ * <p>
+ * Each scan reads its pages through a {@link Stream}.  Once a stream has
+ * read two pages in a row that follow each other (page i+1 after page i of
+ * a HeapFile, or a leaf after its left sibling in a B+ tree) it starts
+ * loading the next pages in the background, keeping up to a window of
+ * pages ahead of the reader.  The window starts small, doubles each time a
+ * full window of prefetched pages was found in the pool when the scan got
+ * to them, and halves whenever a prefetched page was not there in time.
+ * <p>
+ * Prefetched pages are read without locks; they only ever replace clean
+ * pages and are never loaded over a page already in the pool, so the pool
+ * still holds the only copy of any page a transaction has modified.
+ * <p>
+ * The largest window is set with the system property
+ * simpledb.BufferPool.readahead (default 32 pages, 0 disables read-ahead),
+ * and is capped at a quarter of the pool.
+ *
+ * @Threadsafe
+ */
+public class Prefetcher {
+
+    /** Name of the system property giving the largest read-ahead window in pages. */
+    public static final String WINDOW_PROPERTY = "simpledb.BufferPool.readahead";
+
+    private static final int DEFAULT_MAX_WINDOW = 32;
+    private static final int INITIAL_WINDOW = 4;
+    private static final int IO_THREADS = 2;
+
+    /** Gives the page a scan reads after another one. */
+    public interface Successor {
+        /**
+         * @param pid a page of the scan
+         * @param page the contents of that page
+         * @return the next page of the scan, or null if pid is the last one
+         */
+        PageId next(PageId pid, Page page);
+    }
+
+    private final BufferPool bp;
+    private final int maxWindow;
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong pagesPrefetched = new AtomicLong();
+    private final AtomicLong prefetchHits = new AtomicLong();
+    private final AtomicLong prefetchMisses = new AtomicLong();
+
+    /**
+     * @param bp the pool to load pages into
+     * @param maxWindow the largest number of pages to keep ahead of a scan;
+     *   0 disables read-ahead
+     */
+    public Prefetcher(BufferPool bp, int maxWindow) {
+        this.bp = bp;
+        this.maxWindow = Math.max(0, maxWindow);
+        executor = new ThreadPoolExecutor(IO_THREADS, IO_THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "simpledb-prefetch");
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /** Creates a prefetcher configured by the simpledb.BufferPool.readahead property. */
+    static Prefetcher fromConfig(BufferPool bp) {
+        int window = Integer.getInteger(WINDOW_PROPERTY, DEFAULT_MAX_WINDOW);
+        return new Prefetcher(bp, Math.min(window, bp.getMaxPages() / 4));
+    }
+
+    /** @return the largest read-ahead window, in pages */
+    public int getMaxWindow() {
+        return maxWindow;
+    }
+
+    /** @return the number of pages read from disk by the prefetcher */
+    public long getPagesPrefetched() {
+        return pagesPrefetched.get();
+    }
+
+    /** @return the number of prefetched pages that were in the pool when a scan got to them */
+    public long getPrefetchHits() {
+        return prefetchHits.get();
+    }
+
+    /** @return the number of prefetched pages that were not in the pool (yet) when a scan got to them */
+    public long getPrefetchMisses() {
+        return prefetchMisses.get();
+    }
+
+    /** @return a new read-ahead stream for one scan */
+    public Stream newStream(Successor successor) {
+        return new Stream(successor, null);
+    }
+
+    /**
+     * @param ring the frames the scan recycles, or null to read through the
+     *   shared pool; the window is capped at half the ring
+     * @return a new read-ahead stream for one scan
+     */
+    public Stream newStream(Successor successor, BufferRing ring) {
+        return new Stream(successor, ring);
+    }
+
+    /**
+     * The read-ahead state of one scan.  Not threadsafe: a stream belongs to
+     * the iterator of a single scan.
+     */
+    public class Stream {
+        private final Successor successor;
+        private final BufferRing ring;
+        private final int streamMaxWindow;
+        /** the page a sequential scan would read next */
+        private PageId expected = null;
+        private boolean sequential = false;
+        private int window = INITIAL_WINDOW;
+        private int hitsInWindow = 0;
+        /** prefetched pages the scan has not reached yet, in scan order */
+        private final ConcurrentLinkedQueue<PageId> ahead = new ConcurrentLinkedQueue<>();
+        private volatile PageId lastIssued = null;
+        private final AtomicBoolean loading = new AtomicBoolean();
+        /** bumped when the scan jumps, to stop loads for the old position */
+        private volatile int generation = 0;
+
+        private Stream(Successor successor, BufferRing ring) {
+            this.successor = successor;
+            this.ring = ring;
+            streamMaxWindow = ring == null ? maxWindow : Math.min(maxWindow, ring.size() / 2);
+            window = Math.min(window, streamMaxWindow);
+        }
+
+        /** @return the current window size, in pages */
+        public int getWindow() {
+            return window;
+        }
+
+        /** @return the number of prefetched pages the scan has not reached yet */
+        int pagesAhead() {
+            return ahead.size();
+        }
+
+        /**
+         * Read a page of the scan with a shared lock, through the buffer
+         * pool, and keep the read-ahead window filled.
+         */
+        public Page getPage(TransactionId tid, PageId pid)
+                throws TransactionAbortedException, DbException {
+            if (streamMaxWindow == 0)
+                return bp.getPage(tid, pid, Permissions.READ_ONLY, ring);
+
+            boolean wasPrefetched = false;
+            PageId head;
+            while ((head = ahead.peek()) != null && !wasPrefetched) {
+                ahead.poll();
+                wasPrefetched = head.equals(pid);
+            }
+            if (wasPrefetched) {
+                if (bp.isCached(pid)) {
+                    prefetchHits.incrementAndGet();
+                    if (++hitsInWindow >= window) {
+                        window = Math.min(streamMaxWindow, window * 2);
+                        hitsInWindow = 0;
+                    }
+                } else {
+                    prefetchMisses.incrementAndGet();
+                    window = Math.max(1, window / 2);
+                    hitsInWindow = 0;
+                }
+            }
+
+            Page page = bp.getPage(tid, pid, Permissions.READ_ONLY, ring);
+            visited(pid, page);
+            return page;
+        }
+
+        /**
+         * Tell the stream about a page of the scan that was read without
+         * going through {@link #getPage}, e.g. the first leaf of a B+ tree
+         * scan found by searching from the root.
+         */
+        public void visited(PageId pid, Page page) {
+            if (streamMaxWindow == 0)
+                return;
+            boolean inSequence = pid.equals(expected);
+            expected = successor.next(pid, page);
+            if (!inSequence) {
+                // random access: start over
+                sequential = false;
+                window = Math.min(INITIAL_WINDOW, streamMaxWindow);
+                hitsInWindow = 0;
+                generation++;
+                ahead.clear();
+                lastIssued = null;
+            } else {
+                sequential = true;
+            }
+            if (sequential && expected != null && ahead.size() <= window / 2)
+                fill(pid, page);
+        }
+
+        /** Load up to a window of pages after the last one issued, in the background */
+        private void fill(PageId pid, Page page) {
+            if (!loading.compareAndSet(false, true))
+                return;
+            final PageId from = lastIssued;
+            final int count = window - ahead.size();
+            final int gen = generation;
+            executor.execute(() -> {
+                try {
+                    PageId cur = from == null ? pid : from;
+                    Page curPage = from == null ? page : bp.prefetchPage(from, ring);
+                    for (int i = 0; i < count && curPage != null && gen == generation; i++) {
+                        PageId next = successor.next(cur, curPage);
+                        if (next == null)
+                            break;
+                        Page nextPage = bp.prefetchPage(next, ring);
+                        if (nextPage == null)
+                            break;
+                        ahead.add(next);
+                        lastIssued = next;
+                        cur = next;
+                        curPage = nextPage;
+                    }
+                } catch (RuntimeException e) {
+                    // an unlocked page changing under us just ends read-ahead
+                } finally {
+                    loading.set(false);
+                }
+            });
+        }
+    }
+
+    /** Called by the buffer pool when a prefetch read a page from disk. */
+    void pageLoaded() {
+        pagesPrefetched.incrementAndGet();
+    }
+}
@@ -0,0 +1,76 @@
+package simpledb;
+
+import java.util.function.Predicate;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool throws out
+ * when it needs a free frame.
+ * <p>
+ * The BufferPool reports every page that enters the pool, every hit on a
+ * resident page and every page that leaves the pool; the policy keeps
+ * whatever reference state it needs and picks a victim on request.
+ * <p>
+ * The policy to use is chosen with the system property
+ * simpledb.BufferPool.policy, e.g. -Dsimpledb.BufferPool.policy=lru-2.
+ * Recognized values are "clock" (the default), "lru-k" (K = 2) and
+ * "lru-N" for an explicit K.
+ *
+ * @see BufferPool
+ */
+public interface ReplacementPolicy {
+
+    /** Name of the system property used to pick the policy. */
+    public static final String POLICY_PROPERTY = "simpledb.BufferPool.policy";
+
+    /** Called when a page is loaded into the buffer pool. */
+    public void pageAdded(PageId pid);
+
+    /** Called on every buffer pool hit for a resident page. */
+    public void pageAccessed(PageId pid);
+
+    /** Called when a page leaves the buffer pool (evicted or discarded). */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Choose a resident page to evict.  The victim is not removed from the
+     * policy's bookkeeping; the BufferPool calls pageRemoved once it has
+     * actually dropped the page.
+     *
+     * @param evictable tells whether a resident page may be evicted right now
+     *   (e.g. NO-STEAL forbids evicting dirty pages)
+     * @return the page to evict, or null if no resident page is evictable
+     */
+    public PageId chooseVictim(Predicate<PageId> evictable);
+
+    /**
+     * Creates the policy named by the simpledb.BufferPool.policy property.
+     *
+     * @param numPages the capacity of the buffer pool using the policy
+     */
+    public static ReplacementPolicy fromConfig(int numPages) {
+        return create(System.getProperty(POLICY_PROPERTY, "clock"), numPages);
+    }
+
+    /**
+     * Creates a policy by name.
+     *
+     * @param name "clock", "lru-k" or "lru-N"
+     * @param numPages the capacity of the buffer pool using the policy
+     * @throws IllegalArgumentException if the name is not recognized
+     */
+    public static ReplacementPolicy create(String name, int numPages) {
+        String n = name.trim().toLowerCase();
+        if (n.equals("clock"))
+            return new ClockReplacementPolicy(numPages);
+        if (n.equals("lru-k"))
+            return new LruKReplacementPolicy(numPages, 2);
+        if (n.startsWith("lru-")) {
+            try {
+                return new LruKReplacementPolicy(numPages, Integer.parseInt(n.substring(4)));
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+        }
+        throw new IllegalArgumentException("Unknown replacement policy " + name);
+    }
+}
@@ -0,0 +1,360 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * RowLocking implements the buffer pool's row locking mode for heap files
+ * (system property simpledb.BufferPool.rowLocking).
+ * <p>
+ * Inserts and deletes lock the rows they change exclusively, under IX locks
+ * on the page and table, so transactions changing different rows of one
+ * page run concurrently.  Row writers of a page take turns on a mutex of
+ * its page id, held only while they pick a slot and change it, and each
+ * change takes the page's {@link PageLatch}.  Readers still lock pages
+ * shared, which waits for the row writers of the page to finish.
+ * <p>
+ * Since a page can hold the uncommitted changes of several transactions,
+ * each transaction's changes are remembered by slot: an abort undoes its
+ * own changes in the page, and a commit applies them to the page's before
+ * image, which stays the committed version of the page.  That committed
+ * image is what is logged and written to disk, so the disk never sees an
+ * uncommitted row.
+ * <p>
+ * A commit happens in two steps around the transaction's commit record.
+ * {@link #prepare} builds the new committed images, logs them, forces the
+ * log and writes them; {@link #commit} then makes them the pages' before
+ * images.  The log holds whole-page images, so undoing a prepared
+ * transaction, in an abort or in recovery, puts back its pages as they
+ * were before it prepared.  A transaction therefore waits to prepare a
+ * page until the page's previous preparer has committed or aborted, so
+ * that no undo can erase rows another transaction has committed.
+ * <p>
+ * Row locking needs the default NO-STEAL/FORCE pool.  It covers heap files
+ * of fixed-width pages only.  B+ tree files keep page locking, since a
+ * split or merge moves tuples to other pages, and with them the RecordIds
+ * row locks are keyed by.  Slotted heap files keep it too, since an undone
+ * delete may not find the space of its row free again.
+ *
+ * @Threadsafe
+ */
+class RowLocking {
+
+    private static final int MUTEXES = 256;
+
+    /** One insert or delete of a row */
+    private static class Change {
+        final PageId pid;
+        final int slot;
+        final Tuple tuple;
+        final boolean insert;
+
+        Change(PageId pid, int slot, Tuple tuple, boolean insert) {
+            this.pid = pid;
+            this.slot = slot;
+            this.tuple = tuple;
+            this.insert = insert;
+        }
+
+        void apply(HeapPage p) throws DbException {
+            if (insert)
+                p.insertTuple(slot, tuple);
+            else
+                p.clearSlot(slot);
+        }
+
+        void undo(HeapPage p) throws DbException {
+            if (insert)
+                p.clearSlot(slot);
+            else
+                p.insertTuple(slot, tuple);
+        }
+    }
+
+    /** A page with uncommitted changes */
+    private static class RowPage {
+        final Set<TransactionId> writers = new HashSet<>();
+    }
+
+    /** The changes a transaction has prepared, and the committed images they make */
+    private static class Prepared {
+        final List<Change> changes = new ArrayList<>();
+        final Map<PageId, HeapPage> images = new HashMap<>();
+    }
+
+    private final BufferPool bp;
+    private final LockManager lm;
+    private final Object[] mutexes = new Object[MUTEXES];
+    private final ConcurrentHashMap<TransactionId, List<Change>> changes = new ConcurrentHashMap<>();
+    /** guarded by the mutex of the page */
+    private final ConcurrentHashMap<PageId, RowPage> pages = new ConcurrentHashMap<>();
+    /** guarded by this */
+    private final HashMap<TransactionId, Prepared> prepared = new HashMap<>();
+    /** the transaction that has prepared each page; guarded by this */
+    private final HashMap<PageId, TransactionId> preparers = new HashMap<>();
+
+    RowLocking(BufferPool bp, LockManager lm) {
+        this.bp = bp;
+        this.lm = lm;
+        for (int i = 0; i < MUTEXES; i++)
+            mutexes[i] = new Object();
+    }
+
+    /** unlike the page's latch, this stays the same when copy-on-write replaces the page */
+    private Object mutex(PageId pid) {
+        return mutexes[(pid.hashCode() * 0x9E3779B9 >>> 16) % MUTEXES];
+    }
+
+    /** @return true if the page is managed by row locking and must not be flushed or discarded */
+    boolean hasChanges(PageId pid) {
+        return pages.containsKey(pid);
+    }
+
+    /** Insert a tuple into a free slot that no other transaction has locked. */
+    ArrayList<Page> insertTuple(TransactionId tid, HeapFile hf, Tuple t)
+            throws DbException, TransactionAbortedException {
+        for (int pageNo = nextPageWithRoom(hf, 0); ; pageNo = nextPageWithRoom(hf, pageNo + 1)) {
+            HeapPageId pid = new HeapPageId(hf.getId(), pageNo);
+            synchronized (hf) {
+                if (pageNo >= hf.numPages()) {
+                    try {
+                        hf.writePage(new HeapPage(pid, HeapPage.createEmptyPageData()));
+                    } catch (IOException e) {
+                        throw new DbException("could not extend " + hf.getId() + ": " + e);
+                    }
+                }
+            }
+            lm.acquireIntention(tid, pid, Permissions.READ_WRITE);
+            // the pin keeps the page from being evicted until it is dirty
+            bp.pinPage(pid);
+            try {
+                synchronized (mutex(pid)) {
+                    HeapPage p = (HeapPage) bp.getRowPage(tid, pid);
+                    // a free slot may still be locked by an uncommitted delete
+                    for (int slot = p.getNumSlots() - 1; slot >= 0; slot--) {
+                        if (!p.isSlotUsed(slot) && lm.tryAcquireRow(tid, new RecordId(pid, slot))) {
+                            p.insertTuple(slot, t);
+                            widen(hf, pageNo, t);
+                            record(tid, p, new Change(pid, slot, t, true));
+                            return new ArrayList<>(Collections.singletonList(p));
+                        }
+                    }
+                    // free slots locked by other transactions may still become usable
+                    if (p.getNumEmptySlots() == 0)
+                        hf.noteFreeSpace(p);
+                    RowPage rp = pages.get(pid);
+                    if (rp == null || !rp.writers.contains(tid))
+                        bp.releasePage(tid, pid);
+                }
+            } finally {
+                bp.unpinPage(pid);
+            }
+        }
+    }
+
+    /** Widen the zone map of a page, if it has one, to cover an inserted tuple. */
+    private static void widen(HeapFile hf, int pageNo, Tuple t) throws DbException {
+        try {
+            ZoneMap zm = hf.summaries();
+            if (zm != null)
+                zm.widen(pageNo, t);
+        } catch (IOException e) {
+            throw new DbException("could not load the zone map of " + hf.getId() + ": " + e);
+        }
+    }
+
+    /** Delete a tuple, waiting for its row lock. */
+    ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        PageId pid = rid.getPageId();
+        HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
+        try {
+            hf.getFreeSpaceMap();
+        } catch (IOException e) {
+            throw new DbException("could not load the free-space map of " + hf.getId() + ": " + e);
+        }
+        lm.acquireRow(tid, rid, Permissions.READ_WRITE);
+        bp.pinPage(pid);
+        try {
+            synchronized (mutex(pid)) {
+                HeapPage p = (HeapPage) bp.getRowPage(tid, pid);
+                Tuple old = p.getTuple(rid.getTupleNumber());
+                if (old == null)
+                    throw new DbException("tuple slot is already empty");
+                p.clearSlot(rid.getTupleNumber());
+                record(tid, p, new Change(pid, rid.getTupleNumber(), old, false));
+                hf.noteFreeSpace(p);
+                return new ArrayList<>(Collections.singletonList(p));
+            }
+        } finally {
+            bp.unpinPage(pid);
+        }
+    }
+
+    private static int nextPageWithRoom(HeapFile hf, int pageNo) throws DbException {
+        try {
+            return hf.nextPageWithRoom(pageNo);
+        } catch (IOException e) {
+            throw new DbException("could not load the free-space map of " + hf.getId() + ": " + e);
+        }
+    }
+
+    /** Remember a change; caller holds the page's mutex */
+    private void record(TransactionId tid, HeapPage p, Change c) {
+        changes.computeIfAbsent(tid, k -> Collections.synchronizedList(new ArrayList<>())).add(c);
+        pages.computeIfAbsent(c.pid, k -> new RowPage()).writers.add(tid);
+        p.markDirty(true, tid);
+    }
+
+    /**
+     * Prepare a transaction's row changes for its commit record: apply them
+     * to the committed images of their pages, log those, force the log and
+     * write them.  Waits for other transactions that have prepared the same
+     * pages to commit or abort.
+     */
+    void prepare(TransactionId tid) throws IOException {
+        List<Change> list = changes.remove(tid);
+        if (list == null)
+            return;
+        LinkedHashMap<PageId, List<Change>> byPage = new LinkedHashMap<>();
+        synchronized (list) {
+            for (Change c : list)
+                byPage.computeIfAbsent(c.pid, k -> new ArrayList<>()).add(c);
+        }
+        Map<PageId, HeapPage> images = new HashMap<>();
+        synchronized (this) {
+            while (!preparable(tid, byPage.keySet())) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    changes.put(tid, list);
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while preparing rows of " + tid);
+                }
+            }
+            Prepared pr = prepared.computeIfAbsent(tid, k -> new Prepared());
+            for (Map.Entry<PageId, List<Change>> e : byPage.entrySet()) {
+                PageId pid = e.getKey();
+                synchronized (mutex(pid)) {
+                    // the before image is the committed page until commit, or
+                    // our image of it if we prepared it already
+                    HeapPage image = pr.images.get(pid);
+                    if (image == null)
+                        image = ((HeapPage) bp.getResidentPage(pid)).getBeforeImage();
+                    try {
+                        for (Change c : e.getValue())
+                            c.apply(image);
+                    } catch (DbException ex) {
+                        throw new IOException("could not commit rows of " + pid + ": " + ex);
+                    }
+                    Database.getLogFile().logWrite(tid, image.getBeforeImage(), image);
+                    pr.images.put(pid, image);
+                    images.put(pid, image);
+                    preparers.put(pid, tid);
+                }
+            }
+            pr.changes.addAll(list);
+        }
+        Database.getLogFile().force();
+        for (Map.Entry<PageId, HeapPage> e : images.entrySet()) {
+            synchronized (mutex(e.getKey())) {
+                bp.writePage(Database.getCatalog().getDatabaseFile(e.getKey().getTableId()), e.getValue());
+            }
+        }
+    }
+
+    /** @return true if no other transaction has prepared any of pids */
+    private boolean preparable(TransactionId tid, Set<PageId> pids) {
+        for (PageId pid : pids) {
+            TransactionId other = preparers.get(pid);
+            if (other != null && !other.equals(tid))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Commit a transaction's row changes once its commit record is logged,
+     * preparing any it has not: their images become the committed versions
+     * of their pages.
+     */
+    void commit(TransactionId tid) throws IOException {
+        prepare(tid);
+        synchronized (this) {
+            Prepared pr = prepared.remove(tid);
+            if (pr == null)
+                return;
+            bp.getVersionStore().commit(new HashMap<>(pr.images));
+            for (Map.Entry<PageId, HeapPage> e : pr.images.entrySet()) {
+                PageId pid = e.getKey();
+                synchronized (mutex(pid)) {
+                    HeapPage p = (HeapPage) bp.getResidentPage(pid);
+                    p.setBeforeImage(e.getValue().getPageData());
+                    RowPage rp = pages.get(pid);
+                    rp.writers.remove(tid);
+                    done(pid, rp);
+                }
+            }
+            bp.getVersionStore().committed(pr.images.keySet());
+            release(tid);
+        }
+    }
+
+    /** Let others prepare the pages tid prepared; caller holds this */
+    private void release(TransactionId tid) {
+        if (preparers.values().removeIf(tid::equals))
+            notifyAll();
+    }
+
+    /**
+     * Undo a transaction's row changes, newest first, prepared or not.  The
+     * log has put back the before images of prepared pages on disk.
+     */
+    void abort(TransactionId tid) {
+        ArrayList<Change> undo = new ArrayList<>();
+        synchronized (this) {
+            Prepared pr = prepared.remove(tid);
+            if (pr != null)
+                undo.addAll(pr.changes);
+            release(tid);
+        }
+        List<Change> list = changes.remove(tid);
+        if (list != null) {
+            synchronized (list) {
+                undo.addAll(list);
+            }
+        }
+        Collections.reverse(undo);
+        for (Change c : undo) {
+            synchronized (mutex(c.pid)) {
+                HeapPage p = (HeapPage) bp.getResidentPage(c.pid);
+                try {
+                    c.undo(p);
+                } catch (DbException e) {
+                    throw new RuntimeException("could not undo row change on " + c.pid, e);
+                }
+                if (c.insert)
+                    ((HeapFile) Database.getCatalog().getDatabaseFile(c.pid.getTableId())).noteFreeSpace(p);
+                RowPage rp = pages.get(c.pid);
+                rp.writers.remove(tid);
+                done(c.pid, rp);
+            }
+        }
+    }
+
+    /**
+     * Forget a page once it has no uncommitted changes, marking it clean;
+     * caller holds its mutex.
+     */
+    private void done(PageId pid, RowPage rp) {
+        Page p = bp.getResidentPage(pid);
+        if (rp.writers.isEmpty()) {
+            pages.remove(pid);
+            p.markDirty(false, null);
+        } else {
+            p.markDirty(true, rp.writers.iterator().next());
+        }
+    }
+}
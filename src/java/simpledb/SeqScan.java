@@ -15,6 +15,10 @@ public class SeqScan implements OpIterator {
     private String tableAlias;
     private TupleDesc td;
     private AbstractDbFileIterator adi;
+    private BufferRing ring;
+    private int[] columns;
+    private final List<Predicate> predicates = new ArrayList<>();
+    private boolean lockTable = false;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -37,16 +41,10 @@ public class SeqScan implements OpIterator {
         this.tableId = tableid;
         this.tableAlias = tableAlias;
 
-        TupleDesc otd = Database.getCatalog().getTupleDesc(this.tableId);
-        String[] afns = new String[otd.numFields()];
-        Type[] ts = new Type[otd.numFields()];
-        for(int i=0; i<otd.numFields(); i++){
-            afns[i] = tableAlias + "." + otd.getFieldName(i);
-            ts[i] = otd.getFieldType(i);
-        }
-
-        this.td = new TupleDesc(ts, afns);
-        this.adi = (AbstractDbFileIterator) Database.getCatalog().getDatabaseFile(this.tableId).iterator(this.tid);
+        this.td = aliasedTupleDesc();
+        DbFile file = Database.getCatalog().getDatabaseFile(this.tableId);
+        this.ring = BufferRing.forScan(file);
+        this.adi = (AbstractDbFileIterator) file.iterator(this.tid, this.ring);
 
     }
 
@@ -59,6 +57,93 @@ public class SeqScan implements OpIterator {
         return Database.getCatalog().getTableName(tableId);
     }
 
+    /**
+     * @return the ring of buffer frames this scan reads through, or null if
+     *       it reads through the shared pool
+     */
+    public BufferRing getBufferRing() {
+        return ring;
+    }
+
+    /**
+     * Choose how this scan uses the buffer pool, overriding the default of
+     * a ring for tables larger than the pool.  Must be called before open().
+     *
+     * @param ring
+     *            the ring of frames to recycle, or null to read through the
+     *            shared pool
+     */
+    public void setBufferRing(BufferRing ring) {
+        this.ring = ring;
+        this.adi = iterator();
+    }
+
+    /**
+     * Return only some fields of each tuple, in the given order, so that
+     * the others are never decoded.  The TupleDesc of this scan becomes
+     * that of those fields.  Must be called before open().
+     *
+     * @param columns
+     *            the indexes of the fields to return, or null for all
+     * @throws UnsupportedOperationException if the table is not a heap file
+     */
+    public void setColumns(int[] columns) {
+        if (columns != null && !(Database.getCatalog().getDatabaseFile(tableId) instanceof HeapFile))
+            throw new UnsupportedOperationException("only heap files scan some columns");
+        this.columns = columns == null ? null : columns.clone();
+        this.td = aliasedTupleDesc();
+        this.adi = iterator();
+    }
+
+    /**
+     * Return only the tuples that satisfy a predicate, without reading the
+     * pages whose zone map shows they hold none.  Its field is an index
+     * into the TupleDesc of this scan, so setColumns must come first.  May
+     * be called more than once, for tuples that satisfy all the
+     * predicates.  Must be called before open().
+     *
+     * @throws UnsupportedOperationException if the table is not a heap file
+     * @see ZoneMap
+     */
+    public void addPredicate(Predicate p) {
+        if (!(Database.getCatalog().getDatabaseFile(tableId) instanceof HeapFile))
+            throw new UnsupportedOperationException("only heap files scan with a predicate");
+        predicates.add(p);
+        this.adi = iterator();
+    }
+
+    /** @return the iterator of this scan over the table */
+    private AbstractDbFileIterator iterator() {
+        DbFile file = Database.getCatalog().getDatabaseFile(this.tableId);
+        if (columns != null || !predicates.isEmpty())
+            return (AbstractDbFileIterator) ((HeapFile) file).iterator(this.tid, ring, columns,
+                    predicates.toArray(new Predicate[0]));
+        return (AbstractDbFileIterator) file.iterator(this.tid, ring);
+    }
+
+    /** @return the TupleDesc of the scanned fields, named tableAlias.fieldName */
+    private TupleDesc aliasedTupleDesc() {
+        TupleDesc otd = Database.getCatalog().getTupleDesc(this.tableId);
+        int n = columns == null ? otd.numFields() : columns.length;
+        String[] afns = new String[n];
+        Type[] ts = new Type[n];
+        for(int i=0; i<n; i++){
+            int field = columns == null ? i : columns[i];
+            afns[i] = tableAlias + "." + otd.getFieldName(field);
+            ts[i] = otd.getFieldType(field);
+        }
+        return new TupleDesc(ts, afns);
+    }
+
+    /**
+     * Declare that this scan reads the whole table: open() then takes one
+     * shared lock on the table instead of a lock on every page.  Writers of
+     * the table wait until the transaction completes.
+     */
+    public void setLockTable(boolean lockTable) {
+        this.lockTable = lockTable;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      * */
@@ -89,6 +174,8 @@ public class SeqScan implements OpIterator {
     }
 
     public void open() throws DbException, TransactionAbortedException {
+        if (lockTable)
+            Database.getBufferPool().lockTable(tid, tableId, Permissions.READ_ONLY);
         adi.open();
     }
 
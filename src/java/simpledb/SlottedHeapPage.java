@@ -0,0 +1,267 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * SlottedHeapPage is a HeapPage whose tuples are variable-length records,
+ * so that a string takes the space of its characters rather than
+ * {@link Type#STRING_LEN}.  It is the page of HeapFiles whose schema
+ * declares VARCHAR columns.
+ * <p>
+ * The page starts with the number of entries in its slot directory and the
+ * offset of the last record, both unsigned shorts, followed by the
+ * directory: one offset and length per slot, an offset of 0 marking an
+ * empty slot.  Records fill the page from its end towards the directory.
+ * An int field takes 4 bytes, a string field a length byte and its
+ * characters.  Deleted records leave holes that are compacted away when an
+ * insert needs the space.  A page of zeroes is empty.
+ *
+ * @see HeapFile#HeapFile(java.io.File, TupleDesc, int[])
+ */
+public class SlottedHeapPage extends HeapPage {
+
+    private static final int HEADER_SIZE = 4;
+    private static final int ENTRY_SIZE = 4;
+
+    private final int pageSize;
+    /** the longest value of each string field */
+    private final int[] maxLengths;
+    private final int maxRecordSize;
+    /** the number of used slots, and the bytes of their records */
+    private int count, used;
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk,
+     * which the caller must not change afterwards.
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        super(id);
+        this.pageSize = BufferPool.getPageSize();
+        if (pageSize > 1 << 16)
+            throw new IOException("pages of " + pageSize + " bytes are too large for slotted pages");
+        if (data.length < pageSize)
+            throw new IOException("page " + id.getPageNumber() + " has only " + data.length + " bytes");
+        DbFile file = Database.getCatalog().getDatabaseFile(id.getTableId());
+        int[] lengths = file instanceof HeapFile ? ((HeapFile) file).getStringLengths() : null;
+        this.maxLengths = new int[td.numFields()];
+        int size = 0;
+        for (int j = 0; j < maxLengths.length; j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                maxLengths[j] = lengths == null ? Type.STRING_LEN : lengths[j];
+                size += 1 + maxLengths[j];
+            } else {
+                size += Type.INT_TYPE.getLen();
+            }
+        }
+        this.maxRecordSize = size;
+        for (int i = 0; i < slotCount(data); i++) {
+            if (isSlotUsed(data, i)) {
+                count++;
+                used += length(data, i);
+            }
+        }
+        adopt(data);
+    }
+
+    /** Create a SlottedHeapPage from a copy of the page-size bytes remaining in data. */
+    public SlottedHeapPage(HeapPageId id, java.nio.ByteBuffer data) throws IOException {
+        this(id, copy(data));
+    }
+
+    @Override
+    HeapPage withData(byte[] data) throws IOException {
+        return new SlottedHeapPage(pid, data);
+    }
+
+    private static int u16(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 8) | (bytes[offset + 1] & 0xff);
+    }
+
+    private static void put16(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >> 8);
+        bytes[offset + 1] = (byte) value;
+    }
+
+    private static int entry(int slot) {
+        return HEADER_SIZE + slot * ENTRY_SIZE;
+    }
+
+    private static int offset(byte[] bytes, int slot) {
+        return u16(bytes, entry(slot));
+    }
+
+    private static int length(byte[] bytes, int slot) {
+        return u16(bytes, entry(slot) + 2);
+    }
+
+    /** @return where the records start; a page of zeroes has none */
+    private int recordsStart(byte[] bytes) {
+        int start = u16(bytes, 2);
+        return start == 0 ? pageSize : start;
+    }
+
+    /** @return the bytes not taken by the header, the directory and records */
+    private int freeBytes() {
+        return pageSize - entry(slotCount(data)) - used;
+    }
+
+    @Override
+    int slotCount(byte[] bytes) {
+        return u16(bytes, 0);
+    }
+
+    @Override
+    boolean isSlotUsed(byte[] bytes, int i) {
+        return i < slotCount(bytes) && offset(bytes, i) != 0;
+    }
+
+    @Override
+    int fieldOffset(byte[] bytes, int slot, int col) {
+        int offset = offset(bytes, slot);
+        for (int j = 0; j < col; j++)
+            offset += td.getFieldType(j) == Type.INT_TYPE ? Type.INT_TYPE.getLen() : 1 + (bytes[offset] & 0xff);
+        return offset;
+    }
+
+    @Override
+    Field decodeField(byte[] bytes, int slot, int col) {
+        return parse(bytes, fieldOffset(bytes, slot, col), td.getFieldType(col));
+    }
+
+    private static Field parse(byte[] bytes, int offset, Type type) {
+        if (type == Type.INT_TYPE)
+            return type.parse(bytes, offset);
+        return new StringField(new String(bytes, offset + 1, bytes[offset] & 0xff), Type.STRING_LEN);
+    }
+
+    @Override
+    Tuple decode(byte[] bytes, int slotId) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        int offset = offset(bytes, slotId);
+        for (int j = 0; j < maxLengths.length; j++) {
+            Type type = td.getFieldType(j);
+            t.setField(j, parse(bytes, offset, type));
+            offset += type == Type.INT_TYPE ? type.getLen() : 1 + (bytes[offset] & 0xff);
+        }
+        return t;
+    }
+
+    /** @return the characters of a string field that are stored */
+    private String stored(Tuple t, int col) {
+        String s = ((StringField) t.getField(col)).getValue();
+        return s.length() > maxLengths[col] ? s.substring(0, maxLengths[col]) : s;
+    }
+
+    private int recordSize(Tuple t) {
+        int size = 0;
+        for (int j = 0; j < maxLengths.length; j++)
+            size += td.getFieldType(j) == Type.INT_TYPE ? Type.INT_TYPE.getLen() : 1 + stored(t, j).length();
+        return size;
+    }
+
+    /**
+     * Only slots up to one past the directory can be filled, so that the
+     * directory has no more empty entries than deletes left.
+     */
+    @Override
+    boolean fits(int slot, Tuple t) {
+        int slots = slotCount(data);
+        if (slot > slots || isSlotUsed(slot) || slot >= 1 << 16)
+            return false;
+        return recordSize(t) + (slot == slots ? ENTRY_SIZE : 0) <= freeBytes();
+    }
+
+    @Override
+    void writeSlot(int slot, Tuple t) throws DbException {
+        if (!fits(slot, t))
+            throw new DbException("the page is full");
+        beforeChange();
+        int slots = Math.max(slotCount(data), slot + 1);
+        int size = recordSize(t);
+        if (recordsStart(data) - size < entry(slots))
+            compact();
+        int offset = recordsStart(data) - size;
+        int p = offset;
+        for (int j = 0; j < maxLengths.length; j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                int v = ((IntField) t.getField(j)).getValue();
+                put16(data, p, v >>> 16);
+                put16(data, p + 2, v);
+                p += Type.INT_TYPE.getLen();
+            } else {
+                String s = stored(t, j);
+                data[p++] = (byte) s.length();
+                // one byte per char, like DataOutputStream.writeBytes
+                for (int k = 0; k < s.length(); k++)
+                    data[p++] = (byte) s.charAt(k);
+            }
+        }
+        put16(data, 0, slots);
+        put16(data, 2, offset);
+        put16(data, entry(slot), offset);
+        put16(data, entry(slot) + 2, size);
+        count++;
+        used += size;
+        forget(slot);
+    }
+
+    /** Move the records together at the end of the page, ahead of an insert */
+    private void compact() {
+        byte[] old = data.clone();
+        int slots = slotCount(old);
+        int end = pageSize;
+        for (int i = 0; i < slots; i++) {
+            if (!isSlotUsed(old, i))
+                continue;
+            int length = length(old, i);
+            end -= length;
+            System.arraycopy(old, offset(old, i), data, end, length);
+            put16(data, entry(i), end);
+        }
+        Arrays.fill(data, entry(slots), end, (byte) 0);
+        put16(data, 2, end);
+    }
+
+    @Override
+    void emptySlot(int slot) {
+        if (!isSlotUsed(data, slot))
+            return;
+        beforeChange();
+        int offset = offset(data, slot);
+        int length = length(data, slot);
+        Arrays.fill(data, offset, offset + length, (byte) 0);
+        Arrays.fill(data, entry(slot), entry(slot + 1), (byte) 0);
+        if (offset == recordsStart(data))
+            put16(data, 2, offset + length == pageSize ? 0 : offset + length);
+        int slots = slotCount(data);
+        while (slots > 0 && offset(data, slots - 1) == 0)
+            slots--;
+        put16(data, 0, slots);
+        count--;
+        used -= length;
+        forget(slot);
+    }
+
+    /** @return the number of slots that could be used now */
+    @Override
+    public int getNumSlots() {
+        int slots = slotCount(data);
+        return freeBytes() >= ENTRY_SIZE ? slots + 1 : slots;
+    }
+
+    /**
+     * Returns how many more tuples of the longest size the page can take,
+     * so that a page with an empty slot takes any tuple.
+     */
+    @Override
+    public int getNumEmptySlots() {
+        int free = freeBytes();
+        int entries = slotCount(data) - count;
+        int reused = Math.min(entries, free / maxRecordSize);
+        if (reused < entries)
+            return reused;
+        return reused + (free - reused * maxRecordSize) / (maxRecordSize + ENTRY_SIZE);
+    }
+}
@@ -94,7 +94,7 @@ public class TableStats {
         tupleAmounts = 0;
         TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
         TransactionId tid = new TransactionId();
-        DbFileIterator tableIter = f.iterator(tid);
+        DbFileIterator tableIter = f.iterator(tid, BufferRing.forScan(f));
 
 
         try {
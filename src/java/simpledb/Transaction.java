@@ -9,15 +9,30 @@ import java.io.*;
 
 public class Transaction {
     private final TransactionId tid;
+    private final boolean readOnly;
     volatile boolean started = false;
 
     public Transaction() {
+        this(false);
+    }
+
+    /**
+     * @param readOnly true for a read-only transaction, which reads a
+     *   snapshot of the database without locking (see
+     *   {@link BufferPool#beginSnapshot}) and writes nothing to the log
+     */
+    public Transaction(boolean readOnly) {
         tid = new TransactionId();
+        this.readOnly = readOnly;
     }
 
     /** Start the transaction running */
     public void start() {
         started = true;
+        if (readOnly) {
+            Database.getBufferPool().beginSnapshot(tid);
+            return;
+        }
         try {
             Database.getLogFile().logXactionBegin(tid);
         } catch (IOException e) {
@@ -29,6 +44,11 @@ public class Transaction {
         return tid;
     }
 
+    /** @return true if this is a read-only snapshot transaction */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
     /** Finish the transaction */
     public void commit() throws IOException {
         transactionComplete(false);
@@ -42,13 +62,20 @@ public class Transaction {
     /** Handle the details of transaction commit / abort */
     public void transactionComplete(boolean abort) throws IOException {
 
-        if (started) {
+        if (started && readOnly) {
+            Database.getBufferPool().transactionComplete(tid, !abort); // end the snapshot
+            started = false;
+        } else if (started) {
             //write commit / abort records
             if (abort) {
                 Database.getLogFile().logAbort(tid); //does rollback too
             } else {
-                //write all the dirty pages for this transaction out
-                Database.getBufferPool().flushPages(tid);
+                //write all the dirty pages for this transaction out, or
+                //just log them if the pool is NO-FORCE
+                if (Database.getBufferPool().isSteal())
+                    Database.getBufferPool().logPages(tid);
+                else
+                    Database.getBufferPool().flushPages(tid);
                 Database.getLogFile().logCommit(tid);
             }
 
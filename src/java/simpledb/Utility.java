@@ -107,6 +107,10 @@ public class Utility {
         FileOutputStream fos = new FileOutputStream(f);
         fos.write(new byte[0]);
         fos.close();
+        FreeSpaceMap.reset(f);
+        ZoneMap.reset(f);
+        CompressedPages.reset(f);
+        PageIO.reset(f);
 
         HeapFile hf = openHeapFile(cols, f);
         HeapPageId pid = new HeapPageId(hf.getId(), 0);
@@ -0,0 +1,261 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * VersionStore keeps the committed versions of pages that read-only
+ * snapshot transactions may still need, so that they can read without
+ * taking page locks.
+ * <p>
+ * Every commit gets a timestamp, and a snapshot transaction sees the
+ * database as of the last commit before it started.  For a page changed by
+ * a commit after some running snapshot started, the store keeps a chain:
+ * the timestamp of the page's latest commit and the images it had before
+ * that, each with the range of timestamps it was current for.  Pages
+ * without a chain have not changed since any running snapshot started, so
+ * the buffer pool's copy (or its before image, while a writer holds it) is
+ * the one to read.  Old images are dropped as soon as no running snapshot
+ * started before they were replaced.
+ * <p>
+ * While snapshots are running, a writer never modifies a page a snapshot
+ * may be reading: the buffer pool gives it a copy instead.
+ *
+ * @Threadsafe
+ */
+public class VersionStore {
+
+    /** An image of a page that was the committed one from begin until end. */
+    private static class Version {
+        final long begin;
+        final long end;
+        final Page image;
+
+        Version(long begin, long end, Page image) {
+            this.begin = begin;
+            this.end = end;
+            this.image = image;
+        }
+    }
+
+    private static class Chain {
+        /** timestamp of the commit that made the current image */
+        long latestCommit = 0;
+        /** the current committed image, or null if the buffer pool has it */
+        Page current = null;
+        /** older images, newest first */
+        final ArrayList<Version> older = new ArrayList<>();
+        /** set once the chain is no longer in the table */
+        boolean retired = false;
+    }
+
+    private final ConcurrentHashMap<PageId, Chain> chains = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<TransactionId, Long> snapshots = new ConcurrentHashMap<>();
+    /** timestamp of the last commit; guarded by this */
+    private long lastCommit = 0;
+    private int numVersions = 0;
+
+    /**
+     * Start a snapshot for a read-only transaction.
+     *
+     * @return the snapshot's timestamp: it sees every commit up to it
+     */
+    public synchronized long beginSnapshot(TransactionId tid) {
+        snapshots.put(tid, lastCommit);
+        return lastCommit;
+    }
+
+    /**
+     * @return the timestamp of the transaction's snapshot, or null if it is
+     *   not a snapshot transaction
+     */
+    public Long getSnapshot(TransactionId tid) {
+        return snapshots.get(tid);
+    }
+
+    /** @return true if any snapshot transaction is running */
+    public boolean hasSnapshots() {
+        return !snapshots.isEmpty();
+    }
+
+    /** @return the number of old page images kept for running snapshots */
+    public synchronized int getNumVersions() {
+        return numVersions;
+    }
+
+    private long oldestSnapshot() {
+        long min = Long.MAX_VALUE;
+        for (long ts : snapshots.values())
+            min = Math.min(min, ts);
+        return min;
+    }
+
+    /** Run action on the chain of pid, creating it if needed */
+    private <T> T withChain(PageId pid, java.util.function.Function<Chain, T> action) {
+        while (true) {
+            Chain c = chains.computeIfAbsent(pid, k -> new Chain());
+            synchronized (c) {
+                if (!c.retired)
+                    return action.apply(c);
+            }
+        }
+    }
+
+    /**
+     * @return the image of pid a snapshot sees if the store has it, or null
+     *   if the snapshot should read the buffer pool's committed image
+     * @throws DbException if the image has been dropped
+     */
+    public Page visible(PageId pid, long snapshot) throws DbException {
+        Chain c = chains.get(pid);
+        if (c == null)
+            return null;
+        synchronized (c) {
+            if (c.retired)
+                return null;
+            if (c.latestCommit <= snapshot)
+                return c.current;
+            for (Version v : c.older) {
+                if (v.begin <= snapshot && snapshot < v.end)
+                    return v.image;
+            }
+        }
+        throw new DbException("no version of page " + pid + " for snapshot " + snapshot);
+    }
+
+    /**
+     * @return true if the store keeps versions of pid, or its committed
+     *   image; false if its current image is the one every snapshot sees
+     */
+    public boolean isTracked(PageId pid) {
+        return chains.containsKey(pid);
+    }
+
+    /** @return the timestamp of the last commit that changed pid, if it is tracked */
+    public long latestCommit(PageId pid) {
+        Chain c = chains.get(pid);
+        if (c == null)
+            return 0;
+        synchronized (c) {
+            return c.latestCommit;
+        }
+    }
+
+    /**
+     * Remember the current committed image of pid, taken from image unless
+     * one is known already.
+     *
+     * @return the current committed image
+     */
+    public Page currentImage(PageId pid, Supplier<Page> image) {
+        return withChain(pid, c -> {
+            if (c.current == null)
+                c.current = image.get();
+            return c.current;
+        });
+    }
+
+    /**
+     * Give the pages a transaction wrote a new commit timestamp.  Called
+     * while the pages' before images are still the previous committed
+     * versions; {@link #committed} must follow once they are not.
+     *
+     * @param pages each page the transaction wrote, with its cached image,
+     *   or null if it is not cached
+     * @return the commit's timestamp
+     */
+    public synchronized long commit(Map<PageId, Page> pages) {
+        long ts = ++lastCommit;
+        long oldest = oldestSnapshot();
+        for (Map.Entry<PageId, Page> e : pages.entrySet()) {
+            PageId pid = e.getKey();
+            Page page = e.getValue();
+            // without a chain, an uncached page was not changed
+            if (oldest < ts && (page != null || chains.containsKey(pid))) {
+                withChain(pid, c -> {
+                    // a running snapshot may need the previous version
+                    Page prior = c.current != null ? c.current
+                            : page != null ? page.getBeforeImage() : null;
+                    if (prior == null)
+                        return null; // uncached and unchanged
+                    c.older.add(0, new Version(c.latestCommit, ts, prior));
+                    numVersions++;
+                    c.latestCommit = ts;
+                    c.current = page;
+                    return null;
+                });
+            } else {
+                Chain c = chains.get(pid);
+                if (c != null) {
+                    synchronized (c) {
+                        c.latestCommit = ts;
+                        c.current = page;
+                    }
+                }
+            }
+        }
+        return ts;
+    }
+
+    /**
+     * The before images of pids are now their committed versions, which
+     * the buffer pool keeps: forget the images passed to {@link #commit},
+     * and the chains no running snapshot needs.
+     */
+    public void committed(Collection<PageId> pids) {
+        long oldest;
+        synchronized (this) {
+            oldest = oldestSnapshot();
+        }
+        for (PageId pid : pids) {
+            Chain c = chains.get(pid);
+            if (c != null) {
+                synchronized (c) {
+                    c.current = null;
+                    if (c.older.isEmpty() && c.latestCommit <= oldest) {
+                        c.retired = true;
+                        chains.remove(pid, c);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * End a snapshot, and drop the images no running snapshot needs.
+     *
+     * @param writeLocked tells whether a page is write locked; the store
+     *   keeps the current image of such pages
+     */
+    public void endSnapshot(TransactionId tid, Predicate<PageId> writeLocked) {
+        if (snapshots.remove(tid) == null)
+            return;
+        long oldest;
+        synchronized (this) {
+            oldest = oldestSnapshot();
+        }
+        int dropped = 0;
+        for (Map.Entry<PageId, Chain> e : chains.entrySet()) {
+            Chain c = e.getValue();
+            synchronized (c) {
+                // an image is needed by snapshots in [begin, end)
+                Iterator<Version> it = c.older.iterator();
+                while (it.hasNext()) {
+                    if (it.next().end <= oldest) {
+                        it.remove();
+                        dropped++;
+                    }
+                }
+                if (c.older.isEmpty() && c.latestCommit <= oldest && !writeLocked.test(e.getKey())) {
+                    c.retired = true;
+                    chains.remove(e.getKey(), c);
+                }
+            }
+        }
+        synchronized (this) {
+            numVersions -= dropped;
+        }
+    }
+}
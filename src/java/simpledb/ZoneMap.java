@@ -0,0 +1,233 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * ZoneMap summarizes each page of a heap file by its number of tuples and
+ * the least and greatest value of each int field, so that a scan with a
+ * predicate can pass over pages that hold no tuple satisfying it.  It is
+ * kept in a sidecar file next to the heap file (its name with ".zm"
+ * appended), one entry per page in page order: the number of tuples plus
+ * one (0 for a page not yet summarized), then the least and greatest value
+ * of each int field, as big-endian ints.  SimpleDB fields are never null,
+ * so no null counts are kept.  The sidecar is created once a page is
+ * first summarized.
+ * <p>
+ * A summary only ever widens: inserts and page writes add their tuples to
+ * it, but deletes leave it as it is, since the deleted tuples may come back
+ * when the deleting transaction aborts, and snapshot readers may still see
+ * them.  A page is first summarized when it is read from disk; pages that
+ * are not summarized may hold anything.  That read may see a delete a
+ * running snapshot must not, so snapshot scans also read every page the
+ * {@link VersionStore} keeps versions of.  Summaries are written to the
+ * sidecar before the pages they cover, and recovery rewrites pages
+ * through {@link HeapFile#writePage}, so the sidecar covers the heap file
+ * after a crash.
+ *
+ * @Threadsafe
+ */
+class ZoneMap {
+
+    private final PageIO io;
+    /** the int fields of the file's tuples */
+    private final int[] columns;
+    private final int entrySize;
+    /** the tuples of each page plus one, 0 for a page not summarized */
+    private int[] rows = new int[0];
+    /** the least and greatest value of each int field of each page */
+    private int[] bounds = new int[0];
+    /** the pages whose summaries have widened since they were written */
+    private final BitSet unwritten = new BitSet();
+
+    /** Load the map of a heap file of tuples of td from its sidecar, if there is one. */
+    ZoneMap(File heapFile, TupleDesc td) throws IOException {
+        int n = 0;
+        int[] cols = new int[td.numFields()];
+        for (int j = 0; j < cols.length; j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE)
+                cols[n++] = j;
+        }
+        columns = Arrays.copyOf(cols, n);
+        entrySize = 4 + 8 * n;
+        File f = sidecar(heapFile);
+        io = new PageIO(f, 0);
+        long length = f.exists() ? f.length() : 0;
+        // a sidecar of another layout is ignored and overwritten
+        if (length > 0 && length % entrySize == 0) {
+            byte[] data = new byte[(int) length];
+            io.read(0, data);
+            int pages = data.length / entrySize;
+            grow(pages - 1);
+            for (int page = 0; page < pages; page++) {
+                int at = page * entrySize;
+                rows[page] = Type.readInt(data, at);
+                for (int k = 0; k < 2 * n; k++)
+                    bounds[page * 2 * n + k] = Type.readInt(data, at + 4 + 4 * k);
+            }
+        }
+    }
+
+    /** @return true if a heap file has a sidecar, which pages written must keep covering */
+    static boolean exists(File heapFile) {
+        return sidecar(heapFile).exists();
+    }
+
+    /** Forget the map of a heap file that has been overwritten. */
+    static void reset(File heapFile) {
+        sidecar(heapFile).delete();
+    }
+
+    private static File sidecar(File heapFile) {
+        return new File(heapFile.getPath() + ".zm");
+    }
+
+    /** Make room for the entry of a page. */
+    private void grow(int pageNo) {
+        if (pageNo < rows.length)
+            return;
+        int pages = Math.max(pageNo + 1, rows.length * 2);
+        rows = Arrays.copyOf(rows, pages);
+        bounds = Arrays.copyOf(bounds, pages * 2 * columns.length);
+    }
+
+    private boolean summarized(int pageNo) {
+        return pageNo < rows.length && rows[pageNo] != 0;
+    }
+
+    /**
+     * Summarize a page just read from disk, unless it already is.  A
+     * summary that cannot be written stays in memory only.
+     */
+    synchronized void measure(HeapPage p) {
+        int pageNo = p.getId().getPageNumber();
+        if (summarized(pageNo))
+            return;
+        grow(pageNo);
+        rows[pageNo] = 1;
+        int at = pageNo * 2 * columns.length;
+        for (int k = 0; k < columns.length; k++) {
+            bounds[at + 2 * k] = Integer.MAX_VALUE;
+            bounds[at + 2 * k + 1] = Integer.MIN_VALUE;
+        }
+        add(p);
+        try {
+            write(pageNo);
+        } catch (IOException e) {
+            // the sidecar still has the page as not summarized
+        }
+    }
+
+    /**
+     * Widen the summary of a page about to be written, if it has one, to
+     * cover its tuples, and write the summary if it is not in the sidecar.
+     */
+    synchronized void cover(HeapPage p) throws IOException {
+        int pageNo = p.getId().getPageNumber();
+        if (summarized(pageNo) && (add(p) || unwritten.get(pageNo)))
+            write(pageNo);
+    }
+
+    /** Add the tuples of a page to its summary. @return true if it changed */
+    private boolean add(HeapPage p) {
+        int pageNo = p.getId().getPageNumber();
+        int at = pageNo * 2 * columns.length;
+        boolean changed = false;
+        int n = 0;
+        if (columns.length == 0) {
+            for (int slot = 0; slot < p.getNumSlots(); slot++) {
+                if (p.isSlotUsed(slot))
+                    n++;
+            }
+        }
+        int[] values = new int[p.getNumSlots()];
+        for (int k = 0; k < columns.length; k++) {
+            int count = p.readInts(columns[k], values);
+            n = Math.max(n, count);
+            for (int i = 0; i < count; i++) {
+                if (values[i] < bounds[at + 2 * k]) {
+                    bounds[at + 2 * k] = values[i];
+                    changed = true;
+                }
+                if (values[i] > bounds[at + 2 * k + 1]) {
+                    bounds[at + 2 * k + 1] = values[i];
+                    changed = true;
+                }
+            }
+        }
+        if (n + 1 > rows[pageNo]) {
+            rows[pageNo] = n + 1;
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Widen the summary of a page, if it has one, to cover a tuple
+     * inserted into it.  Only the copy in memory changes; the sidecar
+     * catches up when the page is written.
+     */
+    synchronized void widen(int pageNo, Tuple t) {
+        if (!summarized(pageNo))
+            return;
+        rows[pageNo]++;
+        unwritten.set(pageNo);
+        int at = pageNo * 2 * columns.length;
+        for (int k = 0; k < columns.length; k++) {
+            int v = ((IntField) t.getField(columns[k])).getValue();
+            bounds[at + 2 * k] = Math.min(bounds[at + 2 * k], v);
+            bounds[at + 2 * k + 1] = Math.max(bounds[at + 2 * k + 1], v);
+        }
+    }
+
+    /**
+     * @return false if the page is known to hold no tuple whose field col
+     *   compares to value by op; true if it may
+     */
+    synchronized boolean mayMatch(int pageNo, int col, Predicate.Op op, int value) {
+        if (!summarized(pageNo))
+            return true;
+        if (rows[pageNo] == 1)
+            return false;
+        int k = Arrays.binarySearch(columns, col);
+        if (k < 0)
+            return true;
+        int min = bounds[pageNo * 2 * columns.length + 2 * k];
+        int max = bounds[pageNo * 2 * columns.length + 2 * k + 1];
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return min <= value && value <= max;
+        case NOT_EQUALS:
+            return min != value || max != value;
+        case GREATER_THAN:
+            return max > value;
+        case GREATER_THAN_OR_EQ:
+            return max >= value;
+        case LESS_THAN:
+            return min < value;
+        case LESS_THAN_OR_EQ:
+            return min <= value;
+        default:
+            return true;
+        }
+    }
+
+    /** @return true if the page is known to hold no tuple satisfying p */
+    boolean excludes(int pageNo, int col, Predicate p) {
+        return p.getOperand() instanceof IntField
+                && !mayMatch(pageNo, col, p.getOp(), ((IntField) p.getOperand()).getValue());
+    }
+
+    private void write(int pageNo) throws IOException {
+        byte[] entry = new byte[entrySize];
+        Type.writeInt(entry, 0, rows[pageNo]);
+        int at = pageNo * 2 * columns.length;
+        for (int k = 0; k < 2 * columns.length; k++)
+            Type.writeInt(entry, 4 + 4 * k, bounds[at + k]);
+        io.write((long) pageNo * entrySize, entry);
+        unwritten.clear(pageNo);
+    }
+}
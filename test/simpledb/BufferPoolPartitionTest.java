@@ -0,0 +1,68 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolPartitionTest extends SimpleDbTestBase {
+
+    private static final int TABLE_PAGES = 64;
+
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        hf = SystemTestUtil.createEmptyHeapFile("partition", TABLE_PAGES);
+    }
+
+    /**
+     * Every partition evicts on its own, so a table larger than the pool can
+     * be read through a small partitioned pool
+     */
+    @Test public void readThroughPartitions() throws Exception {
+        BufferPool bp = new BufferPool(8, 4);
+        assertEquals(4, bp.getNumPartitions());
+        TransactionId tid = new TransactionId();
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < TABLE_PAGES; i++) {
+                HeapPageId pid = new HeapPageId(hf.getId(), i);
+                assertEquals(pid, bp.getPage(tid, pid, Permissions.READ_ONLY).getId());
+            }
+        }
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Pages dirtied in different partitions are all written on commit
+     */
+    @Test public void commitFlushesAllPartitions() throws Exception {
+        BufferPool bp = new BufferPool(16, 4);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 8; i++) {
+            Page p = bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_WRITE);
+            p.markDirty(true, tid);
+        }
+        bp.transactionComplete(tid);
+        for (int i = 0; i < 8; i++) {
+            Page p = bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+            assertTrue(p.isDirty() == null);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooManyPartitions() {
+        new BufferPool(4, 8);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolPartitionTest.class);
+    }
+}
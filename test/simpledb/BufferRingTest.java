@@ -0,0 +1,118 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferRingTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 64;
+    private static final int HOT_PAGES = 4;
+    private static final int BIG_PAGES = 2 * POOL_PAGES;
+
+    private HeapFile hot;
+    private HeapFile big;
+
+    @Before public void setUp() throws Exception {
+        hot = SystemTestUtil.createEmptyHeapFile("hot", HOT_PAGES);
+        big = SystemTestUtil.createEmptyHeapFile("big", BIG_PAGES);
+    }
+
+    /** read the hot table, then scan the big one; @return the pool */
+    private BufferPool scanAfterHotReads(boolean useRing) throws Exception {
+        BufferPool bp = Database.resetBufferPool(new BufferPool(POOL_PAGES, 1));
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < HOT_PAGES; i++)
+            bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), big.getId());
+        assertNotNull(scan.getBufferRing());
+        if (!useRing)
+            scan.setBufferRing(null);
+        scan.open();
+        while (scan.hasNext())
+            scan.next();
+        scan.close();
+        t.commit();
+        return bp;
+    }
+
+    private static int cachedPages(BufferPool bp, HeapFile f, int pages) {
+        int n = 0;
+        for (int i = 0; i < pages; i++) {
+            if (bp.isCached(new HeapPageId(f.getId(), i)))
+                n++;
+        }
+        return n;
+    }
+
+    /**
+     * A scan through a ring keeps no more than the ring of the big table in
+     * the pool and leaves the hot pages alone
+     */
+    @Test public void ringScanKeepsHotPages() throws Exception {
+        BufferPool bp = scanAfterHotReads(true);
+        assertEquals(HOT_PAGES, cachedPages(bp, hot, HOT_PAGES));
+        assertTrue(cachedPages(bp, big, BIG_PAGES) <= POOL_PAGES / 8);
+        assertTrue(bp.getRingPagesRecycled() >= BIG_PAGES - POOL_PAGES / 8);
+    }
+
+    /**
+     * The same scan through the shared pool pushes the hot pages out
+     */
+    @Test public void sharedScanFloodsPool() throws Exception {
+        BufferPool bp = scanAfterHotReads(false);
+        assertEquals(0, cachedPages(bp, hot, HOT_PAGES));
+        assertEquals(0, bp.getRingPagesRecycled());
+    }
+
+    /**
+     * Small tables, and scans of any table in a small pool, use the shared pool
+     */
+    @Test public void forScan() {
+        Database.resetBufferPool(new BufferPool(POOL_PAGES, 1));
+        assertNull(BufferRing.forScan(hot));
+        assertEquals(POOL_PAGES / 8, BufferRing.forScan(big).size());
+        Database.resetBufferPool(new BufferPool(8, 1));
+        assertNull(BufferRing.forScan(big));
+    }
+
+    /**
+     * A ring page another transaction has locked is not dropped
+     */
+    @Test public void lockedPageNotRecycled() throws Exception {
+        BufferPool bp = Database.resetBufferPool(new BufferPool(POOL_PAGES, 1));
+        BufferRing ring = new BufferRing(1);
+        TransactionId scanner = new TransactionId();
+        TransactionId other = new TransactionId();
+        HeapPageId first = new HeapPageId(big.getId(), 0);
+        bp.getPage(scanner, first, Permissions.READ_ONLY, ring);
+        bp.getPage(other, first, Permissions.READ_ONLY);
+        bp.getPage(scanner, new HeapPageId(big.getId(), 1), Permissions.READ_ONLY, ring);
+        assertTrue(bp.isCached(first));
+
+        bp.getPage(scanner, new HeapPageId(big.getId(), 2), Permissions.READ_ONLY, ring);
+        assertFalse(bp.isCached(new HeapPageId(big.getId(), 1)));
+        bp.transactionComplete(scanner);
+        bp.transactionComplete(other);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
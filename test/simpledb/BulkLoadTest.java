@@ -0,0 +1,126 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class BulkLoadTest extends TestUtil.CreateHeapFile {
+
+    /** tuples of two int fields on a 4096-byte page */
+    private static final int PER_PAGE = 504;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        new File(empty.getFile().getPath() + ".fsm").deleteOnExit();
+        Database.getCatalog().addTable(empty, "bulk");
+    }
+
+    private static OpIterator tuples(int n) throws Exception {
+        ArrayList<Tuple> list = new ArrayList<>();
+        for (int i = 0; i < n; i++)
+            list.add(Utility.getHeapTuple(i, 2));
+        TupleIterator it = new TupleIterator(Utility.getTupleDesc(2), list);
+        it.open();
+        return it;
+    }
+
+    private int count() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        int n = count(t);
+        t.commit();
+        return n;
+    }
+
+    /** @return the tuples of the table as t sees them */
+    private int count(Transaction t) throws Exception {
+        DbFileIterator it = empty.iterator(t.getId());
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /** Loaded tuples fill new pages after the existing ones, and are kept on commit */
+    @Test public void commit() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        assertEquals(2 * PER_PAGE + 1,
+                Database.getBufferPool().bulkLoad(t.getId(), empty.getId(), tuples(2 * PER_PAGE + 1)));
+        t.commit();
+        assertEquals(4, empty.numPages());
+        assertEquals(2 * PER_PAGE + 1, count());
+    }
+
+    /** An abort empties the loaded pages again */
+    @Test public void abort() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), empty.getId(), Utility.getHeapTuple(7, 2));
+        Database.getBufferPool().bulkLoad(t.getId(), empty.getId(), tuples(PER_PAGE));
+        t.abort();
+        assertEquals(0, count());
+    }
+
+    /**
+     * Snapshots do not see a load before it commits, nor after if they
+     * started before, and a later snapshot sees it
+     */
+    @Test public void snapshots() throws Exception {
+        Transaction before = new Transaction(true);
+        before.start();
+        assertEquals(0, count(before));
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().bulkLoad(t.getId(), empty.getId(), tuples(2 * PER_PAGE));
+        Transaction during = new Transaction(true);
+        during.start();
+        assertEquals(0, count(before));
+        assertEquals(0, count(during));
+        t.commit();
+        assertEquals(0, count(before));
+        assertEquals(0, count(during));
+        Transaction after = new Transaction(true);
+        after.start();
+        assertEquals(2 * PER_PAGE, count(after));
+        before.commit();
+        during.commit();
+        after.commit();
+
+        // an aborted load stays invisible to snapshots
+        t = new Transaction();
+        t.start();
+        Database.getBufferPool().bulkLoad(t.getId(), empty.getId(), tuples(PER_PAGE));
+        t.abort();
+        after = new Transaction(true);
+        after.start();
+        assertEquals(2 * PER_PAGE, count(after));
+        after.commit();
+        assertEquals(0, Database.getBufferPool().getVersionStore().getNumVersions());
+    }
+
+    /** COPY loads a delimited file */
+    @Test public void copyStatement() throws Exception {
+        File csv = File.createTempFile("bulk", ".csv");
+        csv.deleteOnExit();
+        Files.write(csv.toPath(), Arrays.asList("1|2", "", "3|4", "5|6"));
+        new Parser().processNextStatement("COPY bulk FROM '" + csv.getAbsolutePath()
+                + "' DELIMITER '|';");
+        assertEquals(3, count());
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoadTest.class);
+    }
+}
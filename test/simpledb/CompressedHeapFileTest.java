@@ -0,0 +1,155 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+
+    private TupleDesc td;
+    private File f;
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE},
+                new String[] {"id", "small", "name"});
+        f = File.createTempFile("compressed", ".dat");
+        f.delete();
+        f.deleteOnExit();
+        new File(f.getPath() + ".map").deleteOnExit();
+        hf = new HeapFile(f, td, false, true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+    }
+
+    private Tuple tuple(int id, int small, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new IntField(small));
+        t.setField(2, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    /** Each codec gives back the bytes of the page, and the shortest is used */
+    @Test public void codecs() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        PageCodec codec = new PageCodec(hf.newPage(pid, HeapPage.createEmptyPageData()));
+        HeapPage page = hf.newPage(pid, HeapPage.createEmptyPageData());
+        Random r = new Random(1);
+        for (int i = 0; page.getNumEmptySlots() > 0; i++)
+            page.insertTuple(tuple(1000000 + i, r.nextInt(16), "city" + r.nextInt(5)));
+        page.clearSlot(7);
+        check(codec, page.getPageData(), PageCodec.COLUMNS, 8);
+
+        byte[] text = new byte[BufferPool.getPageSize()];
+        for (int i = 0; i < text.length; i++)
+            text[i] = (byte) "the quick brown fox jumps".charAt(i % 20 + (i / 997) % 3);
+        check(codec, text, PageCodec.LZ, 10);
+
+        byte[] noise = new byte[BufferPool.getPageSize()];
+        r.nextBytes(noise);
+        check(codec, noise, PageCodec.RAW, 1);
+        check(codec, HeapPage.createEmptyPageData(), PageCodec.COLUMNS, 50);
+    }
+
+    private static void check(PageCodec codec, byte[] page, byte expected, int ratio) {
+        byte[] extent = codec.encode(page);
+        assertEquals(expected, extent[0]);
+        assertTrue(extent.length + " bytes", extent.length <= page.length / ratio + 1);
+        byte[] back = new byte[page.length];
+        codec.decode(extent, back);
+        assertArrayEquals(page, back);
+        back = new byte[page.length];
+        codec.decode(PageCodec.lz(page), back);
+        assertArrayEquals(page, back);
+    }
+
+    /** Tuples inserted by transactions are read back, from a file smaller than its pages */
+    @Test public void insertAndScan() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 1000; i++)
+            Database.getBufferPool().insertTuple(t.getId(), hf.getId(), tuple(i, i % 7, "name" + i % 11));
+        t.commit();
+        assertTrue(hf.numPages() > 1);
+        assertTrue(f.length() + new File(f.getPath() + ".map").length()
+                < (long) hf.numPages() * BufferPool.getPageSize() / 4);
+
+        // reopen the file, then delete some tuples, which rewrites their pages
+        HeapFile reopened = new HeapFile(f, td, false, true);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(hf.numPages(), reopened.numPages());
+        t = new Transaction();
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), reopened.getId());
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            Tuple tup = scan.next();
+            int id = ((IntField) tup.getField(0)).getValue();
+            assertEquals(id % 7, ((IntField) tup.getField(1)).getValue());
+            assertEquals("name" + id % 11, tup.getField(2).toString());
+            if (id % 2 == 0)
+                Database.getBufferPool().deleteTuple(t.getId(), tup);
+            n++;
+        }
+        scan.close();
+        t.commit();
+        assertEquals(1000, n);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        t = new Transaction();
+        t.start();
+        scan = new SeqScan(t.getId(), reopened.getId());
+        scan.open();
+        n = 0;
+        while (scan.hasNext()) {
+            assertEquals(1, ((IntField) scan.next().getField(0)).getValue() % 2);
+            n++;
+        }
+        scan.close();
+        t.commit();
+        assertEquals(500, n);
+    }
+
+    /** The compressed option of the catalog stores the table compressed, and raw files are refused */
+    @Test public void catalog() throws Exception {
+        File schema = File.createTempFile("compressed", ".txt");
+        schema.deleteOnExit();
+        String name = "compressed" + SystemTestUtil.getUUID().replace("-", "");
+        Files.write(schema.toPath(), Arrays.asList(name + " (a int, b string) pax compressed"));
+        new File(schema.getParent(), name + ".dat").deleteOnExit();
+        new File(schema.getParent(), name + ".dat.map").deleteOnExit();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        HeapFile table = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(name));
+        assertTrue(table.isCompressed());
+        assertTrue(table.isPax());
+        assertEquals(0, table.numPages());
+
+        File raw = File.createTempFile("raw", ".dat");
+        raw.deleteOnExit();
+        Files.write(raw.toPath(), HeapPage.createEmptyPageData());
+        try {
+            new HeapFile(raw, td, false, true).numPages();
+            throw new AssertionError("a raw file opened compressed");
+        } catch (RuntimeException e) {
+            // expected
+        }
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,68 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FreeSpaceMapTest extends TestUtil.CreateHeapFile {
+
+    /** tuples of two int fields on a 4096-byte page */
+    private static final int PER_PAGE = 504;
+
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        new File(empty.getFile().getPath() + ".fsm").deleteOnExit();
+        tid = new TransactionId();
+        for (int i = 0; i < 2 * PER_PAGE + 1; i++)
+            Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Inserts skip pages they found full */
+    @Test public void skipsFullPages() throws Exception {
+        assertEquals(3, empty.numPages());
+        assertEquals(2, empty.nextPageWithRoom(0));
+        Tuple t = Utility.getHeapTuple(0, 2);
+        Database.getBufferPool().insertTuple(tid, empty.getId(), t);
+        assertEquals(2, t.getRecordId().getPageId().getPageNumber());
+    }
+
+    /** A delete makes its page the first choice of the next inserter */
+    @Test public void deleteMakesRoom() throws Exception {
+        HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(empty.getId(), 1), Permissions.READ_WRITE);
+        Database.getBufferPool().deleteTuple(tid, p.iterator().next());
+        assertEquals(1, empty.nextPageWithRoom(0));
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(0, 2);
+        Database.getBufferPool().insertTuple(tid, empty.getId(), t);
+        assertEquals(1, t.getRecordId().getPageId().getPageNumber());
+    }
+
+    /** The map is kept in its sidecar file, and corrected when a page is read */
+    @Test public void persisted() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        assertEquals(2, reopened.nextPageWithRoom(0));
+
+        reopened.getFreeSpaceMap().setRoom(2, false);
+        assertEquals(3, reopened.nextPageWithRoom(0));
+        reopened.readPage(new HeapPageId(empty.getId(), 2));
+        assertEquals(2, reopened.nextPageWithRoom(0));
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -0,0 +1,113 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+
+    private static final int THREADS = 8;
+    private static final int COMMITS = 20;
+
+    private File f;
+
+    @Before public void setUp() throws Exception {
+        f = File.createTempFile("groupcommit", ".log");
+        f.deleteOnExit();
+    }
+
+    /** run COMMITS begin/commit pairs on each of n threads */
+    private void commitConcurrently(LogFile log, int n) throws Exception {
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        ArrayList<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < COMMITS; j++) {
+                        TransactionId tid = new TransactionId();
+                        log.logXactionBegin(tid);
+                        log.logCommit(tid);
+                    }
+                } catch (IOException e) {
+                    error.set(e);
+                }
+            }));
+        }
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+        if (error.get() != null)
+            throw new AssertionError(error.get());
+    }
+
+    /** @return the number of records in a log file written without checkpoints */
+    private static int countRecords(File f) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        int n = 0;
+        long offset = raf.length() - LogFile.LONG_SIZE;
+        try {
+            // walk the back pointers that end every record
+            while (offset > 0) {
+                raf.seek(offset);
+                offset = raf.readLong() - LogFile.LONG_SIZE;
+                n++;
+            }
+        } finally {
+            raf.close();
+        }
+        return n;
+    }
+
+    /**
+     * Concurrent committers share fsyncs, and every record still reaches
+     * the file
+     */
+    @Test public void commitsShareForces() throws Exception {
+        LogFile log = new LogFile(f, true, 2000, THREADS);
+        commitConcurrently(log, THREADS);
+        assertTrue("expected fewer forces than commits, got " + log.getForceCount(),
+                log.getForceCount() < THREADS * COMMITS);
+        assertEquals(2 * THREADS * COMMITS, countRecords(f));
+    }
+
+    /**
+     * Without group commit every commit forces the log itself
+     */
+    @Test public void synchronousForces() throws Exception {
+        LogFile log = new LogFile(f, false, 0, 1);
+        commitConcurrently(log, 1);
+        assertEquals(COMMITS, log.getForceCount());
+        assertEquals(2 * COMMITS, countRecords(f));
+    }
+
+    /**
+     * force() makes records appended without a commit durable too
+     */
+    @Test public void forceWritesTail() throws Exception {
+        LogFile log = new LogFile(f, true, 0, 1);
+        log.logXactionBegin(new TransactionId());
+        assertEquals(0, countRecords(f));
+        log.force();
+        assertEquals(1, countRecords(f));
+        assertEquals(1, log.getForceCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
@@ -43,6 +43,34 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Concurrent inserting transactions fill pages of their own
+     */
+    @Test public void insertPagePerTransaction() throws Exception {
+        TransactionId other = new TransactionId();
+        try {
+            Tuple mine = Utility.getHeapTuple(1, 2);
+            Tuple theirs = Utility.getHeapTuple(2, 2);
+            Database.getBufferPool().insertTuple(tid, empty.getId(), mine);
+            Database.getBufferPool().insertTuple(other, empty.getId(), theirs);
+            assertEquals(0, mine.getRecordId().getPageId().getPageNumber());
+            assertEquals(1, theirs.getRecordId().getPageId().getPageNumber());
+        } finally {
+            Database.getBufferPool().transactionComplete(other);
+        }
+
+        // the page of a completed transaction is free for others
+        TransactionId third = new TransactionId();
+        try {
+            Tuple t = Utility.getHeapTuple(3, 2);
+            Database.getBufferPool().insertTuple(third, empty.getId(), t);
+            assertEquals(1, t.getRecordId().getPageId().getPageNumber());
+        } finally {
+            Database.getBufferPool().transactionComplete(third);
+        }
+        assertEquals(2, empty.numPages());
+    }
+
     /**
      * JUnit suite target
      */
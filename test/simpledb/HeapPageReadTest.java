@@ -120,6 +120,19 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getField() and getInt()
+     */
+    @Test public void getField() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+
+        for (int i = 0; i < 20; ++i) {
+            assertEquals(new IntField(EXAMPLE_VALUES[i][1]), page.getField(i, 1));
+            assertEquals(EXAMPLE_VALUES[i][0], page.getInt(i, 0));
+        }
+        assertEquals(null, page.getField(20, 0));
+    }
+
     /**
      * JUnit suite target
      */
@@ -126,6 +126,26 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.iterator() while the page changes: the
+     * iterator, and the bytes the page was made from, keep the old contents
+     */
+    @Test public void iteratorSnapshot() throws Exception {
+        byte[] data = HeapPageReadTest.EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, data);
+        Iterator<Tuple> it = page.iterator();
+        page.deleteTuple(page.iterator().next());
+        page.insertTuple(Utility.getHeapTuple(-1, 2));
+
+        int count = 0;
+        while (it.hasNext()) {
+            assertTrue(((IntField) it.next().getField(0)).getValue() != -1);
+            count++;
+        }
+        assertEquals(20, count);
+        assertTrue(java.util.Arrays.equals(HeapPageReadTest.EXAMPLE_DATA, data));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,320 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    /** Time to wait before checking whether a lock request is blocked, in ms */
+    private static final int TIMEOUT = 100;
+
+    private LockManager lm;
+    private PageId p0, p1;
+    private TransactionId tid1, tid2, tid3;
+
+    @Before public void setUp() {
+        lm = new LockManager(0, DeadlockDetector.VictimPolicy.YOUNGEST);
+        p0 = new HeapPageId(-1, 0);
+        p1 = new HeapPageId(-1, 1);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+        tid3 = new TransactionId();
+    }
+
+    /** Acquires a lock in a new thread */
+    static class Acquirer extends Thread {
+        final LockManager lm;
+        final TransactionId tid;
+        final PageId pid;
+        final Permissions perm;
+        volatile boolean acquired = false;
+        volatile boolean aborted = false;
+
+        Acquirer(LockManager lm, TransactionId tid, PageId pid, Permissions perm) {
+            this.lm = lm;
+            this.tid = tid;
+            this.pid = pid;
+            this.perm = perm;
+            setDaemon(true);
+        }
+
+        public void run() {
+            try {
+                lm.acquire(tid, pid, perm);
+                acquired = true;
+            } catch (TransactionAbortedException e) {
+                aborted = true;
+            }
+        }
+    }
+
+    private Acquirer startAcquirer(TransactionId tid, PageId pid, Permissions perm)
+            throws InterruptedException {
+        Acquirer a = new Acquirer(lm, tid, pid, perm);
+        a.start();
+        Thread.sleep(TIMEOUT);
+        return a;
+    }
+
+    /**
+     * A released lock is handed to the waiter without polling
+     */
+    @Test public void releaseWakesWaiter() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        Acquirer a = startAcquirer(tid2, p0, Permissions.READ_WRITE);
+        assertFalse(a.acquired);
+
+        lm.release(tid1, p0);
+        a.join(TIMEOUT * 5);
+        assertTrue(a.acquired);
+        assertTrue(lm.holdsLock(tid2, p0));
+        assertFalse(lm.holdsLock(tid1, p0));
+    }
+
+    /**
+     * A reader arriving after a queued writer waits behind it
+     */
+    @Test public void writerNotStarved() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        Acquirer writer = startAcquirer(tid2, p0, Permissions.READ_WRITE);
+        Acquirer reader = startAcquirer(tid3, p0, Permissions.READ_ONLY);
+        assertFalse(writer.acquired);
+        assertFalse(reader.acquired);
+
+        lm.releaseAll(tid1);
+        writer.join(TIMEOUT * 5);
+        assertTrue(writer.acquired);
+        assertFalse(reader.acquired);
+
+        lm.releaseAll(tid2);
+        reader.join(TIMEOUT * 5);
+        assertTrue(reader.acquired);
+    }
+
+    /**
+     * An upgrade goes ahead of requests that were queued before it
+     */
+    @Test public void upgradeFirst() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        lm.acquire(tid2, p0, Permissions.READ_ONLY);
+        Acquirer writer = startAcquirer(tid3, p0, Permissions.READ_WRITE);
+        Acquirer upgrade = startAcquirer(tid1, p0, Permissions.READ_WRITE);
+        assertFalse(upgrade.acquired);
+
+        lm.releaseAll(tid2);
+        upgrade.join(TIMEOUT * 5);
+        assertTrue(upgrade.acquired);
+        assertFalse(writer.acquired);
+    }
+
+    /**
+     * releaseAll only drops the locks of the given transaction
+     */
+    @Test public void releaseAll() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        lm.acquire(tid1, p1, Permissions.READ_WRITE);
+        lm.acquire(tid2, p0, Permissions.READ_ONLY);
+        assertEquals(2, lm.getLockedPages(tid1).size());
+
+        lm.releaseAll(tid1);
+        assertEquals(0, lm.getLockedPages(tid1).size());
+        assertFalse(lm.holdsLock(tid1, p1));
+        assertTrue(lm.holdsLock(tid2, p0));
+        lm.acquire(tid2, p1, Permissions.READ_WRITE);
+    }
+
+    /**
+     * A request that waits too long aborts and leaves the queue
+     */
+    @Test public void timeoutAborts() throws Exception {
+        lm = new LockManager(200, DeadlockDetector.VictimPolicy.YOUNGEST);
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        Acquirer a = startAcquirer(tid2, p0, Permissions.READ_ONLY);
+        a.join(1000);
+        assertTrue(a.aborted);
+        assertFalse(lm.holdsLock(tid2, p0));
+        assertEquals(1, lm.getTimeoutAborts());
+
+        lm.releaseAll(tid1);
+        lm.acquire(tid3, p0, Permissions.READ_WRITE);
+    }
+
+    /**
+     * Only the youngest transaction of a two-way deadlock aborts, and
+     * without waiting for a timeout
+     */
+    @Test public void deadlockAbortsYoungest() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        lm.acquire(tid2, p1, Permissions.READ_WRITE);
+        Acquirer older = startAcquirer(tid1, p1, Permissions.READ_WRITE);
+        Acquirer younger = startAcquirer(tid2, p0, Permissions.READ_WRITE);
+
+        younger.join(TIMEOUT * 5);
+        assertTrue(younger.aborted);
+        assertFalse(older.acquired);
+        assertFalse(older.aborted);
+        assertEquals(1, lm.getDeadlockDetector().getDeadlockCount());
+        assertEquals(1, lm.getDeadlockAborts());
+
+        lm.releaseAll(tid2);
+        older.join(TIMEOUT * 5);
+        assertTrue(older.acquired);
+    }
+
+    /**
+     * Two transactions upgrading the same shared lock deadlock
+     */
+    @Test public void upgradeDeadlock() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        lm.acquire(tid2, p0, Permissions.READ_ONLY);
+        Acquirer a1 = startAcquirer(tid1, p0, Permissions.READ_WRITE);
+        Acquirer a2 = startAcquirer(tid2, p0, Permissions.READ_WRITE);
+
+        a2.join(TIMEOUT * 5);
+        assertTrue(a2.aborted);
+        lm.releaseAll(tid2);
+        a1.join(TIMEOUT * 5);
+        assertTrue(a1.acquired);
+    }
+
+    /**
+     * The fewest-locks policy aborts the transaction holding less, even if
+     * it is older
+     */
+    @Test public void fewestLocksVictim() throws Exception {
+        lm.getDeadlockDetector().setVictimPolicy(DeadlockDetector.VictimPolicy.FEWEST_LOCKS);
+        PageId p2 = new HeapPageId(-1, 2);
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        lm.acquire(tid2, p1, Permissions.READ_WRITE);
+        lm.acquire(tid2, p2, Permissions.READ_ONLY);
+        Acquirer a1 = startAcquirer(tid1, p1, Permissions.READ_WRITE);
+        Acquirer a2 = startAcquirer(tid2, p0, Permissions.READ_WRITE);
+
+        a1.join(TIMEOUT * 5);
+        assertTrue(a1.aborted);
+        assertFalse(a2.aborted);
+        lm.releaseAll(tid1);
+        a2.join(TIMEOUT * 5);
+        assertTrue(a2.acquired);
+    }
+
+    /**
+     * A three-way cycle is found as well
+     */
+    @Test public void threeWayDeadlock() throws Exception {
+        PageId p2 = new HeapPageId(-1, 2);
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        lm.acquire(tid2, p1, Permissions.READ_WRITE);
+        lm.acquire(tid3, p2, Permissions.READ_WRITE);
+        Acquirer a1 = startAcquirer(tid1, p1, Permissions.READ_ONLY);
+        Acquirer a2 = startAcquirer(tid2, p2, Permissions.READ_ONLY);
+        Acquirer a3 = startAcquirer(tid3, p0, Permissions.READ_ONLY);
+
+        a3.join(TIMEOUT * 5);
+        assertTrue(a3.aborted);
+        assertFalse(a1.aborted || a2.aborted);
+        lm.releaseAll(tid3);
+        a2.join(TIMEOUT * 5);
+        assertTrue(a2.acquired);
+    }
+
+    /**
+     * A request closing two cycles at once gets both broken
+     */
+    @Test public void twoCyclesAtOnce() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_WRITE);
+        lm.acquire(tid2, p1, Permissions.READ_ONLY);
+        lm.acquire(tid3, p1, Permissions.READ_ONLY);
+        Acquirer a2 = startAcquirer(tid2, p0, Permissions.READ_ONLY);
+        Acquirer a3 = startAcquirer(tid3, p0, Permissions.READ_ONLY);
+        Acquirer a1 = startAcquirer(tid1, p1, Permissions.READ_WRITE);
+
+        a2.join(TIMEOUT * 5);
+        a3.join(TIMEOUT * 5);
+        assertTrue(a2.aborted && a3.aborted);
+        assertEquals(2, lm.getDeadlockDetector().getDeadlockCount());
+        lm.releaseAll(tid2);
+        lm.releaseAll(tid3);
+        a1.join(TIMEOUT * 5);
+        assertTrue(a1.acquired);
+    }
+
+    @Test public void lockModes() {
+        assertTrue(LockMode.IS.compatibleWith(LockMode.SIX));
+        assertFalse(LockMode.IX.compatibleWith(LockMode.S));
+        assertFalse(LockMode.X.compatibleWith(LockMode.IS));
+        assertEquals(LockMode.SIX, LockMode.S.combine(LockMode.IX));
+        assertEquals(LockMode.X, LockMode.SIX.combine(LockMode.X));
+        assertEquals(LockMode.S, LockMode.IS.combine(LockMode.S));
+    }
+
+    /**
+     * Page locks take intention locks on the table; a shared table lock
+     * covers reads without page locks and blocks writers of any page
+     */
+    @Test public void tableLock() throws Exception {
+        lm.acquire(tid1, p0, Permissions.READ_ONLY);
+        assertEquals(LockMode.IS, lm.getTableLockMode(tid1, -1));
+        lm.acquireTable(tid2, -1, LockMode.S);
+        lm.acquire(tid2, p1, Permissions.READ_ONLY);
+        assertTrue(lm.holdsLock(tid2, p1));
+        assertTrue(lm.getLockedPages(tid2).isEmpty());
+
+        Acquirer a = startAcquirer(tid3, p1, Permissions.READ_WRITE);
+        assertFalse(a.acquired);
+        lm.releaseAll(tid2);
+        a.join(TIMEOUT * 5);
+        assertTrue(a.acquired);
+        assertEquals(LockMode.IX, lm.getTableLockMode(tid3, -1));
+    }
+
+    /**
+     * Past the threshold, page locks are replaced by one table lock; the
+     * pages written stay known to the transaction
+     */
+    @Test public void escalation() throws Exception {
+        lm = new LockManager(0, DeadlockDetector.VictimPolicy.YOUNGEST, 4);
+        for (int i = 0; i < 3; i++)
+            lm.acquire(tid1, new HeapPageId(-1, i), Permissions.READ_ONLY);
+        assertEquals(LockMode.IS, lm.getTableLockMode(tid1, -1));
+        for (int i = 3; i < 6; i++)
+            lm.acquire(tid1, new HeapPageId(-1, i), Permissions.READ_ONLY);
+        assertEquals(LockMode.S, lm.getTableLockMode(tid1, -1));
+        assertEquals(1, lm.getEscalations());
+        assertEquals(1, lm.numLocksHeld(tid1));
+
+        for (int i = 0; i < 6; i++)
+            lm.acquire(tid2, new HeapPageId(-2, i), Permissions.READ_WRITE);
+        assertEquals(LockMode.X, lm.getTableLockMode(tid2, -2));
+        assertEquals(6, lm.getLockedPages(tid2).size());
+        assertEquals(Permissions.READ_WRITE, lm.getLockMode(tid2, new HeapPageId(-2, 0)));
+        assertFalse(lm.runIfUnlocked(new HeapPageId(-2, 9), () -> { }));
+    }
+
+    /**
+     * Escalation does not wait for the table lock; the page locks are kept
+     */
+    @Test public void escalationBlocked() throws Exception {
+        lm = new LockManager(0, DeadlockDetector.VictimPolicy.YOUNGEST, 2);
+        lm.acquire(tid2, new HeapPageId(-1, 9), Permissions.READ_WRITE);
+        for (int i = 0; i < 4; i++)
+            lm.acquire(tid1, new HeapPageId(-1, i), Permissions.READ_ONLY);
+        assertEquals(LockMode.IS, lm.getTableLockMode(tid1, -1));
+        assertEquals(0, lm.getEscalations());
+        assertEquals(4, lm.getLockedPages(tid1).size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
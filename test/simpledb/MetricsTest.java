@@ -0,0 +1,115 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class MetricsTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        hf = SystemTestUtil.createEmptyHeapFile("metrics", 4);
+    }
+
+    /**
+     * Every value falls into a bucket whose upper bound is within an eighth
+     * of the value
+     */
+    @Test public void histogramBuckets() {
+        for (long v = 0; v < 1L << 41; v = v * 3 / 2 + 1) {
+            long high = LatencyHistogram.highestValueIn(LatencyHistogram.bucketOf(v));
+            if (v < 1L << 40)
+                assertTrue(v + " -> " + high, high >= v && high <= v + v / 8);
+        }
+    }
+
+    @Test public void histogramPercentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getValueAtPercentile(99));
+        for (int i = 0; i < 99; i++)
+            h.record(1000);
+        h.record(1000000);
+        assertEquals(100, h.getCount());
+        assertEquals(10990, h.getMean(), 0.001);
+        assertTrue(h.getValueAtPercentile(50) >= 1000 && h.getValueAtPercentile(50) < 1125);
+        assertTrue(h.getValueAtPercentile(99) < 1125);
+        assertTrue(h.getValueAtPercentile(100) >= 1000000);
+        assertTrue(h.getMax() >= 1000000 && h.getMax() < 1125000);
+    }
+
+    /**
+     * getPage hits and misses and transaction outcomes are counted and
+     * published through the platform MBean server
+     */
+    @Test public void bufferPoolBean() throws Exception {
+        BufferPool bp = Database.resetBufferPool(new BufferPool(4, 1));
+        TransactionId tid = new TransactionId();
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        bp.getPage(tid, pid, Permissions.READ_ONLY);
+        bp.getPage(tid, pid, Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_WRITE).markDirty(true, tid);
+        assertEquals(1, bp.getNumDirtyPages());
+        bp.transactionComplete(tid);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("simpledb:type=BufferPool");
+        assertEquals(1L, server.getAttribute(name, "Hits"));
+        assertEquals(2L, server.getAttribute(name, "Misses"));
+        assertEquals(1L, server.getAttribute(name, "PagesFlushed"));
+        assertEquals(1L, server.getAttribute(name, "Commits"));
+        assertEquals(0, server.getAttribute(name, "DirtyPages"));
+        assertEquals(2, server.getAttribute(name, "ResidentPages"));
+        assertTrue(server.isRegistered(new ObjectName("simpledb:type=LockManager")));
+        assertTrue(server.isRegistered(new ObjectName("simpledb:type=LogFile")));
+    }
+
+    @Test public void disabled() throws Exception {
+        BufferPool bp = Database.resetBufferPool(new BufferPool(4, 1));
+        Metrics.setEnabled(false);
+        try {
+            TransactionId tid = new TransactionId();
+            bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+            bp.transactionComplete(tid);
+        } finally {
+            Metrics.setEnabled(true);
+        }
+        assertEquals(0, bp.getMisses());
+        assertEquals(0, bp.getCommits());
+    }
+
+    @Test public void snapshotFile() throws Exception {
+        Database.resetBufferPool(new BufferPool(4, 1));
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        File f = File.createTempFile("metrics", ".txt");
+        f.deleteOnExit();
+        Metrics.writeSnapshot(f);
+        List<String> lines = Files.readAllLines(f.toPath());
+        assertTrue(lines.contains("BufferPool.Misses=1"));
+        assertTrue(lines.contains("LockManager.LockRequests=1"));
+        assertTrue(lines.stream().anyMatch(l -> l.startsWith("LogFile.ForceLatencyP99Micros=")));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MetricsTest.class);
+    }
+}
@@ -0,0 +1,132 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static simpledb.systemtest.SystemTestUtil.pageId;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class OffHeapBufferPoolTest extends SimpleDbTestBase {
+
+    private static final int TABLE_PAGES = 8;
+
+    /** HeapFile that counts how often the buffer pool had to read a page */
+    static class CountingHeapFile extends HeapFile {
+        int reads = 0;
+
+        CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads++;
+            return super.readPage(pid);
+        }
+    }
+
+    private CountingHeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        File f = SystemTestUtil.createEmptyHeapFileUnopened("offheap", TABLE_PAGES);
+        hf = new CountingHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(hf, "offheap");
+    }
+
+    /**
+     * Frames are handed out until the arena is full and can be reused
+     */
+    @Test public void arenaFrames() {
+        FrameArena arena = new FrameArena(2, 16);
+        int a = arena.allocate();
+        int b = arena.allocate();
+        assertEquals(-1, arena.allocate());
+
+        byte[] data = {1, 2, 3};
+        arena.write(b, data);
+        assertArrayEquals(data, arena.read(b));
+
+        arena.free(a);
+        assertEquals(a, arena.allocate());
+    }
+
+    /**
+     * A committed page is dropped from the heap and decoded again from the
+     * arena, without going back to disk
+     */
+    @Test public void decodesFromArena() throws Exception {
+        BufferPool bp = BufferPool.offHeap(4L * BufferPool.getPageSize());
+        assertTrue(bp.isOffHeap());
+        assertEquals(4, bp.getMaxPages());
+
+        TransactionId tid = new TransactionId();
+        HeapPage p = (HeapPage) bp.getPage(tid, pageId(hf, 0), Permissions.READ_WRITE);
+        p.insertTuple(Utility.getHeapTuple(42));
+        p.markDirty(true, tid);
+        bp.transactionComplete(tid);
+        assertEquals(1, hf.reads);
+
+        tid = new TransactionId();
+        HeapPage again = (HeapPage) bp.getPage(tid, pageId(hf, 0), Permissions.READ_ONLY);
+        assertNotSame(p, again);
+        assertEquals(1, hf.reads);
+        assertEquals(p.getNumEmptySlots(), again.getNumEmptySlots());
+        assertEquals(42, ((IntField) again.iterator().next().getField(0)).getValue());
+
+        // while in use the same decoded page is returned
+        assertSame(again, bp.getPage(tid, pageId(hf, 0), Permissions.READ_ONLY));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Pinned pages are not evicted
+     */
+    @Test public void pinnedNotEvicted() throws Exception {
+        for (BufferPool bp : new BufferPool[] {
+                new BufferPool(2, 1), BufferPool.offHeap(2L * BufferPool.getPageSize())}) {
+            TransactionId tid = new TransactionId();
+            bp.pinPage(pageId(hf, 0));
+            bp.getPage(tid, pageId(hf, 0), Permissions.READ_ONLY);
+            bp.getPage(tid, pageId(hf, 1), Permissions.READ_ONLY);
+            bp.getPage(tid, pageId(hf, 2), Permissions.READ_ONLY);
+            int reads = hf.reads;
+            bp.getPage(tid, pageId(hf, 0), Permissions.READ_ONLY);
+            assertEquals(reads, hf.reads);
+
+            bp.pinPage(pageId(hf, 2));
+            try {
+                bp.getPage(tid, pageId(hf, 3), Permissions.READ_ONLY);
+                fail("every page is pinned");
+            } catch (DbException e) {
+                // expected
+            }
+            bp.unpinPage(pageId(hf, 2));
+            bp.getPage(tid, pageId(hf, 3), Permissions.READ_ONLY);
+            bp.unpinPage(pageId(hf, 0));
+            bp.transactionComplete(tid);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void unpinNotPinned() {
+        new BufferPool(2, 1).unpinPage(pageId(hf, 0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OffHeapBufferPoolTest.class);
+    }
+}
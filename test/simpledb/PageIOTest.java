@@ -0,0 +1,149 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PageIOTest extends SimpleDbTestBase {
+
+    private File f;
+    private PageIO io;
+
+    @Before public void setUp() throws Exception {
+        f = File.createTempFile("pageio", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".len").deleteOnExit();
+        io = new PageIO(f);
+    }
+
+    private static byte[] filled(int len, int value) {
+        byte[] b = new byte[len];
+        Arrays.fill(b, (byte) value);
+        return b;
+    }
+
+    /** Positional writes extend the file, and a read stops at its end */
+    @Test public void readWrite() throws Exception {
+        io.write(8, filled(8, 2));
+        io.write(0, filled(8, 1));
+        byte[] buf = new byte[8];
+        assertEquals(8, io.read(8, buf));
+        assertArrayEquals(filled(8, 2), buf);
+        assertEquals(16, io.size());
+
+        byte[] big = new byte[32];
+        assertEquals(12, io.read(4, big));
+        assertEquals(0, io.read(16, big));
+    }
+
+    /** Files grow in zero-filled extents, and reads stop at the end of the data */
+    @Test public void extents() throws Exception {
+        io = new PageIO(f, 4096);
+        io.write(0, filled(100, 1));
+        assertEquals(4096, f.length());
+        assertEquals(100, io.size());
+        byte[] buf = new byte[200];
+        assertEquals(100, io.read(0, buf));
+
+        io.write(5000, filled(8, 2));
+        assertEquals(8192, f.length());
+        assertEquals(5008, io.size());
+        assertEquals(108, io.read(4900, buf));
+        assertArrayEquals(new byte[100], Arrays.copyOf(buf, 100));
+
+        // the end of the data is remembered, and forgotten when the file is overwritten
+        assertEquals(5008, new PageIO(f, 4096).size());
+        PageIO.reset(f);
+        assertEquals(8192, new PageIO(f, 4096).size());
+    }
+
+    /** A reopened heap file has as many pages as were written, not as were preallocated */
+    @Test public void reopenedPageCount() throws Exception {
+        HeapFile hf = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 2000; i++)
+            Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(i, 2));
+        t.commit();
+        assertEquals(4, hf.numPages());
+        assertEquals(1 << 20, f.length());
+        assertEquals(4, Utility.openHeapFile(2, f).numPages());
+    }
+
+    /** A closed channel is reopened, and sees writes made through the file */
+    @Test public void reopen() throws Exception {
+        io.write(0, filled(4, 1));
+        io.close();
+        Files.write(f.toPath(), filled(4, 3));
+        byte[] buf = new byte[4];
+        assertEquals(4, io.read(0, buf));
+        assertArrayEquals(filled(4, 3), buf);
+    }
+
+    /** Heap pages are written in runs, with gaps between runs left alone */
+    @Test public void writePages() throws Exception {
+        HeapFile hf = Utility.createEmptyHeapFile(f.getAbsolutePath(), 1);
+        int pageSize = BufferPool.getPageSize();
+        ArrayList<Page> pages = new ArrayList<>();
+        for (int pgNo : new int[] {0, 1, 3}) {
+            HeapPage p = new HeapPage(new HeapPageId(hf.getId(), pgNo), HeapPage.createEmptyPageData());
+            p.insertTuple(Utility.getHeapTuple(pgNo + 1));
+            pages.add(p);
+        }
+        hf.writePages(pages);
+        assertEquals(4, hf.numPages());
+        for (Page p : pages)
+            assertArrayEquals(p.getPageData(), hf.readPage(p.getId()).getPageData());
+        assertEquals(((HeapPage) hf.readPage(new HeapPageId(hf.getId(), 2))).getNumEmptySlots(),
+                ((HeapPage) pages.get(0)).getNumEmptySlots() + 1);
+    }
+
+    /** A mapped file sees later writes, and is remapped when it grows */
+    @Test public void mapped() throws Exception {
+        io.write(0, filled(8, 1));
+        io.setMapped(true);
+        assertArrayEquals(filled(8, 1), bytes(io.mappedSlice(0, 8)));
+        io.write(0, filled(8, 2));
+        assertArrayEquals(filled(8, 2), bytes(io.mappedSlice(0, 8)));
+        assertNull(io.mappedSlice(8, 8));
+        io.write(8, filled(8, 3));
+        byte[] buf = new byte[8];
+        assertEquals(8, io.read(8, buf));
+        assertArrayEquals(filled(8, 3), buf);
+        io.setMapped(false);
+        assertNull(io.mappedSlice(0, 8));
+    }
+
+    /** Pages decoded from a mapped file equal those read from the channel */
+    @Test public void mappedPages() throws Exception {
+        HeapFile hf = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        HeapPage p = new HeapPage(new HeapPageId(hf.getId(), 0), HeapPage.createEmptyPageData());
+        p.insertTuple(Utility.getHeapTuple(new int[] {1, 2}));
+        hf.writePage(p);
+        Database.getCatalog().setMapped(hf.getId(), true);
+        assertEquals(true, hf.isMapped());
+        assertArrayEquals(p.getPageData(), hf.readPage(p.getId()).getPageData());
+    }
+
+    private static byte[] bytes(ByteBuffer buf) {
+        byte[] b = new byte[buf.remaining()];
+        buf.get(b);
+        return b;
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageIOTest.class);
+    }
+}
@@ -0,0 +1,87 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PageLatchTest extends SimpleDbTestBase {
+
+    private HeapPage page;
+    private ExecutorService other;
+
+    @Before public void setUp() throws Exception {
+        File f = File.createTempFile("latch", ".dat");
+        f.deleteOnExit();
+        HeapPageId pid = new HeapPageId(Utility.createEmptyHeapFile(f.getAbsolutePath(), 1).getId(), 0);
+        page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        other = Executors.newSingleThreadExecutor();
+    }
+
+    @After public void tearDown() {
+        other.shutdownNow();
+    }
+
+    /** A reader of the page's bytes waits for an exclusive holder */
+    @Test public void readerWaitsForWriter() throws Exception {
+        PageLatch latch = page.getLatch();
+        long waits = PageLatch.getWaits();
+        long held = latch.acquireExclusive();
+        Future<byte[]> data;
+        try {
+            page.insertTuple(Utility.getHeapTuple(1));
+            data = other.submit(page::getPageData);
+            Thread.sleep(100);
+            assertFalse(data.isDone());
+            page.insertTuple(Utility.getHeapTuple(2));
+        } finally {
+            latch.releaseExclusive(held);
+        }
+        assertArrayEquals(page.getPageData(), data.get(10, TimeUnit.SECONDS));
+        assertEquals(waits + 1, PageLatch.getWaits());
+    }
+
+    /** An exclusive holder can take the latch again, and shared */
+    @Test public void reentrant() throws Exception {
+        PageLatch latch = page.getLatch();
+        long outer = latch.acquireExclusive();
+        long inner = latch.acquireExclusive();
+        long shared = latch.acquireShared();
+        assertTrue(latch.isHeldExclusively());
+        latch.releaseShared(shared);
+        latch.releaseExclusive(inner);
+        assertTrue(latch.isHeldExclusively());
+        latch.releaseExclusive(outer);
+        assertFalse(latch.isHeldExclusively());
+    }
+
+    /** Shared holders do not block each other, and hold times are recorded */
+    @Test public void sharedHolders() throws Exception {
+        PageLatch latch = page.getLatch();
+        long count = PageLatch.getSharedHoldTime().getCount();
+        long held = latch.acquireShared();
+        try {
+            other.submit(() -> latch.releaseShared(latch.acquireShared())).get(10, TimeUnit.SECONDS);
+        } finally {
+            latch.releaseShared(held);
+        }
+        assertEquals(count + 2, PageLatch.getSharedHoldTime().getCount());
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageLatchTest.class);
+    }
+}
@@ -0,0 +1,117 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PaxHeapPageTest extends SimpleDbTestBase {
+
+    /** slots and header bytes of a page of tuples of three int fields */
+    private static final int SLOTS = 4096 * 8 / (12 * 8 + 1);
+    private static final int HEADER = (SLOTS + 7) / 8;
+
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        hf = new HeapFile(f, Utility.getTupleDesc(3, "field"), true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+    }
+
+    /** Each field of a tuple goes to the minipage of its column */
+    @Test public void layout() throws Exception {
+        HeapPage page = hf.newPage(new HeapPageId(hf.getId(), 0), HeapPage.createEmptyPageData());
+        assertTrue(page instanceof PaxHeapPage);
+        assertEquals(SLOTS, page.getNumSlots());
+        for (int i = 0; i < 10; i++)
+            page.insertTuple(i, Utility.getHeapTuple(new int[] {i, 100 + i, 200 + i}));
+        page.clearSlot(4);
+
+        byte[] data = page.getPageData();
+        for (int i = 0; i < 10; i++) {
+            for (int col = 0; col < 3; col++) {
+                int value = i == 4 ? 0 : col * 100 + i;
+                assertEquals(value, Type.readInt(data, HEADER + col * SLOTS * 4 + i * 4));
+            }
+        }
+        Iterator<Tuple> it = new PaxHeapPage(page.getId(), data).iterator();
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int i = t.getRecordId().getTupleNumber();
+            assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(new int[] {i, 100 + i, 200 + i}), t));
+            n++;
+        }
+        assertEquals(9, n);
+    }
+
+    /** A scan of some columns returns tuples of only those */
+    @Test public void projectedScan() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 1000; i++)
+            Database.getBufferPool().insertTuple(t.getId(), hf.getId(),
+                    Utility.getHeapTuple(new int[] {i, 2 * i, 3 * i}));
+        t.commit();
+
+        t = new Transaction();
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), hf.getId(), "p");
+        scan.setColumns(new int[] {2, 0});
+        assertEquals(2, scan.getTupleDesc().numFields());
+        assertEquals("p.field2", scan.getTupleDesc().getFieldName(0));
+        scan.open();
+        long sum = 0;
+        int n = 0;
+        while (scan.hasNext()) {
+            Tuple tup = scan.next();
+            assertEquals(3 * ((IntField) tup.getField(1)).getValue(), ((IntField) tup.getField(0)).getValue());
+            n++;
+        }
+        scan.close();
+        assertEquals(1000, n);
+
+        int[] values = new int[SLOTS];
+        n = 0;
+        for (int pageNo = 0; pageNo < hf.numPages(); pageNo++) {
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(t.getId(),
+                    new HeapPageId(hf.getId(), pageNo), Permissions.READ_ONLY);
+            int count = page.readInts(1, values);
+            for (int i = 0; i < count; i++)
+                sum += values[i];
+            n += count;
+        }
+        t.commit();
+        assertEquals(1000, n);
+        assertEquals(999 * 1000, sum);
+    }
+
+    /** The pax option of the catalog picks the layout */
+    @Test public void catalog() throws Exception {
+        File schema = File.createTempFile("pax", ".txt");
+        schema.deleteOnExit();
+        String name = "pax" + SystemTestUtil.getUUID().replace("-", "");
+        Files.write(schema.toPath(), Arrays.asList(name + " (a int, b string) mapped pax"));
+        new File(schema.getParent(), name + ".dat").deleteOnExit();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        HeapFile table = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(name));
+        assertTrue(table.isPax());
+        assertTrue(table.isMapped());
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxHeapPageTest.class);
+    }
+}
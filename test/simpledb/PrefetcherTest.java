@@ -0,0 +1,125 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static simpledb.systemtest.SystemTestUtil.pageId;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PrefetcherTest extends SimpleDbTestBase {
+
+    private static final int TABLE_PAGES = 16;
+
+    private OffHeapBufferPoolTest.CountingHeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        File f = SystemTestUtil.createEmptyHeapFileUnopened("prefetch", TABLE_PAGES);
+        hf = new OffHeapBufferPoolTest.CountingHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(hf, "prefetch");
+    }
+
+    private Prefetcher.Stream heapStream(BufferPool bp) {
+        return bp.getPrefetcher().newStream((pid, page) ->
+                pid.getPageNumber() + 1 < TABLE_PAGES ? pageId(hf, pid.getPageNumber() + 1) : null);
+    }
+
+    /** wait for the background loads to put n pages ahead of the stream */
+    private static void awaitAhead(Prefetcher.Stream s, int n) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (s.pagesAhead() < n) {
+            assertTrue("read-ahead did not happen", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Two sequential reads start read-ahead of a window of pages, which are
+     * then found in the pool; a full window of hits doubles the window
+     */
+    @Test public void sequentialReadAhead() throws Exception {
+        checkSequentialReadAhead(new BufferPool(64, 1));
+    }
+
+    @Test public void sequentialReadAheadOffHeap() throws Exception {
+        checkSequentialReadAhead(BufferPool.offHeap(64L * BufferPool.getPageSize()));
+    }
+
+    private void checkSequentialReadAhead(BufferPool bp) throws Exception {
+        TransactionId tid = new TransactionId();
+        Prefetcher.Stream s = heapStream(bp);
+        s.getPage(tid, pageId(hf, 0));
+        s.getPage(tid, pageId(hf, 1));
+        awaitAhead(s, 4);
+        for (int i = 2; i < 6; i++)
+            assertTrue(bp.isCached(pageId(hf, i)));
+        assertEquals(6, hf.reads);
+        assertEquals(4, bp.getPrefetcher().getPagesPrefetched());
+
+        for (int i = 2; i < 6; i++)
+            s.getPage(tid, pageId(hf, i));
+        assertEquals(4, bp.getPrefetcher().getPrefetchHits());
+        assertEquals(0, bp.getPrefetcher().getPrefetchMisses());
+        assertEquals(8, s.getWindow());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Pages that do not follow each other are not read ahead
+     */
+    @Test public void randomAccessNotPrefetched() throws Exception {
+        BufferPool bp = new BufferPool(64, 1);
+        TransactionId tid = new TransactionId();
+        Prefetcher.Stream s = heapStream(bp);
+        s.getPage(tid, pageId(hf, 0));
+        s.getPage(tid, pageId(hf, 5));
+        s.getPage(tid, pageId(hf, 2));
+        assertEquals(0, s.pagesAhead());
+        assertEquals(0, bp.getPrefetcher().getPagesPrefetched());
+        assertFalse(bp.isCached(pageId(hf, 3)));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * The window is capped at a quarter of the pool, so a small pool does
+     * not read ahead at all
+     */
+    @Test public void windowCappedByPool() {
+        assertEquals(0, new BufferPool(3, 1).getPrefetcher().getMaxWindow());
+        assertEquals(8, new BufferPool(32, 1).getPrefetcher().getMaxWindow());
+    }
+
+    /**
+     * B+ tree scans read ahead along the leaf sibling pointers
+     */
+    @Test public void leafChainReadAhead() throws Exception {
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 5000, null, null, 0);
+        BufferPool bp = Database.resetBufferPool(200);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        PageId first = it.next().getRecordId().getPageId();
+        it.close();
+
+        Prefetcher.Stream s = bp.getPrefetcher().newStream(BTreeFileIterator.NEXT_LEAF);
+        BTreeLeafPage leaf = (BTreeLeafPage) s.getPage(tid, first);
+        leaf = (BTreeLeafPage) s.getPage(tid, leaf.getRightSiblingId());
+        awaitAhead(s, 1);
+        assertTrue(bp.isCached(leaf.getRightSiblingId()));
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PrefetcherTest.class);
+    }
+}
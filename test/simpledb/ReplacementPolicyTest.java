@@ -0,0 +1,104 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(-1, pgNo);
+    }
+
+    /**
+     * CLOCK gives referenced pages a second chance
+     */
+    @Test public void clockSecondChance() {
+        ReplacementPolicy clock = new ClockReplacementPolicy(3);
+        clock.pageAdded(pid(0));
+        clock.pageAdded(pid(1));
+        clock.pageAdded(pid(2));
+
+        // first sweep clears all bits, then page 0 goes
+        assertEquals(pid(0), clock.chooseVictim(p -> true));
+        clock.pageRemoved(pid(0));
+        clock.pageAdded(pid(3));
+
+        // page 1 was hit since the last sweep, page 2 was not
+        clock.pageAccessed(pid(1));
+        assertEquals(pid(2), clock.chooseVictim(p -> true));
+    }
+
+    /**
+     * Pages rejected by the evictable predicate are never chosen
+     */
+    @Test public void respectsEvictable() {
+        ReplacementPolicy[] policies = {
+                new ClockReplacementPolicy(2), new LruKReplacementPolicy(2, 2)};
+        for (ReplacementPolicy policy : policies) {
+            policy.pageAdded(pid(0));
+            policy.pageAdded(pid(1));
+            assertEquals(pid(1), policy.chooseVictim(p -> !p.equals(pid(0))));
+            assertNull(policy.chooseVictim(p -> false));
+        }
+    }
+
+    /**
+     * LRU-2 evicts a page seen once before pages seen twice, even if the
+     * page seen once is the most recently used
+     */
+    @Test public void lru2ScanResistance() {
+        ReplacementPolicy lru = new LruKReplacementPolicy(3, 2);
+        lru.pageAdded(pid(0));
+        lru.pageAccessed(pid(0));
+        lru.pageAdded(pid(1));
+        lru.pageAccessed(pid(1));
+        lru.pageAdded(pid(2));
+
+        assertEquals(pid(2), lru.chooseVictim(p -> true));
+        lru.pageRemoved(pid(2));
+
+        // among pages with two references, the older second-last reference goes
+        lru.pageAccessed(pid(1));
+        assertEquals(pid(0), lru.chooseVictim(p -> true));
+    }
+
+    /**
+     * Reference history survives eviction for a while
+     */
+    @Test public void lruKRetainsHistory() {
+        ReplacementPolicy lru = new LruKReplacementPolicy(2, 2);
+        lru.pageAdded(pid(0));
+        lru.pageRemoved(pid(0));
+        lru.pageAdded(pid(1));
+        // page 0 comes back: second reference overall, so it beats page 1
+        lru.pageAdded(pid(0));
+        assertEquals(pid(1), lru.chooseVictim(p -> true));
+    }
+
+    /**
+     * Policies are picked by name
+     */
+    @Test public void createByName() {
+        assertTrue(ReplacementPolicy.create("clock", 10) instanceof ClockReplacementPolicy);
+        assertEquals(2, ((LruKReplacementPolicy) ReplacementPolicy.create("lru-k", 10)).getK());
+        assertEquals(3, ((LruKReplacementPolicy) ReplacementPolicy.create("LRU-3", 10)).getK());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void createUnknown() {
+        ReplacementPolicy.create("mru", 10);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,191 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static simpledb.systemtest.SystemTestUtil.pageId;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class RowLockingTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private BufferPool bp;
+    private LockManager lm;
+
+    @Before public void setUp() throws Exception {
+        hf = SystemTestUtil.createEmptyHeapFile("rows", 1);
+        bp = Database.resetBufferPool(BufferPool.rowLocking(4));
+        lm = bp.getLockManager();
+    }
+
+    private Transaction begin() {
+        Transaction t = new Transaction();
+        t.start();
+        return t;
+    }
+
+    private Tuple insert(Transaction t, int value) throws Exception {
+        Tuple tup = Utility.getHeapTuple(value);
+        bp.insertTuple(t.getId(), hf.getId(), tup);
+        return tup;
+    }
+
+    /** @return the sum of the values on the page, which must be in the pool or on disk */
+    private int sum(HeapPage p) {
+        int sum = 0;
+        Iterator<Tuple> it = p.iterator();
+        while (it.hasNext())
+            sum += ((IntField) it.next().getField(0)).getValue();
+        return sum;
+    }
+
+    private HeapPage cached() {
+        return (HeapPage) bp.getResidentPage(pageId(hf, 0));
+    }
+
+    private HeapPage onDisk() {
+        return (HeapPage) hf.readPage(pageId(hf, 0));
+    }
+
+    /** Two transactions insert into the same page without waiting for each other */
+    @Test public void concurrentInserts() throws Exception {
+        Transaction t1 = begin();
+        Transaction t2 = begin();
+        Tuple a = insert(t1, 1);
+        Tuple b = insert(t2, 2);
+        assertEquals(pageId(hf, 0), a.getRecordId().getPageId());
+        assertEquals(pageId(hf, 0), b.getRecordId().getPageId());
+        assertTrue(lm.holdsRowLock(t1.getId(), a.getRecordId()));
+        assertFalse(lm.holdsRowLock(t1.getId(), b.getRecordId()));
+        assertNull(lm.getLockMode(t1.getId(), pageId(hf, 0)));
+        assertTrue(lm.hasWriter(pageId(hf, 0)));
+        assertEquals(3, sum(cached()));
+        t1.commit();
+        t2.commit();
+        assertEquals(3, sum(onDisk()));
+    }
+
+    /** An abort undoes its own rows and leaves the other transaction's */
+    @Test public void abortUndoesOwnRows() throws Exception {
+        Transaction t1 = begin();
+        Transaction t2 = begin();
+        insert(t1, 1);
+        insert(t2, 2);
+        t1.abort();
+        assertEquals(2, sum(cached()));
+        assertNotNull(cached().isDirty());
+        t2.commit();
+        assertEquals(2, sum(onDisk()));
+        assertNull(cached().isDirty());
+    }
+
+    /** A commit writes the page with only the committed rows */
+    @Test public void commitWritesCommittedRows() throws Exception {
+        Transaction t1 = begin();
+        Transaction t2 = begin();
+        insert(t1, 1);
+        insert(t2, 2);
+        t1.commit();
+        assertEquals(1, sum(onDisk()));
+        assertEquals(1, sum(cached().getBeforeImage()));
+        assertEquals(3, sum(cached()));
+        assertNotNull(cached().isDirty());
+        t2.abort();
+        assertEquals(1, sum(cached()));
+        assertNull(cached().isDirty());
+    }
+
+    /** Deleting a row locks only that row; a deleted slot is not reused until commit */
+    @Test public void deleteLocksRow() throws Exception {
+        Transaction t0 = begin();
+        Tuple a = insert(t0, 1);
+        Tuple b = insert(t0, 2);
+        t0.commit();
+
+        Transaction t1 = begin();
+        Transaction t2 = begin();
+        bp.deleteTuple(t1.getId(), a);
+        bp.deleteTuple(t2.getId(), b);
+        assertFalse(lm.tryAcquireRow(t2.getId(), a.getRecordId()));
+        Tuple c = insert(t2, 4);
+        assertFalse(a.getRecordId().equals(c.getRecordId()));
+        t1.abort();
+        t2.commit();
+        assertEquals(5, sum(onDisk()));
+        assertEquals(5, sum(cached()));
+    }
+
+    /** A full page sends the insert on to a new page */
+    @Test public void extendsFile() throws Exception {
+        Transaction t = begin();
+        int slots = onDisk().getNumEmptySlots();
+        for (int i = 0; i <= slots; i++)
+            insert(t, 1);
+        t.commit();
+        assertEquals(2, hf.numPages());
+        assertEquals(slots, sum(onDisk()));
+        assertEquals(1, sum((HeapPage) hf.readPage(pageId(hf, 1))));
+    }
+
+    /**
+     * A commit to a page waits for the page's earlier preparer to log its
+     * outcome, so that undoing the earlier one cannot erase its rows
+     */
+    @Test public void commitWaitsForPreparedPage() throws Exception {
+        Transaction t1 = begin();
+        Transaction t2 = begin();
+        insert(t1, 1);
+        insert(t2, 2);
+        // t1 logs and writes its image of the page, but not its commit record
+        bp.flushPages(t1.getId());
+        assertEquals(1, sum(onDisk()));
+        Thread committer = new Thread(() -> {
+            try {
+                t2.commit();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        committer.start();
+        committer.join(200);
+        assertTrue(committer.isAlive());
+        assertEquals(1, sum(onDisk()));
+
+        // undoing t1 puts back the page as it was before t1
+        t1.abort();
+        committer.join();
+        assertEquals(2, sum(onDisk()));
+        assertEquals(2, sum(cached()));
+        assertNull(cached().isDirty());
+    }
+
+    /** A snapshot sees the committed rows of a page with row writers */
+    @Test public void snapshotSeesCommittedRows() throws Exception {
+        Transaction t1 = begin();
+        insert(t1, 1);
+        t1.commit();
+        Transaction t2 = begin();
+        insert(t2, 2);
+        Transaction reader = new Transaction(true);
+        reader.start();
+        HeapPage p = (HeapPage) bp.getPage(reader.getId(), pageId(hf, 0), Permissions.READ_ONLY);
+        assertEquals(1, sum(p));
+        t2.commit();
+        reader.commit();
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RowLockingTest.class);
+    }
+}
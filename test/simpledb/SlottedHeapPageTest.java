@@ -0,0 +1,154 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private static final int LENGTH = 16;
+    private TupleDesc td;
+    private HeapFile hf;
+    private HeapPageId pid;
+
+    @Before public void setUp() throws Exception {
+        td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE}, new String[] {"id", "name"});
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        hf = new HeapFile(f, td, new int[] {0, LENGTH});
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        pid = new HeapPageId(hf.getId(), 0);
+    }
+
+    private Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    private static String name(int i) {
+        return "n" + i;
+    }
+
+    /** Short strings take only their space, and long ones are cut to the declared length */
+    @Test public void insertAndRead() throws Exception {
+        HeapPage page = hf.newPage(pid, HeapPage.createEmptyPageData());
+        int n = 0;
+        while (page.getNumEmptySlots() > 0)
+            page.insertTuple(tuple(n, name(n++)));
+        // entries of 4 bytes and records of 7 to 9, until one of 21 may not fit
+        assertTrue(n > 4092 / 13);
+
+        for (int slot = 0; slot < 3; slot++)
+            page.deleteTuple(page.getTuple(slot));
+        page.insertTuple(tuple(-1, "a string longer than the column"));
+        Iterator<Tuple> it = page.iterator();
+        int seen = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = ((IntField) t.getField(0)).getValue();
+            assertEquals(id == -1 ? "a string longer " : name(id), t.getField(1).toString());
+            assertEquals(t.getField(1), page.getField(t.getRecordId().getTupleNumber(), 1));
+            seen++;
+        }
+        assertEquals(n - 2, seen);
+    }
+
+    /** Deleted records leave room that later inserts reuse */
+    @Test public void deleteMakesRoom() throws Exception {
+        HeapPage page = hf.newPage(pid, HeapPage.createEmptyPageData());
+        int n = 0;
+        while (page.getNumEmptySlots() > 0)
+            page.insertTuple(tuple(n, name(n++)));
+        for (int slot = 0; slot < n; slot += 2)
+            page.clearSlot(slot);
+        int added = 0;
+        String longer = "0123456789abcdef";
+        while (page.getNumEmptySlots() > 0) {
+            page.insertTuple(tuple(n + added, longer));
+            added++;
+        }
+        assertTrue(added > n / 8);
+        for (int slot = 1; slot < n; slot += 2)
+            assertEquals(new StringField(name(slot), Type.STRING_LEN), page.getField(slot, 1));
+        assertEquals(n + added - (n + 1) / 2, count(page));
+    }
+
+    /** getPageData round trips through the constructor, and the before image keeps the old page */
+    @Test public void pageData() throws Exception {
+        HeapPage page = hf.newPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 10; i++)
+            page.insertTuple(tuple(i, name(i)));
+        page.clearSlot(3);
+        HeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        assertTrue(Arrays.equals(page.getPageData(), copy.getPageData()));
+        assertEquals(9, count(copy));
+        assertFalse(copy.isSlotUsed(3));
+        assertEquals(0, count(page.getBeforeImage()));
+        assertTrue(page.getBeforeImage() instanceof SlottedHeapPage);
+    }
+
+    /** A varchar column in the catalog makes a slotted table, which transactions insert into */
+    @Test public void catalog() throws Exception {
+        File schema = File.createTempFile("slotted", ".txt");
+        schema.deleteOnExit();
+        String name = "slotted" + SystemTestUtil.getUUID().replace("-", "");
+        Files.write(schema.toPath(), Arrays.asList(name + " (id int pk, code varchar(8), note string)"));
+        new File(schema.getParent(), name + ".dat").deleteOnExit();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        int tableId = Database.getCatalog().getTableId(name);
+        HeapFile table = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+        assertTrue(table.isSlotted());
+        assertEquals(Type.STRING_TYPE, table.getTupleDesc().getFieldType(1));
+
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 1000; i++) {
+            Tuple tup = new Tuple(table.getTupleDesc());
+            tup.setField(0, new IntField(i));
+            tup.setField(1, new StringField("code" + i, Type.STRING_LEN));
+            tup.setField(2, new StringField("", Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(t.getId(), tableId, tup);
+        }
+        t.commit();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        t = new Transaction();
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), tableId);
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            Tuple tup = scan.next();
+            assertEquals("code" + ((IntField) tup.getField(0)).getValue(), tup.getField(1).toString());
+            n++;
+        }
+        scan.close();
+        t.commit();
+        assertEquals(1000, n);
+        assertTrue(table.numPages() < 1000 / 30);
+    }
+
+    private static int count(HeapPage page) {
+        int n = 0;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); it.next())
+            n++;
+        return n;
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
@@ -0,0 +1,150 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static simpledb.systemtest.SystemTestUtil.pageId;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SnapshotIsolationTest extends SimpleDbTestBase {
+
+    private static final int TABLE_PAGES = 4;
+
+    private HeapFile hf;
+    private BufferPool bp;
+    private int emptySlots;
+
+    @Before public void setUp() throws Exception {
+        hf = SystemTestUtil.createEmptyHeapFile("snapshot", TABLE_PAGES);
+        emptySlots = ((HeapPage) hf.readPage(pageId(hf, 0))).getNumEmptySlots();
+        bp = Database.resetBufferPool(new BufferPool(TABLE_PAGES, 1));
+    }
+
+    /** insert a tuple into page 0 on behalf of t */
+    private void insert(Transaction t, int value) throws Exception {
+        HeapPage p = (HeapPage) bp.getPage(t.getId(), pageId(hf, 0), Permissions.READ_WRITE);
+        p.insertTuple(Utility.getHeapTuple(value));
+        p.markDirty(true, t.getId());
+    }
+
+    /** @return the number of tuples on page 0 as t sees it */
+    private int tuples(Transaction t) throws Exception {
+        HeapPage p = (HeapPage) bp.getPage(t.getId(), pageId(hf, 0), Permissions.READ_ONLY);
+        return emptySlots - p.getNumEmptySlots();
+    }
+
+    /**
+     * A snapshot reads a page another transaction has write locked, takes
+     * no lock and does not see the uncommitted change
+     */
+    @Test public void readsPastWriteLock() throws Exception {
+        Transaction writer = new Transaction();
+        writer.start();
+        insert(writer, 1);
+
+        Transaction reader = new Transaction(true);
+        reader.start();
+        assertEquals(0, tuples(reader));
+        assertTrue(bp.getLockManager().getLockedPages(reader.getId()).isEmpty());
+        writer.commit();
+        assertEquals(0, tuples(reader));
+        reader.commit();
+    }
+
+    /**
+     * A snapshot keeps seeing the committed state as of its start, even the
+     * page object it already read, while later snapshots see later commits
+     */
+    @Test public void ignoresLaterCommits() throws Exception {
+        Transaction first = new Transaction();
+        first.start();
+        insert(first, 1);
+        first.commit();
+
+        Transaction old = new Transaction(true);
+        old.start();
+        Page seen = bp.getPage(old.getId(), pageId(hf, 0), Permissions.READ_ONLY);
+        assertEquals(1, tuples(old));
+
+        Transaction second = new Transaction();
+        second.start();
+        insert(second, 2);
+        assertNotSame(seen, bp.getPage(second.getId(), pageId(hf, 0), Permissions.READ_ONLY));
+        second.commit();
+
+        Transaction recent = new Transaction(true);
+        recent.start();
+        assertEquals(1, tuples(old));
+        assertEquals(emptySlots - 1, ((HeapPage) seen).getNumEmptySlots());
+        assertEquals(2, tuples(recent));
+        assertEquals(1, bp.getVersionStore().getNumVersions());
+
+        old.commit();
+        assertEquals(0, bp.getVersionStore().getNumVersions());
+        assertEquals(2, tuples(recent));
+        recent.commit();
+    }
+
+    /** An aborted change is never visible, before or after the abort */
+    @Test public void abortedChange() throws Exception {
+        Transaction reader = new Transaction(true);
+        reader.start();
+        Transaction writer = new Transaction();
+        writer.start();
+        insert(writer, 1);
+        assertEquals(0, tuples(reader));
+        writer.abort();
+        assertEquals(0, tuples(reader));
+        reader.commit();
+    }
+
+    /** A snapshot scan counts the tuples committed before it started */
+    @Test public void seqScan() throws Exception {
+        Transaction writer = new Transaction();
+        writer.start();
+        for (int i = 0; i < 3; i++)
+            bp.insertTuple(writer.getId(), hf.getId(), Utility.getHeapTuple(i));
+        writer.commit();
+
+        Transaction reader = new Transaction(true);
+        reader.start();
+        Transaction other = new Transaction();
+        other.start();
+        bp.insertTuple(other.getId(), hf.getId(), Utility.getHeapTuple(3));
+
+        SeqScan scan = new SeqScan(reader.getId(), hf.getId(), "");
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        assertEquals(3, n);
+        other.commit();
+        reader.commit();
+    }
+
+    @Test(expected = DbException.class) public void readOnlyCannotWrite() throws Exception {
+        Transaction reader = new Transaction(true);
+        reader.start();
+        try {
+            bp.getPage(reader.getId(), pageId(hf, 0), Permissions.READ_WRITE);
+        } finally {
+            reader.commit();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SnapshotIsolationTest.class);
+    }
+}
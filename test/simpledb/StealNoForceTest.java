@@ -0,0 +1,119 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static simpledb.systemtest.SystemTestUtil.pageId;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class StealNoForceTest extends SimpleDbTestBase {
+
+    private static final int TABLE_PAGES = 8;
+
+    private HeapFile hf;
+    private int emptySlots;
+
+    @Before public void setUp() throws Exception {
+        hf = SystemTestUtil.createEmptyHeapFile("steal", TABLE_PAGES);
+        emptySlots = ((HeapPage) hf.readPage(pageId(hf, 0))).getNumEmptySlots();
+    }
+
+    /** insert a tuple into each of the first n pages of the table */
+    private void dirtyPages(BufferPool bp, TransactionId tid, int n) throws Exception {
+        for (int i = 0; i < n; i++) {
+            HeapPage p = (HeapPage) bp.getPage(tid, pageId(hf, i), Permissions.READ_WRITE);
+            p.insertTuple(Utility.getHeapTuple(i));
+            p.markDirty(true, tid);
+        }
+    }
+
+    /** @return the number of tuples page pgNo holds on disk */
+    private int tuplesOnDisk(int pgNo) {
+        return emptySlots - ((HeapPage) hf.readPage(pageId(hf, pgNo))).getNumEmptySlots();
+    }
+
+    /**
+     * A transaction can dirty more pages than the pool holds; the pages
+     * that did not fit were written out and are read back with its changes
+     */
+    @Test public void transactionLargerThanPool() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.stealNoForce(2));
+        assertTrue(bp.isSteal());
+        Transaction t = new Transaction();
+        t.start();
+        dirtyPages(bp, t.getId(), TABLE_PAGES);
+        assertTrue(bp.getPagesStolen() >= TABLE_PAGES - 2);
+        assertEquals(1, tuplesOnDisk(0));
+
+        HeapPage p = (HeapPage) bp.getPage(t.getId(), pageId(hf, 0), Permissions.READ_ONLY);
+        assertEquals(emptySlots - 1, p.getNumEmptySlots());
+        t.commit();
+    }
+
+    /**
+     * Commit only forces the log; the cleaner writes the pages afterwards
+     */
+    @Test public void commitDoesNotWritePages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.stealNoForce(TABLE_PAGES));
+        Transaction t = new Transaction();
+        t.start();
+        dirtyPages(bp, t.getId(), 3);
+        t.commit();
+        assertEquals(0, bp.getPagesStolen());
+        assertEquals(0, tuplesOnDisk(0));
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bp.getPagesCleaned() < 3) {
+            assertTrue("cleaner did not write the pages", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        for (int i = 0; i < 3; i++) {
+            assertEquals(1, tuplesOnDisk(i));
+            assertEquals(null, bp.getPage(new TransactionId(), pageId(hf, i), Permissions.READ_ONLY).isDirty());
+        }
+    }
+
+    /**
+     * Aborting a transaction whose pages were stolen puts back the last
+     * committed contents, including committed changes the cleaner has not
+     * written yet
+     */
+    @Test public void abortUndoesStolenPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.stealNoForce(2));
+        Transaction t1 = new Transaction();
+        t1.start();
+        dirtyPages(bp, t1.getId(), 1);
+        t1.commit();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        dirtyPages(bp, t2.getId(), TABLE_PAGES);
+        assertTrue(bp.getPagesStolen() > 0);
+        assertFalse(bp.isCached(pageId(hf, 0)));
+        t2.abort();
+
+        assertEquals(1, tuplesOnDisk(0));
+        for (int i = 1; i < TABLE_PAGES; i++) {
+            assertEquals(0, tuplesOnDisk(i));
+        }
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < TABLE_PAGES; i++) {
+            HeapPage p = (HeapPage) bp.getPage(tid, pageId(hf, i), Permissions.READ_ONLY);
+            assertEquals(i == 0 ? emptySlots - 1 : emptySlots, p.getNumEmptySlots());
+        }
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StealNoForceTest.class);
+    }
+}
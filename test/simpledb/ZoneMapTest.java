@@ -0,0 +1,195 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+
+    private File f;
+    private HeapFile hf;
+
+    /** A table of ROWS tuples (i, i % 10) in order of i */
+    @Before public void setUp() throws Exception {
+        f = File.createTempFile("zonemap", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".zm").deleteOnExit();
+        hf = new HeapFile(f, Utility.getTupleDesc(2, "field"));
+        Database.getCatalog().addTable(hf, "zm" + SystemTestUtil.getUUID().replace("-", ""));
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < ROWS; i++)
+            Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(new int[] {i, i % 10}));
+        t.commit();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /** @return the tuples of a scan with a predicate, and the pages it read from disk */
+    private int[] scan(Predicate p) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        long misses = Database.getBufferPool().getMisses();
+        SeqScan scan = new SeqScan(t.getId(), hf.getId());
+        scan.addPredicate(p);
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            assertTrue(p.filter(scan.next()));
+            n++;
+        }
+        scan.close();
+        t.commit();
+        return new int[] {n, (int) (Database.getBufferPool().getMisses() - misses)};
+    }
+
+    private static Predicate pred(int field, Predicate.Op op, int value) {
+        return new Predicate(field, op, new IntField(value));
+    }
+
+    /** Once pages are summarized, a range scan reads only those that may match */
+    @Test public void skipsPages() throws Exception {
+        int[] first = scan(pred(0, Predicate.Op.LESS_THAN, 100));
+        assertEquals(100, first[0]);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        int[] again = scan(pred(0, Predicate.Op.LESS_THAN, 100));
+        assertEquals(100, again[0]);
+        assertEquals(1, again[1]);
+        assertEquals(1, scan(pred(0, Predicate.Op.EQUALS, ROWS - 1))[0]);
+        assertEquals(ROWS / 10, scan(pred(1, Predicate.Op.EQUALS, 3))[0]);
+        assertEquals(0, scan(pred(1, Predicate.Op.GREATER_THAN, 9))[0]);
+    }
+
+    /** Inserts widen the ranges, and deletes leave them as they are */
+    @Test public void insertsAndDeletes() throws Exception {
+        scan(pred(0, Predicate.Op.EQUALS, 0));
+        Transaction t = new Transaction();
+        t.start();
+        Tuple first = null;
+        SeqScan all = new SeqScan(t.getId(), hf.getId());
+        all.open();
+        while (all.hasNext()) {
+            Tuple tup = all.next();
+            if (((IntField) tup.getField(0)).getValue() == 0)
+                first = tup;
+        }
+        all.close();
+        Database.getBufferPool().deleteTuple(t.getId(), first);
+        Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(new int[] {-7, 42}));
+        t.commit();
+
+        assertEquals(1, scan(pred(1, Predicate.Op.EQUALS, 42))[0]);
+        assertEquals(0, scan(pred(0, Predicate.Op.EQUALS, 0))[0]);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(1, scan(pred(0, Predicate.Op.LESS_THAN_OR_EQ, -7))[0]);
+    }
+
+    /** The summaries are kept in the sidecar, which covers pages written after a delete is rolled back */
+    @Test public void sidecar() throws Exception {
+        scan(pred(0, Predicate.Op.EQUALS, 0));
+        ZoneMap zm = new ZoneMap(f, hf.getTupleDesc());
+        int last = hf.numPages() - 1;
+        assertTrue(zm.mayMatch(0, 0, Predicate.Op.EQUALS, 0));
+        assertFalse(zm.mayMatch(last, 0, Predicate.Op.EQUALS, 0));
+        assertFalse(zm.mayMatch(0, 0, Predicate.Op.GREATER_THAN_OR_EQ, ROWS));
+        assertTrue(zm.mayMatch(last, 0, Predicate.Op.GREATER_THAN_OR_EQ, ROWS - 1));
+        assertTrue(zm.mayMatch(0, 1, Predicate.Op.NOT_EQUALS, 0));
+
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan all = new SeqScan(t.getId(), hf.getId());
+        all.open();
+        while (all.hasNext())
+            Database.getBufferPool().deleteTuple(t.getId(), all.next());
+        all.close();
+        t.abort();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(ROWS, scan(pred(1, Predicate.Op.LESS_THAN, 10))[0]);
+        assertEquals(1, scan(pred(0, Predicate.Op.EQUALS, 1234))[0]);
+    }
+
+    /** Writes to a table that has never had a filtered scan make no sidecar */
+    @Test public void sidecarOnlyOnceSummarized() throws Exception {
+        File sidecar = new File(f.getPath() + ".zm");
+        assertFalse(sidecar.exists());
+        assertEquals(1, scan(pred(0, Predicate.Op.EQUALS, 0))[0]);
+        assertTrue(sidecar.exists());
+    }
+
+    /**
+     * A snapshot still sees a row deleted after it started, from a page
+     * first summarized after the delete
+     */
+    @Test public void snapshotSeesDeletedRows() throws Exception {
+        Transaction snapshot = new Transaction(true);
+        snapshot.start();
+
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan all = new SeqScan(t.getId(), hf.getId());
+        all.open();
+        Tuple first = all.next();
+        while (((IntField) first.getField(0)).getValue() != 0)
+            first = all.next();
+        all.close();
+        Database.getBufferPool().deleteTuple(t.getId(), first);
+        t.commit();
+        Database.getBufferPool().discardPage(first.getRecordId().getPageId());
+
+        // another scan reads the page from disk, without the row
+        assertEquals(0, scan(pred(0, Predicate.Op.EQUALS, 0))[0]);
+
+        SeqScan scan = new SeqScan(snapshot.getId(), hf.getId());
+        scan.addPredicate(pred(0, Predicate.Op.EQUALS, 0));
+        scan.open();
+        assertTrue(scan.hasNext());
+        assertEquals(0, ((IntField) scan.next().getField(0)).getValue());
+        assertFalse(scan.hasNext());
+        scan.close();
+        snapshot.commit();
+    }
+
+    /** The planner gives filters on int fields to the scan */
+    @Test public void plannerPushesFilters() throws Exception {
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put(Database.getCatalog().getTableName(hf.getId()), new TableStats(hf.getId(), 1));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        scan(pred(0, Predicate.Op.EQUALS, 0));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Transaction t = new Transaction();
+        t.start();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "z");
+        lp.addFilter("z.field0", Predicate.Op.GREATER_THAN_OR_EQ, "" + (ROWS - 10));
+        lp.addProjectField("z.field0", null);
+        OpIterator plan = lp.physicalPlan(t.getId(), stats, false);
+        long misses = Database.getBufferPool().getMisses();
+        plan.open();
+        int n = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            n++;
+        }
+        plan.close();
+        t.commit();
+        assertEquals(10, n);
+        assertEquals(1, Database.getBufferPool().getMisses() - misses);
+    }
+
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
@@ -0,0 +1,107 @@
+package simpledb.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures getPage and commit throughput of the BufferPool as the number of
+ * client threads grows, with and without partitioning.
+ * <p>
+ * getPage: each thread runs short read-only transactions of Zipfian page
+ * reads.  commit: each thread repeatedly dirties one of its own pages and
+ * commits, which flushes the page and forces the log.
+ * <p>
+ * Run with: ant runbench -Dbench=BufferPoolScalingBenchmark
+ */
+public class BufferPoolScalingBenchmark {
+
+    private static final int TABLE_PAGES = 4000;
+    private static final int POOL_PAGES = 1024;
+    private static final int READS_PER_TXN = 20;
+    private static final long RUN_MS = 2000;
+    private static final int[] THREADS = {1, 2, 4, 8, 16};
+
+    /** One timed workload on one thread */
+    interface Worker {
+        /** @return the number of operations done in this call */
+        int step(BufferPool bp, HeapFile hf, int thread, ZipfianGenerator zipf, Random rnd)
+                throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        HeapFile hf = SystemTestUtil.createEmptyHeapFile("scalebench", TABLE_PAGES);
+
+        int cpus = Runtime.getRuntime().availableProcessors();
+        System.out.printf("table pages %d, pool pages %d, %d cpus, %d ms per run%n",
+                TABLE_PAGES, POOL_PAGES, cpus, RUN_MS);
+
+        Worker reads = (bp, file, thread, zipf, rnd) -> {
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < READS_PER_TXN; i++)
+                bp.getPage(tid, new HeapPageId(file.getId(), zipf.next()), Permissions.READ_ONLY);
+            bp.transactionComplete(tid);
+            return READS_PER_TXN;
+        };
+        int maxThreads = THREADS[THREADS.length - 1];
+        Worker commits = (bp, file, thread, zipf, rnd) -> {
+            // each thread owns every maxThreads-th page, so commits never conflict
+            int pgNo = thread + maxThreads * rnd.nextInt(TABLE_PAGES / maxThreads);
+            TransactionId tid = new TransactionId();
+            Page p = bp.getPage(tid, new HeapPageId(file.getId(), pgNo), Permissions.READ_WRITE);
+            p.markDirty(true, tid);
+            bp.transactionComplete(tid);
+            return 1;
+        };
+
+        for (int partitions : new int[] {1, Math.max(2, cpus)}) {
+            for (int threads : THREADS) {
+                run("getPage", reads, partitions, threads, hf);
+                run("commit", commits, partitions, threads, hf);
+            }
+        }
+    }
+
+    private static void run(String name, Worker worker, int partitions, int threads, HeapFile hf)
+            throws Exception {
+        BufferPool bp = new BufferPool(POOL_PAGES, partitions);
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong ops = new AtomicLong();
+        AtomicLong aborts = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] ts = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            ZipfianGenerator zipf = new ZipfianGenerator(TABLE_PAGES, 0.99, thread);
+            ts[t] = new Thread(() -> {
+                Random rnd = new Random(thread);
+                try {
+                    start.await();
+                    while (!stop.get()) {
+                        try {
+                            ops.addAndGet(worker.step(bp, hf, thread, zipf, rnd));
+                        } catch (TransactionAbortedException e) {
+                            aborts.incrementAndGet();
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            ts[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(RUN_MS);
+        stop.set(true);
+        for (Thread t : ts)
+            t.join();
+        double secs = (System.nanoTime() - begin) / 1e9;
+        System.out.printf("%-8s partitions %2d threads %2d  %10.0f ops/s  aborts %d%n",
+                name, partitions, threads, ops.get() / secs, aborts.get());
+    }
+}
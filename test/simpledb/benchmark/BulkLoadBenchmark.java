@@ -0,0 +1,74 @@
+package simpledb.benchmark;
+
+import java.io.File;
+
+import simpledb.*;
+
+/**
+ * Measures loading {@value #ROWS} rows of two int fields into an empty heap
+ * table in one transaction, through the Insert operator, one
+ * BufferPool.insertTuple per row, and through BulkInsert, which packs them
+ * into new pages.  The pool holds the whole table, and the times include
+ * the commit.  Reported are rows per second.
+ * <p>
+ * Run with: ant runbench -Dbench=BulkLoadBenchmark
+ */
+public class BulkLoadBenchmark {
+
+    private static final int ROWS = 1000000;
+    private static final int POOL_PAGES = 4096;
+
+    /** Generates ROWS tuples without holding them in memory */
+    private static class Rows extends Operator {
+        private static final long serialVersionUID = 1L;
+        private final TupleDesc td = Utility.getTupleDesc(2);
+        private int next;
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void rewind() {
+            next = 0;
+        }
+
+        protected Tuple fetchNext() {
+            if (next == ROWS)
+                return null;
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(next));
+            t.setField(1, new IntField(next++ * 7));
+            return t;
+        }
+
+        public OpIterator[] getChildren() {
+            return new OpIterator[0];
+        }
+
+        public void setChildren(OpIterator[] children) {
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (boolean bulk : new boolean[] {false, true, false, true}) {
+            File f = File.createTempFile("bulkbench", ".dat");
+            f.deleteOnExit();
+            new File(f.getPath() + ".fsm").deleteOnExit();
+            HeapFile hf = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+            Database.resetBufferPool(POOL_PAGES);
+
+            long start = System.nanoTime();
+            Transaction t = new Transaction();
+            t.start();
+            OpIterator load = bulk ? new BulkInsert(t.getId(), new Rows(), hf.getId())
+                    : new Insert(t.getId(), new Rows(), hf.getId());
+            load.open();
+            int n = ((IntField) load.next().getField(0)).getValue();
+            load.close();
+            t.commit();
+            double secs = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-6s %d rows, %d pages: %10.0f rows/s%n", bulk ? "bulk" : "insert",
+                    n, hf.numPages(), n / secs);
+        }
+    }
+}
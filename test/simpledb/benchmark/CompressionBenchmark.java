@@ -0,0 +1,119 @@
+package simpledb.benchmark;
+
+import java.io.File;
+
+import simpledb.*;
+
+/**
+ * Measures a historical table of {@value #ROWS} rows, a sequential id, two
+ * small ints and a string of a few distinct values each, stored in plain
+ * and in compressed HeapPages, in PAX layout or not.  The tables are bulk
+ * loaded and then read from the OS page cache through a pool of
+ * {@value #POOL_PAGES} pages, so every page is read from the file, and
+ * decompressed, on each scan.  Reported are the bytes of each file, the
+ * compression ratio and the best scan throughput over several rounds.
+ * <p>
+ * Run with: ant runbench -Dbench=CompressionBenchmark
+ */
+public class CompressionBenchmark {
+
+    private static final int ROWS = 300000;
+    private static final int POOL_PAGES = 16;
+    private static final int ROUNDS = 5;
+    private static final String[] REGIONS = {"north", "south", "east", "west", "central",
+            "northeast", "northwest", "southeast", "southwest", "overseas"};
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] {Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE},
+            new String[] {"id", "quantity", "price", "region"});
+
+    /** Generates ROWS tuples in order of id */
+    private static class Rows extends Operator {
+        private static final long serialVersionUID = 1L;
+        private int next;
+
+        public TupleDesc getTupleDesc() {
+            return TD;
+        }
+
+        public void rewind() {
+            next = 0;
+        }
+
+        protected Tuple fetchNext() {
+            if (next == ROWS)
+                return null;
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(next));
+            t.setField(1, new IntField(next * 7 % 50));
+            t.setField(2, new IntField(next * 13 % 1000));
+            t.setField(3, new StringField(REGIONS[next * 3 % REGIONS.length], Type.STRING_LEN));
+            next++;
+            return t;
+        }
+
+        public OpIterator[] getChildren() {
+            return new OpIterator[0];
+        }
+
+        public void setChildren(OpIterator[] children) {
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        long plain = 0;
+        for (boolean pax : new boolean[] {false, true}) {
+            for (boolean compressed : new boolean[] {false, true}) {
+                File f = File.createTempFile("compressionbench", ".dat");
+                f.delete();
+                f.deleteOnExit();
+                File map = new File(f.getPath() + ".map");
+                map.deleteOnExit();
+                HeapFile hf = new HeapFile(f, TD, pax, compressed);
+                Database.getCatalog().addTable(hf, "compressionbench" + pax + compressed);
+                Database.resetBufferPool(POOL_PAGES);
+                Transaction t = new Transaction();
+                t.start();
+                Rows rows = new Rows();
+                rows.open();
+                long start = System.nanoTime();
+                Database.getBufferPool().bulkLoad(t.getId(), hf.getId(), rows);
+                t.commit();
+                double load = (System.nanoTime() - start) / 1e6;
+
+                long bytes = compressed ? f.length() + map.length()
+                        : (long) hf.numPages() * BufferPool.getPageSize();
+                if (!compressed)
+                    plain = bytes;
+                scan(hf);
+                System.out.printf("%-4s %-10s %6d pages %10d bytes (ratio %5.1f): load %7.1f ms, scan %6.2f M rows/s%n",
+                        pax ? "pax" : "heap", compressed ? "compressed" : "plain", hf.numPages(), bytes,
+                        (double) plain / bytes, load, ROWS / scan(hf) / 1e3);
+            }
+        }
+    }
+
+    /** @return the best time of full scans in ms */
+    private static double scan(HeapFile hf) throws Exception {
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            Database.resetBufferPool(POOL_PAGES);
+            Transaction t = new Transaction();
+            t.start();
+            long start = System.nanoTime();
+            SeqScan scan = new SeqScan(t.getId(), hf.getId());
+            scan.open();
+            int n = 0;
+            while (scan.hasNext()) {
+                scan.next();
+                n++;
+            }
+            scan.close();
+            best = Math.min(best, (System.nanoTime() - start) / 1e6);
+            t.commit();
+            if (n != ROWS)
+                throw new IllegalStateException("scanned " + n + " rows");
+        }
+        return best;
+    }
+}
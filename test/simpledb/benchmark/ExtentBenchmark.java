@@ -0,0 +1,44 @@
+package simpledb.benchmark;
+
+import java.io.File;
+
+import simpledb.*;
+
+/**
+ * Measures growing a file by one page at a time, the way HeapFile and
+ * BTreeFile append pages, through {@link PageIO} with extents of several
+ * sizes, 0 being one page per append.  Reported is the best mean time per
+ * appended page over several rounds, each into a new file.
+ * <p>
+ * Run with: ant runbench -Dbench=ExtentBenchmark
+ */
+public class ExtentBenchmark {
+
+    private static final int PAGES = 16384;
+    private static final int ROUNDS = 3;
+    private static final long[] EXTENTS = {0, 1 << 20, 16 << 20, 64 << 20};
+
+    public static void main(String[] args) throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        System.out.printf("%d pages of %d bytes appended, best of %d%n", PAGES, pageSize, ROUNDS);
+        byte[] page = new byte[pageSize];
+        for (long extent : EXTENTS) {
+            double best = Double.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                File f = File.createTempFile("extentbench", ".dat");
+                f.deleteOnExit();
+                PageIO io = new PageIO(f, extent);
+                long start = System.nanoTime();
+                for (int i = 0; i < PAGES; i++) {
+                    page[0] = (byte) i;
+                    io.write(io.size(), page);
+                }
+                best = Math.min(best, (System.nanoTime() - start) / 1e3 / PAGES);
+                io.close();
+                f.delete();
+                PageIO.reset(f);
+            }
+            System.out.printf("extent %8d KB: %8.2f us per page%n", extent >> 10, best);
+        }
+    }
+}
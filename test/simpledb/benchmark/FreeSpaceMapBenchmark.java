@@ -0,0 +1,55 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures insert throughput into a full table of 1M rows that fits in the
+ * BufferPool, with inserts finding a page with room through the
+ * free-space map and by probing every page in order.  Without a sidecar
+ * file the map takes all pages to have room, so the first insert probes
+ * the whole table once; it runs as a warm-up before the measured inserts,
+ * along with a scan that brings the table into the pool.  Reported are
+ * inserts per second, in transactions of {@value #PER_TXN} rows.
+ * <p>
+ * Run with: ant runbench -Dbench=FreeSpaceMapBenchmark
+ */
+public class FreeSpaceMapBenchmark {
+
+    private static final int ROWS = 1000000;
+    private static final int INSERTS = 2000;
+    private static final int PER_TXN = 100;
+
+    public static void main(String[] args) throws Exception {
+        run("probing", false);
+        run("map", true);
+    }
+
+    private static void run(String name, boolean map) throws Exception {
+        System.setProperty(HeapFile.FREE_SPACE_MAP_PROPERTY, Boolean.toString(map));
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, ROWS, null, null);
+        Database.resetBufferPool(hf.numPages() + 64);
+
+        Transaction warm = new Transaction();
+        warm.start();
+        DbFileIterator it = hf.iterator(warm.getId());
+        it.open();
+        while (it.hasNext())
+            it.next();
+        it.close();
+        Database.getBufferPool().insertTuple(warm.getId(), hf.getId(), Utility.getHeapTuple(0, 2));
+        warm.commit();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < INSERTS; i += PER_TXN) {
+            Transaction t = new Transaction();
+            t.start();
+            for (int j = 0; j < PER_TXN; j++)
+                Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(i + j, 2));
+            t.commit();
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-8s %d rows, %d pages: %8.0f inserts/s%n", name, ROWS, hf.numPages(),
+                INSERTS / secs);
+    }
+}
@@ -0,0 +1,71 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.*;
+
+/**
+ * Measures commits per second of the LogFile as the number of concurrent
+ * committers grows, with synchronous forces and with group commit.
+ * <p>
+ * Each committer repeatedly logs a BEGIN and a COMMIT record, so every
+ * commit waits for an fsync of the log.  Group commit is run without a
+ * delay and with a 200 microsecond delay.
+ * <p>
+ * Run with: ant runbench -Dbench=GroupCommitBenchmark
+ */
+public class GroupCommitBenchmark {
+
+    private static final long RUN_MS = 2000;
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32};
+
+    public static void main(String[] args) throws Exception {
+        System.out.printf("%d ms per run%n", RUN_MS);
+        for (int threads : THREADS) {
+            run("sync", false, 0, threads);
+            run("group", true, 0, threads);
+            run("group+200us", true, 200, threads);
+        }
+    }
+
+    private static void run(String name, boolean groupCommit, long delayMicros, int threads)
+            throws Exception {
+        File f = File.createTempFile("commitbench", ".log");
+        f.deleteOnExit();
+        LogFile log = new LogFile(f, groupCommit, delayMicros, threads);
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong commits = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] ts = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            ts[t] = new Thread(() -> {
+                try {
+                    start.await();
+                    while (!stop.get()) {
+                        TransactionId tid = new TransactionId();
+                        log.logXactionBegin(tid);
+                        log.logCommit(tid);
+                        commits.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            ts[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(RUN_MS);
+        stop.set(true);
+        for (Thread t : ts)
+            t.join();
+        double secs = (System.nanoTime() - begin) / 1e9;
+        System.out.printf("%-12s committers %2d  %10.0f commits/s  %8.1f commits/force%n",
+                name, threads, commits.get() / secs,
+                (double) commits.get() / Math.max(1, log.getForceCount()));
+        f.delete();
+    }
+}
@@ -0,0 +1,85 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures decoding full heap pages of {@value #COLUMNS} int fields: only
+ * building the HeapPage from its bytes, building it and materializing
+ * every tuple through its iterator, and building it and reading one column
+ * of every used slot with {@link HeapPage#getInt}.  Then measures full
+ * SeqScans, summing one column, of a table held by the BufferPool (warm)
+ * and of one read from the OS page cache through a pool of
+ * {@value #COLD_POOL_PAGES} pages (cold).
+ * Reported is the best mean time per page over several rounds.
+ * <p>
+ * Run with: ant runbench -Dbench=HeapPageDecodeBenchmark
+ */
+public class HeapPageDecodeBenchmark {
+
+    private static final int ROWS = 200000;
+    private static final int COLUMNS = 4;
+    private static final int POOL_PAGES = 2048;
+    private static final int COLD_POOL_PAGES = 16;
+    private static final int DECODES = 20000;
+    private static final int ROUNDS = 5;
+
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, null);
+        Database.resetBufferPool(POOL_PAGES);
+        HeapPageId pid = new HeapPageId(heap.getId(), 0);
+        byte[] data = heap.readPage(pid).getPageData();
+        System.out.printf("%d rows, %d pages, best of %d%n", ROWS, heap.numPages(), ROUNDS);
+        for (String mode : new String[] {"decode", "tuples", "column"})
+            decode(mode, pid, data);
+        for (String mode : new String[] {"decode", "tuples", "column"})
+            System.out.printf("%-6s %8.3f us per page%n", mode, decode(mode, pid, data));
+        scan(heap);
+        System.out.printf("%-6s %8.3f us per page%n", "warm", scan(heap));
+        Database.resetBufferPool(COLD_POOL_PAGES);
+        scan(heap);
+        System.out.printf("%-6s %8.3f us per page%n", "cold", scan(heap));
+    }
+
+    /** @return the best mean time per page of decoding the page DECODES times */
+    private static double decode(String mode, HeapPageId pid, byte[] data) throws Exception {
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < DECODES; i++) {
+                HeapPage page = new HeapPage(pid, data);
+                if (mode.equals("tuples")) {
+                    java.util.Iterator<Tuple> it = page.iterator();
+                    while (it.hasNext())
+                        sink += ((IntField) it.next().getField(1)).getValue();
+                } else if (mode.equals("column")) {
+                    for (int slot = 0; slot < page.getNumSlots(); slot++)
+                        if (page.isSlotUsed(slot))
+                            sink += page.getInt(slot, 1);
+                }
+            }
+            best = Math.min(best, (System.nanoTime() - start) / 1e3 / DECODES);
+        }
+        return best;
+    }
+
+    /** @return the best mean time per page of full scans summing a column */
+    private static double scan(HeapFile heap) throws Exception {
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            Transaction t = new Transaction();
+            t.start();
+            long start = System.nanoTime();
+            SeqScan scan = new SeqScan(t.getId(), heap.getId());
+            scan.open();
+            while (scan.hasNext())
+                sink += ((IntField) scan.next().getField(1)).getValue();
+            scan.close();
+            best = Math.min(best, (System.nanoTime() - start) / 1e3 / heap.numPages());
+            t.commit();
+        }
+        return best;
+    }
+}
@@ -0,0 +1,44 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+
+/**
+ * Measures the locking cost of a full scan of a large table: one
+ * transaction locks every page shared, then releases all its locks.  Runs
+ * with page locks only, with escalation to a table lock past the default
+ * threshold, and with the scan declaring a table lock up front.  Reported
+ * are the time per scan and the locks held at its end.
+ * <p>
+ * Run with: ant runbench -Dbench=LockEscalationBenchmark
+ */
+public class LockEscalationBenchmark {
+
+    private static final int TABLE_PAGES = 100000;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws Exception {
+        System.out.printf("%d pages, best of %d scans%n", TABLE_PAGES, ROUNDS);
+        run("page locks", new LockManager(0, DeadlockDetector.VictimPolicy.YOUNGEST,
+                Integer.MAX_VALUE), false);
+        run("escalation", new LockManager(0, DeadlockDetector.VictimPolicy.YOUNGEST, 1000), false);
+        run("table lock", new LockManager(0, DeadlockDetector.VictimPolicy.YOUNGEST,
+                Integer.MAX_VALUE), true);
+    }
+
+    private static void run(String name, LockManager lm, boolean tableLock) throws Exception {
+        long best = Long.MAX_VALUE;
+        int held = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            TransactionId tid = new TransactionId();
+            long start = System.nanoTime();
+            if (tableLock)
+                lm.acquireTable(tid, 1, LockMode.S);
+            for (int i = 0; i < TABLE_PAGES; i++)
+                lm.acquire(tid, new HeapPageId(1, i), Permissions.READ_ONLY);
+            held = lm.numLocksHeld(tid);
+            lm.releaseAll(tid);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-10s  %8.2f ms per scan  %6d locks held%n", name, best / 1e6, held);
+    }
+}
@@ -0,0 +1,83 @@
+package simpledb.benchmark;
+
+import java.util.Random;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures reads of tables in the OS page cache through a BufferPool too
+ * small to hold them, so that nearly every page access is a miss, with
+ * the tables read through their channel (the default) and through a
+ * memory mapping: full scans of a heap file, and point lookups of random
+ * keys in a B+ tree.  Reported is the best mean time per scanned page and
+ * per lookup over several rounds.
+ * <p>
+ * Run with: ant runbench -Dbench=MappedReadBenchmark
+ */
+public class MappedReadBenchmark {
+
+    private static final int ROWS = 500000;
+    private static final int COLUMNS = 4;
+    private static final int POOL_PAGES = 16;
+    private static final int LOOKUPS = 20000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, null);
+        BTreeFile tree = BTreeUtility.createRandomBTreeFile(COLUMNS, ROWS, ROWS, null, null, 0);
+        Database.resetBufferPool(POOL_PAGES);
+        System.out.printf("heap pages %d, tree pages %d, pool pages %d, best of %d%n",
+                heap.numPages(), tree.numPages(), POOL_PAGES, ROUNDS);
+        for (boolean mapped : new boolean[] {false, true}) {
+            Database.getCatalog().setMapped(heap.getId(), mapped);
+            Database.getCatalog().setMapped(tree.getId(), mapped);
+            String name = mapped ? "mapped" : "channel";
+            scan(heap);
+            lookups(tree);
+            System.out.printf("%-8s scan   %8.2f us per page%n", name, scan(heap));
+            System.out.printf("%-8s lookup %8.2f us per key%n", name, lookups(tree));
+        }
+    }
+
+    /** @return the best mean time per page of full scans */
+    private static double scan(HeapFile heap) throws Exception {
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            Transaction t = new Transaction();
+            t.start();
+            long start = System.nanoTime();
+            DbFileIterator it = heap.iterator(t.getId());
+            it.open();
+            while (it.hasNext())
+                it.next();
+            it.close();
+            best = Math.min(best, (System.nanoTime() - start) / 1e3 / heap.numPages());
+            t.commit();
+        }
+        return best;
+    }
+
+    /** @return the best mean time per lookup of random keys */
+    private static double lookups(BTreeFile tree) throws Exception {
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            Random rnd = new Random(round);
+            Transaction t = new Transaction();
+            t.start();
+            long start = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; i++) {
+                IndexPredicate ipred = new IndexPredicate(Predicate.Op.EQUALS,
+                        new IntField(rnd.nextInt(ROWS)));
+                DbFileIterator it = tree.indexIterator(t.getId(), ipred);
+                it.open();
+                while (it.hasNext())
+                    it.next();
+                it.close();
+            }
+            best = Math.min(best, (System.nanoTime() - start) / 1e3 / LOOKUPS);
+            t.commit();
+        }
+        return best;
+    }
+}
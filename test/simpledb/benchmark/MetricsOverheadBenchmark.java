@@ -0,0 +1,96 @@
+package simpledb.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures the cost of the Metrics instrumentation: BufferPool.getPage
+ * throughput on pages that are all cached, with the instrumentation on and
+ * off, as the number of threads grows.  After a warm-up run, the two
+ * settings are run alternately a few times and the best of each compared.
+ * <p>
+ * Run with: ant runbench -Dbench=MetricsOverheadBenchmark
+ */
+public class MetricsOverheadBenchmark {
+
+    private static final int TABLE_PAGES = 512;
+    private static final int BATCH = 100;
+    private static final long RUN_MS = 1000;
+    private static final int ROUNDS = 3;
+    private static final int[] THREADS = {1, 4, 8};
+
+    public static void main(String[] args) throws Exception {
+        HeapFile hf = SystemTestUtil.createEmptyHeapFile("metricsbench", TABLE_PAGES);
+
+        BufferPool bp = new BufferPool(TABLE_PAGES);
+        TransactionId warm = new TransactionId();
+        for (int i = 0; i < TABLE_PAGES; i++)
+            bp.getPage(warm, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        bp.transactionComplete(warm);
+
+        System.out.printf("%d cached pages, %d ms per run%n", TABLE_PAGES, RUN_MS);
+        run(bp, hf, 1, true, false);
+        for (int threads : THREADS) {
+            double off = 0, on = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                off = Math.max(off, run(bp, hf, threads, false, true));
+                on = Math.max(on, run(bp, hf, threads, true, true));
+            }
+            System.out.printf("threads %2d  best of %d: overhead %5.1f%%%n",
+                    threads, ROUNDS, 100 * (off - on) / off);
+        }
+    }
+
+    /** @return getPage calls per second */
+    private static double run(BufferPool bp, HeapFile hf, int threads, boolean metrics,
+            boolean print) throws Exception {
+        Metrics.setEnabled(metrics);
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong ops = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] ts = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final long seed = t;
+            ts[t] = new Thread(() -> {
+                Random rnd = new Random(seed);
+                long n = 0;
+                // one long transaction, so that reads after the first of a
+                // page only take the lock manager's fast path
+                TransactionId tid = new TransactionId();
+                try {
+                    start.await();
+                    while (!stop.get()) {
+                        for (int i = 0; i < BATCH; i++) {
+                            bp.getPage(tid, new HeapPageId(hf.getId(), rnd.nextInt(TABLE_PAGES)),
+                                    Permissions.READ_ONLY);
+                        }
+                        n += BATCH;
+                    }
+                    bp.transactionComplete(tid);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                ops.addAndGet(n);
+            });
+            ts[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(RUN_MS);
+        stop.set(true);
+        for (Thread t : ts)
+            t.join();
+        double perSec = ops.get() / ((System.nanoTime() - begin) / 1e9);
+        if (print) {
+            System.out.printf("threads %2d  metrics %-3s  %12.0f getPage/s%n",
+                    threads, metrics ? "on" : "off", perSec);
+        }
+        Metrics.setEnabled(true);
+        return perSec;
+    }
+}
@@ -0,0 +1,128 @@
+package simpledb.benchmark;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures a mixed workload: reader threads scan a whole table while writer
+ * threads update random pages of it, each update a transaction of two
+ * pages.  Readers run once as ordinary transactions, taking shared locks,
+ * and once as read-only snapshot transactions, which take none.  Reported
+ * are scans and writer commits per second, and how many transactions of
+ * each kind aborted.
+ * <p>
+ * Run with: ant runbench -Dbench=MvccBenchmark
+ */
+public class MvccBenchmark {
+
+    private static final int TABLE_PAGES = 64;
+    private static final int READERS = 4;
+    private static final int WRITERS = 4;
+    private static final long RUN_MS = 3000;
+
+    public static void main(String[] args) throws Exception {
+        HeapFile hf = SystemTestUtil.createEmptyHeapFile("mvccbench", TABLE_PAGES);
+
+        System.out.printf("%d pages, %d readers, %d writers, %d ms per run%n",
+                TABLE_PAGES, READERS, WRITERS, RUN_MS);
+        run(hf, false);
+        run(hf, true);
+    }
+
+    private static void run(HeapFile hf, boolean snapshot) throws Exception {
+        Database.resetBufferPool(TABLE_PAGES * 2);
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong scans = new AtomicLong(), readerAborts = new AtomicLong();
+        AtomicLong commits = new AtomicLong(), writerAborts = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] ts = new Thread[READERS + WRITERS];
+        for (int t = 0; t < ts.length; t++) {
+            final boolean reader = t < READERS;
+            final long seed = t;
+            ts[t] = new Thread(() -> {
+                Random rnd = new Random(seed);
+                try {
+                    start.await();
+                    while (!stop.get()) {
+                        if (reader) {
+                            if (scan(hf, snapshot))
+                                scans.incrementAndGet();
+                            else
+                                readerAborts.incrementAndGet();
+                        } else {
+                            if (update(hf, rnd))
+                                commits.incrementAndGet();
+                            else
+                                writerAborts.incrementAndGet();
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            ts[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(RUN_MS);
+        stop.set(true);
+        for (Thread t : ts)
+            t.join();
+        double secs = (System.nanoTime() - begin) / 1e9;
+        System.out.printf("%-8s readers %8.1f scans/s (%d aborted)  writers %8.1f txns/s (%d aborted)"
+                + "  versions left %d%n",
+                snapshot ? "snapshot" : "locking", scans.get() / secs, readerAborts.get(),
+                commits.get() / secs, writerAborts.get(),
+                Database.getBufferPool().getVersionStore().getNumVersions());
+    }
+
+    /** Read every page of the table; @return false if the scan aborted */
+    private static boolean scan(HeapFile hf, boolean snapshot) throws Exception {
+        Transaction t = new Transaction(snapshot);
+        t.start();
+        try {
+            for (int i = 0; i < TABLE_PAGES; i++) {
+                HeapPage p = (HeapPage) Database.getBufferPool().getPage(t.getId(),
+                        new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+                Iterator<Tuple> it = p.iterator();
+                while (it.hasNext())
+                    it.next();
+            }
+            t.commit();
+            return true;
+        } catch (TransactionAbortedException e) {
+            t.abort();
+            return false;
+        }
+    }
+
+    /**
+     * Add a tuple to two random pages, first removing one from pages that
+     * are full; @return false if the transaction aborted
+     */
+    private static boolean update(HeapFile hf, Random rnd) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        try {
+            for (int i = 0; i < 2; i++) {
+                HeapPage p = (HeapPage) Database.getBufferPool().getPage(t.getId(),
+                        new HeapPageId(hf.getId(), rnd.nextInt(TABLE_PAGES)), Permissions.READ_WRITE);
+                if (p.getNumEmptySlots() == 0)
+                    p.deleteTuple(p.iterator().next());
+                p.insertTuple(Utility.getHeapTuple(rnd.nextInt()));
+                p.markDirty(true, t.getId());
+            }
+            t.commit();
+            return true;
+        } catch (TransactionAbortedException e) {
+            t.abort();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures the latency of reading single pages from a file that is in the
+ * OS page cache, sequentially and in random order: the old way, opening a
+ * stream per read and skipping to the page, against {@link PageIO}'s
+ * positional reads on one open channel.  Reported is the best mean time
+ * per page over several rounds.
+ * <p>
+ * Run with: ant runbench -Dbench=PageIOBenchmark
+ */
+public class PageIOBenchmark {
+
+    private static final int FILE_PAGES = 4096;
+    private static final int READS = 20000;
+    private static final int ROUNDS = 5;
+
+    private interface PageReader {
+        void read(int pageNo, byte[] buf) throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        File f = File.createTempFile("pageiobench", ".dat");
+        f.deleteOnExit();
+        int pageSize = BufferPool.getPageSize();
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        byte[] page = new byte[pageSize];
+        for (int i = 0; i < FILE_PAGES; i++) {
+            page[0] = (byte) i;
+            raf.write(page);
+        }
+        raf.close();
+
+        PageReader stream = (pageNo, buf) -> {
+            InputStream is = new FileInputStream(f);
+            is.skip((long) pageNo * pageSize);
+            is.read(buf);
+            is.close();
+        };
+        PageIO io = new PageIO(f);
+        PageReader channel = (pageNo, buf) -> io.read((long) pageNo * pageSize, buf);
+
+        System.out.printf("%d pages of %d bytes, %d reads per round, best of %d%n",
+                FILE_PAGES, pageSize, READS, ROUNDS);
+        // warm up the JIT and the page cache
+        for (int i = 0; i < READS; i++) {
+            stream.read(i % FILE_PAGES, page);
+            channel.read(i % FILE_PAGES, page);
+        }
+        for (boolean random : new boolean[] {false, true}) {
+            run("stream", stream, random);
+            run("PageIO", channel, random);
+        }
+        io.close();
+    }
+
+    private static void run(String name, PageReader reader, boolean random) throws IOException {
+        byte[] buf = new byte[BufferPool.getPageSize()];
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            Random rnd = new Random(round);
+            long start = System.nanoTime();
+            for (int i = 0; i < READS; i++)
+                reader.read(random ? rnd.nextInt(FILE_PAGES) : i % FILE_PAGES, buf);
+            best = Math.min(best, (System.nanoTime() - start) / 1e3 / READS);
+        }
+        System.out.printf("%-6s %-10s %8.2f us per page%n", name, random ? "random" : "sequential",
+                best);
+    }
+}
@@ -0,0 +1,82 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.*;
+
+/**
+ * Measures insert throughput of 1 to 8 threads, each running transactions
+ * of {@value #PER_TXN} inserts into one heap table, with each transaction
+ * filling an insert page of its own and with all of them taking the first
+ * page with room.  Reported are inserts per second, lock waits and aborted
+ * transactions.
+ * <p>
+ * Run with: ant runbench -Dbench=ParallelInsertBenchmark
+ */
+public class ParallelInsertBenchmark {
+
+    private static final int PER_TXN = 100;
+    private static final long RUN_MS = 3000;
+    private static final int POOL_PAGES = 4096;
+
+    public static void main(String[] args) throws Exception {
+        System.out.printf("%d cpus, %d inserts per transaction, %d ms per run%n",
+                Runtime.getRuntime().availableProcessors(), PER_TXN, RUN_MS);
+        for (boolean own : new boolean[] {false, true}) {
+            for (int threads = 1; threads <= 8; threads *= 2)
+                run(own ? "own page" : "shared", own, threads);
+        }
+    }
+
+    private static void run(String name, boolean own, int threads) throws Exception {
+        System.setProperty(HeapFile.INSERT_PAGES_PROPERTY, Boolean.toString(own));
+        File f = File.createTempFile("insertbench", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        HeapFile hf = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        Database.resetBufferPool(POOL_PAGES);
+        LockManager lm = Database.getBufferPool().getLockManager();
+        long waits = lm.getLockWaits();
+
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong inserts = new AtomicLong(), aborts = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] ts = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            ts[i] = new Thread(() -> {
+                try {
+                    start.await();
+                    while (!stop.get()) {
+                        Transaction t = new Transaction();
+                        t.start();
+                        try {
+                            for (int j = 0; j < PER_TXN; j++)
+                                Database.getBufferPool().insertTuple(t.getId(), hf.getId(),
+                                        Utility.getHeapTuple(j, 2));
+                            t.commit();
+                            inserts.addAndGet(PER_TXN);
+                        } catch (TransactionAbortedException e) {
+                            t.abort();
+                            aborts.incrementAndGet();
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            ts[i].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(RUN_MS);
+        stop.set(true);
+        for (Thread t : ts)
+            t.join();
+        double secs = (System.nanoTime() - begin) / 1e9;
+        System.out.printf("%-8s %d threads: %8.0f inserts/s, %6d lock waits, %4d aborts%n", name,
+                threads, inserts.get() / secs, lm.getLockWaits() - waits, aborts.get());
+    }
+}
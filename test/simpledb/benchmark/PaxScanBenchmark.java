@@ -0,0 +1,115 @@
+package simpledb.benchmark;
+
+import java.io.File;
+
+import simpledb.*;
+
+/**
+ * Measures SUM(field3) over a table of {@value #ROWS} rows of
+ * {@value #COLUMNS} int fields, held by the BufferPool, stored in
+ * fixed-width HeapPages (heap) and in PaxHeapPages (pax): summing the
+ * tuples of a SeqScan of all fields, of a SeqScan of field3 only, and the
+ * column vectors read with HeapPage.readInts.  The sum is a long, as it
+ * overflows the int sum of Aggregate.
+ * Reported is the best time per row over several rounds.
+ * <p>
+ * Run with: ant runbench -Dbench=PaxScanBenchmark
+ */
+public class PaxScanBenchmark {
+
+    private static final int ROWS = 200000;
+    private static final int COLUMNS = 16;
+    private static final int POOL_PAGES = 8192;
+    private static final int ROUNDS = 7;
+    private static final int FIELD = 3;
+
+    /** Generates ROWS tuples without holding them in memory */
+    private static class Rows extends Operator {
+        private static final long serialVersionUID = 1L;
+        private final TupleDesc td = Utility.getTupleDesc(COLUMNS);
+        private int next;
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void rewind() {
+            next = 0;
+        }
+
+        protected Tuple fetchNext() {
+            if (next == ROWS)
+                return null;
+            Tuple t = new Tuple(td);
+            for (int j = 0; j < COLUMNS; j++)
+                t.setField(j, new IntField(next * (j + 1)));
+            next++;
+            return t;
+        }
+
+        public OpIterator[] getChildren() {
+            return new OpIterator[0];
+        }
+
+        public void setChildren(OpIterator[] children) {
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Database.resetBufferPool(POOL_PAGES);
+        for (boolean pax : new boolean[] {false, true}) {
+            File f = File.createTempFile("paxbench", ".dat");
+            f.deleteOnExit();
+            HeapFile hf = new HeapFile(f, Utility.getTupleDesc(COLUMNS, "field"), pax);
+            Database.getCatalog().addTable(hf, "paxbench" + pax);
+            Transaction t = new Transaction();
+            t.start();
+            Rows rows = new Rows();
+            rows.open();
+            Database.getBufferPool().bulkLoad(t.getId(), hf.getId(), rows);
+            t.commit();
+
+            String layout = pax ? "pax" : "heap";
+            for (String mode : new String[] {"all", "field3", "vector"}) {
+                run(hf, mode);
+                System.out.printf("%-4s %-6s %8.2f ns per row%n", layout, mode, run(hf, mode));
+            }
+        }
+    }
+
+    /** @return the best time per row of summing the field */
+    private static double run(HeapFile hf, String mode) throws Exception {
+        double best = Double.MAX_VALUE;
+        long expected = (long) ROWS * (ROWS - 1) / 2 * (FIELD + 1);
+        int[] values = new int[BufferPool.getPageSize()];
+        for (int round = 0; round < ROUNDS; round++) {
+            Transaction t = new Transaction();
+            t.start();
+            long start = System.nanoTime();
+            long sum = 0;
+            if (mode.equals("vector")) {
+                for (int pageNo = 0; pageNo < hf.numPages(); pageNo++) {
+                    HeapPage page = (HeapPage) Database.getBufferPool().getPage(t.getId(),
+                            new HeapPageId(hf.getId(), pageNo), Permissions.READ_ONLY);
+                    int n = page.readInts(FIELD, values);
+                    for (int i = 0; i < n; i++)
+                        sum += values[i];
+                }
+            } else {
+                SeqScan scan = new SeqScan(t.getId(), hf.getId());
+                if (mode.equals("field3"))
+                    scan.setColumns(new int[] {FIELD});
+                scan.open();
+                int field = mode.equals("field3") ? 0 : FIELD;
+                while (scan.hasNext())
+                    sum += ((IntField) scan.next().getField(field)).getValue();
+                scan.close();
+            }
+            best = Math.min(best, (double) (System.nanoTime() - start) / ROWS);
+            t.commit();
+            if (sum != expected)
+                throw new IllegalStateException("sum " + sum + ", expected " + expected);
+        }
+        return best;
+    }
+}
@@ -0,0 +1,113 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Replays a skewed (Zipfian) page access trace, mixed with periodic full
+ * table scans, against BufferPools using different replacement policies
+ * and reports the hit ratio of each.
+ * <p>
+ * "first-clean" reproduces the old eviction rule (first clean page in hash
+ * order) as a baseline.
+ * <p>
+ * Run with: ant runbench -Dbench=ReplacementPolicyBenchmark
+ */
+public class ReplacementPolicyBenchmark {
+
+    private static final int TABLE_PAGES = 1000;
+    private static final int POOL_PAGES = 100;
+    private static final int ACCESSES = 100000;
+    private static final int SCAN_EVERY = 10000;
+    private static final double THETA = 0.99;
+
+    /** HeapFile that counts how often the buffer pool had to read a page */
+    static class CountingHeapFile extends HeapFile {
+        long reads = 0;
+
+        CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads++;
+            return super.readPage(pid);
+        }
+    }
+
+    /** The pre-existing eviction rule: first clean page in hash order */
+    static class FirstCleanPolicy implements ReplacementPolicy {
+        private final Set<PageId> pages = ConcurrentHashMap.newKeySet();
+
+        public void pageAdded(PageId pid) { pages.add(pid); }
+        public void pageAccessed(PageId pid) { }
+        public void pageRemoved(PageId pid) { pages.remove(pid); }
+
+        public PageId chooseVictim(Predicate<PageId> evictable) {
+            for (PageId pid : pages)
+                if (evictable.test(pid))
+                    return pid;
+            return null;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        File f = SystemTestUtil.createEmptyHeapFileUnopened("policybench", TABLE_PAGES);
+
+        CountingHeapFile hf = new CountingHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(hf, "policybench");
+
+        int[] trace = makeTrace();
+        System.out.printf("table pages %d, pool pages %d, accesses %d, zipf theta %.2f, scan every %d%n",
+                TABLE_PAGES, POOL_PAGES, trace.length, THETA, SCAN_EVERY);
+
+        String[] policies = {"first-clean", "clock", "lru-2", "lru-3"};
+        for (String name : policies) {
+            ReplacementPolicy policy = name.equals("first-clean")
+                    ? new FirstCleanPolicy() : ReplacementPolicy.create(name, POOL_PAGES);
+            run(name, new BufferPool(POOL_PAGES, policy), hf, trace);
+        }
+    }
+
+    /** Zipfian page numbers (hot pages scattered over the file) with full scans mixed in */
+    private static int[] makeTrace() {
+        ZipfianGenerator zipf = new ZipfianGenerator(TABLE_PAGES, THETA, 42);
+        List<Integer> perm = new ArrayList<>();
+        for (int i = 0; i < TABLE_PAGES; i++)
+            perm.add(i);
+        Collections.shuffle(perm, new Random(7));
+
+        int[] trace = new int[ACCESSES + (ACCESSES / SCAN_EVERY) * TABLE_PAGES];
+        int n = 0;
+        for (int i = 0; i < ACCESSES; i++) {
+            trace[n++] = perm.get(zipf.next());
+            if ((i + 1) % SCAN_EVERY == 0) {
+                for (int p = 0; p < TABLE_PAGES; p++)
+                    trace[n++] = p;
+            }
+        }
+        return trace;
+    }
+
+    private static void run(String name, BufferPool bp, CountingHeapFile hf, int[] trace)
+            throws Exception {
+        TransactionId tid = new TransactionId();
+        hf.reads = 0;
+        long start = System.nanoTime();
+        for (int pgNo : trace) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY);
+        }
+        long elapsed = System.nanoTime() - start;
+        bp.transactionComplete(tid);
+
+        double hitRatio = 1.0 - (double) hf.reads / trace.length;
+        System.out.printf("%-12s hit ratio %6.2f%%  misses %8d  %6d ms%n",
+                name, hitRatio * 100, hf.reads, elapsed / 1000000);
+    }
+}
@@ -0,0 +1,93 @@
+package simpledb.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures writers contending for one hot page: each thread keeps a counter
+ * row on the same page and increments it in a loop, deleting the row and
+ * inserting its new value in one transaction.  Runs with page locking,
+ * where the writers take turns on the page, and in row locking mode, where
+ * each locks only its own row.  Reported are commits per second and how
+ * many transactions aborted.
+ * <p>
+ * Run with: ant runbench -Dbench=RowLockingBenchmark
+ */
+public class RowLockingBenchmark {
+
+    private static final int THREADS = 8;
+    private static final long RUN_MS = 3000;
+
+    public static void main(String[] args) throws Exception {
+        System.out.printf("1 page, %d writers, %d ms per run%n", THREADS, RUN_MS);
+        run("page", new BufferPool(16, 1));
+        run("row", BufferPool.rowLocking(16));
+    }
+
+    private static void run(String name, BufferPool bp) throws Exception {
+        HeapFile hf = SystemTestUtil.createEmptyHeapFile("rowbench-" + name, 1);
+        Database.resetBufferPool(bp);
+
+        Tuple[] counters = new Tuple[THREADS];
+        Transaction load = new Transaction();
+        load.start();
+        for (int i = 0; i < THREADS; i++) {
+            counters[i] = Utility.getHeapTuple(0);
+            bp.insertTuple(load.getId(), hf.getId(), counters[i]);
+        }
+        load.commit();
+
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong commits = new AtomicLong(), aborts = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] ts = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int me = t;
+            ts[t] = new Thread(() -> {
+                try {
+                    start.await();
+                    while (!stop.get()) {
+                        Tuple next = increment(hf, counters[me]);
+                        if (next != null) {
+                            counters[me] = next;
+                            commits.incrementAndGet();
+                        } else {
+                            aborts.incrementAndGet();
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            ts[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(RUN_MS);
+        stop.set(true);
+        for (Thread t : ts)
+            t.join();
+        double secs = (System.nanoTime() - begin) / 1e9;
+        System.out.printf("%-5s %8.1f txns/s (%d aborted)%n", name, commits.get() / secs, aborts.get());
+    }
+
+    /** Replace a counter row with its next value; @return the new row, or null if aborted */
+    private static Tuple increment(HeapFile hf, Tuple counter) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        try {
+            Tuple next = Utility.getHeapTuple(((IntField) counter.getField(0)).getValue() + 1);
+            Database.getBufferPool().deleteTuple(t.getId(), counter);
+            Database.getBufferPool().insertTuple(t.getId(), hf.getId(), next);
+            t.commit();
+            return next;
+        } catch (TransactionAbortedException e) {
+            t.abort();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures point-lookup latency on a small hot table while another thread
+ * repeatedly scans a table larger than the BufferPool, with the scan
+ * reading through a BufferRing and through the shared pool.
+ * <p>
+ * Each lookup is a read-only transaction of one random hot page.  Reported
+ * are lookup percentiles and how many hot pages had to be read from disk.
+ * <p>
+ * Run with: ant runbench -Dbench=ScanResistanceBenchmark
+ */
+public class ScanResistanceBenchmark {
+
+    private static final int HOT_PAGES = 200;
+    private static final int BIG_PAGES = 4000;
+    private static final int POOL_PAGES = 1024;
+    private static final long RUN_MS = 3000;
+
+    /** HeapFile that counts the pages read from disk */
+    static class CountingHeapFile extends HeapFile {
+        final AtomicLong reads = new AtomicLong();
+
+        CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            return super.readPage(pid);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        CountingHeapFile hot = table("hot", HOT_PAGES);
+        CountingHeapFile big = table("big", BIG_PAGES);
+        System.out.printf("hot pages %d, scanned pages %d, pool pages %d, %d ms per run%n",
+                HOT_PAGES, BIG_PAGES, POOL_PAGES, RUN_MS);
+        run("no scan", hot, big, false, false);
+        run("shared", hot, big, true, false);
+        run("ring", hot, big, true, true);
+    }
+
+    private static CountingHeapFile table(String name, int pages) throws Exception {
+        File f = SystemTestUtil.createEmptyHeapFileUnopened(name + "bench", pages);
+        CountingHeapFile hf = new CountingHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(hf, name);
+        return hf;
+    }
+
+    private static void run(String name, CountingHeapFile hot, CountingHeapFile big,
+            boolean scan, boolean useRing) throws Exception {
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        TransactionId warm = new TransactionId();
+        for (int i = 0; i < HOT_PAGES; i++)
+            bp.getPage(warm, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        bp.transactionComplete(warm);
+        hot.reads.set(0);
+
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong scans = new AtomicLong();
+        Thread scanner = new Thread(() -> {
+            try {
+                while (scan && !stop.get()) {
+                    Transaction t = new Transaction();
+                    t.start();
+                    SeqScan ss = new SeqScan(t.getId(), big.getId());
+                    if (!useRing)
+                        ss.setBufferRing(null);
+                    ss.open();
+                    while (ss.hasNext())
+                        ss.next();
+                    ss.close();
+                    t.commit();
+                    scans.incrementAndGet();
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        scanner.start();
+
+        Random rnd = new Random(42);
+        long[] latencies = new long[1 << 20];
+        int n = 0;
+        long end = System.currentTimeMillis() + RUN_MS;
+        while (System.currentTimeMillis() < end && n < latencies.length) {
+            long start = System.nanoTime();
+            TransactionId tid = new TransactionId();
+            bp.getPage(tid, new HeapPageId(hot.getId(), rnd.nextInt(HOT_PAGES)), Permissions.READ_ONLY);
+            bp.transactionComplete(tid);
+            latencies[n++] = System.nanoTime() - start;
+        }
+        stop.set(true);
+        scanner.join();
+
+        Arrays.sort(latencies, 0, n);
+        System.out.printf("%-8s lookups %8d  p50 %6.1f us  p99 %7.1f us  p99.9 %7.1f us"
+                        + "  hot disk reads %6d  scans %3d%n",
+                name, n, latencies[n / 2] / 1e3, latencies[(int) (n * 0.99)] / 1e3,
+                latencies[(int) (n * 0.999)] / 1e3, hot.reads.get(), scans.get());
+    }
+}
@@ -0,0 +1,105 @@
+package simpledb.benchmark;
+
+import java.io.File;
+
+import simpledb.*;
+
+/**
+ * Measures full scans of a string-heavy table of {@value #ROWS} rows, an
+ * int and two short strings each, stored in fixed-width HeapPages and in
+ * SlottedHeapPages with the strings declared varchar(16) and varchar(8).
+ * The tables are bulk loaded and then read from the OS page cache through
+ * a pool of {@value #POOL_PAGES} pages.  Reported are the pages and bytes
+ * of each file and the best scan time over several rounds.
+ * <p>
+ * Run with: ant runbench -Dbench=SlottedScanBenchmark
+ */
+public class SlottedScanBenchmark {
+
+    private static final int ROWS = 500000;
+    private static final int POOL_PAGES = 16;
+    private static final int ROUNDS = 5;
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] {Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE},
+            new String[] {"id", "name", "code"});
+
+    /** Generates ROWS tuples with names of 5 to 12 characters and codes of 3 */
+    private static class Rows extends Operator {
+        private static final long serialVersionUID = 1L;
+        private int next;
+
+        public TupleDesc getTupleDesc() {
+            return TD;
+        }
+
+        public void rewind() {
+            next = 0;
+        }
+
+        protected Tuple fetchNext() {
+            if (next == ROWS)
+                return null;
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(next));
+            t.setField(1, new StringField("name" + next, Type.STRING_LEN));
+            t.setField(2, new StringField("C" + (next % 97), Type.STRING_LEN));
+            next++;
+            return t;
+        }
+
+        public OpIterator[] getChildren() {
+            return new OpIterator[0];
+        }
+
+        public void setChildren(OpIterator[] children) {
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (boolean slotted : new boolean[] {false, true}) {
+            File f = File.createTempFile("slottedbench", ".dat");
+            f.deleteOnExit();
+            HeapFile hf = new HeapFile(f, TD, slotted ? new int[] {0, 16, 8} : null);
+            Database.getCatalog().addTable(hf, "slottedbench" + slotted);
+            Database.resetBufferPool(POOL_PAGES);
+            Transaction t = new Transaction();
+            t.start();
+            Database.getBufferPool().bulkLoad(t.getId(), hf.getId(), open(new Rows()));
+            t.commit();
+
+            scan(hf);
+            System.out.printf("%-6s %6d pages %10d bytes: scan %8.1f ms%n", slotted ? "slotted" : "fixed",
+                    hf.numPages(), f.length(), scan(hf));
+        }
+    }
+
+    private static OpIterator open(OpIterator it) throws Exception {
+        it.open();
+        return it;
+    }
+
+    /** @return the best time of full scans in ms */
+    private static double scan(HeapFile hf) throws Exception {
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            Database.resetBufferPool(POOL_PAGES);
+            Transaction t = new Transaction();
+            t.start();
+            long start = System.nanoTime();
+            SeqScan scan = new SeqScan(t.getId(), hf.getId());
+            scan.open();
+            int n = 0;
+            while (scan.hasNext()) {
+                scan.next();
+                n++;
+            }
+            scan.close();
+            best = Math.min(best, (System.nanoTime() - start) / 1e6);
+            t.commit();
+            if (n != ROWS)
+                throw new IllegalStateException("scanned " + n + " rows");
+        }
+        return best;
+    }
+}
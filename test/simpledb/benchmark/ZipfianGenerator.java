@@ -0,0 +1,44 @@
+package simpledb.benchmark;
+
+import java.util.Random;
+
+/**
+ * Draws integers in [0, n) with a Zipfian distribution: item i is chosen
+ * with probability proportional to 1 / (i+1)^theta.  Used by the benchmarks
+ * to produce skewed page access traces.
+ */
+public class ZipfianGenerator {
+    private final double[] cdf;
+    private final Random rand;
+
+    /**
+     * @param n number of distinct items
+     * @param theta skew; 0 is uniform, 0.99 is the usual YCSB setting
+     * @param seed random seed, so traces are reproducible
+     */
+    public ZipfianGenerator(int n, double theta, long seed) {
+        cdf = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1.0 / Math.pow(i + 1, theta);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < n; i++)
+            cdf[i] /= sum;
+        rand = new Random(seed);
+    }
+
+    /** @return the next item; 0 is the most popular */
+    public int next() {
+        double u = rand.nextDouble();
+        int lo = 0, hi = cdf.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cdf[mid] < u)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,110 @@
+package simpledb.benchmark;
+
+import java.io.File;
+
+import simpledb.*;
+
+/**
+ * Measures range queries over {@value #ROWS} rows of {@value #COLUMNS} int
+ * fields, clustered on field0: a Filter over a SeqScan, which reads every
+ * page, against a SeqScan given the predicate, which skips the pages the
+ * table's zone map rules out.  Each query selects {@value #SELECTED} rows,
+ * read through a pool of {@value #POOL_PAGES} pages that is emptied before
+ * each query.  Reported is the best time over several rounds.
+ * <p>
+ * Run with: ant runbench -Dbench=ZoneMapBenchmark
+ */
+public class ZoneMapBenchmark {
+
+    private static final int ROWS = 1000000;
+    private static final int COLUMNS = 4;
+    private static final int SELECTED = 10000;
+    private static final int POOL_PAGES = 1000;
+    private static final int ROUNDS = 5;
+
+    /** Generates ROWS tuples in order of field0 */
+    private static class Rows extends Operator {
+        private static final long serialVersionUID = 1L;
+        private final TupleDesc td = Utility.getTupleDesc(COLUMNS);
+        private int next;
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void rewind() {
+            next = 0;
+        }
+
+        protected Tuple fetchNext() {
+            if (next == ROWS)
+                return null;
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(next));
+            for (int j = 1; j < COLUMNS; j++)
+                t.setField(j, new IntField((next * 31 + j) % 1000));
+            next++;
+            return t;
+        }
+
+        public OpIterator[] getChildren() {
+            return new OpIterator[0];
+        }
+
+        public void setChildren(OpIterator[] children) {
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        File f = File.createTempFile("zonemapbench", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".zm").deleteOnExit();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(COLUMNS, "field"));
+        Database.getCatalog().addTable(hf, "zonemapbench");
+        Database.resetBufferPool(POOL_PAGES);
+        Transaction t = new Transaction();
+        t.start();
+        Rows rows = new Rows();
+        rows.open();
+        Database.getBufferPool().bulkLoad(t.getId(), hf.getId(), rows);
+        t.commit();
+
+        int low = ROWS / 2;
+        Predicate range = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(low));
+        Predicate below = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(low + SELECTED));
+        // the first scan with a predicate summarizes the pages
+        run(hf, range, below, true);
+        System.out.printf("%d pages%n", hf.numPages());
+        System.out.printf("filter    %8.2f ms%n", run(hf, range, below, false));
+        System.out.printf("zone map  %8.2f ms%n", run(hf, range, below, true));
+    }
+
+    /** @return the best time of the query in ms */
+    private static double run(HeapFile hf, Predicate range, Predicate below, boolean pushed) throws Exception {
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            Database.resetBufferPool(POOL_PAGES);
+            Transaction t = new Transaction();
+            t.start();
+            long start = System.nanoTime();
+            SeqScan scan = new SeqScan(t.getId(), hf.getId());
+            OpIterator it = new Filter(below, new Filter(range, scan));
+            if (pushed) {
+                scan.addPredicate(range);
+                scan.addPredicate(below);
+            }
+            it.open();
+            int n = 0;
+            while (it.hasNext()) {
+                it.next();
+                n++;
+            }
+            it.close();
+            best = Math.min(best, (System.nanoTime() - start) / 1e6);
+            t.commit();
+            if (n != SELECTED)
+                throw new IllegalStateException("selected " + n + " rows");
+        }
+        return best;
+    }
+}
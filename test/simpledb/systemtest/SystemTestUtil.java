@@ -2,6 +2,7 @@ package simpledb.systemtest;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -85,6 +86,40 @@ public class SystemTestUtil {
         return temp;
     }
 
+    /**
+     * @return a new table of pages empty pages with one int field, added to
+     *   the catalog as name
+     */
+    public static HeapFile createEmptyHeapFile(String name, int pages) throws IOException {
+        HeapFile hf = new HeapFile(createEmptyHeapFileUnopened(name, pages), Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(hf, name);
+        return hf;
+    }
+
+    /**
+     * @return a new temporary file of pages zero-filled pages, which are
+     *   valid, empty heap pages; it is deleted on exit, like its sidecars
+     */
+    public static File createEmptyHeapFileUnopened(String prefix, int pages) throws IOException {
+        File f = File.createTempFile(prefix, ".dat");
+        deleteOnExit(f);
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.setLength((long) pages * BufferPool.getPageSize());
+        raf.close();
+        return f;
+    }
+
+    /** Delete a heap file, and the sidecar files kept next to it, on exit. */
+    public static void deleteOnExit(File heapFile) {
+        for (String suffix : new String[] {"", ".len", ".fsm", ".zm", ".map"})
+            new File(heapFile.getPath() + suffix).deleteOnExit();
+    }
+
+    /** @return the id of page pgNo of a heap file */
+    public static HeapPageId pageId(HeapFile hf, int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
     public static ArrayList<Integer> tupleToList(Tuple tuple) {
         ArrayList<Integer> list = new ArrayList<Integer>();
         for (int i = 0; i < tuple.getTupleDesc().numFields(); ++i) {